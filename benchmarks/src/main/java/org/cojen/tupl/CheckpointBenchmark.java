@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.tupl;
+
+import java.util.Random;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the duration of a checkpoint after randomly dirtying records. Automatic
+ * checkpoints are disabled.
+ *
+ * @author Brian S O'Neill
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class CheckpointBenchmark extends DatabaseBenchmark {
+    @Param({"1000", "50000"})
+    public int dirtyCount;
+
+    @Param({"1", "4"})
+    public int maxCheckpointThreads;
+
+    private Random mRandom;
+    private byte[] mValue;
+
+    @Override
+    protected DatabaseConfig decorate(DatabaseConfig config) {
+        return config.checkpointRate(-1, null).maxCheckpointThreads(maxCheckpointThreads);
+    }
+
+    @Setup(Level.Trial)
+    public void setupRandom() {
+        mRandom = new Random(5551212);
+        mValue = new byte[valueSize];
+    }
+
+    @Setup(Level.Invocation)
+    public void dirty() throws Exception {
+        for (int i=0; i<dirtyCount; i++) {
+            mIndex.store(Transaction.BOGUS, key(mRandom.nextInt(recordCount)), mValue);
+        }
+    }
+
+    @Benchmark
+    public void checkpoint() throws Exception {
+        mDb.checkpoint();
+    }
+}
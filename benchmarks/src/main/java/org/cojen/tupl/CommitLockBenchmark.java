@@ -0,0 +1,172 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.tupl;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the striped CommitLock against the ReentrantReadWriteLock design it replaced. Run
+ * with the JMH {@code -t} option (1 through 64) to vary the number of shared lock threads.
+ *
+ * @author Brian S O'Neill
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommitLockBenchmark {
+    @Param({"striped", "rwlock"})
+    public String impl;
+
+    // Amount of work performed while the shared lock is held.
+    @Param({"10"})
+    public int workTokens;
+
+    private Impl mLock;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (impl) {
+        case "striped":
+            mLock = new Striped();
+            break;
+        case "rwlock":
+            mLock = new RWLock();
+            break;
+        default:
+            throw new IllegalArgumentException(impl);
+        }
+    }
+
+    @Benchmark
+    public void shared() {
+        Impl lock = mLock;
+        lock.acquireShared();
+        Blackhole.consumeCPU(workTokens);
+        lock.releaseShared();
+    }
+
+    @Benchmark
+    public boolean tryShared() {
+        Impl lock = mLock;
+        if (lock.tryAcquireShared()) {
+            Blackhole.consumeCPU(workTokens);
+            lock.releaseShared();
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    @Group("checkpoint")
+    @GroupThreads(7)
+    public void checkpointShared() {
+        shared();
+    }
+
+    @Benchmark
+    @Group("checkpoint")
+    @GroupThreads(1)
+    public void checkpointExclusive() throws Exception {
+        Impl lock = mLock;
+        lock.acquireExclusive();
+        Blackhole.consumeCPU(workTokens);
+        lock.releaseExclusive();
+        // Checkpoints are infrequent.
+        Blackhole.consumeCPU(10_000);
+    }
+
+    static interface Impl {
+        boolean tryAcquireShared();
+
+        void acquireShared();
+
+        void releaseShared();
+
+        void acquireExclusive() throws Exception;
+
+        void releaseExclusive();
+    }
+
+    static final class Striped implements Impl {
+        private final CommitLock mLock = new CommitLock();
+
+        public boolean tryAcquireShared() {
+            return mLock.tryAcquireShared();
+        }
+
+        public void acquireShared() {
+            mLock.acquireShared();
+        }
+
+        public void releaseShared() {
+            mLock.releaseShared();
+        }
+
+        public void acquireExclusive() throws Exception {
+            mLock.acquireExclusive();
+        }
+
+        public void releaseExclusive() {
+            mLock.releaseExclusive();
+        }
+    }
+
+    /**
+     * Same design as the original CommitLock.
+     */
+    @SuppressWarnings("serial")
+    static final class RWLock extends ReentrantReadWriteLock implements Impl {
+        private volatile int mExclusiveRequested;
+
+        public boolean tryAcquireShared() {
+            return mExclusiveRequested == 0 ? readLock().tryLock() : false;
+        }
+
+        public void acquireShared() {
+            readLock().lock();
+        }
+
+        public void releaseShared() {
+            readLock().unlock();
+        }
+
+        public synchronized void acquireExclusive() throws Exception {
+            mExclusiveRequested++;
+            try {
+                long timeoutMillis = 1;
+                while (!writeLock().tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    timeoutMillis <<= 1;
+                }
+            } finally {
+                mExclusiveRequested--;
+            }
+        }
+
+        public void releaseExclusive() {
+            writeLock().unlock();
+        }
+    }
+}
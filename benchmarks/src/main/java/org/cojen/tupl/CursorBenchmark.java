@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.tupl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures Cursor scans and positioning. Each thread has its own cursor, which wraps around
+ * to the first record when the end is reached. Cursors don't acquire locks.
+ *
+ * @author Brian S O'Neill
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CursorBenchmark extends DatabaseBenchmark {
+    @Param({"100"})
+    public int skipAmount;
+
+    @State(Scope.Thread)
+    public static class CursorState {
+        Cursor mCursor;
+
+        @Setup(Level.Iteration)
+        public void open(CursorBenchmark bench) throws Exception {
+            mCursor = bench.mIndex.newCursor(Transaction.BOGUS);
+            mCursor.first();
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() {
+            mCursor.reset();
+        }
+    }
+
+    @Benchmark
+    public byte[] next(CursorState state) throws Exception {
+        Cursor c = state.mCursor;
+        c.next();
+        byte[] key = c.key();
+        if (key == null) {
+            c.first();
+        }
+        return key;
+    }
+
+    @Benchmark
+    public byte[] findNearby(CursorState state) throws Exception {
+        // Move a short random distance, either direction, relative to the current record.
+        Cursor c = state.mCursor;
+        byte[] key = c.key();
+        long n = key == null ? 0 : decode(key);
+        n += ThreadLocalRandom.current().nextInt(-skipAmount, skipAmount + 1);
+        if (n < 0 || n >= recordCount) {
+            n = ThreadLocalRandom.current().nextInt(recordCount);
+        }
+        c.findNearby(key(n));
+        return c.key();
+    }
+
+    @Benchmark
+    public byte[] skip(CursorState state) throws Exception {
+        Cursor c = state.mCursor;
+        c.skip(skipAmount);
+        byte[] key = c.key();
+        if (key == null) {
+            c.first();
+        }
+        return key;
+    }
+
+    private static long decode(byte[] key) {
+        long n = 0;
+        for (byte b : key) {
+            n = (n << 8) | (b & 0xff);
+        }
+        return n;
+    }
+}
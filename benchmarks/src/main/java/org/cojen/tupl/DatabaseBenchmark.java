@@ -0,0 +1,132 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Base state for benchmarks which operate against a database. The database is durable,
+ * created in a temporary directory, and populated with a fixed number of records.
+ *
+ * @author Brian S O'Neill
+ */
+@State(Scope.Benchmark)
+public abstract class DatabaseBenchmark {
+    @Param({"4096"})
+    public int pageSize;
+
+    @Param({"false", "true"})
+    public boolean directPageAccess;
+
+    @Param({"false"})
+    public boolean mapDataFiles;
+
+    @Param({"false"})
+    public boolean searchHeads;
+
+    @Param({"0"})
+    public long secondaryCacheSize;
+
+    @Param({"100000000"})
+    public long cacheSize;
+
+    @Param({"8"})
+    public int keySize;
+
+    @Param({"100"})
+    public int valueSize;
+
+    @Param({"100000"})
+    public int recordCount;
+
+    protected Path mBaseDir;
+    protected Database mDb;
+    protected Index mIndex;
+
+    @Setup(Level.Trial)
+    public void openDatabase() throws Exception {
+        mBaseDir = Files.createTempDirectory("tupl-bench-");
+
+        mDb = Database.open(decorate(new DatabaseConfig()
+                                     .baseFile(new File(mBaseDir.toFile(), "db"))
+                                     .pageSize(pageSize)
+                                     .directPageAccess(directPageAccess)
+                                     .mapDataFiles(mapDataFiles)
+                                     .searchHeads(searchHeads)
+                                     .secondaryCacheSize(secondaryCacheSize)
+                                     .minCacheSize(cacheSize)
+                                     .checkpointRate(1, TimeUnit.SECONDS)
+                                     .durabilityMode(DurabilityMode.NO_FLUSH)));
+
+        mIndex = mDb.openIndex("bench");
+
+        if (recordCount > 0) {
+            byte[] value = new byte[valueSize];
+            new Random(8675309).nextBytes(value);
+            for (int i=0; i<recordCount; i++) {
+                mIndex.store(Transaction.BOGUS, key(i), value);
+            }
+            mDb.checkpoint();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() throws Exception {
+        if (mDb != null) {
+            mDb.close();
+            mDb = null;
+        }
+        if (mBaseDir != null) {
+            deleteRecursively(mBaseDir);
+            mBaseDir = null;
+        }
+    }
+
+    /**
+     * Override to alter the configuration before the database is opened.
+     */
+    protected DatabaseConfig decorate(DatabaseConfig config) {
+        return config;
+    }
+
+    /**
+     * Returns a key for the given record number, which sorts in record number order.
+     */
+    protected byte[] key(long n) {
+        byte[] key = new byte[keySize];
+        for (int i=key.length; --i>=0; ) {
+            key[i] = (byte) n;
+            n >>>= 8;
+        }
+        return key;
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        Files.walk(dir).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+}
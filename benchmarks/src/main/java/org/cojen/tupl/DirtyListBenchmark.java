@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares dirty lists striped by node usage list against the single global dirty list
+ * design they replaced, without a database. Run with the JMH {@code -t} option (1 through
+ * 64) to vary the number of threads marking nodes dirty.
+ *
+ * @author Brian S O'Neill
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirtyListBenchmark {
+    @Param({"striped", "single"})
+    public String impl;
+
+    @Param({"100000"})
+    public int nodeCount;
+
+    private NodeDirtyList[] mLists;
+    private int mMask;
+    private Node[] mNodes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int stripes;
+        switch (impl) {
+        case "striped":
+            // Same amount of stripes as the usage lists of a large cache.
+            stripes = Utils.roundUpPower2(Runtime.getRuntime().availableProcessors() * 4);
+            break;
+        case "single":
+            stripes = 1;
+            break;
+        default:
+            throw new IllegalArgumentException(impl);
+        }
+
+        mLists = new NodeDirtyList[stripes];
+        for (int i=0; i<stripes; i++) {
+            mLists[i] = new NodeDirtyList();
+        }
+        mMask = stripes - 1;
+
+        mNodes = new Node[nodeCount];
+        for (int i=0; i<nodeCount; i++) {
+            mNodes[i] = new Node(null, new byte[0]);
+        }
+    }
+
+    /**
+     * Marks a random node dirty, which moves it to the end of its dirty list.
+     */
+    @Benchmark
+    public void add() {
+        int i = ThreadLocalRandom.current().nextInt(mNodes.length);
+        mLists[i & mMask].add(mNodes[i], Node.CACHED_DIRTY_0);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.tupl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures basic Index operations against randomly selected records. Run with the JMH
+ * {@code -t} option to vary the number of threads.
+ *
+ * @author Brian S O'Neill
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexBenchmark extends DatabaseBenchmark {
+    private AtomicLong mInsertCounter;
+    private byte[] mValue;
+
+    @Setup(Level.Trial)
+    public void setupInsert() {
+        mInsertCounter = new AtomicLong(recordCount);
+        mValue = new byte[valueSize];
+    }
+
+    @Benchmark
+    public byte[] load() throws Exception {
+        return mIndex.load(null, randomKey());
+    }
+
+    @Benchmark
+    public Byte loadVisitor() throws Exception {
+        // Examine the first byte of the value without copying it.
+        return mIndex.load(null, randomKey(), value -> {
+            return value.hasRemaining() ? value.get(value.position()) : null;
+        });
+    }
+
+    @Benchmark
+    public void store() throws Exception {
+        mIndex.store(null, randomKey(), mValue);
+    }
+
+    @Benchmark
+    public boolean insert() throws Exception {
+        return mIndex.insert(null, key(mInsertCounter.getAndIncrement()), mValue);
+    }
+
+    @Benchmark
+    public byte[] loadBogus() throws Exception {
+        return mIndex.load(Transaction.BOGUS, randomKey());
+    }
+
+    @Benchmark
+    public void storeBogus() throws Exception {
+        mIndex.store(Transaction.BOGUS, randomKey(), mValue);
+    }
+
+    private byte[] randomKey() {
+        return key(ThreadLocalRandom.current().nextInt(recordCount));
+    }
+}
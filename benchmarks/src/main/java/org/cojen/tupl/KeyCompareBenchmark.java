@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the generic byte-at-a-time key comparison against the word-at-a-time variant used
+ * by nodes and cursors. Keys differ only in the last byte, which is the worst case and
+ * typical of keys which share a long common prefix.
+ *
+ * @author Brian S O'Neill
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyCompareBenchmark {
+    @Param({"8", "24", "64"})
+    public int keySize;
+
+    private byte[] mKey1;
+    private byte[] mKey2;
+    private long mPage;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mKey1 = new byte[keySize];
+        for (int i=0; i<mKey1.length; i++) {
+            mKey1[i] = (byte) (i * 31);
+        }
+        mKey2 = mKey1.clone();
+        mKey2[mKey2.length - 1]++;
+
+        mPage = DirectPageOps.p_calloc(4096);
+        DirectPageOps.p_copyFromArray(mKey1, 0, mPage, 100, mKey1.length);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        DirectPageOps.p_delete(mPage);
+    }
+
+    @Benchmark
+    public int byteAtATime() {
+        return org.cojen.tupl.io.Utils.compareUnsigned
+            (mKey1, 0, mKey1.length, mKey2, 0, mKey2.length);
+    }
+
+    @Benchmark
+    public int wordAtATime() {
+        return Utils.compareUnsigned(mKey1, 0, mKey1.length, mKey2, 0, mKey2.length);
+    }
+
+    @Benchmark
+    public int directPage() {
+        return DirectPageOps.p_compareKeysPageToArray
+            (mPage, 100, mKey1.length, mKey2, 0, mKey2.length);
+    }
+}
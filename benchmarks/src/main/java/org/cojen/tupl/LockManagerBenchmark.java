@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.tupl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures LockManager acquire and release, without a database. Run with {@code -prof gc}
+ * to report the allocation rate per operation.
+ *
+ * @author Brian S O'Neill
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockManagerBenchmark {
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"1000", "1000000"})
+    public int keyCount;
+
+    @Param({"8"})
+    public int keySize;
+
+    private LockManager mManager;
+    private byte[][] mKeys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mManager = new LockManager(null, TimeUnit.SECONDS.toNanos(1));
+        mKeys = new byte[keyCount][];
+        for (int i=0; i<keyCount; i++) {
+            byte[] key = new byte[keySize];
+            long n = i;
+            for (int j=key.length; --j>=0; ) {
+                key[j] = (byte) n;
+                n >>>= 8;
+            }
+            mKeys[i] = key;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        mManager.close();
+    }
+
+    @State(Scope.Thread)
+    public static class LockerState {
+        Locker mLocker;
+
+        @Setup(Level.Trial)
+        public void setup(LockManagerBenchmark bench) {
+            mLocker = new Locker(bench.mManager);
+        }
+    }
+
+    @Benchmark
+    public LockResult shared(LockerState state) throws Exception {
+        Locker locker = state.mLocker;
+        LockResult result = locker.lockShared(0, randomKey(), -1);
+        locker.unlock();
+        return result;
+    }
+
+    @Benchmark
+    public LockResult exclusive(LockerState state) throws Exception {
+        Locker locker = state.mLocker;
+        LockResult result = locker.lockExclusive(0, randomKey(), -1);
+        locker.unlock();
+        return result;
+    }
+
+    /**
+     * Acquires a batch of exclusive locks and then releases them all, like a large
+     * transaction does.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int exclusiveBatch(LockerState state) throws Exception {
+        Locker locker = state.mLocker;
+        int count = 0;
+        for (int i=0; i<BATCH_SIZE; i++) {
+            if (locker.tryLockExclusive(0, randomKey(), 0) == LockResult.ACQUIRED) {
+                count++;
+            }
+        }
+        locker.scopeUnlockAll();
+        return count;
+    }
+
+    private byte[] randomKey() {
+        return mKeys[ThreadLocalRandom.current().nextInt(keyCount)];
+    }
+}
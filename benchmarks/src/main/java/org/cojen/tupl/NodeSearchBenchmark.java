@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.tupl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures Node.binarySearch against a single leaf node. Database is non-durable and doesn't
+ * use direct page access, and so the root node of the index is a plain Node instance.
+ *
+ * @author Brian S O'Neill
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeSearchBenchmark {
+    @Param({"4096", "16384"})
+    public int pageSize;
+
+    @Param({"8", "32"})
+    public int keySize;
+
+    @Param({"16", "64"})
+    public int keyCount;
+
+    private Database mDb;
+    private Node mNode;
+    private byte[][] mKeys;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mDb = Database.open(new DatabaseConfig()
+                            .pageSize(pageSize)
+                            .directPageAccess(false)
+                            .maxCacheSize(10_000_000));
+
+        Index ix = mDb.openIndex("bench");
+
+        // Keys share a common prefix, and so comparisons examine more than the first byte.
+        mKeys = new byte[keyCount * 2][];
+        for (int i=0; i<mKeys.length; i++) {
+            byte[] key = new byte[keySize];
+            key[key.length - 2] = (byte) (i >> 8);
+            key[key.length - 1] = (byte) i;
+            mKeys[i] = key;
+            if ((i & 1) == 0) {
+                // Only store every other key, and so half the searches don't find a match.
+                ix.store(Transaction.BOGUS, key, new byte[0]);
+            }
+        }
+
+        mNode = ((Tree) ix).mRoot;
+
+        mNode.acquireShared();
+        try {
+            if (!mNode.isLeaf()) {
+                throw new IllegalStateException("Keys don't fit in a single leaf node");
+            }
+        } finally {
+            mNode.releaseShared();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        mDb.close();
+    }
+
+    @Benchmark
+    public int binarySearch() throws Exception {
+        byte[] key = mKeys[ThreadLocalRandom.current().nextInt(mKeys.length)];
+        Node node = mNode;
+        node.acquireShared();
+        try {
+            return node.binarySearch(key);
+        } finally {
+            node.releaseShared();
+        }
+    }
+}
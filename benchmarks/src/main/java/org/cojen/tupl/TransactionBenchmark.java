@@ -0,0 +1,72 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.cojen.tupl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures transactional commits under each durability mode.
+ *
+ * @author Brian S O'Neill
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionBenchmark extends DatabaseBenchmark {
+    @Param({"SYNC", "NO_SYNC", "NO_FLUSH", "NO_REDO"})
+    public DurabilityMode durabilityMode;
+
+    @Param({"1", "4"})
+    public int storesPerTxn;
+
+    @Param({"-1"})
+    public long groupCommitDelayMicros;
+
+    private byte[] mValue;
+
+    @Setup(Level.Trial)
+    public void setupValue() {
+        mValue = new byte[valueSize];
+    }
+
+    @Override
+    protected DatabaseConfig decorate(DatabaseConfig config) {
+        return config.durabilityMode(durabilityMode)
+            .groupCommitDelay(groupCommitDelayMicros, TimeUnit.MICROSECONDS);
+    }
+
+    @Benchmark
+    public void commit() throws Exception {
+        // Store adjacent keys in ascending order, to prevent deadlocks.
+        long n = ThreadLocalRandom.current().nextInt(Math.max(1, recordCount - storesPerTxn));
+        Transaction txn = mDb.newTransaction();
+        try {
+            for (int i=0; i<storesPerTxn; i++) {
+                mIndex.store(txn, key(n + i), mValue);
+            }
+            txn.commit();
+        } finally {
+            txn.reset();
+        }
+    }
+}
@@ -69,6 +69,16 @@ final class BoundedCursor implements Cursor {
         return mSource.autoload();
     }
 
+    @Override
+    public boolean scanResistant(boolean mode) {
+        return mSource.scanResistant(mode);
+    }
+
+    @Override
+    public boolean scanResistant() {
+        return mSource.scanResistant();
+    }
+
     @Override
     public int compareKeyTo(byte[] rkey) {
         return mSource.compareKeyTo(rkey);
@@ -437,6 +447,11 @@ final class BoundedCursor implements Cursor {
         return mSource.load();
     }
 
+    @Override
+    public <R> R visitValue(ValueVisitor<R> visitor) throws IOException {
+        return mSource.visitValue(visitor);
+    }
+
     @Override
     public void store(byte[] value) throws IOException {
         mSource.store(value);
@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Builds a new index from entries which are supplied in ascending key order. Entries are
+ * written directly into the index nodes, without any redo logging or locking, and so loading
+ * is much faster than storing entries one at a time. The index isn't visible until the
+ * loader is {@link #finish finished}, at which point it's published and made durable by a
+ * checkpoint. If the loader is closed early or the database is closed before finishing, the
+ * partially built index is deleted.
+ *
+ * <p>BulkLoader instances aren't thread-safe.
+ *
+ * @author Brian S O'Neill
+ * @see Database#newBulkLoader Database.newBulkLoader
+ */
+public interface BulkLoader extends Closeable {
+    /**
+     * Add an entry to the new index.
+     *
+     * @param key non-null key, which must be greater than all previously added keys
+     * @param value non-null value
+     * @throws IllegalArgumentException if key isn't greater than the previous key
+     * @throws IllegalStateException if loader is finished or closed
+     */
+    public void add(byte[] key, byte[] value) throws IOException;
+
+    /**
+     * Returns the number of entries added so far.
+     */
+    public long count();
+
+    /**
+     * Publishes the new index under its name, and then performs a checkpoint to make it
+     * durable. No more entries can be added after the loader is finished.
+     *
+     * @return new index instance
+     * @throws IllegalStateException if loader is already finished or closed, or if the name
+     * is now in use by another index
+     */
+    public Index finish() throws IOException;
+
+    /**
+     * Abandons the load if not finished, and deletes the partially built index.
+     */
+    @Override
+    public void close() throws IOException;
+}
@@ -21,50 +21,156 @@ import java.io.InterruptedIOException;
 import java.util.concurrent.TimeUnit;
 
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Shared lock with a "try" variant which fails when an exclusive lock is requested.
+ * Shared lock with a "try" variant which fails when an exclusive lock is requested. Shared
+ * holders are tracked by striped counters, and so acquiring the shared lock doesn't contend
+ * on a single memory location. The exclusive lock is expected to be acquired infrequently,
+ * and it must scan all the stripes to wait for shared holders to drain.
+ *
+ * <p>Both lock modes are reentrant, and the exclusive lock holder can also acquire the shared
+ * lock. Locks must be released by the same thread which acquired them.
  *
  * @author Brian S O'Neill
  */
-final class CommitLock extends ReentrantReadWriteLock {
+final class CommitLock {
     private static final AtomicIntegerFieldUpdater<CommitLock> cExclusiveUpdater =
         AtomicIntegerFieldUpdater.newUpdater(CommitLock.class, "mExclusiveRequested");
 
+    // Each stripe counter is spaced apart to reside in a separate cache line.
+    private static final int STRIPE_SPACING_SHIFT = 4;
+
+    private final AtomicLongArray mStripes;
+    private final int mStripeMask;
+
+    private final ThreadLocal<Holds> mHolds;
+
+    // Count of threads which are trying to acquire the exclusive lock.
     private volatile int mExclusiveRequested;
 
+    // When set, new shared lock requests must wait.
+    private volatile boolean mBlockShared;
+
+    // Thread which is waiting for shared holders to drain.
+    private volatile Thread mDrainThread;
+
+    // Serializes exclusive lock requests, and identifies the exclusive lock holder.
+    private final ReentrantLock mExclusiveLock;
+
+    private final Lock mSharedLock;
+
+    CommitLock() {
+        int stripes = Utils.roundUpPower2(Runtime.getRuntime().availableProcessors() * 4);
+        mStripes = new AtomicLongArray(stripes << STRIPE_SPACING_SHIFT);
+        mStripeMask = stripes - 1;
+        mHolds = ThreadLocal.withInitial(this::newHolds);
+        mExclusiveLock = new ReentrantLock();
+        mSharedLock = new SharedLock();
+    }
+
+    /**
+     * Returns a Lock instance which acquires and releases the shared lock.
+     */
+    public Lock readLock() {
+        return mSharedLock;
+    }
+
+    /**
+     * @return false if exclusive lock is requested or held by another thread
+     */
     public boolean tryAcquireShared() {
-        return mExclusiveRequested == 0 ? readLock().tryLock() : false;
+        if (mExclusiveRequested != 0) {
+            return false;
+        }
+        Holds holds = mHolds.get();
+        if (holds.mCount > 0) {
+            holds.mCount++;
+            return true;
+        }
+        return tryAcquireShared(holds);
     }
 
     public void acquireShared() {
-        readLock().lock();
+        Holds holds = mHolds.get();
+        if (holds.mCount > 0) {
+            holds.mCount++;
+            return;
+        }
+
+        boolean interrupted = false;
+        while (!tryAcquireShared(holds)) {
+            try {
+                awaitUnblocked(-1);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     public void releaseShared() {
-        readLock().unlock();
+        Holds holds = mHolds.get();
+        int count = holds.mCount;
+        if (count <= 0) {
+            throw new IllegalMonitorStateException();
+        }
+        if ((holds.mCount = count - 1) == 0) {
+            mStripes.decrementAndGet(holds.mStripe);
+            if (mBlockShared) {
+                signalDrain();
+            }
+        }
     }
 
     public void acquireExclusive() throws InterruptedIOException {
+        if (mExclusiveLock.isHeldByCurrentThread()) {
+            mExclusiveLock.lock();
+            return;
+        }
+
         cExclusiveUpdater.incrementAndGet(this);
         try {
+            try {
+                mExclusiveLock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+
             // If the commit lock cannot be immediately obtained, it's due to a shared lock
             // being held for a long time. While waiting for the exclusive lock, all other
-            // shared requests are queued. By waiting a timed amount and giving up, the
+            // shared requests are blocked. By waiting a timed amount and giving up, the
             // exclusive lock request is effectively de-prioritized. For each retry, the
             // timeout is doubled, to ensure that the exclusive request is not starved.
 
-            Lock writeLock = writeLock();
+            mDrainThread = Thread.currentThread();
             try {
-                long timeoutMillis = 1;
-                while (!writeLock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
-                    timeoutMillis <<= 1;
+                long timeoutNanos = 1_000_000;
+                while (true) {
+                    mBlockShared = true;
+                    if (awaitDrained(timeoutNanos)) {
+                        return;
+                    }
+                    unblockShared();
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                    timeoutNanos <<= 1;
                 }
-            } catch (InterruptedException e) {
-                throw new InterruptedIOException();
+            } catch (Throwable e) {
+                unblockShared();
+                mExclusiveLock.unlock();
+                throw e;
+            } finally {
+                mDrainThread = null;
             }
         } finally {
             cExclusiveUpdater.decrementAndGet(this);
@@ -72,6 +178,169 @@ final class CommitLock extends ReentrantReadWriteLock {
     }
 
     public void releaseExclusive() {
-        writeLock().unlock();
+        ReentrantLock lock = mExclusiveLock;
+        if (lock.getHoldCount() == 1) {
+            unblockShared();
+        }
+        lock.unlock();
+    }
+
+    /**
+     * Returns true if any threads are waiting to acquire the exclusive lock.
+     */
+    public boolean hasQueuedThreads() {
+        return mExclusiveRequested != 0;
+    }
+
+    private Holds newHolds() {
+        int hash = Long.hashCode(Utils.scramble(Thread.currentThread().getId()));
+        return new Holds((hash & mStripeMask) << STRIPE_SPACING_SHIFT);
+    }
+
+    /**
+     * Attempt to acquire the shared lock when not already held by the current thread.
+     */
+    private boolean tryAcquireShared(Holds holds) {
+        AtomicLongArray stripes = mStripes;
+        int stripe = holds.mStripe;
+        stripes.incrementAndGet(stripe);
+        if (!mBlockShared || mExclusiveLock.isHeldByCurrentThread()) {
+            holds.mCount = 1;
+            return true;
+        }
+        // Back off, and wake up the exclusive request if it's waiting for a drain.
+        stripes.decrementAndGet(stripe);
+        signalDrain();
+        return false;
+    }
+
+    private void signalDrain() {
+        Thread t = mDrainThread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Wait until shared requests are no longer blocked.
+     *
+     * @param nanosTimeout pass negative for infinite timeout
+     * @return false if timed out
+     */
+    private synchronized boolean awaitUnblocked(long nanosTimeout) throws InterruptedException {
+        if (nanosTimeout < 0) {
+            while (mBlockShared) {
+                wait();
+            }
+        } else {
+            long end = System.nanoTime() + nanosTimeout;
+            while (mBlockShared) {
+                if (nanosTimeout <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, nanosTimeout);
+                nanosTimeout = end - System.nanoTime();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Caller must have blocked new shared requests.
+     *
+     * @return false if timed out
+     */
+    private boolean awaitDrained(long timeoutNanos) {
+        final AtomicLongArray stripes = mStripes;
+        final int shift = STRIPE_SPACING_SHIFT;
+        final long end = System.nanoTime() + timeoutNanos;
+
+        int i = 0;
+        while (true) {
+            for (; i <= mStripeMask; i++) {
+                if (stripes.get(i << shift) != 0) {
+                    break;
+                }
+            }
+            if (i > mStripeMask) {
+                return true;
+            }
+            long remaining = end - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    private synchronized void unblockShared() {
+        mBlockShared = false;
+        notifyAll();
+    }
+
+    static final class Holds {
+        final int mStripe;
+        int mCount;
+
+        Holds(int stripe) {
+            mStripe = stripe;
+        }
+    }
+
+    final class SharedLock implements Lock {
+        @Override
+        public void lock() {
+            acquireShared();
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (!tryLock()) {
+                Holds holds = mHolds.get();
+                do {
+                    awaitUnblocked(-1);
+                } while (!tryAcquireShared(holds));
+            }
+        }
+
+        @Override
+        public boolean tryLock() {
+            Holds holds = mHolds.get();
+            if (holds.mCount > 0) {
+                holds.mCount++;
+                return true;
+            }
+            return tryAcquireShared(holds);
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if (tryLock()) {
+                return true;
+            }
+            long nanos = Math.max(0, unit.toNanos(time));
+            long end = System.nanoTime() + nanos;
+            Holds holds = mHolds.get();
+            do {
+                if (!awaitUnblocked(nanos)) {
+                    return false;
+                }
+                nanos = Math.max(0, end - System.nanoTime());
+            } while (!tryAcquireShared(holds));
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            releaseShared();
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
     }
 }
@@ -18,6 +18,8 @@ package org.cojen.tupl;
 
 import java.io.IOException;
 
+import java.nio.ByteBuffer;
+
 /**
  * Maintains a logical position in a {@link View}. Cursor instances can only be
  * safely used by one thread at a time, and they must be {@link #reset reset}
@@ -96,6 +98,27 @@ public interface Cursor {
      */
     public boolean autoload();
 
+    /**
+     * Set the scan resistant mode, which is disabled by default. When enabled, leaf nodes
+     * which are loaded into the cache by this cursor are treated as used only once, and so
+     * they're evicted before other nodes. Nodes which are already cached aren't marked as
+     * recently used. Large scans performed in this mode don't push frequently used nodes out
+     * of the cache. Cursors which don't support this mode ignore it.
+     *
+     * @param mode true to enable
+     * @return prior scan resistant mode
+     */
+    public default boolean scanResistant(boolean mode) {
+        return false;
+    }
+
+    /**
+     * Returns the current scan resistant mode.
+     */
+    public default boolean scanResistant() {
+        return false;
+    }
+
     /**
      * Compare the current key to the one given.
      *
@@ -391,6 +414,29 @@ public interface Cursor {
      */
     public LockResult load() throws IOException;
 
+    /**
+     * Passes the value at the cursor's current position to a visitor, without copying it
+     * when possible. If the cursor value is {@link #NOT_LOADED}, it's obtained with the same
+     * locking behavior as the {@link #load load} method. Most cursors examine the value in
+     * place and leave the cursor value unloaded, but the default implementation loads it,
+     * replacing the cursor value. The visitor isn't invoked if the entry doesn't exist.
+     *
+     * @param visitor non-null value visitor
+     * @return result of the visitor, or null if entry doesn't exist
+     * @throws IllegalStateException if position is undefined at invocation time
+     */
+    public default <R> R visitValue(ValueVisitor<R> visitor) throws IOException {
+        if (key() == null) {
+            throw new IllegalStateException("Cursor position is undefined");
+        }
+        byte[] value = value();
+        if (value == NOT_LOADED) {
+            load();
+            value = value();
+        }
+        return value == null ? null : visitor.visit(ByteBuffer.wrap(value).asReadOnlyBuffer());
+    }
+
     /**
      * Stores a value into the current entry, leaving the position
      * unchanged. An entry may be inserted, updated or deleted by this
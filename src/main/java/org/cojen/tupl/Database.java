@@ -202,6 +202,41 @@ public interface Database extends CauseCloseable, Flushable {
      */
     public abstract Runnable deleteIndex(Index index) throws IOException;
 
+    /**
+     * Returns a loader which builds a new index from entries supplied in ascending key
+     * order. The index is created under the given name when the loader is {@link
+     * BulkLoader#finish finished}. Bulk loading isn't supported by replicated databases.
+     *
+     * @param name new index name
+     * @param fillFactor fraction of each leaf node to fill, in the range (0, 1]; pass 1.0 for
+     * maximum density when the index will mostly be read
+     * @throws IllegalStateException if name is already in use by another index
+     * @throws IllegalArgumentException if fill factor is out of range
+     * @throws UnsupportedOperationException if database is replicated
+     */
+    public abstract BulkLoader newBulkLoader(byte[] name, double fillFactor) throws IOException;
+
+    /**
+     * Returns a loader which builds a new index from entries supplied in ascending key
+     * order. Name is UTF-8 encoded.
+     *
+     * @param name new index name
+     * @param fillFactor fraction of each leaf node to fill, in the range (0, 1]
+     * @throws IllegalStateException if name is already in use by another index
+     * @throws IllegalArgumentException if fill factor is out of range
+     * @throws UnsupportedOperationException if database is replicated
+     */
+    public default BulkLoader newBulkLoader(String name, double fillFactor) throws IOException {
+        return newBulkLoader(name.getBytes("UTF-8"), fillFactor);
+    }
+
+    /**
+     * Returns a new Sorter, which can efficiently sort a large amount of unordered entries,
+     * for loading them into an index. Temporary files are used when the entries don't fit in
+     * memory, but only if the database has a base file.
+     */
+    public abstract Sorter newSorter() throws IOException;
+
     /**
      * Returns an {@link UnmodifiableViewException unmodifiable} View which maps all available
      * index names to identifiers. Identifiers are long integers, {@link
@@ -297,6 +332,22 @@ public interface Database extends CauseCloseable, Flushable {
      */
     public abstract Snapshot beginSnapshot() throws IOException;
 
+    /**
+     * Begin an incremental snapshot, which only contains the pages changed since the
+     * checkpoint captured by a baseline snapshot. The baseline can be a full snapshot or
+     * another incremental snapshot, and its {@link Snapshot#checkpointNumber checkpoint
+     * number} identifies it. Incremental snapshots require that {@link
+     * DatabaseConfig#incrementalSnapshots change tracking} be enabled when the baseline
+     * was captured. Beginning a full snapshot discards change tracking history, and so
+     * the baseline cannot be older than the most recent full snapshot.
+     *
+     * @param baseline checkpoint number of the baseline snapshot
+     * @return a snapshot control object, which must be closed when no longer needed
+     * @throws DatabaseException if changes since the baseline aren't available
+     * @see #restoreFromSnapshot(DatabaseConfig, InputStream, InputStream...)
+     */
+    public abstract Snapshot beginIncrementalSnapshot(long baseline) throws IOException;
+
     /**
      * Restore from a {@link #beginSnapshot snapshot}, into the data files defined by the given
      * configuration. All existing data and redo log files at the snapshot destination are
@@ -306,16 +357,33 @@ public interface Database extends CauseCloseable, Flushable {
      */
     public static Database restoreFromSnapshot(DatabaseConfig config, InputStream in)
         throws IOException
+    {
+        return restoreFromSnapshot(config, in, new InputStream[0]);
+    }
+
+    /**
+     * Restore from a full {@link #beginSnapshot snapshot}, followed by a chain of {@link
+     * #beginIncrementalSnapshot incremental} snapshots, into the data files defined by the
+     * given configuration. Each incremental snapshot must have been captured using the
+     * preceding snapshot as its baseline. All existing data and redo log files at the
+     * snapshot destination are deleted before the restore begins.
+     *
+     * @param in full snapshot source; does not require extra buffering; auto-closed
+     * @param increments incremental snapshot sources, in order; auto-closed
+     */
+    public static Database restoreFromSnapshot(DatabaseConfig config, InputStream in,
+                                               InputStream... increments)
+        throws IOException
     {
         Method m = config.directRestoreMethod();
         if (m != null) {
             try {
-                return (Database) m.invoke(null, config, in);
+                return (Database) m.invoke(null, config, in, increments);
             } catch (Exception e) {
                 config.handleDirectException(e);
             }
         }
-        return LocalDatabase.restoreFromSnapshot(config, in);
+        return LocalDatabase.restoreFromSnapshot(config, in, increments);
     }
 
     /**
@@ -479,6 +547,217 @@ public interface Database extends CauseCloseable, Flushable {
         }
     }
 
+    /**
+     * Returns a snapshot of cumulative database metrics. Counters only increase over the
+     * life of the database, and so rates can be computed by comparing two snapshots.
+     */
+    public abstract Metrics metrics();
+
+    /**
+     * Collection of cumulative database {@link Database#metrics metrics}. Latency
+     * histograms are arrays of counts, where the count at index n is for latencies which are
+     * at least 2<sup>n</sup> nanoseconds, and less than 2<sup>n+1</sup>.
+     */
+    public static class Metrics implements Cloneable, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public long cacheHits;
+        public long cacheMisses;
+        public long evictions;
+        public long nodeSplits;
+        public long nodeMerges;
+        public long redoBytes;
+        public long[] syncLatency;
+        public long[] commitLatency;
+        public long checkpoints;
+        public long checkpointNanos;
+        public long lastCheckpointNanos;
+        public long checkpointPages;
+        public long lockWaits;
+        public long lockWaitNanos;
+        public long deadlocks;
+
+        /**
+         * Returns the number of times a cached node was accessed.
+         */
+        public long cacheHits() {
+            return cacheHits;
+        }
+
+        /**
+         * Returns the number of nodes which were read into the cache.
+         */
+        public long cacheMisses() {
+            return cacheMisses;
+        }
+
+        /**
+         * Returns the fraction of node accesses which didn't need to read from storage, or
+         * NaN if no nodes have been accessed.
+         */
+        public double cacheHitRatio() {
+            return ((double) cacheHits) / (cacheHits + cacheMisses);
+        }
+
+        /**
+         * Returns the number of nodes which were evicted from the cache.
+         */
+        public long evictions() {
+            return evictions;
+        }
+
+        /**
+         * Returns the number of tree nodes which were split.
+         */
+        public long nodeSplits() {
+            return nodeSplits;
+        }
+
+        /**
+         * Returns the number of tree nodes which were merged into a sibling.
+         */
+        public long nodeMerges() {
+            return nodeMerges;
+        }
+
+        /**
+         * Returns the number of bytes written to the redo log.
+         */
+        public long redoBytes() {
+            return redoBytes;
+        }
+
+        /**
+         * Returns a histogram of redo log file sync latencies.
+         */
+        public long[] syncLatency() {
+            return syncLatency;
+        }
+
+        /**
+         * Returns a histogram of top-level transaction commit latencies, including any
+         * redo log sync. Commits of transactions which made no changes aren't included.
+         */
+        public long[] commitLatency() {
+            return commitLatency;
+        }
+
+        /**
+         * Returns the number of full checkpoints which were performed.
+         */
+        public long checkpoints() {
+            return checkpoints;
+        }
+
+        /**
+         * Returns the total duration of all full checkpoints, in nanoseconds.
+         */
+        public long checkpointNanos() {
+            return checkpointNanos;
+        }
+
+        /**
+         * Returns the duration of the last full checkpoint, in nanoseconds.
+         */
+        public long lastCheckpointNanos() {
+            return lastCheckpointNanos;
+        }
+
+        /**
+         * Returns the number of dirty pages which were written by all checkpoints.
+         */
+        public long checkpointPages() {
+            return checkpointPages;
+        }
+
+        /**
+         * Returns the number of times a transaction waited to acquire a lock.
+         */
+        public long lockWaits() {
+            return lockWaits;
+        }
+
+        /**
+         * Returns the total time transactions waited to acquire locks, in nanoseconds.
+         */
+        public long lockWaitNanos() {
+            return lockWaitNanos;
+        }
+
+        /**
+         * Returns the number of deadlocks which were detected.
+         */
+        public long deadlocks() {
+            return deadlocks;
+        }
+
+        /**
+         * Returns an approximate percentile from a latency histogram, as the upper bound of
+         * the bucket which contains it.
+         *
+         * @param histogram latency histogram
+         * @param percentile percentile in the range [0, 100]
+         * @return latency in nanoseconds, or zero if histogram is empty
+         */
+        public static long percentile(long[] histogram, double percentile) {
+            if (histogram == null) {
+                return 0;
+            }
+            long total = 0;
+            for (long count : histogram) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * (percentile / 100.0));
+            long sum = 0;
+            for (int i=0; i<histogram.length; i++) {
+                sum += histogram[i];
+                if (sum >= target && sum != 0) {
+                    return (1L << (i + 1)) - 1;
+                }
+            }
+            return (1L << histogram.length) - 1;
+        }
+
+        @Override
+        public Metrics clone() {
+            try {
+                Metrics copy = (Metrics) super.clone();
+                if (syncLatency != null) {
+                    copy.syncLatency = syncLatency.clone();
+                }
+                if (commitLatency != null) {
+                    copy.commitLatency = commitLatency.clone();
+                }
+                return copy;
+            } catch (CloneNotSupportedException e) {
+                throw Utils.rethrow(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Database.Metrics {cacheHits=" + cacheHits
+                + ", cacheMisses=" + cacheMisses
+                + ", evictions=" + evictions
+                + ", nodeSplits=" + nodeSplits
+                + ", nodeMerges=" + nodeMerges
+                + ", redoBytes=" + redoBytes
+                + ", syncLatency.p99=" + percentile(syncLatency, 99)
+                + ", commitLatency.p99=" + percentile(commitLatency, 99)
+                + ", checkpoints=" + checkpoints
+                + ", checkpointNanos=" + checkpointNanos
+                + ", lastCheckpointNanos=" + lastCheckpointNanos
+                + ", checkpointPages=" + checkpointPages
+                + ", lockWaits=" + lockWaits
+                + ", lockWaitNanos=" + lockWaitNanos
+                + ", deadlocks=" + deadlocks
+                + '}';
+        }
+    }
+
     /**
      * Flushes, but does not sync, all non-flushed transactions. Transactions
      * committed with {@link DurabilityMode#NO_FLUSH no-flush} effectively
@@ -62,18 +62,31 @@ public class DatabaseConfig implements Cloneable, Serializable {
     long mMinCachedBytes;
     long mMaxCachedBytes;
     long mSecondaryCacheSize;
+    EvictionPolicy mEvictionPolicy;
     DurabilityMode mDurabilityMode;
     LockUpgradeRule mLockUpgradeRule;
     long mLockTimeoutNanos;
+    int mLockEscalationThreshold;
     long mCheckpointRateNanos;
     long mCheckpointSizeThreshold;
     long mCheckpointDelayThresholdNanos;
+    long mGroupCommitDelayNanos;
+    int mMaxCheckpointThreads;
+    int mMaxRecoveryThreads;
     transient EventListener mEventListener;
+    boolean mMetricsMBean;
     boolean mFileSync;
     boolean mReadOnly;
     int mPageSize;
     Boolean mDirectPageAccess;
     boolean mCachePriming;
+    int mCachePrimingQueueDepth;
+    boolean mKeyPrefixCompression;
+    boolean mSearchHeads;
+    boolean mIncrementalSnapshots;
+    boolean mSparseSnapshots;
+    boolean mSnapshotCompression;
+    int mMaxSnapshotThreads;
     transient ReplicationManager mReplManager;
     int mMaxReplicaThreads;
     transient Crypto mCrypto;
@@ -86,10 +99,16 @@ public class DatabaseConfig implements Cloneable, Serializable {
     public DatabaseConfig() {
         createFilePath(true);
         durabilityMode(null);
+        evictionPolicy(null);
         lockTimeout(1, TimeUnit.SECONDS);
         checkpointRate(1, TimeUnit.SECONDS);
         checkpointSizeThreshold(1024 * 1024);
         checkpointDelayThreshold(1, TimeUnit.MINUTES);
+        groupCommitDelay(-1, null);
+        maxCheckpointThreads(1);
+        maxRecoveryThreads(1);
+        maxSnapshotThreads(1);
+        cachePrimingQueueDepth(-8);
     }
 
     /**
@@ -222,6 +241,18 @@ public class DatabaseConfig implements Cloneable, Serializable {
         return this;
     }
 
+    /**
+     * Set the policy for selecting which cached nodes to evict, which is {@link
+     * EvictionPolicy#LRU LRU} if not overridden.
+     */
+    public DatabaseConfig evictionPolicy(EvictionPolicy policy) {
+        if (policy == null) {
+            policy = EvictionPolicy.LRU;
+        }
+        mEvictionPolicy = policy;
+        return this;
+    }
+
     /**
      * Set the default transaction durability mode, which is {@link
      * DurabilityMode#SYNC SYNC} if not overridden. If database itself is
@@ -258,6 +289,21 @@ public class DatabaseConfig implements Cloneable, Serializable {
         return this;
     }
 
+    /**
+     * Set the number of exclusive or upgradable key locks a transaction can acquire against
+     * a single index before escalating to an exclusive lock on the whole index. Escalation
+     * reduces lock manager memory and latch contention for large batch updates, but it
+     * blocks all other transactions from accessing the index. Escalation is attempted
+     * without waiting, and it's abandoned if other transactions hold any locks in the index.
+     * After each abandoned attempt, the transaction must acquire twice as many key locks
+     * before trying again.
+     * Default is zero, which disables lock escalation.
+     */
+    public DatabaseConfig lockEscalationThreshold(int threshold) {
+        mLockEscalationThreshold = threshold;
+        return this;
+    }
+
     /**
      * Set the rate at which {@link Database#checkpoint checkpoints} are
      * automatically performed. Default rate is 1 second. Pass a negative value
@@ -293,6 +339,55 @@ public class DatabaseConfig implements Cloneable, Serializable {
         return this;
     }
 
+    /**
+     * Specify the maximum number of threads for writing dirty pages when performing a
+     * {@link Database#checkpoint checkpoint}. Dirty pages are always written in page order,
+     * and additional threads can speed up checkpoints when the underlying storage supports
+     * concurrent writes. Default is 1. If a negative number is provided, the actual number
+     * applied is {@code (-num * availableProcessors)}.
+     */
+    public DatabaseConfig maxCheckpointThreads(int num) {
+        mMaxCheckpointThreads = num;
+        return this;
+    }
+
+    /**
+     * Specify the maximum number of threads for applying the redo log when recovering the
+     * database. Non-transactional changes are applied in parallel, partitioned by key, and
+     * transactional changes are applied in order. Default is 1. If a negative number is
+     * provided, the actual number applied is {@code (-num * availableProcessors)}.
+     */
+    public DatabaseConfig maxRecoveryThreads(int num) {
+        mMaxRecoveryThreads = num;
+        return this;
+    }
+
+    /**
+     * Enable group commit for transactions which use the {@link DurabilityMode#SYNC SYNC}
+     * durability mode. Instead of each committing thread syncing the redo log, a dedicated
+     * thread writes and syncs on behalf of all waiting committers. The delay is the maximum
+     * amount of time to wait for additional commits to join the batch, and a delay of zero
+     * only batches commits which arrive while a sync is in progress. Default is a negative
+     * delay, which disables group commit. Option has no effect if database is non-durable or
+     * if replication is enabled.
+     *
+     * @param unit required unit if delay is more than zero
+     */
+    public DatabaseConfig groupCommitDelay(long delay, TimeUnit unit) {
+        mGroupCommitDelayNanos = toNanos(delay, unit);
+        return this;
+    }
+
+    /**
+     * Register a {@link DatabaseMetricsMXBean} with the platform MBean server when the
+     * database is opened, which is unregistered when the database is closed. The MBean is
+     * named {@code org.cojen.tupl:type=Database,name=<base file>}. Default is false.
+     */
+    public DatabaseConfig metricsMBean(boolean enabled) {
+        mMetricsMBean = enabled;
+        return this;
+    }
+
     /**
      * Set a listener which receives notifications of actions being performed
      * by the database.
@@ -357,6 +452,87 @@ public class DatabaseConfig implements Cloneable, Serializable {
         return this;
     }
 
+    /**
+     * Specify the maximum number of concurrent page reads when {@link
+     * Database#applyCachePrimer applying} a cache priming set. Pages are read in ascending
+     * file order, and a deeper queue helps storage devices which support concurrent reads.
+     * Default is {@code (8 * availableProcessors)}. If a negative number is provided, the
+     * actual number applied is {@code (-num * availableProcessors)}.
+     */
+    public DatabaseConfig cachePrimingQueueDepth(int depth) {
+        mCachePrimingQueueDepth = depth;
+        return this;
+    }
+
+    /**
+     * Enable key prefix compression, which is disabled by default. When a leaf node is full,
+     * the prefix shared by all of its keys is stored just once, possibly avoiding a split.
+     * Compression is most effective for composite keys which have long common prefixes, and
+     * it slightly reduces the maximum size of fragmented entries. Compressed nodes are always
+     * readable, but this option should remain consistent for a given database.
+     */
+    public DatabaseConfig keyPrefixCompression(boolean compress) {
+        mKeyPrefixCompression = compress;
+        return this;
+    }
+
+    /**
+     * Enable search heads, which is disabled by default. Each cached node keeps a copy of the
+     * first 4 bytes of its keys in a contiguous array, and so most binary search steps don't
+     * need to access the keys themselves. Heads are most effective for large page sizes and
+     * for keys which differ within the first 4 bytes. Each node needs 4 bytes of additional
+     * memory per key, and heads are rebuilt lazily after nodes are modified. The page format
+     * is unaffected.
+     */
+    public DatabaseConfig searchHeads(boolean enable) {
+        mSearchHeads = enable;
+        return this;
+    }
+
+    /**
+     * Enable tracking of the pages written by each checkpoint, which is required for
+     * {@link Database#beginIncrementalSnapshot incremental snapshots}. Page ids are logged
+     * into a special file alongside the base file, which is truncated whenever a full
+     * snapshot begins. Option has no effect if database is non-durable or has no base file.
+     */
+    public DatabaseConfig incrementalSnapshots(boolean enable) {
+        mIncrementalSnapshots = enable;
+        return this;
+    }
+
+    /**
+     * Enable sparse {@link Database#beginSnapshot snapshots}, which are disabled by
+     * default. The contents of free pages are omitted from the snapshot, and restoring it
+     * creates a sparse file. Snapshots in either format can be restored.
+     */
+    public DatabaseConfig sparseSnapshots(boolean enable) {
+        mSparseSnapshots = enable;
+        return this;
+    }
+
+    /**
+     * Enable compression of {@link Database#beginSnapshot snapshots}, which is disabled by
+     * default. Pages are compressed in blocks, using the deflate algorithm. Compression
+     * implies {@link #sparseSnapshots sparse} snapshots, and the snapshot {@link
+     * Snapshot#length length} is only an upper bound.
+     */
+    public DatabaseConfig snapshotCompression(boolean enable) {
+        mSnapshotCompression = enable;
+        return this;
+    }
+
+    /**
+     * Specify the maximum number of threads for reading pages when writing a {@link
+     * Database#beginSnapshot snapshot}. Additional threads read ahead in parallel, and
+     * pages are still written in order. This can speed up snapshots when the underlying
+     * storage supports concurrent reads. Default is 1. If a negative number is provided,
+     * the actual number applied is {@code (-num * availableProcessors)}.
+     */
+    public DatabaseConfig maxSnapshotThreads(int num) {
+        mMaxSnapshotThreads = num;
+        return this;
+    }
+
     /**
      * Enable replication by providing a {@link ReplicationManager} instance.
      */
@@ -534,15 +710,28 @@ public class DatabaseConfig implements Cloneable, Serializable {
         set(props, "minCacheSize", mMinCachedBytes);
         set(props, "maxCacheSize", mMaxCachedBytes);
         set(props, "secondaryCacheSize", mSecondaryCacheSize);
+        set(props, "evictionPolicy", mEvictionPolicy);
         set(props, "durabilityMode", mDurabilityMode);
         set(props, "lockTimeoutNanos", mLockTimeoutNanos);
+        set(props, "lockEscalationThreshold", mLockEscalationThreshold);
         set(props, "checkpointRateNanos", mCheckpointRateNanos);
         set(props, "checkpointSizeThreshold", mCheckpointSizeThreshold);
         set(props, "checkpointDelayThresholdNanos", mCheckpointDelayThresholdNanos);
+        set(props, "groupCommitDelayNanos", mGroupCommitDelayNanos);
+        set(props, "maxCheckpointThreads", mMaxCheckpointThreads);
+        set(props, "maxRecoveryThreads", mMaxRecoveryThreads);
+        set(props, "metricsMBean", mMetricsMBean);
         set(props, "syncWrites", mFileSync);
         set(props, "pageSize", mPageSize);
         set(props, "directPageAccess", mDirectPageAccess);
         set(props, "cachePriming", mCachePriming);
+        set(props, "cachePrimingQueueDepth", mCachePrimingQueueDepth);
+        set(props, "keyPrefixCompression", mKeyPrefixCompression);
+        set(props, "searchHeads", mSearchHeads);
+        set(props, "incrementalSnapshots", mIncrementalSnapshots);
+        set(props, "sparseSnapshots", mSparseSnapshots);
+        set(props, "snapshotCompression", mSnapshotCompression);
+        set(props, "maxSnapshotThreads", mMaxSnapshotThreads);
 
         w.write('#');
         w.write(Database.class.getName());
@@ -611,7 +800,8 @@ public class DatabaseConfig implements Cloneable, Serializable {
         Method m = cDirectRestore;
         if (m == null) {
             cDirectRestore = m = findMethod
-                ("restoreFromSnapshot", DatabaseConfig.class, InputStream.class);
+                ("restoreFromSnapshot", DatabaseConfig.class, InputStream.class,
+                 InputStream[].class);
         }
         return m;
     }
@@ -0,0 +1,162 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.io.File;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registered implementation of the metrics MBean.
+ *
+ * @author Brian S O'Neill
+ */
+final class DatabaseMetricsMBean implements DatabaseMetricsMXBean {
+    private final Database mDatabase;
+    private final ObjectName mName;
+
+    /**
+     * @param baseFile optional
+     */
+    static DatabaseMetricsMBean register(Database db, File baseFile) throws DatabaseException {
+        String name = baseFile == null
+            ? ("Database@" + Integer.toHexString(System.identityHashCode(db)))
+            : baseFile.getAbsolutePath();
+        try {
+            DatabaseMetricsMBean bean = new DatabaseMetricsMBean
+                (db, new ObjectName("org.cojen.tupl:type=Database,name="
+                                    + ObjectName.quote(name)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, bean.mName);
+            return bean;
+        } catch (JMException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    private DatabaseMetricsMBean(Database db, ObjectName name) {
+        mDatabase = db;
+        mName = name;
+    }
+
+    void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(mName);
+        } catch (JMException e) {
+            // Ignore.
+        }
+    }
+
+    @Override
+    public long getCachedPages() {
+        return mDatabase.stats().cachedPages();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return mDatabase.metrics().cacheHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return mDatabase.metrics().cacheMisses();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        return mDatabase.metrics().cacheHitRatio();
+    }
+
+    @Override
+    public long getEvictions() {
+        return mDatabase.metrics().evictions();
+    }
+
+    @Override
+    public long getNodeSplits() {
+        return mDatabase.metrics().nodeSplits();
+    }
+
+    @Override
+    public long getNodeMerges() {
+        return mDatabase.metrics().nodeMerges();
+    }
+
+    @Override
+    public long getRedoBytes() {
+        return mDatabase.metrics().redoBytes();
+    }
+
+    @Override
+    public long getSyncLatencyMedian() {
+        return Database.Metrics.percentile(mDatabase.metrics().syncLatency(), 50);
+    }
+
+    @Override
+    public long getSyncLatency99() {
+        return Database.Metrics.percentile(mDatabase.metrics().syncLatency(), 99);
+    }
+
+    @Override
+    public long getCommitLatencyMedian() {
+        return Database.Metrics.percentile(mDatabase.metrics().commitLatency(), 50);
+    }
+
+    @Override
+    public long getCommitLatency99() {
+        return Database.Metrics.percentile(mDatabase.metrics().commitLatency(), 99);
+    }
+
+    @Override
+    public long getCheckpoints() {
+        return mDatabase.metrics().checkpoints();
+    }
+
+    @Override
+    public long getLastCheckpointNanos() {
+        return mDatabase.metrics().lastCheckpointNanos();
+    }
+
+    @Override
+    public long getLockCount() {
+        return mDatabase.stats().lockCount();
+    }
+
+    @Override
+    public long getLockWaits() {
+        return mDatabase.metrics().lockWaits();
+    }
+
+    @Override
+    public long getLockWaitNanos() {
+        return mDatabase.metrics().lockWaitNanos();
+    }
+
+    @Override
+    public long getDeadlocks() {
+        return mDatabase.metrics().deadlocks();
+    }
+
+    @Override
+    public long getTransactionCount() {
+        return mDatabase.stats().transactionCount();
+    }
+}
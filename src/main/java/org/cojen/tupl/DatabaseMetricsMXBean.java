@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+/**
+ * Management interface for database {@link Database#metrics metrics} and {@link
+ * Database#stats statistics}, which is registered when the {@link
+ * DatabaseConfig#metricsMBean metricsMBean} option is enabled. Latencies are reported in
+ * nanoseconds, as the upper bound of the histogram bucket which contains the percentile.
+ *
+ * @author Brian S O'Neill
+ */
+public interface DatabaseMetricsMXBean {
+    public long getCachedPages();
+
+    public long getCacheHits();
+
+    public long getCacheMisses();
+
+    public double getCacheHitRatio();
+
+    public long getEvictions();
+
+    public long getNodeSplits();
+
+    public long getNodeMerges();
+
+    public long getRedoBytes();
+
+    public long getSyncLatencyMedian();
+
+    public long getSyncLatency99();
+
+    public long getCommitLatencyMedian();
+
+    public long getCommitLatency99();
+
+    public long getCheckpoints();
+
+    public long getLastCheckpointNanos();
+
+    public long getLockCount();
+
+    public long getLockWaits();
+
+    public long getLockWaitNanos();
+
+    public long getDeadlocks();
+
+    public long getTransactionCount();
+}
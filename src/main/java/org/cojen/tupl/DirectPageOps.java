@@ -36,7 +36,7 @@ import org.cojen.tupl.io.MappedPageArray;
  * @see PageOps
  */
 final class DirectPageOps {
-    static final int NODE_OVERHEAD = 100 - 24; // 6 fewer fields
+    static final int NODE_OVERHEAD = 112 - 24; // 6 fewer fields
 
     private static final Unsafe UNSAFE = Hasher.getUnsafe();
     private static final long BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
@@ -576,6 +576,10 @@ final class DirectPageOps {
         dst.put(DirectAccess.ref(srcPage + srcStart, len));
     }
 
+    static ByteBuffer p_readOnlyBB(long page, int start, int len) {
+        return DirectAccess.ref(page + start, len).asReadOnlyBuffer();
+    }
+
     static void p_copy(long srcPage, int srcStart, long dstPage, int dstStart, int len) {
         UNSAFE.copyMemory(srcPage + srcStart, dstPage + dstStart, len);
     }
@@ -607,17 +611,39 @@ final class DirectPageOps {
         }
     }
 
+    static int p_mismatch(long apage, int aoff, byte[] b, int boff, int len) {
+        apage += aoff;
+        long bpos = BYTE_ARRAY_OFFSET + boff;
+        int i = 0;
+
+        if (len >= 8) {
+            int end = len - 8;
+            for (; i < end; i += 8) {
+                long diff = UNSAFE.getLong(apage + i) ^ UNSAFE.getLong(b, bpos + i);
+                if (diff != 0) {
+                    return i + (Long.numberOfTrailingZeros(diff) >> 3);
+                }
+            }
+            long diff = UNSAFE.getLong(apage + end) ^ UNSAFE.getLong(b, bpos + end);
+            return diff == 0 ? len : (end + (Long.numberOfTrailingZeros(diff) >> 3));
+        }
+
+        for (; i < len; i++) {
+            if (UNSAFE.getByte(apage + i) != b[boff + i]) {
+                return i;
+            }
+        }
+
+        return len;
+    }
+
     static int p_compareKeysPageToArray(long apage, int aoff, int alen,
                                         byte[] b, int boff, int blen)
     {
-        apage += aoff;
         int minLen = Math.min(alen, blen);
-        for (int i=0; i<minLen; i++) {
-            byte ab = UNSAFE.getByte(apage++);
-            byte bb = b[boff + i];
-            if (ab != bb) {
-                return (ab & 0xff) - (bb & 0xff);
-            }
+        int i = p_mismatch(apage, aoff, b, boff, minLen);
+        if (i < minLen) {
+            return (UNSAFE.getByte(apage + aoff + i) & 0xff) - (b[boff + i] & 0xff);
         }
         return alen - blen;
     }
@@ -628,13 +654,28 @@ final class DirectPageOps {
         apage += aoff;
         bpage += boff;
         int minLen = Math.min(alen, blen);
-        for (int i=0; i<minLen; i++) {
-            byte ab = UNSAFE.getByte(apage++);
-            byte bb = UNSAFE.getByte(bpage++);
+        int i = 0;
+
+        if (minLen >= 8) {
+            int end = minLen - 8;
+            for (; i < end; i += 8) {
+                long diff = UNSAFE.getLong(apage + i) ^ UNSAFE.getLong(bpage + i);
+                if (diff != 0) {
+                    i += Long.numberOfTrailingZeros(diff) >> 3;
+                    return (UNSAFE.getByte(apage + i) & 0xff) - (UNSAFE.getByte(bpage + i) & 0xff);
+                }
+            }
+            i = end;
+        }
+
+        for (; i < minLen; i++) {
+            byte ab = UNSAFE.getByte(apage + i);
+            byte bb = UNSAFE.getByte(bpage + i);
             if (ab != bb) {
                 return (ab & 0xff) - (bb & 0xff);
             }
         }
+
         return alen - blen;
     }
 
@@ -21,13 +21,16 @@ import java.io.File;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 
 import java.security.GeneralSecurityException;
 
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.EnumSet;
 
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import org.cojen.tupl.io.FileFactory;
 import org.cojen.tupl.io.FilePageArray;
@@ -469,16 +472,16 @@ final class DurablePageDb extends PageDb {
             return 0;
         }
 
-        final ReadLock lock = mCommitLock.readLock();
+        final CommitLock lock = mCommitLock;
 
         for (int i=0; i<pageCount; i++) {
-            lock.lock();
+            lock.acquireShared();
             try {
                 mPageManager.allocAndRecyclePage();
             } catch (Throwable e) {
                 throw closeOnFailure(e);
             } finally {
-                lock.unlock();
+                lock.releaseShared();
             }
         }
 
@@ -639,36 +642,117 @@ final class DurablePageDb extends PageDb {
         return in;
     }
 
+    /**
+     * Start logging the ids of all pages written by each checkpoint, for supporting
+     * incremental snapshots. An existing log is resumed if it matches this database.
+     *
+     * @param destroy pass true to discard the existing log
+     */
+    void openChangeLog(File file, boolean destroy) throws IOException {
+        if (destroy) {
+            file.delete();
+        }
+        mHeaderLatch.acquireShared();
+        try {
+            mPageArray.changeLog(new PageChangeLog(file, mCommitNumber));
+        } finally {
+            mHeaderLatch.releaseShared();
+        }
+    }
+
     /**
      * @see SnapshotPageArray#beginSnapshot
      */
     Snapshot beginSnapshot(LocalDatabase db) throws IOException {
         mHeaderLatch.acquireShared();
         try {
-            long pageCount, redoPos;
-            /*P*/ byte[] header = p_alloc(MINIMUM_PAGE_SIZE);
-            try {
-                mPageArray.readPage(mCommitNumber & 1, header, 0, MINIMUM_PAGE_SIZE);
-                pageCount = PageManager.readTotalPageCount(header, I_MANAGER_HEADER);
-                redoPos = LocalDatabase.readRedoPosition(header, I_EXTRA_DATA); 
-            } finally {
-                p_delete(header);
+            PageChangeLog log = mPageArray.changeLog();
+            if (log != null) {
+                // Incremental snapshots can use this snapshot as a baseline, but none
+                // before it.
+                log.restart(mCommitNumber);
             }
-            return mPageArray.beginSnapshot(db, pageCount, redoPos);
+            return beginSnapshot(db, 0, null);
         } finally {
             mHeaderLatch.releaseShared();
         }
     }
 
+    /**
+     * @param baseline checkpoint number of the baseline snapshot
+     * @see SnapshotPageArray#beginSnapshot
+     */
+    Snapshot beginIncrementalSnapshot(LocalDatabase db, long baseline) throws IOException {
+        PageChangeLog log = mPageArray.changeLog();
+        if (log == null) {
+            throw new IllegalStateException("Incremental snapshots aren't enabled");
+        }
+        mHeaderLatch.acquireShared();
+        try {
+            long[] changes = log.changes((int) baseline, mCommitNumber);
+            return beginSnapshot(db, (int) baseline, changes);
+        } finally {
+            mHeaderLatch.releaseShared();
+        }
+    }
+
+    /**
+     * Caller must hold mHeaderLatch.
+     *
+     * @param changes sorted ids of pages changed since the baseline; null for full snapshot
+     */
+    private Snapshot beginSnapshot(LocalDatabase db, int baseline, long[] changes)
+        throws IOException
+    {
+        long pageCount, redoPos;
+        /*P*/ byte[] header = p_alloc(MINIMUM_PAGE_SIZE);
+        try {
+            mPageArray.readPage(mCommitNumber & 1, header, 0, MINIMUM_PAGE_SIZE);
+            pageCount = PageManager.readTotalPageCount(header, I_MANAGER_HEADER);
+            redoPos = LocalDatabase.readRedoPosition(header, I_EXTRA_DATA); 
+        } finally {
+            p_delete(header);
+        }
+
+        if (changes != null) {
+            // Always include both headers, and exclude pages which were truncated away.
+            long[] filtered = new long[changes.length + 2];
+            filtered[0] = 0;
+            filtered[1] = 1;
+            int size = 2;
+            for (long index : changes) {
+                if (index > 1 && index < pageCount) {
+                    filtered[size++] = index;
+                }
+            }
+            changes = Arrays.copyOf(filtered, size);
+        }
+
+        BitSet pages = null;
+        if (changes == null && db.mSparseSnapshots && pageCount <= Integer.MAX_VALUE) {
+            // Holding the header latch prevents the next commit from making pages
+            // removable which are still in use as of the current commit.
+            pages = new BitSet();
+            pages.set(0, (int) Math.max(pageCount, mPageArray.getPageCount()));
+            mPageManager.traceCommittedFreePages(pages);
+        }
+
+        return mPageArray.beginSnapshot
+            (db, pageCount, redoPos, mCommitNumber, baseline, changes,
+             pages, db.mSnapshotCompression);
+    }
+
     /**
      * @param factory optional
      * @param cache optional
      * @param crypto optional
      * @param in snapshot source; does not require extra buffering; auto-closed
+     * @param increments incremental snapshot sources, in order; auto-closed
      */
     static PageDb restoreFromSnapshot(int pageSize, File[] files, FileFactory factory,
                                       EnumSet<OpenOption> options,
-                                      PageCache cache, Crypto crypto, InputStream in)
+                                      PageCache cache, Crypto crypto, InputStream in,
+                                      InputStream[] increments)
         throws IOException
     {
         if (options.contains(OpenOption.READ_ONLY)) {
@@ -680,7 +764,22 @@ final class DurablePageDb extends PageDb {
         PageArray pa;
         long index = 0;
 
-        if (crypto != null) {
+        // Sparse snapshot header isn't encrypted, and it always defines the page size.
+        PushbackInputStream pin = new PushbackInputStream(in, 8);
+        in = pin;
+        byte[] sparseHeader;
+        try {
+            sparseHeader = readSparseHeader(pin);
+        } catch (Throwable e) {
+            closeQuietly(null, in);
+            throw e;
+        }
+
+        if (sparseHeader != null) {
+            pageSize = decodeIntLE(sparseHeader, 8);
+        }
+
+        if (crypto != null || sparseHeader != null) {
             buffer = new byte[pageSize];
             bufferPage = p_transfer(buffer);
             pa = openPageArray(pageSize, files, factory, options);
@@ -722,34 +821,53 @@ final class DurablePageDb extends PageDb {
             }
         }
 
-        return restoreFromSnapshot(cache, crypto, in, buffer, bufferPage, pa, index);
+        return restoreFromSnapshot(cache, crypto, in, sparseHeader, increments,
+                                   buffer, bufferPage, pa, index);
     }
 
     /**
      * @param cache optional
      * @param crypto optional
      * @param in snapshot source; does not require extra buffering; auto-closed
+     * @param increments incremental snapshot sources, in order; auto-closed
      */
-    static PageDb restoreFromSnapshot(PageArray pa, PageCache cache, Crypto crypto, InputStream in)
+    static PageDb restoreFromSnapshot(PageArray pa, PageCache cache, Crypto crypto, InputStream in,
+                                      InputStream[] increments)
         throws IOException
     {
         if (!pa.isEmpty()) {
             throw new DatabaseException("Cannot restore into a non-empty file");
         }
 
+        PushbackInputStream pin = new PushbackInputStream(in, 8);
+        byte[] sparseHeader;
+        try {
+            sparseHeader = readSparseHeader(pin);
+        } catch (Throwable e) {
+            closeQuietly(null, in);
+            throw e;
+        }
+
         byte[] buffer = new byte[pa.pageSize()];
         /*P*/ byte[] bufferPage = p_transfer(buffer);
 
-        return restoreFromSnapshot(cache, crypto, in, buffer, bufferPage, pa, 0);
+        return restoreFromSnapshot(cache, crypto, pin, sparseHeader, increments,
+                                   buffer, bufferPage, pa, 0);
     }
 
+    /**
+     * @param sparseHeader optional
+     */
     private static PageDb restoreFromSnapshot(PageCache cache, Crypto crypto, InputStream in,
+                                              byte[] sparseHeader, InputStream[] increments,
                                               byte[] buffer, /*P*/ byte[] bufferPage,
                                               PageArray pa, long index)
         throws IOException
     {
         try {
-            while (true) {
+            if (sparseHeader != null) {
+                restoreSparse(in, sparseHeader, buffer, bufferPage, pa);
+            } else while (true) {
                 try {
                     readFully(in, buffer, 0, buffer.length);
                 } catch (EOFException e) {
@@ -759,12 +877,23 @@ final class DurablePageDb extends PageDb {
                 index++;
             }
 
+            for (InputStream increment : increments) {
+                try {
+                    restoreIncrement(crypto, increment, buffer, bufferPage, pa);
+                } finally {
+                    closeQuietly(null, increment);
+                }
+            }
+
             // Ensure newly restored snapshot is durable and also ensure that PageArray (if a
             // MappedPageArray) no longer considers itself to be empty.
             pa.sync(true);
         } finally {
             p_delete(bufferPage);
             closeQuietly(null, in);
+            for (InputStream increment : increments) {
+                closeQuietly(null, increment);
+            }
         }
 
         try {
@@ -774,6 +903,209 @@ final class DurablePageDb extends PageDb {
         }
     }
 
+    /**
+     * Reads the header of a sparse snapshot, or else returns null if the snapshot isn't
+     * sparse. The bytes read are pushed back in that case.
+     */
+    private static byte[] readSparseHeader(PushbackInputStream in) throws IOException {
+        byte[] header = new byte[SnapshotPageArray.SPARSE_HEADER_SIZE];
+        readFully(in, header, 0, 8);
+        if (decodeLongLE(header, 0) != SnapshotPageArray.SPARSE_MAGIC_NUMBER) {
+            in.unread(header, 0, 8);
+            return null;
+        }
+        readFully(in, header, 8, header.length - 8);
+        return header;
+    }
+
+    /**
+     * Writes all the pages of a sparse snapshot. Free pages are skipped, leaving holes in
+     * the page array.
+     */
+    private static void restoreSparse(InputStream in, byte[] header,
+                                      byte[] buffer, /*P*/ byte[] bufferPage,
+                                      PageArray pa)
+        throws IOException
+    {
+        final int pageSize = buffer.length;
+        if (decodeIntLE(header, 8) != pageSize) {
+            throw new DatabaseException
+                ("Sparse snapshot page size doesn't match: " +
+                 decodeIntLE(header, 8) + " != " + pageSize);
+        }
+
+        final long pageCount = decodeLongLE(header, 16);
+
+        Inflater inflater = null;
+        byte[] block = null;
+        byte[] compressed = null;
+        if ((decodeIntLE(header, 12) & SnapshotPageArray.SPARSE_FLAG_COMPRESSED) != 0) {
+            inflater = new Inflater();
+            compressed = new byte[pageSize];
+        }
+
+        try {
+            byte[] runHeader = new byte[8];
+            long index = 0;
+
+            while (index < pageCount) {
+                readFully(in, runHeader, 0, 4);
+                int count = decodeIntLE(runHeader, 0);
+
+                if (count < 0) {
+                    index -= count;
+                    continue;
+                }
+
+                if (count == 0 || index + count > pageCount) {
+                    throw new CorruptDatabaseException("Invalid sparse snapshot run: " + count);
+                }
+
+                int clen;
+                if (inflater == null) {
+                    clen = SnapshotPageArray.SPARSE_RUN_STORED;
+                } else {
+                    readFully(in, runHeader, 4, 4);
+                    clen = decodeIntLE(runHeader, 4);
+                }
+
+                if (clen == SnapshotPageArray.SPARSE_RUN_STORED) {
+                    for (int i=0; i<count; i++) {
+                        readFully(in, buffer, 0, pageSize);
+                        pa.writePage(index++, p_transferTo(buffer, bufferPage));
+                    }
+                    continue;
+                }
+
+                int length = count * pageSize;
+                if (clen < 0 || clen >= length) {
+                    throw new CorruptDatabaseException
+                        ("Invalid sparse snapshot compressed length: " + clen);
+                }
+
+                if (clen > compressed.length) {
+                    compressed = new byte[clen];
+                }
+                readFully(in, compressed, 0, clen);
+
+                if (block == null || length > block.length) {
+                    block = new byte[length];
+                }
+
+                inflater.reset();
+                inflater.setInput(compressed, 0, clen);
+                try {
+                    int amt = 0;
+                    while (amt < length) {
+                        int n = inflater.inflate(block, amt, length - amt);
+                        if (n <= 0 && (inflater.finished() || inflater.needsInput())) {
+                            throw new CorruptDatabaseException("Truncated sparse snapshot run");
+                        }
+                        amt += n;
+                    }
+                } catch (DataFormatException e) {
+                    throw new CorruptDatabaseException(e);
+                }
+
+                for (int i=0; i<count; i++) {
+                    arraycopy(block, i * pageSize, buffer, 0, pageSize);
+                    pa.writePage(index++, p_transferTo(buffer, bufferPage));
+                }
+            }
+
+            // Extend the array over any free pages at the end.
+            if (pa.getPageCount() < pageCount) {
+                pa.setPageCount(pageCount);
+            }
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Applies an incremental snapshot to a restored page array.
+     */
+    private static void restoreIncrement(Crypto crypto, InputStream in,
+                                         byte[] buffer, /*P*/ byte[] bufferPage,
+                                         PageArray pa)
+        throws IOException
+    {
+        byte[] header = new byte[SnapshotPageArray.INCREMENTAL_HEADER_SIZE];
+        readFully(in, header, 0, header.length);
+
+        long magic = decodeLongBE(header, 0);
+        if (magic != SnapshotPageArray.INCREMENTAL_MAGIC_NUMBER) {
+            throw new DatabaseException("Wrong incremental snapshot magic number: " + magic);
+        }
+
+        int pageSize = decodeIntBE(header, 8);
+        if (pageSize != buffer.length) {
+            throw new DatabaseException
+                ("Incremental snapshot page size doesn't match: " +
+                 pageSize + " != " + buffer.length);
+        }
+
+        int baseline = decodeIntBE(header, 12);
+        int current = readCommitNumber(crypto == null ? pa : new CryptoPageArray(pa, crypto));
+        if (baseline != current) {
+            throw new DatabaseException
+                ("Incremental snapshot doesn't apply to the restored checkpoint: " +
+                 (baseline & 0xffffffffL) + " != " + (current & 0xffffffffL));
+        }
+
+        long pageCount = decodeLongBE(header, 20);
+        long changeCount = decodeLongBE(header, 28);
+
+        byte[] manifest = new byte[(int) (changeCount * 8)];
+        readFully(in, manifest, 0, manifest.length);
+
+        for (int i=0; i<changeCount; i++) {
+            long index = decodeLongBE(manifest, i * 8);
+            readFully(in, buffer, 0, buffer.length);
+            pa.writePage(index, p_transferTo(buffer, bufferPage));
+        }
+
+        pa.setPageCount(pageCount);
+    }
+
+    /**
+     * Returns the commit number of the current header in the given array.
+     */
+    private static int readCommitNumber(PageArray pa) throws IOException {
+        int commitNumber = 0;
+        boolean found = false;
+
+        /*P*/ byte[] header = p_alloc(MINIMUM_PAGE_SIZE);
+        try {
+            for (int id = 0; id <= 1; id++) {
+                pa.readPage(id, header, 0, MINIMUM_PAGE_SIZE);
+                if (p_longGetLE(header, I_MAGIC_NUMBER) != MAGIC_NUMBER) {
+                    continue;
+                }
+                int checksum = p_intGetLE(header, I_CHECKSUM);
+                if (setHeaderChecksum(header) != checksum) {
+                    continue;
+                }
+                int number = p_intGetLE(header, I_COMMIT_NUMBER);
+                // Modulo comparison.
+                if (!found || number - commitNumber > 0) {
+                    commitNumber = number;
+                    found = true;
+                }
+            }
+        } finally {
+            p_delete(header);
+        }
+
+        if (!found) {
+            throw new CorruptDatabaseException("No valid header found");
+        }
+
+        return commitNumber;
+    }
+
     private IOException closeOnFailure(Throwable e) throws IOException {
         throw Utils.closeOnFailure(this, e);
     }
@@ -813,6 +1145,13 @@ final class DurablePageDb extends PageDb {
         // first, because the header won't affect it.
         array.sync(true);
 
+        PageChangeLog log = mPageArray.changeLog();
+        if (log != null) {
+            // Log must be durable before the header, or else the pages written by this
+            // checkpoint might be missing from incremental snapshots.
+            log.commit(commitNumber);
+        }
+
         mHeaderLatch.acquireExclusive();
         try {
             array.writePage(commitNumber & 1, header);
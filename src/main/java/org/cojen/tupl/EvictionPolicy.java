@@ -0,0 +1,40 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+/**
+ * Defines the policy for selecting which cached nodes to evict when the cache is full.
+ *
+ * @author Brian S O'Neill
+ * @see DatabaseConfig#evictionPolicy
+ */
+public enum EvictionPolicy {
+    /**
+     * Policy which evicts the least recently used node. Each access attempts to move the node
+     * to the most recently used position, which requires latching the usage list. Under
+     * contention, some accesses aren't recorded.
+     */
+    LRU,
+
+    /**
+     * Policy which evicts nodes which haven't been referenced since the last sweep. Each
+     * access only sets a reference count, without any latching. Newly loaded nodes start off
+     * unreferenced, and internal nodes get an additional chance to remain cached. This makes
+     * the cache resistant to large scans, which load many nodes only once.
+     */
+    CLOCK
+}
@@ -18,9 +18,10 @@ package org.cojen.tupl;
 
 import sun.misc.Unsafe;
 
-import java.lang.reflect.Field;
 import java.nio.ByteOrder;
 
+import org.cojen.tupl.io.UnsafeAccess;
+
 /**
  * Fast non-cryptographic hash function which computes a Wang/Jenkins hash over 8-byte
  * chunks. Chunks are combined by multiplying the cumulative hash by 31 and xor'ng the next
@@ -114,14 +115,11 @@ class Hasher {
         private static final long BYTE_ARRAY_OFFSET;
 
         static {
-            try {
-                Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
-                theUnsafe.setAccessible(true);
-                UNSAFE = (Unsafe) theUnsafe.get(null);
-                BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
-            } catch (Throwable e) {
+            UNSAFE = UnsafeAccess.tryObtain();
+            if (UNSAFE == null) {
                 throw new ExceptionInInitializerError();
             }
+            BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
         }
 
         @Override
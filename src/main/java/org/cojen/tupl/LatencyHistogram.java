@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of latencies, with buckets which double in size. Bucket n counts
+ * latencies which are at least 2^n nanoseconds, and less than 2^(n+1).
+ *
+ * @author Brian S O'Neill
+ */
+final class LatencyHistogram {
+    // Enough buckets for over 8 minutes.
+    static final int BUCKETS = 40;
+
+    private final LongAdder[] mBuckets;
+
+    LatencyHistogram() {
+        LongAdder[] buckets = new LongAdder[BUCKETS];
+        for (int i=0; i<buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+        mBuckets = buckets;
+    }
+
+    void record(long nanos) {
+        int bucket = 63 - Long.numberOfLeadingZeros(Math.max(1, nanos));
+        mBuckets[Math.min(bucket, BUCKETS - 1)].increment();
+    }
+
+    long[] snapshot() {
+        LongAdder[] buckets = mBuckets;
+        long[] counts = new long[buckets.length];
+        for (int i=0; i<counts.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+}
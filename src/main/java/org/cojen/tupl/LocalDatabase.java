@@ -84,8 +84,11 @@ final class LocalDatabase implements Database {
     // usage list to function correctly.
     private static final int MIN_CACHED_NODES = 5;
 
-    private static final long PRIMER_MAGIC_NUMBER = 4943712973215968399L;
+    private static final long PRIMER_MAGIC_NUMBER = 4943712973215968400L;
+    // Magic number of the original cache primer format, which only encodes keys.
+    private static final long PRIMER_KEYS_MAGIC_NUMBER = 4943712973215968399L;
 
+    private static final String CHANGES_FILE_SUFFIX = ".changes";
     private static final String INFO_FILE_SUFFIX = ".info";
     private static final String LOCK_FILE_SUFFIX = ".lock";
     static final String PRIMER_FILE_SUFFIX = ".primer";
@@ -185,7 +188,28 @@ final class LocalDatabase implements Database {
     private final LHashTable.Obj<TreeRef> mOpenTreesById;
     private final ReferenceQueue<Tree> mOpenTreesRefQueue;
 
-    private final NodeDirtyList mDirtyList;
+    // Dirty lists of all the usage lists.
+    private final NodeDirtyList[] mDirtyLists;
+    private final int mMaxCheckpointThreads;
+
+    // Maximum number of concurrent page reads when applying a cache primer.
+    private final int mPrimerQueueDepth;
+
+    // Snapshot format options, used by DurablePageDb.
+    final boolean mSparseSnapshots;
+    final boolean mSnapshotCompression;
+    final int mMaxSnapshotThreads;
+
+    // Is true if NodeUsageLists use the CLOCK eviction policy instead of LRU.
+    final boolean mClockEviction;
+
+    // Is true if nodes keep a copy of the first 4 bytes of each key.
+    final boolean mSearchHeads;
+
+    final MetricCounters mMetrics = new MetricCounters();
+
+    // Is null if not registered.
+    private DatabaseMetricsMBean mMetricsMBean;
 
     // Map of all loaded nodes.
     private final Node[] mNodeMapTable;
@@ -193,6 +217,9 @@ final class LocalDatabase implements Database {
 
     final int mMaxFragmentedEntrySize;
 
+    // Maximum length of a compressed leaf node key prefix, or zero if disabled.
+    final int mMaxKeyPrefixLength;
+
     // Fragmented values which are transactionally deleted go here.
     private volatile FragmentedTrash mFragmentedTrash;
 
@@ -210,6 +237,8 @@ final class LocalDatabase implements Database {
     private final ReentrantLock mCheckpointLock = new ReentrantLock(true);
 
     private long mLastCheckpointNanos;
+    // Amount of nodes written by the last checkpoint flush.
+    private long mCheckpointFlushedPages;
 
     private volatile Checkpointer mCheckpointer;
 
@@ -276,6 +305,18 @@ final class LocalDatabase implements Database {
         mCustomTxnHandler = config.mTxnHandler;
 
         mBaseFile = config.mBaseFile;
+
+        mSnapshotCompression = config.mSnapshotCompression;
+        mSparseSnapshots = config.mSparseSnapshots || mSnapshotCompression;
+
+        int snapshotThreads = config.mMaxSnapshotThreads;
+        if (snapshotThreads < 0) {
+            snapshotThreads = -snapshotThreads * Runtime.getRuntime().availableProcessors();
+        }
+        mMaxSnapshotThreads = Math.max(1, snapshotThreads);
+
+        mClockEviction = config.mEvictionPolicy == EvictionPolicy.CLOCK;
+        mSearchHeads = config.mSearchHeads;
         final File[] dataFiles = config.dataFiles();
 
         int pageSize = config.mPageSize;
@@ -326,7 +367,8 @@ final class LocalDatabase implements Database {
 
         mDurabilityMode = config.mDurabilityMode;
         mDefaultLockTimeoutNanos = config.mLockTimeoutNanos;
-        mLockManager = new LockManager(config.mLockUpgradeRule, mDefaultLockTimeoutNanos);
+        mLockManager = new LockManager(config.mLockUpgradeRule, mDefaultLockTimeoutNanos,
+                                       config.mLockEscalationThreshold);
 
         // Initialize NodeMap, the primary cache of Nodes.
         {
@@ -436,6 +478,15 @@ final class LocalDatabase implements Database {
             // Actual page size might differ from configured size.
             config.pageSize(pageSize = mPageSize = mPageDb.pageSize());
 
+            if (config.mIncrementalSnapshots && mBaseFile != null && openMode != OPEN_TEMP
+                && !config.mReadOnly && mPageDb.isDurable())
+            {
+                // Must start tracking changes before any pages are written.
+                ((DurablePageDb) mPageDb).openChangeLog
+                    (new File(mBaseFile.getPath() + CHANGES_FILE_SUFFIX),
+                     openMode == OPEN_DESTROY);
+            }
+
             /*P*/ // [
             config.mDirectPageAccess = false;
             /*P*/ // |
@@ -597,7 +648,25 @@ final class LocalDatabase implements Database {
                 mRegistryKeyMap = openInternalTree(Tree.REGISTRY_KEY_MAP_ID, true, config);
             }
 
-            mDirtyList = new NodeDirtyList();
+            {
+                NodeDirtyList[] dirtyLists = new NodeDirtyList[mUsageLists.length];
+                for (int i=0; i<dirtyLists.length; i++) {
+                    dirtyLists[i] = mUsageLists[i].mDirtyList;
+                }
+                mDirtyLists = dirtyLists;
+
+                int maxThreads = config.mMaxCheckpointThreads;
+                if (maxThreads < 0) {
+                    maxThreads = -maxThreads * Runtime.getRuntime().availableProcessors();
+                }
+                mMaxCheckpointThreads = Math.max(1, maxThreads);
+
+                int queueDepth = config.mCachePrimingQueueDepth;
+                if (queueDepth < 0) {
+                    queueDepth = -queueDepth * Runtime.getRuntime().availableProcessors();
+                }
+                mPrimerQueueDepth = Math.max(1, queueDepth);
+            }
 
             if (openMode != OPEN_TEMP) {
                 Tree tree = openInternalTree(Tree.FRAGMENTED_TRASH_ID, false, config);
@@ -608,7 +677,16 @@ final class LocalDatabase implements Database {
 
             // Limit maximum fragmented entry size to guarantee that 2 entries fit. Each also
             // requires 2 bytes for pointer and up to 3 bytes for value length field.
-            mMaxFragmentedEntrySize = (pageSize - Node.TN_HEADER_SIZE - (2 + 3 + 2 + 3)) >> 1;
+            if (config.mKeyPrefixCompression) {
+                // Also reserve room for the key prefix and its length field.
+                mMaxKeyPrefixLength = Math.min(255, pageSize >> 5);
+                mMaxFragmentedEntrySize = (pageSize - Node.TN_HEADER_SIZE
+                                           - (1 + mMaxKeyPrefixLength)
+                                           - (2 + 3 + 2 + 3)) >> 1;
+            } else {
+                mMaxKeyPrefixLength = 0;
+                mMaxFragmentedEntrySize = (pageSize - Node.TN_HEADER_SIZE - (2 + 3 + 2 + 3)) >> 1;
+            }
 
             mFragmentInodeLevelCaps = calculateInodeLevelCaps(mPageSize);
 
@@ -667,13 +745,25 @@ final class LocalDatabase implements Database {
                         RedoLog.deleteOldFile(config.mBaseFile, logId - i);
                     }
 
-                    RedoLogApplier applier = new RedoLogApplier(this, txns);
+                    int recoveryThreads = config.mMaxRecoveryThreads;
+                    if (recoveryThreads < 0) {
+                        recoveryThreads = -recoveryThreads
+                            * Runtime.getRuntime().availableProcessors();
+                    }
+
+                    RedoLogApplier applier = new RedoLogApplier(this, txns, recoveryThreads);
                     RedoLog replayLog = new RedoLog(config, logId, redoPos);
 
                     // As a side-effect, log id is set one higher than last file scanned.
-                    Set<File> redoFiles = replayLog.replay
-                        (applier, mEventListener, EventType.RECOVERY_APPLY_REDO_LOG,
-                         "Applying redo log: %1$d");
+                    Set<File> redoFiles;
+                    try {
+                        redoFiles = replayLog.replay
+                            (applier, mEventListener, EventType.RECOVERY_APPLY_REDO_LOG,
+                             "Applying redo log: %1$d");
+                        applier.finish();
+                    } finally {
+                        applier.stopWorkers();
+                    }
 
                     boolean doCheckpoint = !redoFiles.isEmpty();
 
@@ -707,7 +797,7 @@ final class LocalDatabase implements Database {
                     }
 
                     // New redo logs begin with identifiers one higher than last scanned.
-                    mRedoWriter = new RedoLog(config, replayLog);
+                    mRedoWriter = new RedoLog(config, replayLog, mMetrics);
 
                     // TODO: If any exception is thrown before checkpoint is complete, delete
                     // the newly created redo log file.
@@ -744,6 +834,15 @@ final class LocalDatabase implements Database {
      * Post construction, allow additional threads access to the database.
      */
     private void finishInit(DatabaseConfig config) throws IOException {
+        if (config.mMetricsMBean) {
+            try {
+                mMetricsMBean = DatabaseMetricsMBean.register(this, mBaseFile);
+            } catch (Throwable e) {
+                closeQuietly(null, this, e);
+                throw e;
+            }
+        }
+
         if (mRedoWriter == null && mTempFileManager == null) {
             // Nothing is durable and nothing to ever clean up 
             return;
@@ -1112,6 +1211,117 @@ final class LocalDatabase implements Database {
         return accessTree(index).drop(false);
     }
 
+    @Override
+    public BulkLoader newBulkLoader(byte[] name, double fillFactor) throws IOException {
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException("Illegal fill factor: " + fillFactor);
+        }
+
+        if (mRedoWriter instanceof ReplRedoWriter) {
+            // Replicas would never see the loaded entries.
+            throw new UnsupportedOperationException("Bulk loading isn't supported by replicas");
+        }
+
+        int reserve = (int) ((1.0 - fillFactor) * (mPageSize - Node.TN_HEADER_SIZE));
+
+        return new TreeLoader(createLoadTree(name.clone()), reserve);
+    }
+
+    @Override
+    public Sorter newSorter() throws IOException {
+        checkClosed();
+        return new MergeSorter(this, mTempFileManager, MergeSorter.DEFAULT_RUN_SIZE);
+    }
+
+    /**
+     * Creates a new empty tree for bulk loading, which is registered in the trash until it's
+     * published. No redo operations are written.
+     */
+    private Tree createLoadTree(byte[] name) throws IOException {
+        byte[] nameKey = newKey(KEY_TYPE_INDEX_NAME, name);
+
+        mCommitLock.acquireShared();
+        try {
+            checkClosed();
+
+            if (mRegistryKeyMap.load(null, nameKey) != null) {
+                throw new IllegalStateException("Name is used by another index");
+            }
+
+            try {
+                byte[] treeIdBytes = new byte[8];
+                long treeId;
+                do {
+                    treeId = nextTreeId();
+                    encodeLongBE(treeIdBytes, 0, treeId);
+                } while (!mRegistry.insert(Transaction.BOGUS, treeIdBytes, EMPTY_BYTES));
+
+                // Trash entry is tagged to indicate that name is non-null, just like
+                // moveToTrash. Note that nameKey instance is modified directly.
+                nameKey[0] = 1;
+                mRegistryKeyMap.store
+                    (Transaction.BOGUS, newKey(KEY_TYPE_TRASH_ID, treeIdBytes), nameKey);
+
+                return newTreeInstance(treeId, treeIdBytes, name, loadTreeRoot(0));
+            } catch (Throwable e) {
+                DatabaseException.rethrowIfRecoverable(e);
+                throw closeOnFailure(this, e);
+            }
+        } finally {
+            mCommitLock.releaseShared();
+        }
+    }
+
+    /**
+     * Publishes a tree which was filled by a bulk loader. Registry changes are made while
+     * holding the commit lock, and so they become durable along with the tree contents when
+     * the caller performs a checkpoint.
+     */
+    Index publishLoadedTree(Tree tree) throws IOException {
+        final byte[] name = tree.mName;
+        final byte[] nameKey = newKey(KEY_TYPE_INDEX_NAME, name);
+        final byte[] idKey = newKey(KEY_TYPE_INDEX_ID, tree.mIdBytes);
+        final byte[] trashIdKey = newKey(KEY_TYPE_TRASH_ID, tree.mIdBytes);
+
+        mCommitLock.acquireShared();
+        try {
+            checkClosed();
+
+            mOpenTreesLatch.acquireExclusive();
+            try {
+                if (mRegistryKeyMap.load(null, nameKey) != null) {
+                    throw new IllegalStateException("Name is used by another index");
+                }
+
+                try {
+                    mRegistryKeyMap.store(Transaction.BOGUS, idKey, name);
+                    mRegistryKeyMap.store(Transaction.BOGUS, nameKey, tree.mIdBytes);
+                    mRegistryKeyMap.delete(Transaction.BOGUS, trashIdKey);
+                } catch (Throwable e) {
+                    DatabaseException.rethrowIfRecoverable(e);
+                    throw closeOnFailure(this, e);
+                }
+
+                TreeRef treeRef = new TreeRef(tree, mOpenTreesRefQueue);
+                mOpenTrees.put(name, treeRef);
+                mOpenTreesById.insert(tree.mId).value = treeRef;
+            } finally {
+                mOpenTreesLatch.releaseExclusive();
+            }
+        } finally {
+            mCommitLock.releaseShared();
+        }
+
+        return tree;
+    }
+
+    /**
+     * Deletes a tree which was partially filled by a bulk loader.
+     */
+    void deleteLoadedTree(Tree tree) {
+        new Deletion(tree, false, null).run();
+    }
+
     /**
      * Returns a deletion task for a tree which just moved to the trash.
      */
@@ -1477,14 +1687,28 @@ final class LocalDatabase implements Database {
         return pageDb.beginSnapshot(this);
     }
 
+    @Override
+    public Snapshot beginIncrementalSnapshot(long baseline) throws IOException {
+        if (!(mPageDb.isDurable())) {
+            throw new UnsupportedOperationException("Snapshot only allowed for durable databases");
+        }
+        checkClosed();
+        DurablePageDb pageDb = (DurablePageDb) mPageDb;
+        return pageDb.beginIncrementalSnapshot(this, baseline);
+    }
+
     /**
      * Restore from a {@link #beginSnapshot snapshot}, into the data files defined by the given
      * configuration. All existing data and redo log files at the snapshot destination are
      * deleted before the restore begins.
      *
      * @param in snapshot source; does not require extra buffering; auto-closed
+     * @param increments incremental snapshot sources, in order; auto-closed
      */
-    static Database restoreFromSnapshot(DatabaseConfig config, InputStream in) throws IOException {
+    static Database restoreFromSnapshot(DatabaseConfig config, InputStream in,
+                                       InputStream[] increments)
+        throws IOException
+    {
         config = config.clone();
         PageDb restored;
 
@@ -1502,8 +1726,10 @@ final class LocalDatabase implements Database {
 
             // Delete old redo log files.
             deleteNumberedFiles(config.mBaseFile, REDO_FILE_SUFFIX);
+            deleteChangesFile(config.mBaseFile);
 
-            restored = DurablePageDb.restoreFromSnapshot(dataPageArray, null, config.mCrypto, in);
+            restored = DurablePageDb.restoreFromSnapshot
+                (dataPageArray, null, config.mCrypto, in, increments);
         } else {
             if (!config.mReadOnly) {
                 for (File f : dataFiles) {
@@ -1520,6 +1746,7 @@ final class LocalDatabase implements Database {
 
             // Delete old redo log files.
             deleteNumberedFiles(config.mBaseFile, REDO_FILE_SUFFIX);
+            deleteChangesFile(config.mBaseFile);
 
             int pageSize = config.mPageSize;
             if (pageSize <= 0) {
@@ -1527,7 +1754,7 @@ final class LocalDatabase implements Database {
             }
 
             restored = DurablePageDb.restoreFromSnapshot
-                (pageSize, dataFiles, factory, options, null, config.mCrypto, in);
+                (pageSize, dataFiles, factory, options, null, config.mCrypto, in, increments);
         }
 
         try {
@@ -1539,6 +1766,16 @@ final class LocalDatabase implements Database {
         return Database.open(config);
     }
 
+    /**
+     * @param baseFile optional
+     */
+    private static void deleteChangesFile(File baseFile) {
+        if (baseFile != null) {
+            // Page change history doesn't apply to the restored database.
+            new File(baseFile.getPath() + CHANGES_FILE_SUFFIX).delete();
+        }
+    }
+
     @Override
     public void createCachePrimer(OutputStream out) throws IOException {
         if (!(mPageDb.isDurable())) {
@@ -1585,7 +1822,12 @@ final class LocalDatabase implements Database {
         }
 
         long magic = din.readLong();
-        if (magic != PRIMER_MAGIC_NUMBER) {
+        boolean keysOnly;
+        if (magic == PRIMER_MAGIC_NUMBER) {
+            keysOnly = false;
+        } else if (magic == PRIMER_KEYS_MAGIC_NUMBER) {
+            keysOnly = true;
+        } else {
             throw new DatabaseException("Wrong cache primer magic number: " + magic);
         }
 
@@ -1598,13 +1840,30 @@ final class LocalDatabase implements Database {
             din.readFully(name);
             Index ix = openIndex(name, false);
             if (ix instanceof Tree) {
-                ((Tree) ix).applyCachePrimer(din);
+                if (keysOnly) {
+                    ((Tree) ix).applyKeyCachePrimer(din, mPrimerQueueDepth);
+                } else {
+                    ((Tree) ix).applyCachePrimer(din, mPrimerQueueDepth);
+                }
+            } else if (keysOnly) {
+                Tree.skipKeyCachePrimer(din);
             } else {
                 Tree.skipCachePrimer(din);
             }
         }
     }
 
+    @Override
+    public Metrics metrics() {
+        Metrics metrics = new Metrics();
+        mMetrics.fill(metrics);
+        LockManager manager = mLockManager;
+        metrics.lockWaits = manager.mLockWaits.sum();
+        metrics.lockWaitNanos = manager.mLockWaitNanos.sum();
+        metrics.deadlocks = manager.mDeadlocks.sum();
+        return metrics;
+    }
+
     @Override
     public Stats stats() {
         Stats stats = new Stats();
@@ -1970,6 +2229,11 @@ final class LocalDatabase implements Database {
         try {
             mCheckpointer = null;
 
+            if (mMetricsMBean != null) {
+                mMetricsMBean.unregister();
+                mMetricsMBean = null;
+            }
+
             CommitLock lock = mCommitLock;
 
             if (mOpenTrees != null) {
@@ -2020,8 +2284,10 @@ final class LocalDatabase implements Database {
                     }
                 }
 
-                if (mDirtyList != null) {
-                    mDirtyList.delete(this);
+                if (mDirtyLists != null) {
+                    for (NodeDirtyList dirtyList : mDirtyLists) {
+                        dirtyList.delete(this);
+                    }
                 }
 
                 synchronized (mTxnIdLock) {
@@ -3020,7 +3286,7 @@ final class LocalDatabase implements Database {
         /*P*/ // }
         /*P*/ // ]
 
-        mDirtyList.add(node, mCommitState);
+        node.mUsageList.mDirtyList.add(node, mCommitState);
         return node;
     }
 
@@ -3207,15 +3473,16 @@ final class LocalDatabase implements Database {
         /*P*/ // ]
 
         node.mId = newId;
-        mDirtyList.add(node, mCommitState);
+        node.mUsageList.mDirtyList.add(node, mCommitState);
     }
 
     /**
      * Remove the old node from the dirty list and swap in the new node. Caller must hold
-     * commit lock and latched the old node. The cached state of the nodes is not altered.
+     * commit lock and latched the old node. If a checkpoint is flushing the state of the new
+     * node, the new node is written immediately.
      */
-    void swapIfDirty(Node oldNode, Node newNode) {
-        mDirtyList.swapIfDirty(oldNode, newNode);
+    void swapIfDirty(Node oldNode, Node newNode) throws IOException {
+        oldNode.mUsageList.mDirtyList.swapIfDirty(oldNode, newNode, mPageDb);
     }
 
     /**
@@ -3223,7 +3490,7 @@ final class LocalDatabase implements Database {
      * should only be called for nodes whose existing data is not needed.
      */
     void redirty(Node node) {
-        mDirtyList.add(node, mCommitState);
+        node.mUsageList.mDirtyList.add(node, mCommitState);
     }
 
     /**
@@ -3623,6 +3890,190 @@ final class LocalDatabase implements Database {
         }
     }
 
+    /**
+     * Compares a fragmented key against a plain key, without reconstructing it. Fragment pages
+     * are loaded one at a time, and only until the first mismatched byte is found.
+     *
+     * @param start index of the first byte to compare; all bytes before it must be known to
+     * match
+     * @return zero if equal, or else the index of the first mismatched byte plus one if the
+     * fragmented key is greater, or the complement of the index if the fragmented key is less
+     */
+    int compareFragmentedKey(/*P*/ byte[] fragmented, int off, int len, byte[] key, int start)
+        throws IOException
+    {
+        int header = p_byteGet(fragmented, off++);
+        len--;
+
+        long vLen = decodeFullFragmentedValueLength(header, fragmented, off);
+        if (vLen > Integer.MAX_VALUE) {
+            throw new LargeKeyException(vLen);
+        }
+
+        {
+            int vLenFieldSize = 2 + ((header >> 1) & 0x06);
+            off += vLenFieldSize;
+            len -= vLenFieldSize;
+        }
+
+        final int keyLen = (int) vLen;
+        final int minLen = Math.min(keyLen, key.length);
+
+        int vOff = 0;
+        int result;
+
+        if ((header & 0x02) != 0) {
+            // Inline content.
+            int inLen = p_ushortGetLE(fragmented, off);
+            off += 2;
+            len -= 2;
+            result = compareFragment(fragmented, off, 0, inLen, key, start, minLen);
+            if (result != 0) {
+                return result;
+            }
+            off += inLen;
+            len -= inLen;
+            vOff += inLen;
+            vLen -= inLen;
+        }
+
+        if ((header & 0x01) == 0) {
+            // Direct pointers.
+            for (; len >= 6 && vOff < minLen; off += 6, len -= 6) {
+                int pLen = (int) Math.min(vLen, mPageSize);
+                if (vOff + pLen > start) {
+                    long nodeId = p_uint48GetLE(fragmented, off);
+                    if (nodeId == 0) {
+                        // Sparse fragment is all zeros.
+                        result = compareZeros(vOff, pLen, key, start, minLen);
+                    } else {
+                        Node node = nodeMapLoadFragment(nodeId);
+                        try {
+                            result = compareFragment(node.mPage, 0, vOff, pLen,
+                                                     key, start, minLen);
+                        } finally {
+                            node.releaseShared();
+                        }
+                    }
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                vOff += pLen;
+                vLen -= pLen;
+            }
+        } else if (vOff < minLen) {
+            // Indirect pointers.
+            long inodeId = p_uint48GetLE(fragmented, off);
+            if (inodeId == 0) {
+                result = compareZeros(vOff, (int) vLen, key, start, minLen);
+            } else {
+                Node inode = nodeMapLoadFragment(inodeId);
+                int levels = calculateInodeLevels(vLen);
+                result = compareMultilevelFragments(levels, inode, vOff, (int) vLen,
+                                                    key, start, minLen);
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+
+        return keyLen == key.length ? 0 : (keyLen < key.length ? ~minLen : (minLen + 1));
+    }
+
+    /**
+     * @param level inode level; at least 1
+     * @param inode shared latched parent inode; always released by this method
+     * @param vOff offset of the slice within the fragmented key
+     * @return zero if the slice matches, else same as compareFragmentedKey
+     */
+    private int compareMultilevelFragments(int level, Node inode, int vOff, int vLen,
+                                           byte[] key, int start, int minLen)
+        throws IOException
+    {
+        try {
+            /*P*/ byte[] page = inode.mPage;
+            level--;
+            long levelCap = levelCap(level);
+
+            int childNodeCount = (int) ((vLen + (levelCap - 1)) / levelCap);
+
+            for (int poffset = 0, i=0; i<childNodeCount && vOff < minLen; poffset += 6, i++) {
+                int len = (int) Math.min(levelCap, vLen);
+
+                if (vOff + len > start) {
+                    long childNodeId = p_uint48GetLE(page, poffset);
+                    int result;
+                    if (childNodeId == 0) {
+                        result = compareZeros(vOff, len, key, start, minLen);
+                    } else {
+                        Node childNode = nodeMapLoadFragment(childNodeId);
+                        if (level <= 0) {
+                            try {
+                                result = compareFragment(childNode.mPage, 0, vOff, len,
+                                                         key, start, minLen);
+                            } finally {
+                                childNode.releaseShared();
+                            }
+                        } else {
+                            result = compareMultilevelFragments
+                                (level, childNode, vOff, len, key, start, minLen);
+                        }
+                    }
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+
+                vLen -= len;
+                vOff += len;
+            }
+
+            return 0;
+        } finally {
+            inode.releaseShared();
+        }
+    }
+
+    /**
+     * Compares a slice of a fragmented key, stored contiguously in a page.
+     *
+     * @param vOff offset of the slice within the fragmented key
+     * @return zero if the slice matches, else same as compareFragmentedKey
+     */
+    private static int compareFragment(/*P*/ byte[] page, int off, int vOff, int len,
+                                       byte[] key, int start, int minLen)
+    {
+        int from = Math.max(vOff, start);
+        int to = Math.min(vOff + len, minLen);
+        if (from < to) {
+            off += from - vOff;
+            int i = p_mismatch(page, off, key, from, to - from);
+            if (i < to - from) {
+                int cmp = p_ubyteGet(page, off + i) - (key[from + i] & 0xff);
+                i += from;
+                return cmp < 0 ? ~i : (i + 1);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compares a sparse slice of a fragmented key, which is implicitly filled with zeros.
+     *
+     * @param vOff offset of the slice within the fragmented key
+     * @return zero if the slice matches, else same as compareFragmentedKey
+     */
+    private static int compareZeros(int vOff, int len, byte[] key, int start, int minLen) {
+        int to = Math.min(vOff + len, minLen);
+        for (int i = Math.max(vOff, start); i < to; i++) {
+            if (key[i] != 0) {
+                return ~i;
+            }
+        }
+        return 0;
+    }
+
     /**
      * Reconstruct a fragmented value.
      */
@@ -4002,6 +4453,8 @@ final class LocalDatabase implements Database {
      * Reads the node page, sets the id and cached state. Node must be latched exclusively.
      */
     void readNode(Node node, long id) throws IOException {
+        mMetrics.mCacheMisses.increment();
+
         /*P*/ // [
         mPageDb.readPage(id, node.mPage);
         /*P*/ // |
@@ -4093,6 +4546,7 @@ final class LocalDatabase implements Database {
             }
 
             mLastCheckpointNanos = nowNanos;
+            mCheckpointFlushedPages = 0;
 
             if (mEventListener != null) {
                 // Note: Events should not be delivered when exclusive commit lock is held.
@@ -4248,11 +4702,17 @@ final class LocalDatabase implements Database {
                 mRedoWriter.checkpointFinished();
             }
 
+            long durationNanos = System.nanoTime() - mLastCheckpointNanos;
+            mMetrics.checkpointed(durationNanos, mCheckpointFlushedPages);
+
             if (mEventListener != null) {
-                double duration = (System.nanoTime() - mLastCheckpointNanos) / 1_000_000_000.0;
+                double duration = durationNanos / 1_000_000_000.0;
+                long pages = mCheckpointFlushedPages;
+                double rate = duration <= 0 ? 0 : (pages / duration);
                 mEventListener.notify(EventType.CHECKPOINT_COMPLETE,
-                                      "Checkpoint completed in %1$1.3f seconds",
-                                      duration, TimeUnit.SECONDS);
+                                      "Checkpoint completed in %1$1.3f seconds, " +
+                                      "%3$d pages written at %4$1.0f pages/second",
+                                      duration, TimeUnit.SECONDS, pages, rate);
             }
         } finally {
             mCheckpointLock.unlock();
@@ -4299,7 +4759,8 @@ final class LocalDatabase implements Database {
         }
 
         try {
-            mDirtyList.flush(mPageDb, stateToFlush);
+            mCheckpointFlushedPages = NodeDirtyList.flush
+                (mDirtyLists, mPageDb, stateToFlush, mMaxCheckpointThreads);
 
             if (mRedoWriter != null) {
                 mRedoWriter.checkpointFlushed();
@@ -184,6 +184,7 @@ final class LocalTransaction extends Locker implements Transaction {
                 if (undo == null) {
                     int hasState = mHasState;
                     if ((hasState & HAS_COMMIT) != 0) {
+                        long start = System.nanoTime();
                         RedoWriter redo = mRedoWriter;
                         long commitPos = redo.txnCommitFinal(mTxnId, mDurabilityMode);
                         mHasState = hasState & ~(HAS_SCOPE | HAS_COMMIT);
@@ -192,9 +193,11 @@ final class LocalTransaction extends Locker implements Transaction {
                                 redo.txnCommitSync(this, commitPos);
                             } else {
                                 commitPending(commitPos, null);
+                                committed(start);
                                 return;
                             }
                         }
+                        committed(start);
                     }
                     super.scopeUnlockAll();
                 } else {
@@ -203,6 +206,7 @@ final class LocalTransaction extends Locker implements Transaction {
                     // logs with no corresponding redo log are treated as
                     // aborted. Recovery would erroneously rollback committed
                     // transactions.
+                    long start = System.nanoTime();
                     final CommitLock commitLock = mDatabase.commitLock();
                     commitLock.acquireShared();
                     long commitPos;
@@ -226,10 +230,13 @@ final class LocalTransaction extends Locker implements Transaction {
                             mRedoWriter.txnCommitSync(this, commitPos);
                         } else {
                             commitPending(commitPos, undo);
+                            committed(start);
                             return;
                         }
                     }
 
+                    committed(start);
+
                     // Calling this deletes any ghosts too.
                     super.scopeUnlockAll();
 
@@ -272,6 +279,10 @@ final class LocalTransaction extends Locker implements Transaction {
         }
     }
 
+    private void committed(long startNanos) {
+        mDatabase.mMetrics.mCommitLatency.record(System.nanoTime() - startNanos);
+    }
+
     private void commitPending(long commitPos, UndoLog undo) throws IOException {
         PendingTxn pending = transferExclusive();
         pending.mTxnId = mTxnId;
@@ -18,6 +18,8 @@ package org.cojen.tupl;
 
 import java.lang.ref.SoftReference;
 
+import java.util.concurrent.atomic.LongAdder;
+
 import org.cojen.tupl.util.Latch;
 import org.cojen.tupl.util.LatchCondition;
 
@@ -37,21 +39,40 @@ final class LockManager {
     final LockUpgradeRule mDefaultLockUpgradeRule;
     final long mDefaultTimeoutNanos;
 
+    // Number of exclusive or upgradable key locks a Locker can acquire against an index
+    // before escalating to an index lock. Zero disables lock escalation.
+    final int mEscalationThreshold;
+
+    final LongAdder mLockWaits = new LongAdder();
+    final LongAdder mLockWaitNanos = new LongAdder();
+    final LongAdder mDeadlocks = new LongAdder();
+
     private final LockHT[] mHashTables;
     private final int mHashTableShift;
 
     private final ThreadLocal<SoftReference<Locker>> mLocalLockerRef;
 
     LockManager(LockUpgradeRule lockUpgradeRule, long timeoutNanos) {
-        this(lockUpgradeRule, timeoutNanos, Runtime.getRuntime().availableProcessors() * 16);
+        this(lockUpgradeRule, timeoutNanos, 0);
     }
 
-    private LockManager(LockUpgradeRule lockUpgradeRule, long timeoutNanos, int numHashTables) {
+    /**
+     * @param escalationThreshold zero to disable lock escalation
+     */
+    LockManager(LockUpgradeRule lockUpgradeRule, long timeoutNanos, int escalationThreshold) {
+        this(lockUpgradeRule, timeoutNanos, escalationThreshold,
+             Runtime.getRuntime().availableProcessors() * 16);
+    }
+
+    private LockManager(LockUpgradeRule lockUpgradeRule, long timeoutNanos,
+                        int escalationThreshold, int numHashTables)
+    {
         if (lockUpgradeRule == null) {
             lockUpgradeRule = LockUpgradeRule.STRICT;
         }
         mDefaultLockUpgradeRule = lockUpgradeRule;
         mDefaultTimeoutNanos = timeoutNanos;
+        mEscalationThreshold = Math.max(0, escalationThreshold);
 
         numHashTables = Utils.roundUpPower2(Math.max(2, numHashTables));
         mHashTables = new LockHT[numHashTables];
@@ -86,20 +107,99 @@ final class LockManager {
         // another thread has just acquired an exclusive lock, it must still acquire the node
         // latch before any changes can be made.
         Lock lock = getLockHT(hash).lockFor(indexId, key, hash);
-        return lock == null ? true : lock.isAvailable(locker);
+        if (lock != null && !lock.isAvailable(locker)) {
+            return false;
+        }
+        if (mEscalationThreshold != 0) {
+            // Key might be covered by an escalated index lock.
+            hash = indexHash(indexId);
+            LockHT ht = getLockHT(hash);
+            if (ht.mIndexLocks != 0 && (lock = ht.lockFor(indexId, null, hash)) != null) {
+                return lock.isAvailable(locker);
+            }
+        }
+        return true;
     }
 
     final LockResult check(LockOwner locker, long indexId, byte[] key, int hash) {
+        LockResult result;
         LockHT ht = getLockHT(hash);
         ht.acquireShared();
         try {
             Lock lock = ht.lockFor(indexId, key, hash);
-            return lock == null ? LockResult.UNOWNED : lock.check(locker);
+            result = lock == null ? LockResult.UNOWNED : lock.check(locker);
+        } finally {
+            ht.releaseShared();
+        }
+
+        if (result == LockResult.UNOWNED && mEscalationThreshold != 0) {
+            // Key might be covered by an escalated index lock.
+            hash = indexHash(indexId);
+            ht = getLockHT(hash);
+            if (ht.mIndexLocks != 0) {
+                ht.acquireShared();
+                try {
+                    Lock lock = ht.lockFor(indexId, null, hash);
+                    if (lock != null && lock.check(locker) == OWNED_EXCLUSIVE) {
+                        result = OWNED_EXCLUSIVE;
+                    }
+                } finally {
+                    ht.releaseShared();
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns true if the given locker exclusively holds the index lock, which was acquired
+     * by lock escalation.
+     */
+    final boolean isIndexLockOwner(LockOwner locker, long indexId) {
+        // Note that no LockHT latch is acquired. Only the owner can release the lock.
+        int hash = indexHash(indexId);
+        Lock lock = getLockHT(hash).lockFor(indexId, null, hash);
+        return lock != null && lock.mLockCount == ~0 && lock.mOwner == locker;
+    }
+
+    /**
+     * Returns true if the index lock is exclusively held by another owner, and so key locks
+     * cannot be granted to the given locker.
+     */
+    final boolean isIndexLockConflict(LockOwner locker, long indexId) {
+        int hash = indexHash(indexId);
+        LockHT ht = getLockHT(hash);
+        if (ht.mIndexLocks == 0) {
+            return false;
+        }
+        ht.acquireShared();
+        try {
+            Lock lock = ht.lockFor(indexId, null, hash);
+            return lock != null && lock.mLockCount == ~0 && lock.mOwner != locker;
         } finally {
             ht.releaseShared();
         }
     }
 
+    /**
+     * Returns true if any key lock for the given index is held by another owner. Called by
+     * lock escalation after the index lock has been acquired.
+     */
+    final boolean isKeyLockedByOthers(LockOwner locker, long indexId) {
+        for (LockHT ht : mHashTables) {
+            ht.acquireShared();
+            try {
+                if (ht.isKeyLockedByOthers(locker, indexId)) {
+                    return true;
+                }
+            } finally {
+                ht.releaseShared();
+            }
+        }
+        return false;
+    }
+
     final void unlock(LockOwner locker, Lock lock) {
         LockHT ht = getLockHT(lock.mHashCode);
         ht.acquireExclusive();
@@ -144,13 +244,27 @@ final class LockManager {
 
     /**
      * Mark a lock as referencing a ghosted entry. Caller must ensure that lock
-     * is already exclusively held.
+     * is already exclusively held, either as a key lock or as an escalated index lock.
      */
-    final void ghosted(Tree tree, byte[] key, int hash) {
+    final void ghosted(LockOwner owner, Tree tree, byte[] key, int hash) {
         LockHT ht = getLockHT(hash);
         ht.acquireExclusive();
         try {
-            ht.lockFor(tree.mId, key, hash).mSharedLockOwnersObj = tree;
+            Lock lock = ht.lockFor(tree.mId, key, hash);
+            if (lock != null && lock.mOwner == owner) {
+                lock.mSharedLockOwnersObj = tree;
+                return;
+            }
+        } finally {
+            ht.releaseExclusive();
+        }
+
+        // Key lock isn't held, and so the key must be covered by an escalated index lock.
+        hash = indexHash(tree.mId);
+        ht = getLockHT(hash);
+        ht.acquireExclusive();
+        try {
+            ht.lockFor(tree.mId, null, hash).addGhost(tree, key);
         } finally {
             ht.releaseExclusive();
         }
@@ -158,8 +272,8 @@ final class LockManager {
 
     final Locker lockSharedLocal(long indexId, byte[] key, int hash) throws LockFailureException {
         Locker locker = localLocker();
-        LockResult result = getLockHT(hash)
-            .tryLock(TYPE_SHARED, locker, indexId, key, hash, mDefaultTimeoutNanos);
+        LockResult result = locker.tryLockKey
+            (TYPE_SHARED, indexId, key, hash, mDefaultTimeoutNanos);
         if (result.isHeld()) {
             return locker;
         }
@@ -170,8 +284,8 @@ final class LockManager {
         throws LockFailureException
     {
         Locker locker = localLocker();
-        LockResult result = getLockHT(hash)
-            .tryLock(TYPE_EXCLUSIVE, locker, indexId, key, hash, mDefaultTimeoutNanos);
+        LockResult result = locker.tryLockKey
+            (TYPE_EXCLUSIVE, indexId, key, hash, mDefaultTimeoutNanos);
         if (result.isHeld()) {
             return locker;
         }
@@ -202,21 +316,44 @@ final class LockManager {
         return (int) Hasher.hash(indexId, key);
     }
 
+    /**
+     * Returns the hash code for an index lock, which has a null key.
+     */
+    final static int indexHash(long indexId) {
+        return (int) Utils.scramble(indexId);
+    }
+
     LockHT getLockHT(int hash) {
         return mHashTables[hash >>> mHashTableShift];
     }
 
     /**
-     * Simple hashtable of Locks.
+     * Open addressing hashtable of Locks, using linear probing. Lookups can be performed
+     * without the latch, but the latch is required for acquiring and releasing locks. Removed
+     * Lock instances are pooled and recycled for new locks.
      */
     @SuppressWarnings("serial")
     static final class LockHT extends Latch {
-        private static final float LOAD_FACTOR = 0.75f;
+        private static final float LOAD_FACTOR = 0.5f;
+
+        // Marks a removed entry, which doesn't break the probe sequence for other entries.
+        private static final Lock DELETED = new Lock();
 
         private transient Lock[] mEntries;
+        // Count of live entries.
         private int mSize;
+        // Count of live and deleted entries.
+        private int mUsed;
         private int mGrowThreshold;
 
+        // Pool of unused Lock instances, linked by the mLockManagerNext field.
+        private transient Lock mFreeList;
+        private int mFreeSize;
+
+        // Count of index locks, which have a null key. Is read without the latch, to quickly
+        // determine if any key lock might be covered by an escalated index lock.
+        volatile int mIndexLocks;
+
         // Padding to prevent cache line sharing.
         private long a0, a1, a2, a3;
 
@@ -234,19 +371,23 @@ final class LockManager {
         }
 
         /**
-         * Caller must hold latch.
+         * Latch isn't required, but the caller must then be prepared for the result to be
+         * stale.
          *
          * @return null if not found
          */
         Lock lockFor(long indexId, byte[] key, int hash) {
             Lock[] entries = mEntries;
-            int index = hash & (entries.length - 1);
-            for (Lock e = entries[index]; e != null; e = e.mLockManagerNext) {
-                if (e.matches(indexId, key, hash)) {
+            int mask = entries.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                Lock e = entries[i];
+                if (e == null) {
+                    return null;
+                }
+                if (e.matches(indexId, key, hash) && e != DELETED) {
                     return e;
                 }
             }
-            return null;
         }
 
         /**
@@ -262,49 +403,34 @@ final class LockManager {
                 lockNonEx: {
                     acquireExclusive();
                     try {
-                        Lock[] entries = mEntries;
-                        int index = hash & (entries.length - 1);
-                        for (lock = entries[index]; lock != null; lock = lock.mLockManagerNext) {
-                            if (lock.matches(indexId, key, hash)) {
-                                if (type == TYPE_SHARED) {
-                                    result = lock.tryLockShared(this, locker, nanosTimeout);
-                                    break lockNonEx;
-                                } else if (type == TYPE_UPGRADABLE) {
-                                    result = lock.tryLockUpgradable(this, locker, nanosTimeout);
-                                    break lockNonEx;
-                                } else {
-                                    result = lock.tryLockExclusive(this, locker, nanosTimeout);
-                                    break lockEx;
-                                }
+                        int slot = probe(indexId, key, hash);
+
+                        if (slot >= 0) {
+                            lock = mEntries[slot];
+                            if (type == TYPE_SHARED) {
+                                result = lock.tryLockShared(this, locker, nanosTimeout);
+                                break lockNonEx;
+                            } else if (type == TYPE_UPGRADABLE) {
+                                result = lock.tryLockUpgradable(this, locker, nanosTimeout);
+                                break lockNonEx;
+                            } else {
+                                result = lock.tryLockExclusive(this, locker, nanosTimeout);
+                                break lockEx;
                             }
                         }
 
-                        if (mSize >= mGrowThreshold) {
-                            int capacity = entries.length << 1;
-                            Lock[] newEntries = new Lock[capacity];
-                            int newMask = capacity - 1;
-
-                            for (int i=entries.length; --i>=0 ;) {
-                                for (Lock e = entries[i]; e != null; ) {
-                                    Lock next = e.mLockManagerNext;
-                                    int ix = e.mHashCode & newMask;
-                                    e.mLockManagerNext = newEntries[ix];
-                                    newEntries[ix] = e;
-                                    e = next;
-                                }
-                            }
-
-                            mEntries = entries = newEntries;
-                            mGrowThreshold = (int) (capacity * LOAD_FACTOR);
-                            index = hash & newMask;
+                        lock = mFreeList;
+                        if (lock == null) {
+                            lock = new Lock();
+                        } else {
+                            mFreeList = lock.mLockManagerNext;
+                            lock.mLockManagerNext = null;
+                            mFreeSize--;
                         }
 
-                        lock = new Lock();
-
                         lock.mIndexId = indexId;
                         lock.mKey = key;
                         lock.mHashCode = hash;
-                        lock.mLockManagerNext = entries[index];
 
                         lock.mLockCount = type;
                         if (type == TYPE_SHARED) {
@@ -313,8 +439,7 @@ final class LockManager {
                             lock.mOwner = locker;
                         }
 
-                        entries[index] = lock;
-                        mSize++;
+                        insert(~slot, lock);
                     } finally {
                         releaseExclusive();
                     }
@@ -355,42 +480,20 @@ final class LockManager {
             lockEx: {
                 acquireExclusive();
                 try {
-                    Lock[] entries = mEntries;
-                    int index = hash & (entries.length - 1);
-                    for (lock = entries[index]; lock != null; lock = lock.mLockManagerNext) {
-                        if (lock.matches(newLock.mIndexId, newLock.mKey, hash)) {
-                            result = lock.tryLockExclusive(this, locker, nanosTimeout);
-                            break lockEx;
-                        }
-                    }
+                    int slot = probe(newLock.mIndexId, newLock.mKey, hash);
 
-                    if (mSize >= mGrowThreshold) {
-                        int capacity = entries.length << 1;
-                        Lock[] newEntries = new Lock[capacity];
-                        int newMask = capacity - 1;
-
-                        for (int i=entries.length; --i>=0 ;) {
-                            for (Lock e = entries[i]; e != null; ) {
-                                Lock next = e.mLockManagerNext;
-                                int ix = e.mHashCode & newMask;
-                                e.mLockManagerNext = newEntries[ix];
-                                newEntries[ix] = e;
-                                e = next;
-                            }
-                        }
-
-                        mEntries = entries = newEntries;
-                        mGrowThreshold = (int) (capacity * LOAD_FACTOR);
-                        index = hash & newMask;
+                    if (slot >= 0) {
+                        lock = mEntries[slot];
+                        result = lock.tryLockExclusive(this, locker, nanosTimeout);
+                        break lockEx;
                     }
 
                     lock = newLock;
-                    lock.mLockManagerNext = entries[index];
+                    lock.mLockManagerNext = null;
                     lock.mLockCount = ~0;
                     lock.mOwner = locker;
 
-                    entries[index] = lock;
-                    mSize++;
+                    insert(~slot, lock);
                 } finally {
                     releaseExclusive();
                 }
@@ -409,70 +512,97 @@ final class LockManager {
         }
 
         /**
-         * Caller must hold latch and ensure that Lock is in hashtable.
-         *
-         * @throws NullPointerException if lock is not in hashtable
+         * Caller must hold exclusive latch. Removed Lock is recycled, and so the caller must
+         * ensure that it's no longer referenced.
          */
         void remove(Lock lock) {
             Lock[] entries = mEntries;
-            int index = lock.mHashCode & (entries.length - 1);
-            Lock e = entries[index];
-            if (e == lock) {
-                entries[index] = e.mLockManagerNext;
-            } else while (true) {
-                Lock next = e.mLockManagerNext;
-                if (next == lock) {
-                    e.mLockManagerNext = next.mLockManagerNext;
+            int mask = entries.length - 1;
+            int i = lock.mHashCode & mask;
+            while (true) {
+                Lock e = entries[i];
+                if (e == lock) {
                     break;
                 }
-                e = next;
+                if (e == null) {
+                    // Not found.
+                    return;
+                }
+                i = (i + 1) & mask;
             }
+
             mSize--;
+
+            if (lock.mKey == null) {
+                mIndexLocks--;
+            }
+
+            if (entries[(i + 1) & mask] == null) {
+                // Slot is at the end of a probe sequence, and so it can be cleared, along
+                // with any deleted entries which immediately precede it.
+                do {
+                    entries[i] = null;
+                    mUsed--;
+                    i = (i - 1) & mask;
+                } while (entries[i] == DELETED);
+            } else {
+                entries[i] = DELETED;
+            }
+
+            // Pool size is limited by the capacity of the hashtable, which reflects the
+            // highest number of locks held.
+            if (mFreeSize < (entries.length >> 2)) {
+                lock.mKey = null;
+                lock.mLockCount = 0;
+                lock.mOwner = null;
+                lock.mSharedLockOwnersObj = null;
+                lock.mQueueU = null;
+                lock.mQueueSX = null;
+                lock.mLockManagerNext = mFreeList;
+                mFreeList = lock;
+                mFreeSize++;
+            }
         }
 
         void close(LockOwner locker) {
             acquireExclusive();
             try {
+                mFreeList = null;
+                mFreeSize = 0;
+
                 if (mSize > 0) {
                     Lock[] entries = mEntries;
                     for (int i=entries.length; --i>=0 ;) {
-                        for (Lock e = entries[i], prev = null; e != null; ) {
-                            Lock next = e.mLockManagerNext;
-
-                            if (e.mLockCount == ~0) {
-                                // Transfer exclusive lock.
-                                e.mOwner = locker;
-                            } else {
-                                // Release and remove lock.
-                                e.mLockCount = 0;
-                                e.mOwner = null;
-                                if (prev == null) {
-                                    entries[i] = next;
-                                } else {
-                                    prev.mLockManagerNext = next;
-                                }
-                                e.mLockManagerNext = null;
-                                mSize--;
-                            }
+                        Lock e = entries[i];
+                        if (e == null || e == DELETED) {
+                            continue;
+                        }
 
-                            e.mSharedLockOwnersObj = null;
+                        if (e.mLockCount == ~0) {
+                            // Transfer exclusive lock.
+                            e.mOwner = locker;
+                        } else {
+                            // Release and remove lock.
+                            e.mLockCount = 0;
+                            e.mOwner = null;
+                            entries[i] = DELETED;
+                            mSize--;
+                        }
 
-                            // Interrupt all waiters.
+                        e.mSharedLockOwnersObj = null;
 
-                            LatchCondition q = e.mQueueU;
-                            if (q != null) {
-                                q.clear();
-                                e.mQueueU = null;
-                            }
+                        // Interrupt all waiters.
 
-                            q = e.mQueueSX;
-                            if (q != null) {
-                                q.clear();
-                                e.mQueueSX = null;
-                            }
+                        LatchCondition q = e.mQueueU;
+                        if (q != null) {
+                            q.clear();
+                            e.mQueueU = null;
+                        }
 
-                            prev = e;
-                            e = next;
+                        q = e.mQueueSX;
+                        if (q != null) {
+                            q.clear();
+                            e.mQueueSX = null;
                         }
                     }
                 }
@@ -480,5 +610,104 @@ final class LockManager {
                 releaseExclusive();
             }
         }
+
+        /**
+         * Caller must hold exclusive latch.
+         *
+         * @return slot of matching lock, or else the complement of the slot to insert into
+         */
+        private int probe(long indexId, byte[] key, int hash) {
+            Lock[] entries = mEntries;
+            int mask = entries.length - 1;
+            int deleted = -1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                Lock e = entries[i];
+                if (e == null) {
+                    return ~(deleted < 0 ? i : deleted);
+                }
+                if (e == DELETED) {
+                    if (deleted < 0) {
+                        deleted = i;
+                    }
+                } else if (e.matches(indexId, key, hash)) {
+                    return i;
+                }
+            }
+        }
+
+        /**
+         * Caller must hold exclusive latch. Lock fields must be fully assigned, because
+         * lookups can be performed without the latch.
+         *
+         * @param slot slot provided by the probe method
+         */
+        private void insert(int slot, Lock lock) {
+            Lock[] entries = mEntries;
+
+            if (entries[slot] == null) {
+                if (mUsed >= mGrowThreshold) {
+                    entries = rehash(entries);
+                    int mask = entries.length - 1;
+                    slot = lock.mHashCode & mask;
+                    while (entries[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                }
+                mUsed++;
+            }
+
+            entries[slot] = lock;
+            mSize++;
+
+            if (lock.mKey == null) {
+                mIndexLocks++;
+            }
+        }
+
+        /**
+         * Caller must hold any latch.
+         */
+        boolean isKeyLockedByOthers(LockOwner locker, long indexId) {
+            if (mSize > 0) {
+                for (Lock e : mEntries) {
+                    if (e != null && e.mIndexId == indexId && e.mKey != null
+                        && e.isHeldByOther(locker))
+                    {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Caller must hold exclusive latch. Replaces the table with one which has no deleted
+         * entries, and grows it unless mostly deleted entries were present.
+         */
+        private Lock[] rehash(Lock[] entries) {
+            int capacity = entries.length;
+            if (mSize >= (mGrowThreshold >> 1)) {
+                capacity <<= 1;
+            }
+
+            Lock[] newEntries = new Lock[capacity];
+            int mask = capacity - 1;
+
+            for (Lock e : entries) {
+                if (e != null && e != DELETED) {
+                    int i = e.mHashCode & mask;
+                    while (newEntries[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    newEntries[i] = e;
+                }
+            }
+
+            mEntries = newEntries;
+            mUsed = mSize;
+            mGrowThreshold = (int) (capacity * LOAD_FACTOR);
+
+            return newEntries;
+        }
     }
 }
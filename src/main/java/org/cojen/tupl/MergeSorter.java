@@ -0,0 +1,645 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import static org.cojen.tupl.Utils.*;
+
+/**
+ * Sorter implementation which spills sorted runs into temporary files, and merges them with
+ * background threads. If no TempFileManager is available, sorted runs are kept in memory.
+ *
+ * @author Brian S O'Neill
+ */
+final class MergeSorter implements Sorter {
+    // Approximate amount of buffered entry bytes to sort before spilling a run.
+    static final int DEFAULT_RUN_SIZE = 8 << 20;
+
+    // Approximate memory overhead of each buffered entry, excluding the key and value bytes.
+    private static final int ENTRY_OVERHEAD = 64;
+
+    // Maximum number of runs to merge together by a background merge task.
+    private static final int MERGE_FAN_IN = 32;
+
+    private static final int IO_BUFFER_SIZE = 32768;
+
+    private static final Comparator<Entry> ENTRY_COMPARATOR =
+        (a, b) -> compareUnsigned(a.mKey, b.mKey);
+
+    private final Database mDatabase;
+    private final TempFileManager mTempFileManager;
+    private final int mRunSize;
+    private final int mMaxThreads;
+
+    private Entry[] mBuffer;
+    private int mBufferCount;
+    private long mBufferBytes;
+
+    // All remaining fields are guarded by this object.
+
+    // Runs are maintained in the order in which their entries were added.
+    private final ArrayList<Run> mRuns;
+    private int mActiveTasks;
+    private Throwable mException;
+    private volatile boolean mAborted;
+
+    /**
+     * @param tfm optional; when null, sorted runs are kept in memory
+     */
+    MergeSorter(Database db, TempFileManager tfm, int runSize) {
+        mDatabase = db;
+        mTempFileManager = tfm;
+        mRunSize = runSize;
+        mMaxThreads = Runtime.getRuntime().availableProcessors();
+        mRuns = new ArrayList<>();
+    }
+
+    @Override
+    public void add(byte[] key, byte[] value) throws IOException {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+
+        Entry[] buffer = mBuffer;
+        int count = mBufferCount;
+
+        if (buffer == null) {
+            mBuffer = buffer = new Entry[1000];
+        } else if (count >= buffer.length) {
+            mBuffer = buffer = Arrays.copyOf(buffer, count << 1);
+        }
+
+        buffer[count] = new Entry(key, value);
+        mBufferCount = count + 1;
+
+        if ((mBufferBytes += key.length + value.length + ENTRY_OVERHEAD) >= mRunSize) {
+            spill();
+        }
+    }
+
+    @Override
+    public Index finish(byte[] name) throws IOException {
+        BulkLoader loader = mDatabase.newBulkLoader(name, 1.0);
+        try {
+            finish(loader::add);
+            return loader.finish();
+        } finally {
+            loader.close();
+        }
+    }
+
+    @Override
+    public void finish(Cursor dest) throws IOException {
+        boolean autoload = dest.autoload(false);
+        try {
+            finish((key, value) -> {
+                dest.findNearby(key);
+                dest.store(value);
+            });
+        } finally {
+            dest.reset();
+            dest.autoload(autoload);
+        }
+    }
+
+    @Override
+    public void reset() throws IOException {
+        mBuffer = null;
+        mBufferCount = 0;
+        mBufferBytes = 0;
+
+        synchronized (this) {
+            mAborted = true;
+            try {
+                boolean interrupted = false;
+                while (mActiveTasks > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                for (Run run : mRuns) {
+                    deleteRun(run);
+                }
+                mRuns.clear();
+                mException = null;
+            } finally {
+                mAborted = false;
+            }
+        }
+    }
+
+    private void finish(Target target) throws IOException {
+        try {
+            // Sort the remaining entries in this thread, and keep them in memory.
+            Entry[] entries = mBuffer;
+            int count = mBufferCount;
+            mBuffer = null;
+            mBufferCount = 0;
+            mBufferBytes = 0;
+
+            Run last = null;
+            if (count > 0) {
+                last = new Run();
+                count = sortEntries(entries, count);
+                last.mEntries = entries;
+                last.mCount = count;
+                last.mReady = true;
+            }
+
+            Run[] runs;
+            synchronized (this) {
+                if (last != null) {
+                    mRuns.add(last);
+                }
+
+                awaitTasks();
+
+                // Reduce the number of runs to merge, with multiple threads.
+                while (mTempFileManager != null && mRuns.size() > MERGE_FAN_IN) {
+                    scheduleMerges(true);
+                    awaitTasks();
+                }
+
+                runs = mRuns.toArray(new Run[mRuns.size()]);
+            }
+
+            merge(runs, target);
+        } finally {
+            reset();
+        }
+    }
+
+    private void spill() throws IOException {
+        final Entry[] entries = mBuffer;
+        final int count = mBufferCount;
+        mBuffer = null;
+        mBufferCount = 0;
+        mBufferBytes = 0;
+
+        final Run run = new Run();
+
+        synchronized (this) {
+            while (true) {
+                checkException();
+                if (mActiveTasks < mMaxThreads) {
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+
+            mRuns.add(run);
+
+            startTask(() -> {
+                int actual = sortEntries(entries, count);
+                if (mTempFileManager == null) {
+                    run.mEntries = entries;
+                } else {
+                    run.mFile = writeRun(entries, actual);
+                }
+                run.mCount = actual;
+                synchronized (this) {
+                    run.mReady = true;
+                    scheduleMerges(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sorts the entries in place, removing duplicates.
+     *
+     * @return actual amount of entries
+     */
+    private static int sortEntries(Entry[] entries, int count) {
+        // Stable sort is required, such that the last duplicate can be retained.
+        Arrays.sort(entries, 0, count, ENTRY_COMPARATOR);
+
+        int actual = 0;
+        for (int i=0; i<count; i++) {
+            Entry e = entries[i];
+            int next = i + 1;
+            if (next < count && compareUnsigned(e.mKey, entries[next].mKey) == 0) {
+                continue;
+            }
+            entries[actual++] = e;
+        }
+
+        Arrays.fill(entries, actual, count, null);
+
+        return actual;
+    }
+
+    private File writeRun(Entry[] entries, int count) throws IOException {
+        File file = mTempFileManager.createTempFile();
+        try (RunWriter writer = new RunWriter(file)) {
+            for (int i=0; i<count; i++) {
+                Entry e = entries[i];
+                writer.accept(e.mKey, e.mValue);
+            }
+        } catch (Throwable e) {
+            mTempFileManager.deleteTempFile(file);
+            throw e;
+        }
+        return file;
+    }
+
+    /**
+     * Starts background merge tasks for consecutive runs which are ready. Caller must be
+     * synchronized.
+     *
+     * @param all when true, merge runs even if fewer than the maximum fan-in are available
+     */
+    private void scheduleMerges(boolean all) {
+        if (mTempFileManager == null) {
+            return;
+        }
+
+        while (mActiveTasks < mMaxThreads && mException == null && !mAborted) {
+            Run[] window = findMergeWindow(all);
+            if (window == null) {
+                return;
+            }
+
+            for (Run run : window) {
+                run.mMerging = true;
+            }
+
+            startTask(() -> mergeRuns(window));
+        }
+    }
+
+    /**
+     * Caller must be synchronized.
+     *
+     * @return null if none found
+     */
+    private Run[] findMergeWindow(boolean all) {
+        final ArrayList<Run> runs = mRuns;
+        final int size = runs.size();
+
+        int start = 0;
+        for (int i=0; i<size; i++) {
+            Run run = runs.get(i);
+            if (!run.mReady || run.mMerging) {
+                start = i + 1;
+                continue;
+            }
+            int len = i - start + 1;
+            if (len >= MERGE_FAN_IN || (all && i == size - 1 && len > 1)) {
+                return runs.subList(start, i + 1).toArray(new Run[len]);
+            }
+        }
+
+        return null;
+    }
+
+    private void mergeRuns(Run[] window) throws IOException {
+        File file = mTempFileManager.createTempFile();
+        long count;
+        try (RunWriter writer = new RunWriter(file)) {
+            merge(window, writer);
+            count = writer.mCount;
+        } catch (Throwable e) {
+            mTempFileManager.deleteTempFile(file);
+            throw e;
+        }
+
+        Run merged = new Run();
+        merged.mFile = file;
+        merged.mCount = count;
+        merged.mReady = true;
+
+        synchronized (this) {
+            int start = indexOf(mRuns, window[0]);
+            mRuns.subList(start, start + window.length).clear();
+            mRuns.add(start, merged);
+            scheduleMerges(false);
+        }
+
+        for (Run run : window) {
+            deleteRun(run);
+        }
+    }
+
+    private static int indexOf(ArrayList<Run> runs, Run run) {
+        for (int i=0; i<runs.size(); i++) {
+            if (runs.get(i) == run) {
+                return i;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * Merges the given runs, passing entries to the target in ascending order. When
+     * duplicate keys are found, the entry from the highest run is retained.
+     */
+    private void merge(Run[] runs, Target target) throws IOException {
+        PriorityQueue<Reader> queue = new PriorityQueue<>(Math.max(1, runs.length), (a, b) -> {
+            int compare = compareUnsigned(a.mKey, b.mKey);
+            return compare != 0 ? compare : Integer.compare(b.mOrder, a.mOrder);
+        });
+
+        try {
+            for (int i=0; i<runs.length; i++) {
+                Reader reader = runs[i].open(i);
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+
+            Reader reader;
+            while ((reader = queue.poll()) != null) {
+                if (mAborted) {
+                    reader.close();
+                    throw new InterruptedIOException("Sort aborted");
+                }
+
+                byte[] key = reader.mKey;
+                target.accept(key, reader.mValue);
+
+                // Skip over duplicates from older runs.
+                Reader dup;
+                while ((dup = queue.peek()) != null && compareUnsigned(dup.mKey, key) == 0) {
+                    queue.poll();
+                    advance(queue, dup);
+                }
+
+                advance(queue, reader);
+            }
+        } finally {
+            for (Reader reader : queue) {
+                reader.close();
+            }
+        }
+    }
+
+    private static void advance(PriorityQueue<Reader> queue, Reader reader) throws IOException {
+        boolean next;
+        try {
+            next = reader.next();
+        } catch (Throwable e) {
+            reader.close();
+            throw e;
+        }
+        if (next) {
+            queue.add(reader);
+        } else {
+            reader.close();
+        }
+    }
+
+    /**
+     * Caller must be synchronized.
+     */
+    private void startTask(Task task) {
+        mActiveTasks++;
+
+        Thread t = new Thread(() -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                synchronized (MergeSorter.this) {
+                    if (mException == null && !mAborted) {
+                        mException = e;
+                    }
+                }
+            } finally {
+                synchronized (MergeSorter.this) {
+                    mActiveTasks--;
+                    MergeSorter.this.notifyAll();
+                }
+            }
+        }, "Sorter");
+
+        t.setDaemon(true);
+
+        try {
+            t.start();
+        } catch (Throwable e) {
+            mActiveTasks--;
+            throw e;
+        }
+    }
+
+    /**
+     * Caller must be synchronized.
+     */
+    private void awaitTasks() throws IOException {
+        while (true) {
+            checkException();
+            if (mActiveTasks == 0) {
+                return;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Caller must be synchronized.
+     */
+    private void checkException() throws IOException {
+        Throwable e = mException;
+        if (e != null) {
+            if (e instanceof IOException) {
+                throw new IOException(e.getMessage(), e);
+            }
+            throw rethrow(e);
+        }
+    }
+
+    private void deleteRun(Run run) {
+        File file = run.mFile;
+        if (file != null) {
+            mTempFileManager.deleteTempFile(file);
+        }
+        run.mEntries = null;
+    }
+
+    @FunctionalInterface
+    static interface Target {
+        void accept(byte[] key, byte[] value) throws IOException;
+    }
+
+    @FunctionalInterface
+    static interface Task {
+        void run() throws IOException;
+    }
+
+    static final class Entry {
+        final byte[] mKey;
+        final byte[] mValue;
+
+        Entry(byte[] key, byte[] value) {
+            mKey = key;
+            mValue = value;
+        }
+    }
+
+    /**
+     * Sorted run of entries, either in memory or in a file.
+     */
+    static final class Run {
+        File mFile;
+        Entry[] mEntries;
+        long mCount;
+
+        // Fields are guarded by the sorter.
+        boolean mReady;
+        boolean mMerging;
+
+        /**
+         * @param order merge order; entries from higher orders are retained
+         */
+        Reader open(int order) throws IOException {
+            return mFile == null ? new MemoryReader(this, order) : new FileReader(this, order);
+        }
+    }
+
+    abstract static class Reader {
+        final int mOrder;
+        byte[] mKey;
+        byte[] mValue;
+
+        Reader(int order) {
+            mOrder = order;
+        }
+
+        /**
+         * @return false if no more entries
+         */
+        abstract boolean next() throws IOException;
+
+        void close() {
+        }
+    }
+
+    static final class MemoryReader extends Reader {
+        private final Entry[] mEntries;
+        private final int mCount;
+        private int mPos;
+
+        MemoryReader(Run run, int order) {
+            super(order);
+            mEntries = run.mEntries;
+            mCount = (int) run.mCount;
+        }
+
+        @Override
+        boolean next() {
+            int pos = mPos;
+            if (pos >= mCount) {
+                mKey = null;
+                mValue = null;
+                return false;
+            }
+            Entry e = mEntries[pos];
+            mKey = e.mKey;
+            mValue = e.mValue;
+            mPos = pos + 1;
+            return true;
+        }
+    }
+
+    static final class FileReader extends Reader {
+        private final DataInputStream mIn;
+        private long mRemaining;
+
+        FileReader(Run run, int order) throws IOException {
+            super(order);
+            mIn = new DataInputStream(new BufferedInputStream
+                                      (new FileInputStream(run.mFile), IO_BUFFER_SIZE));
+            mRemaining = run.mCount;
+        }
+
+        @Override
+        boolean next() throws IOException {
+            if (mRemaining <= 0) {
+                mKey = null;
+                mValue = null;
+                return false;
+            }
+            byte[] key = new byte[mIn.readInt()];
+            mIn.readFully(key);
+            byte[] value = new byte[mIn.readInt()];
+            mIn.readFully(value);
+            mKey = key;
+            mValue = value;
+            mRemaining--;
+            return true;
+        }
+
+        @Override
+        void close() {
+            closeQuietly(null, mIn);
+        }
+    }
+
+    static final class RunWriter implements Target, AutoCloseable {
+        private final DataOutputStream mOut;
+        long mCount;
+
+        RunWriter(File file) throws IOException {
+            mOut = new DataOutputStream(new BufferedOutputStream
+                                        (new FileOutputStream(file), IO_BUFFER_SIZE));
+        }
+
+        @Override
+        public void accept(byte[] key, byte[] value) throws IOException {
+            DataOutputStream out = mOut;
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(value.length);
+            out.write(value);
+            mCount++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+}
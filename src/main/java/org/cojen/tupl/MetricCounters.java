@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Striped counters which are updated at various points in the database, and which are
+ * gathered into {@link Database.Metrics} snapshots.
+ *
+ * @author Brian S O'Neill
+ */
+final class MetricCounters {
+    // Incremented when a cached node is used, or when a node is read into the cache.
+    final LongAdder mCacheHits = new LongAdder();
+    final LongAdder mCacheMisses = new LongAdder();
+    final LongAdder mEvictions = new LongAdder();
+
+    final LongAdder mSplits = new LongAdder();
+    final LongAdder mMerges = new LongAdder();
+
+    final LongAdder mRedoBytes = new LongAdder();
+    final LatencyHistogram mSyncLatency = new LatencyHistogram();
+
+    final LatencyHistogram mCommitLatency = new LatencyHistogram();
+
+    // The following fields are guarded by this MetricCounters.
+    private long mCheckpoints;
+    private long mCheckpointNanos;
+    private long mLastCheckpointNanos;
+    private long mCheckpointPages;
+
+    /**
+     * Called after each full checkpoint completes.
+     */
+    synchronized void checkpointed(long nanos, long pages) {
+        mCheckpoints++;
+        mCheckpointNanos += nanos;
+        mLastCheckpointNanos = nanos;
+        mCheckpointPages += pages;
+    }
+
+    void fill(Database.Metrics metrics) {
+        metrics.cacheHits = mCacheHits.sum();
+        metrics.cacheMisses = mCacheMisses.sum();
+        metrics.evictions = mEvictions.sum();
+        metrics.nodeSplits = mSplits.sum();
+        metrics.nodeMerges = mMerges.sum();
+        metrics.redoBytes = mRedoBytes.sum();
+        metrics.syncLatency = mSyncLatency.snapshot();
+        metrics.commitLatency = mCommitLatency.snapshot();
+
+        synchronized (this) {
+            metrics.checkpoints = mCheckpoints;
+            metrics.checkpointNanos = mCheckpointNanos;
+            metrics.lastCheckpointNanos = mLastCheckpointNanos;
+            metrics.checkpointPages = mCheckpointPages;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.util.Arrays;
+
+import static org.cojen.tupl.Utils.*;
+
+/**
+ * Persistent log of page ids which were written by each checkpoint, used for creating
+ * incremental snapshots. Page ids written since the last checkpoint are accumulated in
+ * memory, and they're appended to the log just before the next header is committed.
+ *
+ * @author Brian S O'Neill
+ */
+final class PageChangeLog implements Closeable {
+    /*
+
+    File format:
+
+    +------------------------------------------+
+    | long: magic number                       |
+    | int:  start commit number                |
+    +------------------------------------------+
+    | entries                                  |
+    +------------------------------------------+
+
+    Entry format:
+
+    +------------------------------------------+
+    | int:  commit number                      |
+    | int:  page count                         |
+    | long: page ids, in ascending order       |
+    +------------------------------------------+
+
+    */
+
+    private static final long MAGIC_NUMBER = 4238762163398201756L;
+    private static final int HEADER_SIZE = 8 + 4;
+
+    private final File mFile;
+    private final RandomAccessFile mRaf;
+
+    // The following fields are guarded by this PageChangeLog.
+    private long[] mPending;
+    private int mPendingSize;
+
+    // The following fields are guarded by mRaf.
+    private int mStart;
+    private long mLength;
+
+    /**
+     * Opens an existing log, or else starts a new one if it doesn't match the database.
+     *
+     * @param commitNumber current header commit number of the database
+     */
+    PageChangeLog(File file, int commitNumber) throws IOException {
+        mFile = file;
+        mRaf = new RandomAccessFile(file, "rw");
+        mPending = new long[64];
+
+        try {
+            if (!resume(commitNumber)) {
+                restart(commitNumber);
+            }
+        } catch (Throwable e) {
+            closeQuietly(null, this);
+            throw e;
+        }
+    }
+
+    /**
+     * Record that a page is being written.
+     */
+    synchronized void record(long index) {
+        if (mPendingSize >= mPending.length) {
+            mPending = Arrays.copyOf(mPending, mPendingSize << 1);
+        }
+        mPending[mPendingSize++] = index;
+    }
+
+    /**
+     * Durably appends all page ids recorded since the last commit. Must be called before the
+     * header with the given commit number is written.
+     */
+    void commit(int commitNumber) throws IOException {
+        long[] pending;
+        int size;
+        synchronized (this) {
+            pending = mPending;
+            size = mPendingSize;
+            mPending = new long[Math.max(64, size >> 1)];
+            mPendingSize = 0;
+        }
+
+        if (size == 0) {
+            return;
+        }
+
+        Arrays.sort(pending, 0, size);
+        size = dedup(pending, size);
+
+        byte[] entry = new byte[4 + 4 + size * 8];
+        encodeIntBE(entry, 0, commitNumber);
+        encodeIntBE(entry, 4, size);
+        for (int i=0; i<size; i++) {
+            encodeLongBE(entry, 8 + i * 8, pending[i]);
+        }
+
+        synchronized (mRaf) {
+            mRaf.seek(mLength);
+            mRaf.write(entry);
+            mRaf.getChannel().force(false);
+            mLength += entry.length;
+        }
+    }
+
+    /**
+     * Returns all page ids written after the baseline commit, up to and including the given
+     * commit.
+     *
+     * @return page ids in ascending order
+     * @throws DatabaseException if the log doesn't go back as far as the baseline
+     */
+    long[] changes(int baseline, int commitNumber) throws IOException {
+        if (commitNumber - baseline < 0) {
+            throw new IllegalArgumentException
+                ("Baseline is newer than the current checkpoint: " + baseline);
+        }
+
+        long[] changes = new long[64];
+        int size = 0;
+
+        synchronized (mRaf) {
+            if (baseline - mStart < 0) {
+                throw new DatabaseException
+                    ("Page changes aren't available for baseline: " + baseline);
+            }
+
+            try (DataInputStream in = openEntries()) {
+                long remaining = mLength - HEADER_SIZE;
+                while (remaining > 0) {
+                    int number = in.readInt();
+                    int count = in.readInt();
+                    remaining -= 8 + count * 8L;
+                    boolean include = number - baseline > 0 && number - commitNumber <= 0;
+                    for (int i=0; i<count; i++) {
+                        long id = in.readLong();
+                        if (include) {
+                            if (size >= changes.length) {
+                                changes = Arrays.copyOf(changes, size << 1);
+                            }
+                            changes[size++] = id;
+                        }
+                    }
+                }
+            }
+        }
+
+        Arrays.sort(changes, 0, size);
+        return Arrays.copyOf(changes, dedup(changes, size));
+    }
+
+    /**
+     * Discards all changes which were committed before or at the given commit number.
+     */
+    void restart(int commitNumber) throws IOException {
+        synchronized (mRaf) {
+            // Retain entries committed after the restart point. Entries are small, and so
+            // they're held in memory while the file is rewritten.
+            byte[] retained = new byte[0];
+
+            if (mLength > HEADER_SIZE) {
+                try (DataInputStream in = openEntries()) {
+                    long remaining = mLength - HEADER_SIZE;
+                    while (remaining > 0) {
+                        int number = in.readInt();
+                        int count = in.readInt();
+                        int entryLength = 8 + count * 8;
+                        remaining -= entryLength;
+                        if (number - commitNumber > 0) {
+                            int pos = retained.length;
+                            retained = Arrays.copyOf(retained, pos + entryLength);
+                            encodeIntBE(retained, pos, number);
+                            encodeIntBE(retained, pos + 4, count);
+                            in.readFully(retained, pos + 8, count * 8);
+                        } else {
+                            skipFully(in, count * 8);
+                        }
+                    }
+                }
+            }
+
+            byte[] header = new byte[HEADER_SIZE];
+            encodeLongBE(header, 0, MAGIC_NUMBER);
+            encodeIntBE(header, 8, commitNumber);
+
+            mRaf.setLength(0);
+            mRaf.seek(0);
+            mRaf.write(header);
+            mRaf.write(retained);
+            mRaf.getChannel().force(true);
+
+            mStart = commitNumber;
+            mLength = HEADER_SIZE + retained.length;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRaf.close();
+    }
+
+    /**
+     * @return false if log is missing or doesn't match the database
+     */
+    private boolean resume(int commitNumber) throws IOException {
+        long fileLength = mRaf.length();
+        if (fileLength < HEADER_SIZE) {
+            return false;
+        }
+
+        mRaf.seek(0);
+        if (mRaf.readLong() != MAGIC_NUMBER) {
+            return false;
+        }
+
+        int start = mRaf.readInt();
+        int last = start;
+        long length = HEADER_SIZE;
+
+        // Find the last complete entry. A partial entry was being written when the process
+        // died, before the corresponding header was committed.
+        try (DataInputStream in = new DataInputStream
+             (new BufferedInputStream(new FileInputStream(mFile))))
+        {
+            skipFully(in, HEADER_SIZE);
+            while (length + 8 <= fileLength) {
+                int number = in.readInt();
+                int count = in.readInt();
+                long entryLength = 8 + count * 8L;
+                if (count < 0 || length + entryLength > fileLength) {
+                    break;
+                }
+                skipFully(in, count * 8L);
+                last = number;
+                length += entryLength;
+            }
+        }
+
+        // The last entry is ahead by one if the process died before committing the header.
+        int diff = last - commitNumber;
+        if (diff != 0 && diff != 1) {
+            return false;
+        }
+
+        mRaf.setLength(length);
+
+        synchronized (mRaf) {
+            mStart = start;
+            mLength = length;
+        }
+
+        return true;
+    }
+
+    private DataInputStream openEntries() throws IOException {
+        DataInputStream in = new DataInputStream
+            (new BufferedInputStream(new FileInputStream(mFile)));
+        try {
+            skipFully(in, HEADER_SIZE);
+        } catch (Throwable e) {
+            closeQuietly(null, in);
+            throw e;
+        }
+        return in;
+    }
+
+    private static void skipFully(DataInputStream in, long amount) throws IOException {
+        while (amount > 0) {
+            long skipped = in.skip(amount);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            amount -= skipped;
+        }
+    }
+
+    /**
+     * @param ids sorted
+     * @return new size
+     */
+    private static int dedup(long[] ids, int size) {
+        if (size == 0) {
+            return 0;
+        }
+        int j = 1;
+        for (int i=1; i<size; i++) {
+            long id = ids[i];
+            if (id != ids[j - 1]) {
+                ids[j++] = id;
+            }
+        }
+        return j;
+    }
+}
@@ -36,14 +36,14 @@ final class PageOps {
      * Node is referenced by mNodeMapTable.
      *
      * References: 1 field per Node instance
-     * Node class: 18 fields (mId is counted twice)
-     * Latch class: 0 fields
+     * Node class: 20 fields (mId is counted twice)
+     * Latch class: 1 field
      * AbstractQueuedSynchronizer class: 3 fields
      * AbstractOwnableSynchronizer class: 1 field
      * Object class: Minimum 8 byte overhead
-     * Total: (23 * 4 + 8) = 100
+     * Total: (26 * 4 + 8) = 112
      */
-    static final int NODE_OVERHEAD = 100;
+    static final int NODE_OVERHEAD = 112;
 
     private static final byte[] CLOSED_TREE_PAGE;
 
@@ -253,6 +253,14 @@ final class PageOps {
         dst.put(srcPage, srcStart, len);
     }
 
+    /**
+     * Returns a read-only buffer over a range of the page, whose position and limit bound the
+     * range. The buffer must not be accessed once the page latch is released.
+     */
+    static ByteBuffer p_readOnlyBB(/*P*/ byte[] page, int start, int len) {
+        return ByteBuffer.wrap(page, start, len).asReadOnlyBuffer();
+    }
+
     static void p_copy(/*P*/ byte[] srcPage, int srcStart,
                        /*P*/ byte[] dstPage, int dstStart, int len)
     {
@@ -294,6 +302,14 @@ final class PageOps {
         }
     }
 
+    /**
+     * Returns the index of the first byte which differs between the page and array ranges,
+     * or else the given length if the ranges are equal.
+     */
+    static int p_mismatch(/*P*/ byte[] apage, int aoff, byte[] b, int boff, int len) {
+        return mismatch(apage, aoff, b, boff, len);
+    }
+
     static int p_compareKeysPageToArray(/*P*/ byte[] apage, int aoff, int alen,
                                         byte[] b, int boff, int blen)
     {
@@ -612,14 +612,28 @@ final class PageQueue implements IntegerRef {
      * hold remove lock.
      */
     int traceRemovablePages(BitSet pages) throws IOException {
+        return traceRemovablePages(pages, true);
+    }
+
+    /**
+     * Clears bits representing all removable pages in the queue. Caller must
+     * hold remove lock.
+     *
+     * @param nodes when false, the queue nodes themselves and the append head are not
+     * cleared, since their contents are still required to restore the queue
+     */
+    int traceRemovablePages(BitSet pages, boolean nodes) throws IOException {
         int count = 0;
 
-        // Even though not removable, also clear append head. Otherwise, it
-        // gives the impression that one page is missing, even after startup.
-        long nodeId = mAppendHeadId;
-        if (nodeId < mManager.pageArray().getPageCount()) {
-            count++;
-            clearPageBit(pages, nodeId);
+        long nodeId;
+        if (nodes) {
+            // Even though not removable, also clear append head. Otherwise, it
+            // gives the impression that one page is missing, even after startup.
+            nodeId = mAppendHeadId;
+            if (nodeId < mManager.pageArray().getPageCount()) {
+                count++;
+                clearPageBit(pages, nodeId);
+            }
         }
 
         nodeId = mRemoveHeadId;
@@ -655,8 +669,10 @@ final class PageQueue implements IntegerRef {
                 // Indicate free list node itself as free and move to the next node
                 // in the free list.
 
-                count++;
-                clearPageBit(pages, nodeId);
+                if (nodes) {
+                    count++;
+                    clearPageBit(pages, nodeId);
+                }
 
                 nodeId = p_longGetBE(node, I_NEXT_NODE_ID);
                 if (nodeId == mAppendHeadId || nodeId == mAppendTailId) {
@@ -32,6 +32,8 @@ import java.util.Random;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 
+import java.util.concurrent.locks.LockSupport;
+
 import java.security.GeneralSecurityException;
 
 import org.cojen.tupl.io.FileFactory;
@@ -71,36 +73,50 @@ final class RedoLog extends RedoWriter {
 
     private long mDeleteLogId;
 
+    // Is null if group commit is disabled.
+    private final GroupCommitter mGroupCommitter;
+
+    // Is null if metrics aren't collected.
+    private final MetricCounters mMetrics;
+
     /**
      * Open for replay.
      *
      * @param logId first log id to open
      */
     RedoLog(DatabaseConfig config, long logId, long redoPos) throws IOException {
-        this(config.mCrypto, config.mBaseFile, config.mFileFactory, logId, redoPos, true);
+        this(config.mCrypto, config.mBaseFile, config.mFileFactory,
+             logId, redoPos, true, -1, null);
     }
 
     /**
      * Open after replay.
      *
      * @param logId first log id to open
+     * @param metrics optional
      */
-    RedoLog(DatabaseConfig config, RedoLog replayed) throws IOException {
+    RedoLog(DatabaseConfig config, RedoLog replayed, MetricCounters metrics)
+        throws IOException
+    {
         this(config.mCrypto, config.mBaseFile, config.mFileFactory,
-             replayed.mLogId, replayed.mPosition, false);
+             replayed.mLogId, replayed.mPosition, false, config.mGroupCommitDelayNanos, metrics);
     }
 
     /**
      * @param crypto optional
      * @param factory optional
      * @param logId first log id to open
+     * @param groupCommitDelayNanos negative to disable group commit
+     * @param metrics optional
      */
     RedoLog(Crypto crypto, File baseFile, FileFactory factory,
-            long logId, long redoPos, boolean replay)
+            long logId, long redoPos, boolean replay, long groupCommitDelayNanos,
+            MetricCounters metrics)
         throws IOException
     {
-        super(4096, 0);
+        super(4096, 0, replay ? 0 : (Runtime.getRuntime().availableProcessors() * 4));
 
+        mMetrics = metrics;
         mCrypto = crypto;
         mBaseFile = baseFile;
         mFileFactory = factory;
@@ -116,6 +132,15 @@ final class RedoLog extends RedoWriter {
                 mDeleteLogId = logId;
             }
         }
+
+        if (replay || groupCommitDelayNanos < 0) {
+            mGroupCommitter = null;
+        } else {
+            mGroupCommitter = new GroupCommitter(groupCommitDelayNanos);
+            mGroupCommitter.setName("RedoGroupCommitter-" + mGroupCommitter.getId());
+            mGroupCommitter.setDaemon(true);
+            mGroupCommitter.start();
+        }
     }
 
     /**
@@ -291,6 +316,20 @@ final class RedoLog extends RedoWriter {
         return this;
     }
 
+    @Override
+    public void txnCommitSync(LocalTransaction txn, long commitPos) throws IOException {
+        GroupCommitter gc = mGroupCommitter;
+        if (gc == null) {
+            super.txnCommitSync(txn, commitPos);
+        } else {
+            try {
+                gc.await(commitPos);
+            } catch (IOException e) {
+                throw Utils.rethrow(e, mCause);
+            }
+        }
+    }
+
     @Override
     boolean isOpen() {
         FileChannel channel = mChannel;
@@ -322,6 +361,7 @@ final class RedoLog extends RedoWriter {
 
     @Override
     void checkpointSwitch() throws IOException {
+        stitchAll();
         applyNextFile();
     }
 
@@ -393,6 +433,9 @@ final class RedoLog extends RedoWriter {
         try {
             mOut.write(buffer, 0, len);
             mPosition += len;
+            if (mMetrics != null) {
+                mMetrics.mRedoBytes.add(len);
+            }
         } catch (IOException e) {
             throw new WriteFailureException(e);
         }
@@ -404,12 +447,20 @@ final class RedoLog extends RedoWriter {
             long pos = mPosition + len;
             mOut.write(buffer, 0, len);
             mPosition = pos;
+            if (mMetrics != null) {
+                mMetrics.mRedoBytes.add(len);
+            }
             return pos;
         } catch (IOException e) {
             throw new WriteFailureException(e);
         }
     }
 
+    @Override
+    long groupCommitPosition(int bufferPos) {
+        return mGroupCommitter == null ? 0 : (mPosition + bufferPos);
+    }
+
     @Override
     void force(boolean metadata) throws IOException {
         FileChannel oldChannel = mOldChannel;
@@ -426,7 +477,13 @@ final class RedoLog extends RedoWriter {
         FileChannel channel = mChannel;
         if (channel != null) {
             try {
-                channel.force(metadata);
+                if (mMetrics == null) {
+                    channel.force(metadata);
+                } else {
+                    long start = System.nanoTime();
+                    channel.force(metadata);
+                    mMetrics.mSyncLatency.record(System.nanoTime() - start);
+                }
             } catch (ClosedChannelException e) {
                 // Ignore.
             }
@@ -435,6 +492,21 @@ final class RedoLog extends RedoWriter {
 
     @Override
     void forceAndClose() throws IOException {
+        try {
+            doForceAndClose();
+        } catch (Throwable e) {
+            if (mGroupCommitter != null) {
+                mGroupCommitter.close(e);
+            }
+            throw e;
+        }
+        if (mGroupCommitter != null) {
+            // All buffered commits were written and forced by the caller.
+            mGroupCommitter.close(null);
+        }
+    }
+
+    private void doForceAndClose() throws IOException {
         FileChannel channel = mChannel;
         if (channel != null) {
             try {
@@ -499,4 +571,139 @@ final class RedoLog extends RedoWriter {
             return false;
         }
     }
+
+    /**
+     * Dedicated thread which writes and syncs the log on behalf of all committers waiting in
+     * txnCommitSync. A single write and sync covers all the commits which accumulated while
+     * the previous sync was in progress.
+     */
+    final class GroupCommitter extends Thread {
+        private final long mDelayNanos;
+
+        // Highest position which a committer is waiting for.
+        private long mRequestedPos;
+        // Highest position which is known to be durable.
+        private long mSyncedPos;
+        // Highest position which a failed sync was attempting to cover.
+        private long mFailedPos;
+        private Throwable mFailure;
+
+        private boolean mClosed;
+
+        GroupCommitter(long delayNanos) {
+            mDelayNanos = delayNanos;
+        }
+
+        /**
+         * Block until the given position is durable.
+         */
+        synchronized void await(long pos) throws IOException {
+            if (pos > mRequestedPos) {
+                if (mRequestedPos <= Math.max(mSyncedPos, mFailedPos)) {
+                    // Flusher is idle.
+                    notifyAll();
+                }
+                mRequestedPos = pos;
+            }
+
+            boolean interrupted = false;
+
+            try {
+                while (pos > mSyncedPos) {
+                    if (pos <= mFailedPos) {
+                        throw new WriteFailureException(mFailure);
+                    }
+                    if (mClosed) {
+                        throw new WriteFailureException(new ClosedChannelException());
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Commit cannot be abandoned, since it's already in the log.
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Called when the log is closed, releasing all waiters.
+         *
+         * @param failure non-null if the final write or sync failed
+         */
+        synchronized void close(Throwable failure) {
+            if (failure == null) {
+                if (mRequestedPos > mSyncedPos) {
+                    mSyncedPos = mRequestedPos;
+                }
+            } else {
+                mFailure = failure;
+                mFailedPos = mRequestedPos;
+            }
+            mClosed = true;
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (this) {
+                    while (true) {
+                        if (mClosed) {
+                            return;
+                        }
+                        if (mRequestedPos > Math.max(mSyncedPos, mFailedPos)) {
+                            break;
+                        }
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            // Ignore.
+                        }
+                    }
+                }
+
+                if (mDelayNanos > 0) {
+                    // Allow more commits to join the batch.
+                    LockSupport.parkNanos(this, mDelayNanos);
+                }
+
+                long pos;
+                Throwable failure = null;
+                synchronized (RedoLog.this) {
+                    // Capture the position covered by this flush before attempting it.
+                    // Commits requested afterwards aren't failed if the flush fails.
+                    pos = mPosition + bufferPosition();
+                    try {
+                        flush();
+                    } catch (Throwable e) {
+                        failure = e;
+                    }
+                }
+                if (failure == null) {
+                    try {
+                        force(false);
+                    } catch (Throwable e) {
+                        failure = e;
+                    }
+                }
+
+                synchronized (this) {
+                    if (failure == null) {
+                        if (pos > mSyncedPos) {
+                            mSyncedPos = pos;
+                        }
+                    } else if (pos > mFailedPos) {
+                        mFailure = failure;
+                        mFailedPos = pos;
+                    }
+                    notifyAll();
+                }
+            }
+        }
+    }
 }
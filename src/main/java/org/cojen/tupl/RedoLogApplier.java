@@ -16,10 +16,13 @@
 
 package org.cojen.tupl;
 
+import java.io.InterruptedIOException;
 import java.io.IOException;
 
 import org.cojen.tupl.ext.TransactionHandler;
 
+import static org.cojen.tupl.Utils.*;
+
 /**
  * 
  *
@@ -28,16 +31,68 @@ import org.cojen.tupl.ext.TransactionHandler;
  */
 /*P*/
 final class RedoLogApplier implements RedoVisitor {
+    // Number of operations which can be queued by each worker.
+    private static final int QUEUE_SIZE = 1024;
+
+    // Minimum interval between progress reports.
+    private static final long PROGRESS_INTERVAL_NANOS = 10_000_000_000L;
+
     private final LocalDatabase mDatabase;
     private final LHashTable.Obj<LocalTransaction> mTransactions;
     private final LHashTable.Obj<Index> mIndexes;
 
+    // Workers which apply non-transactional stores, partitioned by index and key. Is null if
+    // all operations are applied by the decoding thread.
+    private final Worker[] mWorkers;
+
+    private long mOpCount;
+    private long mLastReportNanos;
+
     long mHighestTxnId;
 
-    RedoLogApplier(LocalDatabase db, LHashTable.Obj<LocalTransaction> txns) {
+    /**
+     * @param maxThreads maximum number of threads for applying operations, including the
+     * decoding thread
+     */
+    RedoLogApplier(LocalDatabase db, LHashTable.Obj<LocalTransaction> txns, int maxThreads) {
         mDatabase = db;
         mTransactions = txns;
         mIndexes = new LHashTable.Obj<>(16);
+
+        if (maxThreads <= 1) {
+            mWorkers = null;
+        } else {
+            mWorkers = new Worker[maxThreads];
+            for (int i=0; i<mWorkers.length; i++) {
+                Worker w = new Worker();
+                w.setDaemon(true);
+                w.setName("RedoLogApplier-" + i);
+                (mWorkers[i] = w).start();
+            }
+        }
+
+        mLastReportNanos = System.nanoTime();
+    }
+
+    /**
+     * Waits for all queued operations to be applied, and then stops the workers. Must be
+     * called after the redo log has been replayed.
+     */
+    void finish() throws IOException {
+        drainAll();
+        stopWorkers();
+    }
+
+    /**
+     * Stops the workers without waiting for queued operations to be applied.
+     */
+    void stopWorkers() {
+        Worker[] workers = mWorkers;
+        if (workers != null) {
+            for (Worker w : workers) {
+                w.stopWorker();
+            }
+        }
     }
 
     @Override
@@ -75,7 +130,12 @@ final class RedoLogApplier implements RedoVisitor {
     public boolean storeNoLock(long indexId, byte[] key, byte[] value) throws IOException {
         Index ix = openIndex(indexId);
         if (ix != null) {
-            ix.store(Transaction.BOGUS, key, value);
+            Worker[] workers = mWorkers;
+            if (workers == null) {
+                ix.store(Transaction.BOGUS, key, value);
+            } else {
+                workers[select(indexId, key)].enqueue(ix, key, value);
+            }
         }
         return true;
     }
@@ -83,6 +143,7 @@ final class RedoLogApplier implements RedoVisitor {
     @Override
     public boolean renameIndex(long txnId, long indexId, byte[] newName) throws IOException {
         checkHighest(txnId);
+        drainAll();
         Index ix = openIndex(indexId);
         if (ix != null) {
             mDatabase.renameIndex(ix, newName, txnId);
@@ -93,6 +154,7 @@ final class RedoLogApplier implements RedoVisitor {
     @Override
     public boolean deleteIndex(long txnId, long indexId) throws IOException {
         LocalTransaction txn = txn(txnId);
+        drainAll();
 
         // Close the index for now. After recovery is complete, trashed indexes are deleted in
         // a separate thread.
@@ -130,6 +192,8 @@ final class RedoLogApplier implements RedoVisitor {
     public boolean txnRollback(long txnId) throws IOException {
         Transaction txn = txn(txnId);
         if (txn != null) {
+            // Undo might affect entries which were stored without locks.
+            drainAll();
             txn.exit();
         }
         return true;
@@ -140,6 +204,7 @@ final class RedoLogApplier implements RedoVisitor {
         checkHighest(txnId);
         Transaction txn = mTransactions.removeValue(txnId);
         if (txn != null) {
+            drainAll();
             txn.reset();
         }
         return true;
@@ -173,6 +238,9 @@ final class RedoLogApplier implements RedoVisitor {
         if (txn != null) {
             Index ix = openIndex(indexId);
             if (ix != null) {
+                // Transactional changes are applied in order by this thread, after any
+                // earlier stores against the same key.
+                drain(indexId, key);
                 ix.store(txn, key, value);
             }
         }
@@ -191,6 +259,7 @@ final class RedoLogApplier implements RedoVisitor {
     public boolean txnCustom(long txnId, byte[] message) throws IOException {
         Transaction txn = txn(txnId);
         if (txn != null) {
+            drainAll();
             LocalDatabase db = mDatabase;
             TransactionHandler handler = db.mCustomTxnHandler;
             if (handler == null) {
@@ -212,13 +281,14 @@ final class RedoLogApplier implements RedoVisitor {
             if (handler == null) {
                 throw new DatabaseException("Custom transaction handler is not installed");
             }
+            drain(indexId, key);
             txn.lockExclusive(indexId, key);
             handler.redo(db, txn, message, indexId, key);
         }
         return true;
     }
 
-    private LocalTransaction txn(long txnId) {
+    private LocalTransaction txn(long txnId) throws IOException {
         checkHighest(txnId);
         return mTransactions.getValue(txnId);
     }
@@ -230,6 +300,7 @@ final class RedoLogApplier implements RedoVisitor {
     }
 
     private Index openIndex(long indexId) throws IOException {
+        progress();
         LHashTable.ObjEntry<Index> entry = mIndexes.get(indexId);
         if (entry != null) {
             return entry.value;
@@ -241,4 +312,167 @@ final class RedoLogApplier implements RedoVisitor {
         }
         return ix;
     }
+
+    /**
+     * Reports progress periodically, as operations are applied.
+     */
+    private void progress() {
+        if ((++mOpCount & 0xffff) == 0) {
+            long now = System.nanoTime();
+            if (now - mLastReportNanos >= PROGRESS_INTERVAL_NANOS) {
+                mLastReportNanos = now;
+                EventListener listener = mDatabase.mEventListener;
+                if (listener != null) {
+                    listener.notify(EventType.RECOVERY_PROGRESS,
+                                    "Applied redo log operations: %1$d", mOpCount);
+                }
+            }
+        }
+    }
+
+    private int select(long indexId, byte[] key) {
+        int hash = LockManager.hash(indexId, key);
+        return (int) (((hash & 0xffffffffL) * mWorkers.length) >>> 32);
+    }
+
+    /**
+     * Waits for all operations queued by the worker for the given key to be applied.
+     */
+    private void drain(long indexId, byte[] key) throws IOException {
+        Worker[] workers = mWorkers;
+        if (workers != null) {
+            workers[select(indexId, key)].drain();
+        }
+    }
+
+    /**
+     * Waits for all queued operations to be applied.
+     */
+    private void drainAll() throws IOException {
+        Worker[] workers = mWorkers;
+        if (workers != null) {
+            for (Worker w : workers) {
+                w.drain();
+            }
+        }
+    }
+
+    /**
+     * Applies non-transactional stores in the order they were queued.
+     */
+    static final class Worker extends Thread {
+        private final Index[] mIndexes;
+        private final byte[][] mKeys;
+        private final byte[][] mValues;
+
+        // The following fields are guarded by this Worker.
+        private int mHead;
+        // Count of operations queued, including the one being applied.
+        private int mSize;
+        private boolean mStopped;
+        private Throwable mEx;
+
+        Worker() {
+            mIndexes = new Index[QUEUE_SIZE];
+            mKeys = new byte[QUEUE_SIZE][];
+            mValues = new byte[QUEUE_SIZE][];
+        }
+
+        synchronized void enqueue(Index ix, byte[] key, byte[] value) throws IOException {
+            while (true) {
+                check();
+                if (mSize < QUEUE_SIZE) {
+                    break;
+                }
+                waitForChange();
+            }
+            int pos = (mHead + mSize) % QUEUE_SIZE;
+            mIndexes[pos] = ix;
+            mKeys[pos] = key;
+            mValues[pos] = value;
+            if (mSize++ == 0) {
+                notifyAll();
+            }
+        }
+
+        synchronized void drain() throws IOException {
+            while (true) {
+                check();
+                if (mSize == 0) {
+                    return;
+                }
+                waitForChange();
+            }
+        }
+
+        synchronized void stopWorker() {
+            mStopped = true;
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Index ix;
+                    byte[] key, value;
+                    synchronized (this) {
+                        while (mSize == 0) {
+                            if (mStopped) {
+                                return;
+                            }
+                            wait();
+                        }
+                        if (mStopped) {
+                            return;
+                        }
+                        int pos = mHead;
+                        ix = mIndexes[pos];
+                        key = mKeys[pos];
+                        value = mValues[pos];
+                        mIndexes[pos] = null;
+                        mKeys[pos] = null;
+                        mValues[pos] = null;
+                    }
+
+                    ix.store(Transaction.BOGUS, key, value);
+
+                    synchronized (this) {
+                        mHead = (mHead + 1) % QUEUE_SIZE;
+                        mSize--;
+                        notifyAll();
+                    }
+                }
+            } catch (Throwable e) {
+                synchronized (this) {
+                    mEx = e;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Caller must be synchronized.
+         */
+        private void check() throws IOException {
+            Throwable ex = mEx;
+            if (ex != null) {
+                throw rethrow(ex);
+            }
+            if (mStopped) {
+                throw new IllegalStateException("Stopped");
+            }
+        }
+
+        /**
+         * Caller must be synchronized.
+         */
+        private void waitForChange() throws IOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
 }
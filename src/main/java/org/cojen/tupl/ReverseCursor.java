@@ -65,6 +65,16 @@ final class ReverseCursor implements Cursor {
         return mSource.autoload();
     }
 
+    @Override
+    public boolean scanResistant(boolean mode) {
+        return mSource.scanResistant(mode);
+    }
+
+    @Override
+    public boolean scanResistant() {
+        return mSource.scanResistant();
+    }
+
     @Override
     public int compareKeyTo(byte[] rkey) {
         return -mSource.compareKeyTo(rkey);
@@ -185,6 +195,11 @@ final class ReverseCursor implements Cursor {
         return mSource.load();
     }
 
+    @Override
+    public <R> R visitValue(ValueVisitor<R> visitor) throws IOException {
+        return mSource.visitValue(visitor);
+    }
+
     @Override
     public void store(byte[] value) throws IOException {
         mSource.store(value);
@@ -50,6 +50,13 @@ final class ReverseView implements View {
         return mSource.load(txn, key);
     }
 
+    @Override
+    public <R> R load(Transaction txn, byte[] key, ValueVisitor<R> visitor)
+        throws IOException
+    {
+        return mSource.load(txn, key, visitor);
+    }
+
     @Override
     public void store(Transaction txn, byte[] key, byte[] value) throws IOException {
         mSource.store(txn, key, value);
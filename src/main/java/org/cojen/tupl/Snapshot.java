@@ -40,6 +40,13 @@ public interface Snapshot extends Closeable {
      */
     public long position();
 
+    /**
+     * Returns the number of the checkpoint that the snapshot applies to, which can be
+     * passed to {@link Database#beginIncrementalSnapshot beginIncrementalSnapshot} as the
+     * baseline of the next incremental snapshot.
+     */
+    public long checkpointNumber();
+
     /**
      * Writes out snapshot data, and then closes this object. Snapshot aborts
      * if the OutputStream throws an exception or if another thread closes this
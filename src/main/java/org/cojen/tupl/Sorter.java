@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.io.IOException;
+
+/**
+ * Sorts entries which are added in any order, for efficiently filling up indexes. Entries
+ * are buffered in memory, and full buffers are sorted and spilled into temporary files by
+ * background threads. Sorted runs are merged in parallel, and the final merge is streamed
+ * into the destination. If duplicate keys are added, the entry added last is retained.
+ *
+ * <p>If the database has no base file, as is the case for non-durable databases, no
+ * temporary files can be created. All entries are then retained in memory until the sorter
+ * is finished, without any limit.
+ *
+ * <p>Sorter instances aren't thread-safe, but they can be reused after finishing.
+ *
+ * @author Brian S O'Neill
+ * @see Database#newSorter Database.newSorter
+ */
+public interface Sorter {
+    /**
+     * Add an entry into the sorter. The key and value instances are retained by the sorter,
+     * and so they must not be modified after calling this method.
+     *
+     * @param key non-null key
+     * @param value non-null value
+     */
+    public void add(byte[] key, byte[] value) throws IOException;
+
+    /**
+     * Finish sorting the entries, and then {@link BulkLoader bulk load} them into a new
+     * index. The sorter is empty when this method returns.
+     *
+     * @param name new index name
+     * @return new index instance
+     * @throws IllegalStateException if name is already in use by another index
+     * @throws UnsupportedOperationException if database is replicated
+     */
+    public Index finish(byte[] name) throws IOException;
+
+    /**
+     * Finish sorting the entries, and then bulk load them into a new index. Name is UTF-8
+     * encoded. The sorter is empty when this method returns.
+     *
+     * @param name new index name
+     * @return new index instance
+     * @throws IllegalStateException if name is already in use by another index
+     * @throws UnsupportedOperationException if database is replicated
+     */
+    public default Index finish(String name) throws IOException {
+        return finish(name.getBytes("UTF-8"));
+    }
+
+    /**
+     * Finish sorting the entries, and then store them in ascending order through the given
+     * cursor. Existing entries in the cursor's view with matching keys are replaced. The
+     * sorter is empty when this method returns, and the cursor is reset.
+     *
+     * @param dest cursor to store entries with, which should be linked to a transaction or
+     * to {@link Transaction#BOGUS BOGUS} for best performance
+     */
+    public void finish(Cursor dest) throws IOException;
+
+    /**
+     * Discards all the entries added so far, and deletes any temporary files.
+     */
+    public void reset() throws IOException;
+}
@@ -35,6 +35,16 @@ abstract class SubView implements View {
         return inRange(key) ? mSource.load(txn, key) : null;
     }
 
+    @Override
+    public <R> R load(Transaction txn, byte[] key, ValueVisitor<R> visitor)
+        throws IOException
+    {
+        if (visitor == null) {
+            throw new NullPointerException("Visitor");
+        }
+        return inRange(key) ? mSource.load(txn, key, visitor) : null;
+    }
+
     @Override
     public void store(Transaction txn, byte[] key, byte[] value) throws IOException {
         if (inRange(key)) {
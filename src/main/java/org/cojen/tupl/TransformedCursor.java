@@ -72,6 +72,16 @@ final class TransformedCursor implements Cursor {
         return mSource.autoload();
     }
 
+    @Override
+    public boolean scanResistant(boolean mode) {
+        return mSource.scanResistant(mode);
+    }
+
+    @Override
+    public boolean scanResistant() {
+        return mSource.scanResistant();
+    }
+
     @Override
     public final int compareKeyTo(byte[] rkey) {
         return mSource.compareKeyTo(mTransformer.inverseTransformKey(rkey));
@@ -18,6 +18,8 @@ package org.cojen.tupl;
 
 import java.io.IOException;
 
+import java.nio.ByteBuffer;
+
 import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
@@ -47,7 +49,10 @@ class TreeCursor implements CauseCloseable, Cursor {
     byte[] mValue;
 
     boolean mKeyOnly;
-    
+
+    // When true, loaded leaf nodes are marked as used only once.
+    boolean mScanResistant;
+
     // Hashcode is defined by LockManager.
     private int mKeyHash;
 
@@ -123,6 +128,18 @@ class TreeCursor implements CauseCloseable, Cursor {
         return !mKeyOnly;
     }
 
+    @Override
+    public final boolean scanResistant(boolean mode) {
+        boolean old = mScanResistant;
+        mScanResistant = mode;
+        return old;
+    }
+
+    @Override
+    public final boolean scanResistant() {
+        return mScanResistant;
+    }
+
     @Override
     public final int compareKeyTo(byte[] rkey) {
         byte[] lkey = mKey;
@@ -2475,6 +2492,36 @@ class TreeCursor implements CauseCloseable, Cursor {
         }
     }
 
+    @Override
+    public final <R> R visitValue(ValueVisitor<R> visitor) throws IOException {
+        byte[] value = mValue;
+        if (value != NOT_LOADED) {
+            if (mKey == null) {
+                throw new IllegalStateException("Cursor position is undefined");
+            }
+            return value == null ? null
+                : visitor.visit(ByteBuffer.wrap(value).asReadOnlyBuffer());
+        }
+
+        // Lock and check existence without copying the value, and then visit the value
+        // while the node latch is still held.
+        try {
+            doLoad(mTxn, VARIANT_RETAIN, true);
+        } catch (LockFailureException e) {
+            mValue = NOT_LOADED;
+            throw e;
+        }
+
+        CursorFrame frame = mLeaf;
+        Node node = frame.mNode;
+        try {
+            int pos = frame.mNodePos;
+            return pos < 0 ? null : node.visitLeafValue(pos, visitor);
+        } finally {
+            node.releaseShared();
+        }
+    }
+
     /**
      * Must be called with node latch not held.
      *
@@ -3361,6 +3408,7 @@ class TreeCursor implements CauseCloseable, Cursor {
     @Override
     public final TreeCursor copy() {
         TreeCursor copy = copyNoValue();
+        copy.mScanResistant = mScanResistant;
         if (!(copy.mKeyOnly = mKeyOnly)) {
             copy.mValue = cloneArray(mValue);
         }
@@ -4080,6 +4128,11 @@ class TreeCursor implements CauseCloseable, Cursor {
 
         int remaining = leftAvail + rightAvail - pageSize(node.mPage) + Node.TN_HEADER_SIZE;
 
+        if (leftNode != null && rightNode != null) {
+            // Account for key prefix compression differences.
+            remaining -= Node.leafMergeGrowth(leftNode, rightNode);
+        }
+
         if (remaining >= 0) {
             // Migrate the entire contents of the right node into the left node, and then
             // delete the right node. Left must be marked dirty, and parent is already
@@ -4403,11 +4456,13 @@ class TreeCursor implements CauseCloseable, Cursor {
                 }
             }
 
-            childNode.used();
+            if (!mScanResistant) {
+                childNode.used();
+            }
             return childNode;
         }
 
-        return parent.loadChild(mTree.mDatabase, childId, options);
+        return loadChild(parent, childId, options);
     }
 
     /**
@@ -4447,11 +4502,24 @@ class TreeCursor implements CauseCloseable, Cursor {
                     }
                     childNode.mCachedState = Node.CACHED_CLEAN;
                 }
-                childNode.used();
+                if (!mScanResistant) {
+                    childNode.used();
+                }
                 return childNode;
             }
         }
 
-        return parent.loadChild(mTree.mDatabase, childId, Node.OPTION_CHILD_ACQUIRE_EXCLUSIVE);
+        return loadChild(parent, childId, Node.OPTION_CHILD_ACQUIRE_EXCLUSIVE);
+    }
+
+    /**
+     * Loads the child node with the given options, described by Node.loadChild. In scan
+     * resistant mode, a leaf node read in by this cursor is marked as used only once.
+     */
+    private Node loadChild(Node parent, long childId, int options) throws IOException {
+        if (mScanResistant) {
+            options |= Node.OPTION_CHILD_LEAF_USED_ONCE;
+        }
+        return parent.loadChild(mTree.mDatabase, childId, options);
     }
 }
@@ -82,6 +82,16 @@ final class TrimmedCursor implements Cursor {
         return mSource.autoload();
     }
 
+    @Override
+    public boolean scanResistant(boolean mode) {
+        return mSource.scanResistant(mode);
+    }
+
+    @Override
+    public boolean scanResistant() {
+        return mSource.scanResistant();
+    }
+
     @Override
     public int compareKeyTo(byte[] rkey) {
         return mSource.compareKeyTo(mView.applyPrefix(rkey));
@@ -205,6 +215,11 @@ final class TrimmedCursor implements Cursor {
         return mSource.load();
     }
 
+    @Override
+    public <R> R visitValue(ValueVisitor<R> visitor) throws IOException {
+        return mSource.visitValue(visitor);
+    }
+
     @Override
     public void store(byte[] value) throws IOException {
         mSource.store(value);
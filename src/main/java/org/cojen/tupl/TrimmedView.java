@@ -54,6 +54,13 @@ final class TrimmedView implements View {
         return mSource.load(txn, applyPrefix(key));
     }
 
+    @Override
+    public <R> R load(Transaction txn, byte[] key, ValueVisitor<R> visitor)
+        throws IOException
+    {
+        return mSource.load(txn, applyPrefix(key), visitor);
+    }
+
     @Override
     public void store(Transaction txn, byte[] key, byte[] value) throws IOException {
         mSource.store(txn, applyPrefix(key), value);
@@ -86,6 +86,13 @@ final class UnmodifiableView implements Index {
         return mSource.load(txn, key);
     }
 
+    @Override
+    public <R> R load(Transaction txn, byte[] key, ValueVisitor<R> visitor)
+        throws IOException
+    {
+        return mSource.load(txn, key, visitor);
+    }
+
     @Override
     public void store(Transaction txn, byte[] key, byte[] value) throws IOException {
         throw new UnmodifiableViewException();
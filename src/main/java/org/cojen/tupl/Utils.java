@@ -25,6 +25,8 @@ import java.util.Random;
 
 import java.util.concurrent.TimeUnit;
 
+import sun.misc.Unsafe;
+
 import static java.lang.System.arraycopy;
 
 /**
@@ -35,6 +37,11 @@ import static java.lang.System.arraycopy;
 class Utils extends org.cojen.tupl.io.Utils {
     static final byte[] EMPTY_BYTES = new byte[0];
 
+    // Is null if not supported, in which case keys are compared a byte at a time.
+    private static final Unsafe UNSAFE = Hasher.getUnsafe();
+    private static final long BYTE_ARRAY_OFFSET =
+        UNSAFE == null ? 0 : UNSAFE.arrayBaseOffset(byte[].class);
+
     static long toNanos(long timeout, TimeUnit unit) {
         return timeout < 0 ? -1 :
             (timeout == 0 ? 0 : (((timeout = unit.toNanos(timeout)) < 0) ? 0 : timeout));
@@ -75,6 +82,66 @@ class Utils extends org.cojen.tupl.io.Utils {
         return seed;
     }
 
+    /**
+     * Performs a lexicographical comparison between two unsigned byte arrays, examining 8
+     * bytes at a time when supported.
+     *
+     * @return negative if 'a' is less, zero if equal, greater than zero if greater
+     */
+    public static int compareUnsigned(byte[] a, byte[] b) {
+        return compareUnsigned(a, 0, a.length, b, 0, b.length);
+    }
+
+    /**
+     * Performs a lexicographical comparison between two unsigned byte arrays, examining 8
+     * bytes at a time when supported.
+     *
+     * @return negative if 'a' is less, zero if equal, greater than zero if greater
+     */
+    public static int compareUnsigned(byte[] a, int aoff, int alen, byte[] b, int boff, int blen) {
+        int minLen = Math.min(alen, blen);
+        int i = mismatch(a, aoff, b, boff, minLen);
+        if (i < minLen) {
+            return (a[aoff + i] & 0xff) - (b[boff + i] & 0xff);
+        }
+        return alen - blen;
+    }
+
+    /**
+     * Returns the index of the first byte which differs between the two ranges, or else the
+     * given length if the ranges are equal. With Unsafe access, bytes are loaded as little
+     * endian longs, and so the lowest differing bit identifies the first mismatched byte.
+     *
+     * @param len amount of bytes to examine, which must be in bounds; if negative, it's
+     * returned as-is
+     */
+    static int mismatch(byte[] a, int aoff, byte[] b, int boff, int len) {
+        int i = 0;
+
+        if (len >= 8 && UNSAFE != null) {
+            long apos = BYTE_ARRAY_OFFSET + aoff;
+            long bpos = BYTE_ARRAY_OFFSET + boff;
+            int end = len - 8;
+            for (; i < end; i += 8) {
+                long diff = UNSAFE.getLong(a, apos + i) ^ UNSAFE.getLong(b, bpos + i);
+                if (diff != 0) {
+                    return i + (Long.numberOfTrailingZeros(diff) >> 3);
+                }
+            }
+            // Examine the last word, which can overlap the previous one.
+            long diff = UNSAFE.getLong(a, apos + end) ^ UNSAFE.getLong(b, bpos + end);
+            return diff == 0 ? len : (end + (Long.numberOfTrailingZeros(diff) >> 3));
+        }
+
+        for (; i < len; i++) {
+            if (a[aoff + i] != b[boff + i]) {
+                return i;
+            }
+        }
+
+        return len;
+    }
+
     /**
      * Apply Wang/Jenkins hash function to given value. Hash is invertible, and
      * so no uniqueness is lost.
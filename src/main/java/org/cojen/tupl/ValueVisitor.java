@@ -0,0 +1,43 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Callback which examines a value in place, avoiding the cost of copying it into a new
+ * array. The visitor is invoked while a node latch is held, and so it must be quick and
+ * must not access the database.
+ *
+ * @author Brian S O'Neill
+ * @see View#load(Transaction, byte[], ValueVisitor) View.load
+ * @see Cursor#visitValue Cursor.visitValue
+ */
+@FunctionalInterface
+public interface ValueVisitor<R> {
+    /**
+     * Examine the value, which is bounded by the position and limit of the given read-only
+     * buffer. The buffer and its contents are only valid during the call, and so it must not
+     * be retained.
+     *
+     * @param value non-null read-only value buffer
+     * @return any result, which is passed along to the caller
+     */
+    public R visit(ByteBuffer value) throws IOException;
+}
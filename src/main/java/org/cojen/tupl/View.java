@@ -18,6 +18,8 @@ package org.cojen.tupl;
 
 import java.io.IOException;
 
+import java.nio.ByteBuffer;
+
 /**
  * Mapping of keys to values, in no particular order. Subclasses and
  * implementations may specify an explicit ordering.
@@ -66,6 +68,49 @@ public interface View {
      */
     public byte[] load(Transaction txn, byte[] key) throws IOException;
 
+    /**
+     * Passes the value for the given key to a visitor, without copying it when possible.
+     * Locking behavior is the same as for the regular load method, and the visitor isn't
+     * invoked if no matching entry exists.
+     *
+     * @param txn optional transaction; pass null for {@link
+     * LockMode#READ_COMMITTED READ_COMMITTED} locking behavior
+     * @param key non-null key
+     * @param visitor non-null value visitor
+     * @return result of the visitor, or null if entry doesn't exist
+     * @throws NullPointerException if key or visitor is null
+     * @throws IllegalArgumentException if transaction belongs to another database instance
+     */
+    public default <R> R load(Transaction txn, byte[] key, ValueVisitor<R> visitor)
+        throws IOException
+    {
+        if (visitor == null) {
+            throw new NullPointerException("Visitor");
+        }
+        byte[] value = load(txn, key);
+        return value == null ? null : visitor.visit(ByteBuffer.wrap(value).asReadOnlyBuffer());
+    }
+
+    /**
+     * Returns copies of the values for all the given keys. Keys are visited in the natural
+     * order of this view, which allows nearby keys to be found without searching from the
+     * root, and locks are acquired in a consistent order.
+     *
+     * <p>If the entries must be locked, ownership of the key instances is transferred. The
+     * keys must not be modified after calling this method.
+     *
+     * @param txn optional transaction; pass null for {@link
+     * LockMode#READ_COMMITTED READ_COMMITTED} locking behavior
+     * @param keys non-null keys, which can be in any order
+     * @return values in the same order as the keys; an element is null if the corresponding
+     * entry doesn't exist
+     * @throws NullPointerException if any key is null
+     * @throws IllegalArgumentException if transaction belongs to another database instance
+     */
+    public default byte[][] loadAll(Transaction txn, byte[][] keys) throws IOException {
+        return ViewUtils.loadAll(this, txn, keys);
+    }
+
     /**
      * Unconditionally associates a value with the given key.
      *
@@ -81,6 +126,31 @@ public interface View {
      */
     public void store(Transaction txn, byte[] key, byte[] value) throws IOException;
 
+    /**
+     * Unconditionally associates values with all the given keys. Keys are visited in the
+     * natural order of this view, which allows nearby keys to be found without searching
+     * from the root, and locks are acquired in a consistent order. If a key appears more
+     * than once, the value which appears last is stored. In auto-commit mode, entries might
+     * be committed in batches, and so the operation as a whole isn't atomic.
+     *
+     * <p>If the entries must be locked, ownership of the key instances is transferred. The
+     * keys must not be modified after calling this method.
+     *
+     * @param txn optional transaction; pass null for auto-commit mode
+     * @param keys non-null keys, which can be in any order
+     * @param values values to store, in the same order as the keys; pass null elements to
+     * delete
+     * @throws NullPointerException if any key is null
+     * @throws IllegalArgumentException if the amount of keys and values differ, or if
+     * transaction belongs to another database instance
+     * @throws ViewConstraintException if any entry is not permitted
+     */
+    public default void storeAll(Transaction txn, byte[][] keys, byte[][] values)
+        throws IOException
+    {
+        ViewUtils.storeAll(this, txn, keys, values);
+    }
+
     /**
      * Unconditionally associates a value with the given key, returning the previous value.
      *
@@ -18,6 +18,8 @@ package org.cojen.tupl;
 
 import java.io.IOException;
 
+import java.util.Arrays;
+
 /**
  * 
  *
@@ -55,6 +57,110 @@ class ViewUtils {
         return count;
     }
 
+    static byte[][] loadAll(View view, Transaction txn, byte[][] keys) throws IOException {
+        byte[][] values = new byte[keys.length][];
+        if (keys.length == 0) {
+            return values;
+        }
+
+        Cursor c = view.newCursor(txn);
+        try {
+            for (int pos : sortedOrder(view, keys)) {
+                c.findNearby(keys[pos]);
+                values[pos] = c.value();
+            }
+        } finally {
+            c.reset();
+        }
+
+        return values;
+    }
+
+    static void storeAll(View view, Transaction txn, byte[][] keys, byte[][] values)
+        throws IOException
+    {
+        checkLengths(keys, values);
+        if (keys.length != 0) {
+            storeAll(view, txn, keys, values, sortedOrder(view, keys), 0, keys.length);
+        }
+    }
+
+    /**
+     * Stores entries in auto-commit mode, with a new transaction for each batch of entries.
+     * Each transaction uses the default durability mode of the database.
+     */
+    static void storeAllBatched(Database db, View view, byte[][] keys, byte[][] values,
+                                int batchSize)
+        throws IOException
+    {
+        checkLengths(keys, values);
+
+        int[] order = sortedOrder(view, keys);
+
+        for (int start = 0; start < order.length; start += batchSize) {
+            Transaction txn = db.newTransaction();
+            try {
+                storeAll(view, txn, keys, values, order,
+                         start, Math.min(order.length, start + batchSize));
+                txn.commit();
+            } finally {
+                txn.reset();
+            }
+        }
+    }
+
+    private static void checkLengths(byte[][] keys, byte[][] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException
+                ("Amount of keys and values differ: " + keys.length + " != " + values.length);
+        }
+    }
+
+    private static void storeAll(View view, Transaction txn, byte[][] keys, byte[][] values,
+                                 int[] order, int start, int end)
+        throws IOException
+    {
+        Cursor c = view.newCursor(txn);
+        try {
+            c.autoload(false);
+            for (int i=start; i<end; i++) {
+                int pos = order[i];
+                c.findNearby(keys[pos]);
+                c.store(values[pos]);
+            }
+        } finally {
+            c.reset();
+        }
+    }
+
+    /**
+     * Returns the positions of the given keys, sorted in the natural order of the view. The
+     * sort is stable, and so the positions of duplicate keys remain in their original order.
+     *
+     * @throws NullPointerException if any key is null
+     */
+    private static int[] sortedOrder(View view, byte[][] keys) {
+        Integer[] order = new Integer[keys.length];
+        for (int i=0; i<order.length; i++) {
+            if (keys[i] == null) {
+                throw new NullPointerException("Key is null");
+            }
+            order[i] = i;
+        }
+
+        if (view.getOrdering() == Ordering.DESCENDING) {
+            Arrays.sort(order, (a, b) -> KeyComparator.THE.compare(keys[b], keys[a]));
+        } else {
+            Arrays.sort(order, (a, b) -> KeyComparator.THE.compare(keys[a], keys[b]));
+        }
+
+        int[] result = new int[order.length];
+        for (int i=0; i<result.length; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
     static byte[] appendZero(byte[] key) {
         byte[] newKey = new byte[key.length + 1];
         System.arraycopy(key, 0, newKey, 0, key.length);
@@ -87,6 +87,22 @@ public abstract class WrappedCursor<C extends Cursor> implements Cursor {
         return source.autoload();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean scanResistant(boolean mode) {
+        return source.scanResistant(mode);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean scanResistant() {
+        return source.scanResistant();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -247,6 +263,14 @@ public abstract class WrappedCursor<C extends Cursor> implements Cursor {
         return source.load();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> R visitValue(ValueVisitor<R> visitor) throws IOException {
+        return source.visitValue(visitor);
+    }
+
     /**
      * Always throws UnmodifiableViewException by default.
      */
@@ -38,7 +38,7 @@ final class _Lock {
     byte[] mKey;
     int mHashCode;
 
-    // Next entry in _LockManager hash collision chain.
+    // Next entry in _LockManager pool of unused locks, or in an _UndoLog scope.
     _Lock mLockManagerNext;
 
     // 0xxx...  shared locks held (up to (2^31)-2)
@@ -52,7 +52,8 @@ final class _Lock {
     // _LockOwner instance if one shared locker, or else a hashtable for more.
     // Field is re-used to indicate when an exclusive lock has ghosted an
     // entry, which should be deleted when the transaction commits. A C-style
-    // union type would be handy. Object is a _Tree if entry is ghosted.
+    // union type would be handy. Object is a _Tree if entry is ghosted, or
+    // Ghosts if this is an escalated index lock which has ghosted entries.
     Object mSharedLockOwnersObj;
 
     // Waiters for upgradable lock. Contains only regular waiters.
@@ -113,49 +114,54 @@ final class _Lock {
         locker.mWaitingFor = this;
         long nanosEnd = nanosTimeout < 0 ? 0 : (System.nanoTime() + nanosTimeout);
 
-        while (true) {
-            // Await for shared lock.
-            int w = queueSX.awaitShared(latch, nanosTimeout, nanosEnd);
-            queueSX = mQueueSX;
-
-            // After consuming one signal, next shared waiter must be signaled, and so on.
-            if (queueSX != null && !queueSX.signalNextShared()) {
-                // Indicate that last signal has been consumed, and also free memory.
-                mQueueSX = null;
-            }
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                // Await for shared lock.
+                int w = queueSX.awaitShared(latch, nanosTimeout, nanosEnd);
+                queueSX = mQueueSX;
+
+                // After consuming one signal, next shared waiter must be signaled, and so on.
+                if (queueSX != null && !queueSX.signalNextShared()) {
+                    // Indicate that last signal has been consumed, and also free memory.
+                    mQueueSX = null;
+                }
 
-            if (w < 1) {
-                if (w == 0) {
-                    return TIMED_OUT_LOCK;
-                } else {
-                    locker.mWaitingFor = null;
-                    return INTERRUPTED;
+                if (w < 1) {
+                    if (w == 0) {
+                        return TIMED_OUT_LOCK;
+                    } else {
+                        locker.mWaitingFor = null;
+                        return INTERRUPTED;
+                    }
                 }
-            }
 
-            // Because latch was released while waiting on condition, check
-            // everything again.
+                // Because latch was released while waiting on condition, check
+                // everything again.
 
-            if (mOwner == locker) {
-                locker.mWaitingFor = null;
-                return mLockCount == ~0 ? OWNED_EXCLUSIVE : OWNED_UPGRADABLE;
-            }
+                if (mOwner == locker) {
+                    locker.mWaitingFor = null;
+                    return mLockCount == ~0 ? OWNED_EXCLUSIVE : OWNED_UPGRADABLE;
+                }
 
-            LockResult r = tryLockShared(locker);
-            if (r != null) {
-                locker.mWaitingFor = null;
-                return r;
-            }
+                LockResult r = tryLockShared(locker);
+                if (r != null) {
+                    locker.mWaitingFor = null;
+                    return r;
+                }
 
-            // Signal was bogus or lock was grabbed by another thread, so retry.
+                // Signal was bogus or lock was grabbed by another thread, so retry.
 
-            if (nanosTimeout >= 0 && (nanosTimeout = nanosEnd - System.nanoTime()) <= 0) {
-                return TIMED_OUT_LOCK;
-            }
+                if (nanosTimeout >= 0 && (nanosTimeout = nanosEnd - System.nanoTime()) <= 0) {
+                    return TIMED_OUT_LOCK;
+                }
 
-            if (mQueueSX == null) {
-                mQueueSX = queueSX = new LatchCondition();
+                if (mQueueSX == null) {
+                    mQueueSX = queueSX = new LatchCondition();
+                }
             }
+        } finally {
+            locker.lockWaited(System.nanoTime() - start);
         }
     }
 
@@ -206,68 +212,73 @@ final class _Lock {
         locker.mWaitingFor = this;
         long nanosEnd = nanosTimeout < 0 ? 0 : (System.nanoTime() + nanosTimeout);
 
-        while (true) {
-            // Await for exclusive lock.
-            int w = queueU.await(latch, nanosTimeout, nanosEnd);
-            queueU = mQueueU;
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                // Await for exclusive lock.
+                int w = queueU.await(latch, nanosTimeout, nanosEnd);
+                queueU = mQueueU;
 
-            if (queueU != null && queueU.isEmpty()) {
-                // Indicate that last signal has been consumed, and also free memory.
-                mQueueU = null;
-            }
+                if (queueU != null && queueU.isEmpty()) {
+                    // Indicate that last signal has been consumed, and also free memory.
+                    mQueueU = null;
+                }
 
-            if (w < 1) {
-                if (w == 0) {
-                    return TIMED_OUT_LOCK;
-                } else {
-                    locker.mWaitingFor = null;
-                    return INTERRUPTED;
+                if (w < 1) {
+                    if (w == 0) {
+                        return TIMED_OUT_LOCK;
+                    } else {
+                        locker.mWaitingFor = null;
+                        return INTERRUPTED;
+                    }
                 }
-            }
 
-            // Because latch was released while waiting on condition, check
-            // everything again.
+                // Because latch was released while waiting on condition, check
+                // everything again.
 
-            if (mOwner == locker) {
-                locker.mWaitingFor = null;
-                return mLockCount == ~0 ? OWNED_EXCLUSIVE : OWNED_UPGRADABLE;
-            }
+                if (mOwner == locker) {
+                    locker.mWaitingFor = null;
+                    return mLockCount == ~0 ? OWNED_EXCLUSIVE : OWNED_UPGRADABLE;
+                }
 
-            count = mLockCount;
-            if (count != 0 && isSharedLockOwner(locker)) {
-                if (!locker.canAttemptUpgrade(count)) {
-                    // Signal that another waiter can get the lock instead.
-                    if (queueU != null) {
-                        queueU.signal();
+                count = mLockCount;
+                if (count != 0 && isSharedLockOwner(locker)) {
+                    if (!locker.canAttemptUpgrade(count)) {
+                        // Signal that another waiter can get the lock instead.
+                        if (queueU != null) {
+                            queueU.signal();
+                        }
+                        locker.mWaitingFor = null;
+                        return ILLEGAL;
+                    }
+                    if (count > 0) {
+                        // Give the impression that lock was always held upgradable. This prevents
+                        // pushing the lock into the locker twice.
+                        mLockCount = (count - 1) | 0x80000000;
+                        mOwner = locker;
+                        return OWNED_UPGRADABLE;
                     }
-                    locker.mWaitingFor = null;
-                    return ILLEGAL;
                 }
-                if (count > 0) {
-                    // Give the impression that lock was always held upgradable. This prevents
-                    // pushing the lock into the locker twice.
-                    mLockCount = (count - 1) | 0x80000000;
+
+                if (count >= 0) {
+                    mLockCount = count | 0x80000000;
                     mOwner = locker;
-                    return OWNED_UPGRADABLE;
+                    locker.mWaitingFor = null;
+                    return ACQUIRED;
                 }
-            }
-
-            if (count >= 0) {
-                mLockCount = count | 0x80000000;
-                mOwner = locker;
-                locker.mWaitingFor = null;
-                return ACQUIRED;
-            }
 
-            // Signal was bogus or lock was grabbed by another thread, so retry.
+                // Signal was bogus or lock was grabbed by another thread, so retry.
 
-            if (nanosTimeout >= 0 && (nanosTimeout = nanosEnd - System.nanoTime()) <= 0) {
-                return TIMED_OUT_LOCK;
-            }
+                if (nanosTimeout >= 0 && (nanosTimeout = nanosEnd - System.nanoTime()) <= 0) {
+                    return TIMED_OUT_LOCK;
+                }
 
-            if (mQueueU == null) {
-                mQueueU = queueU = new LatchCondition();
+                if (mQueueU == null) {
+                    mQueueU = queueU = new LatchCondition();
+                }
             }
+        } finally {
+            locker.lockWaited(System.nanoTime() - start);
         }
     }
 
@@ -310,51 +321,56 @@ final class _Lock {
         locker.mWaitingFor = this;
         long nanosEnd = nanosTimeout < 0 ? 0 : (System.nanoTime() + nanosTimeout);
 
-        while (true) {
-            // Await for exclusive lock.
-            int w = queueSX.await(latch, nanosTimeout, nanosEnd);
-            queueSX = mQueueSX;
-
-            if (queueSX != null && queueSX.isEmpty()) {
-                // Indicate that last signal has been consumed, and also free memory.
-                mQueueSX = null;
-            }
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                // Await for exclusive lock.
+                int w = queueSX.await(latch, nanosTimeout, nanosEnd);
+                queueSX = mQueueSX;
 
-            if (w < 1) {
-                if (ur == ACQUIRED) {
-                    unlockUpgradable();
+                if (queueSX != null && queueSX.isEmpty()) {
+                    // Indicate that last signal has been consumed, and also free memory.
+                    mQueueSX = null;
                 }
-                if (w == 0) {
-                    return TIMED_OUT_LOCK;
-                } else {
-                    locker.mWaitingFor = null;
-                    return INTERRUPTED;
+
+                if (w < 1) {
+                    if (ur == ACQUIRED) {
+                        unlockUpgradable();
+                    }
+                    if (w == 0) {
+                        return TIMED_OUT_LOCK;
+                    } else {
+                        locker.mWaitingFor = null;
+                        return INTERRUPTED;
+                    }
                 }
-            }
 
-            // Because latch was released while waiting on condition, check
-            // everything again.
+                // Because latch was released while waiting on condition, check
+                // everything again.
 
-            acquired: {
-                int count = mLockCount;
-                if (count == 0x80000000) {
-                    mLockCount = ~0;
-                } else if (count != ~0) {
-                    break acquired;
+                acquired: {
+                    int count = mLockCount;
+                    if (count == 0x80000000) {
+                        mLockCount = ~0;
+                    } else if (count != ~0) {
+                        break acquired;
+                    }
+                    locker.mWaitingFor = null;
+                    return ur == OWNED_UPGRADABLE ? UPGRADED : ACQUIRED;
                 }
-                locker.mWaitingFor = null;
-                return ur == OWNED_UPGRADABLE ? UPGRADED : ACQUIRED;
-            }
 
-            // Signal was bogus or lock was grabbed by another thread, so retry.
+                // Signal was bogus or lock was grabbed by another thread, so retry.
 
-            if (nanosTimeout >= 0 && (nanosTimeout = nanosEnd - System.nanoTime()) <= 0) {
-                return TIMED_OUT_LOCK;
-            }
+                if (nanosTimeout >= 0 && (nanosTimeout = nanosEnd - System.nanoTime()) <= 0) {
+                    return TIMED_OUT_LOCK;
+                }
 
-            if (mQueueSX == null) {
-                mQueueSX = queueSX = new LatchCondition();
+                if (mQueueSX == null) {
+                    mQueueSX = queueSX = new LatchCondition();
+                }
             }
+        } finally {
+            locker.lockWaited(System.nanoTime() - start);
         }
     }
 
@@ -514,6 +530,20 @@ final class _Lock {
         }
     }
 
+    /**
+     * Called with exclusive latch held, by the owner of an escalated index lock.
+     */
+    void addGhost(_Tree tree, byte[] key) {
+        Object obj = mSharedLockOwnersObj;
+        Ghosts ghosts;
+        if (obj instanceof Ghosts) {
+            ghosts = (Ghosts) obj;
+        } else {
+            mSharedLockOwnersObj = ghosts = new Ghosts(tree);
+        }
+        ghosts.add(key);
+    }
+
     /**
      * @param latch might be briefly released and re-acquired
      */
@@ -524,6 +554,10 @@ final class _Lock {
 
         Object obj = mSharedLockOwnersObj;
         if (!(obj instanceof _Tree)) {
+            if (obj instanceof Ghosts) {
+                mSharedLockOwnersObj = null;
+                ((Ghosts) obj).delete(latch);
+            }
             return;
         }
 
@@ -594,6 +628,22 @@ final class _Lock {
         return pending;
     }
 
+    /**
+     * Called with any latch held. Returns true if any type of lock is held by an owner other
+     * than the given one.
+     */
+    boolean isHeldByOther(_LockOwner locker) {
+        int count = mLockCount;
+        if (count == ~0) {
+            return mOwner != locker;
+        }
+        if (count < 0 && mOwner != locker) {
+            return true;
+        }
+        count &= 0x7fffffff;
+        return count > 1 || (count == 1 && mSharedLockOwnersObj != locker);
+    }
+
     boolean matches(long indexId, byte[] key, int hash) {
         return mHashCode == hash && mIndexId == indexId && Arrays.equals(mKey, key);
     }
@@ -718,4 +768,57 @@ final class _Lock {
         _LockOwner mOwner;
         LockOwnerHTEntry mNext;
     }
+
+    /**
+     * Entries ghosted while an escalated index lock was held instead of key locks.
+     */
+    static final class Ghosts {
+        private final _Tree mTree;
+        private byte[][] mKeys;
+        private int mSize;
+
+        Ghosts(_Tree tree) {
+            mTree = tree;
+            mKeys = new byte[8][];
+        }
+
+        void add(byte[] key) {
+            if (mSize >= mKeys.length) {
+                mKeys = Arrays.copyOf(mKeys, mSize << 1);
+            }
+            mKeys[mSize++] = key;
+        }
+
+        /**
+         * @param latch released while deleting, and then re-acquired
+         */
+        void delete(Latch latch) {
+            // Release to prevent deadlock, since additional latches are required for delete.
+            latch.releaseExclusive();
+            try {
+                _Tree tree = mTree;
+                for (int i=0; i<mSize; i++) {
+                    while (true) {
+                        _TreeCursor c = new _TreeCursor(tree, null);
+                        c.autoload(false);
+                        if (c.deleteGhost(mKeys[i])) {
+                            break;
+                        }
+                        // Reopen closed index.
+                        tree = (_Tree) tree.mDatabase.indexById(tree.mId);
+                        if (tree == null) {
+                            // Assume index was deleted.
+                            return;
+                        }
+                    }
+                }
+            } catch (Throwable e) {
+                // Exception indicates that database is borked. Ghosts will get cleaned up
+                // when database is re-opened.
+                Utils.closeQuietly(null, mTree.mDatabase, e);
+            } finally {
+                latch.acquireExclusive();
+            }
+        }
+    }
 }
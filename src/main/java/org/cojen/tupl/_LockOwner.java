@@ -28,6 +28,12 @@ class _LockOwner {
 
     private int mHashCode;
 
+    /**
+     * Called after waiting for a lock, with the lock latch held.
+     */
+    void lockWaited(long nanos) {
+    }
+
     @Override
     public final int hashCode() {
         int hash = mHashCode;
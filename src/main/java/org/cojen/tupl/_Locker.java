@@ -36,6 +36,10 @@ class _Locker extends _LockOwner {
     // Is null if empty; _Lock instance if one; Block if more.
     Object mTailBlock;
 
+    // Counts of exclusive and upgradable key locks acquired per index, used for lock
+    // escalation. A negative count indicates that the index lock was acquired instead.
+    private EscalationCounts mEscalationCounts;
+
     /**
      * @param manager null for Transaction.BOGUS or when closing down _LockManager
      */
@@ -77,8 +81,7 @@ class _Locker extends _LockOwner {
     final LockResult tryLock(int lockType, long indexId, byte[] key, int hash, long nanosTimeout)
         throws DeadlockException
     {
-        LockResult result = manager().getLockHT(hash)
-            .tryLock(lockType, this, indexId, key, hash, nanosTimeout);
+        LockResult result = tryLockKey(lockType, indexId, key, hash, nanosTimeout);
         if (result == LockResult.TIMED_OUT_LOCK) {
             detectDeadlock(nanosTimeout);
         }
@@ -91,8 +94,7 @@ class _Locker extends _LockOwner {
     final LockResult lock(int lockType, long indexId, byte[] key, int hash, long nanosTimeout)
         throws LockFailureException
     {
-        LockResult result = manager().getLockHT(hash)
-            .tryLock(lockType, this, indexId, key, hash, nanosTimeout);
+        LockResult result = tryLockKey(lockType, indexId, key, hash, nanosTimeout);
         if (result.isHeld()) {
             return result;
         }
@@ -112,8 +114,7 @@ class _Locker extends _LockOwner {
     final LockResult lockNT(int lockType, long indexId, byte[] key, int hash, long nanosTimeout)
         throws LockFailureException
     {
-        LockResult result = manager().getLockHT(hash)
-            .tryLock(lockType, this, indexId, key, hash, nanosTimeout);
+        LockResult result = tryLockKey(lockType, indexId, key, hash, nanosTimeout);
         if (!result.isHeld()) {
             switch (result) {
             case ILLEGAL:
@@ -125,6 +126,111 @@ class _Locker extends _LockOwner {
         return result;
     }
 
+    /**
+     * Acquires a key lock, unless already covered by an escalated index lock. When enough
+     * exclusive or upgradable key locks have been acquired against an index, an exclusive
+     * index lock is acquired instead, and OWNED_EXCLUSIVE is returned for all subsequent
+     * requests against that index.
+     *
+     * @param lockType TYPE_SHARED, TYPE_UPGRADABLE, or TYPE_EXCLUSIVE
+     */
+    final LockResult tryLockKey(int lockType, long indexId, byte[] key, int hash,
+                                long nanosTimeout)
+    {
+        _LockManager manager = manager();
+
+        int threshold = manager.mEscalationThreshold;
+        if (threshold <= 0) {
+            return manager.getLockHT(hash)
+                .tryLock(lockType, this, indexId, key, hash, nanosTimeout);
+        }
+
+        EscalationCounts counts = mEscalationCounts;
+        if (counts == null) {
+            mEscalationCounts = counts = new EscalationCounts(8);
+        }
+
+        EscalationCount counter = counts.insert(indexId);
+        int count = counter.value;
+        if (count < 0) {
+            if (manager.isIndexLockOwner(this, indexId)) {
+                return LockResult.OWNED_EXCLUSIVE;
+            }
+            // Index lock was released when a nested scope exited.
+            counter.value = count = 0;
+        }
+
+        if (count >= Math.max(threshold, counter.limit) && lockType != TYPE_SHARED) {
+            if (escalate(manager, indexId)) {
+                counter.value = -1;
+                return LockResult.OWNED_EXCLUSIVE;
+            }
+            // Back off exponentially, since each attempt scans all the key locks.
+            counter.limit = count >= (Integer.MAX_VALUE >> 1) ? Integer.MAX_VALUE : (count << 1);
+        }
+
+        while (true) {
+            if (manager.isIndexLockConflict(this, indexId)) {
+                LockResult result = awaitIndexLock(manager, indexId, nanosTimeout);
+                if (result != null) {
+                    return result;
+                }
+            }
+
+            LockResult result = manager.getLockHT(hash)
+                .tryLock(lockType, this, indexId, key, hash, nanosTimeout);
+
+            if (result == LockResult.ACQUIRED) {
+                // Double check after the key lock is held. An escalating locker first
+                // acquires the index lock, and then it checks for conflicting key locks.
+                if (manager.isIndexLockConflict(this, indexId)) {
+                    unlockLast();
+                    continue;
+                }
+                if (lockType != TYPE_SHARED) {
+                    counter.value++;
+                }
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Attempts to acquire an exclusive index lock without waiting, which succeeds only if no
+     * other lockers hold any key locks in the index.
+     */
+    private boolean escalate(_LockManager manager, long indexId) {
+        int hash = _LockManager.indexHash(indexId);
+        LockResult result = manager.getLockHT(hash)
+            .tryLock(TYPE_EXCLUSIVE, this, indexId, null, hash, 0);
+        if (result != LockResult.ACQUIRED) {
+            return result == LockResult.OWNED_EXCLUSIVE;
+        }
+        if (manager.isKeyLockedByOthers(this, indexId)) {
+            unlockLast();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits for an index lock held by another locker to be released.
+     *
+     * @return null if released, or else the failed result
+     */
+    private LockResult awaitIndexLock(_LockManager manager, long indexId, long nanosTimeout) {
+        int hash = _LockManager.indexHash(indexId);
+        LockResult result = manager.getLockHT(hash)
+            .tryLock(TYPE_SHARED, this, indexId, null, hash, nanosTimeout);
+        if (result == LockResult.ACQUIRED) {
+            unlockLast();
+        } else if (!result.isHeld()) {
+            return result;
+        }
+        return null;
+    }
+
     /**
      * Attempts to acquire a shared lock for the given key, denying exclusive
      * locks. If return value is {@link LockResult#alreadyOwned owned}, transaction
@@ -386,11 +492,21 @@ class _Locker extends _LockOwner {
         return new LockFailureException();
     }
 
+    @Override
+    final void lockWaited(long nanos) {
+        _LockManager manager = mManager;
+        if (manager != null) {
+            manager.mLockWaits.increment();
+            manager.mLockWaitNanos.add(nanos);
+        }
+    }
+
     private void detectDeadlock(long nanosTimeout) throws DeadlockException {
         if (mWaitingFor != null) {
             try {
                 _DeadlockDetector detector = new _DeadlockDetector(this);
                 if (detector.scan()) {
+                    mManager.mDeadlocks.increment();
                     throw new DeadlockException(nanosTimeout,
                                                 detector.mGuilty,
                                                 detector.newDeadlockSet());
@@ -460,6 +576,25 @@ class _Locker extends _LockOwner {
      * non-immediate upgrade
      */
     public final void unlock() {
+        EscalationCounts counts = mEscalationCounts;
+        if (counts != null && counts.size() != 0) {
+            // Capture before unlocking, because the _Lock instance might be recycled.
+            _Lock lock = peek();
+            if (lock.mKey != null && lock.mOwner == this) {
+                long indexId = lock.mIndexId;
+                unlockLast();
+                EscalationCount counter = counts.get(indexId);
+                if (counter != null && counter.value > 0) {
+                    counter.value--;
+                }
+                return;
+            }
+        }
+
+        unlockLast();
+    }
+
+    private void unlockLast() {
         Object tailObj = mTailBlock;
         if (tailObj == null) {
             throw new IllegalStateException("No locks held");
@@ -557,6 +692,7 @@ class _Locker extends _LockOwner {
         Object parentTailObj;
         if (parent == null || (parentTailObj = parent.mTailBlock) == null) {
             // Unlock everything.
+            resetEscalationCounts();
             Object tailObj = mTailBlock;
             if (tailObj instanceof _Lock) {
                 mManager.unlock(this, (_Lock) tailObj);
@@ -603,6 +739,8 @@ class _Locker extends _LockOwner {
      * locks are released.
      */
     final _PendingTxn transferExclusive() {
+        resetEscalationCounts();
+
         _PendingTxn pending;
 
         Object tailObj = mTailBlock;
@@ -651,6 +789,14 @@ class _Locker extends _LockOwner {
     final void discardAllLocks() {
         mParentScope = null;
         mTailBlock = null;
+        resetEscalationCounts();
+    }
+
+    private void resetEscalationCounts() {
+        EscalationCounts counts = mEscalationCounts;
+        if (counts != null && counts.size() != 0) {
+            counts.clear(8);
+        }
     }
 
     /**
@@ -879,4 +1025,20 @@ class _Locker extends _LockOwner {
         int mHasState;
         long mSavepoint;
     }
+
+    static final class EscalationCount extends LHashTable.Entry<EscalationCount> {
+        int value;
+        // Count at which escalation is attempted again, after failing. Zero if not failed.
+        int limit;
+    }
+
+    static final class EscalationCounts extends LHashTable<EscalationCount> {
+        EscalationCounts(int capacity) {
+            super(capacity);
+        }
+
+        protected EscalationCount newEntry() {
+            return new EscalationCount();
+        }
+    }
 }
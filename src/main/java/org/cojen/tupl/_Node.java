@@ -18,6 +18,8 @@ package org.cojen.tupl;
 
 import java.io.IOException;
 
+import java.nio.ByteBuffer;
+
 import org.cojen.tupl.util.Latch;
 
 import static org.cojen.tupl.DirectPageOps.*;
@@ -25,6 +27,8 @@ import static org.cojen.tupl.DirectPageOps.*;
 import static org.cojen.tupl.Utils.EMPTY_BYTES;
 import static org.cojen.tupl.Utils.closeOnFailure;
 import static org.cojen.tupl.Utils.compareUnsigned;
+import static org.cojen.tupl.Utils.decodeIntBE;
+import static org.cojen.tupl.Utils.mismatch;
 import static org.cojen.tupl.Utils.rethrow;
 
 /**
@@ -46,7 +50,7 @@ final class _Node extends Latch implements _DatabaseAccess {
 
       bits 7..4: major type   0010 (fragment), 0100 (undo log),
                               0110 (internal), 0111 (bottom internal), 1000 (leaf)
-      bits 3..1: sub type     for leaf: x0x (normal)
+      bits 3..1: sub type     for leaf: x0x (normal), x1x (key prefix compressed)
                               for internal: x1x (6 byte child pointer + 2 byte count), x0x (unused)
                               for both: bit 1 is set if low extremity, bit 3 for high extremity
       bit  0:    endianness   0 (little), 1 (big)
@@ -66,7 +70,8 @@ final class _Node extends Latch implements _DatabaseAccess {
         TYPE_UNDO_LOG = (byte) 0x40, // 0b0100_000_0
         TYPE_TN_IN    = (byte) 0x64, // 0b0110_010_0
         TYPE_TN_BIN   = (byte) 0x74, // 0b0111_010_0
-        TYPE_TN_LEAF  = (byte) 0x80; // 0b1000_000_0
+        TYPE_TN_LEAF  = (byte) 0x80, // 0b1000_000_0
+        TYPE_TN_PLEAF = (byte) 0x84; // 0b1000_010_0
 
     static final byte LOW_EXTREMITY = 0x02, HIGH_EXTREMITY = 0x08;
 
@@ -236,6 +241,18 @@ final class _Node extends Latch implements _DatabaseAccess {
       |                                        |
       +----------------------------------------+
 
+      Key prefix compressed leaf nodes (TYPE_TN_PLEAF) store a common key prefix immediately
+      following the header, and the left segment begins after it:
+
+      +----------------------------------------+
+      | ubyte:  key prefix length (1..255)     |
+      | bytes:  key prefix                     |
+      +----------------------------------------+
+
+      Normal keys are stored with the prefix removed, but fragmented keys are always stored
+      in full. All keys in the node begin with the prefix, and so the node only accepts new
+      keys which also begin with it. Other keys are inserted into a new sibling node.
+
      */
 
     // Raw contents of node.
@@ -252,6 +269,9 @@ final class _Node extends Latch implements _DatabaseAccess {
 
     byte mCachedState;
 
+    // Reference count used by the CLOCK eviction policy, guarded by nothing.
+    byte mUsage;
+
     /*P*/ // [
     // // Entries from header, available as fields for quick access.
     // private byte mType;
@@ -271,6 +291,13 @@ final class _Node extends Latch implements _DatabaseAccess {
     // Set by a partially completed split.
     transient _Split mSplit;
 
+    // Optional copy of the first 4 bytes of each key, in search vector order. Heads aren't
+    // updated when the node is modified, and so search results are always verified.
+    private transient int[] mSearchHeads;
+
+    // Number of searches until heads are rebuilt, or zero if disabled.
+    transient int mSearchHeadsCountdown;
+
     _Node(_NodeUsageList usageList, long page) {
         mUsageList = usageList;
         mPage = page;
@@ -346,6 +373,7 @@ final class _Node extends Latch implements _DatabaseAccess {
         _Node newNode = new _Node(mUsageList, mPage);
         newNode.mId = mId;
         newNode.mCachedState = mCachedState;
+        newNode.mSearchHeadsCountdown = mSearchHeadsCountdown;
         /*P*/ // [
         // newNode.type(type());
         // newNode.garbage(garbage());
@@ -369,8 +397,9 @@ final class _Node extends Latch implements _DatabaseAccess {
 
     /**
      * Indicate that a non-root node is most recently used. Root node is not managed in usage
-     * list and cannot be evicted. Caller must hold any latch on node. Latch is never released
-     * by this method, even if an exception is thrown.
+     * list and cannot be evicted. Caller must hold any latch on node, or it must have just
+     * validated an optimistic read stamp. Latch is never released by this method, even if an
+     * exception is thrown.
      */
     void used() {
         mUsageList.used(this);
@@ -411,11 +440,13 @@ final class _Node extends Latch implements _DatabaseAccess {
     /**
      * Options for loadChild. Caller must latch parentas shared or exclusive, which can be
      * retained (default) or released. Child node is latched shared (default) or exclusive.
+     * A leaf child which is read in can also be marked as used only once.
      */
     static final int
-        OPTION_PARENT_RELEASE_SHARED    = 0b001,
-        OPTION_PARENT_RELEASE_EXCLUSIVE = 0b010,
-        OPTION_CHILD_ACQUIRE_EXCLUSIVE  = 0b100;
+        OPTION_PARENT_RELEASE_SHARED    = 0b0001,
+        OPTION_PARENT_RELEASE_EXCLUSIVE = 0b0010,
+        OPTION_CHILD_ACQUIRE_EXCLUSIVE  = 0b0100,
+        OPTION_CHILD_LEAF_USED_ONCE     = 0b1000;
 
     /**
      * With this parent node latched shared or exclusive, loads child with shared or exclusive
@@ -489,6 +520,11 @@ final class _Node extends Latch implements _DatabaseAccess {
                 throw e;
             }
 
+            if ((options & OPTION_CHILD_LEAF_USED_ONCE) != 0 && childNode.isLeaf()) {
+                // Only applies when read in, and not when another thread loaded the child.
+                childNode.mUsageList.usedOnce(childNode);
+            }
+
             if ((options & OPTION_CHILD_ACQUIRE_EXCLUSIVE) == 0){
                 childNode.downgrade();
             }
@@ -1035,6 +1071,43 @@ final class _Node extends Latch implements _DatabaseAccess {
         return (type() & 0xf0) == 0x60;
     }
 
+    /**
+     * Returns the length of the common key prefix which is removed from all normal keys, or
+     * zero if this node isn't a key prefix compressed leaf. Caller must hold any latch.
+     */
+    int keyPrefixLength() {
+        return (type() & ~(LOW_EXTREMITY | HIGH_EXTREMITY)) == TYPE_TN_PLEAF
+            ? p_ubyteGet(mPage, TN_HEADER_SIZE) : 0;
+    }
+
+    /**
+     * Returns the location of the first allocatable byte in the left segment, which follows
+     * the header and any key prefix. Caller must hold any latch.
+     */
+    private int segmentStart() {
+        int plen = keyPrefixLength();
+        return plen == 0 ? TN_HEADER_SIZE : (TN_HEADER_SIZE + 1 + plen);
+    }
+
+    /**
+     * @param plen length of key prefix, which must not be zero
+     * @return true if the given key begins with the key prefix of this node
+     */
+    private boolean startsWithKeyPrefix(byte[] key, int plen) {
+        return key.length >= plen
+            && p_compareKeysPageToArray(mPage, TN_HEADER_SIZE + 1, plen, key, 0, plen) == 0;
+    }
+
+    /**
+     * Returns true if both nodes have no key prefix, or if the prefixes are equal.
+     */
+    private static boolean equalKeyPrefixes(_Node a, _Node b) {
+        int plen = a.keyPrefixLength();
+        return plen == b.keyPrefixLength()
+            && (plen == 0 || p_compareKeysPageToPage(a.mPage, TN_HEADER_SIZE + 1, plen,
+                                                    b.mPage, TN_HEADER_SIZE + 1, plen) == 0);
+    }
+
     /**
      * Caller must hold any latch.
      *
@@ -1166,6 +1239,17 @@ final class _Node extends Latch implements _DatabaseAccess {
      * @return 2-based insertion pos, which is negative if key not found
      */
     int binarySearch(byte[] key) throws IOException {
+        if (keyPrefixLength() != 0) {
+            return prefixBinarySearch(key);
+        }
+
+        if (mSearchHeadsCountdown != 0) {
+            int pos = headsBinarySearch(key);
+            if (pos != NO_SEARCH_HEADS) {
+                return pos;
+            }
+        }
+
         final long page = mPage;
         final int keyLen = key.length;
         int lowPos = searchVecStart();
@@ -1188,47 +1272,33 @@ final class _Node extends Latch implements _DatabaseAccess {
                     compareLen = ((compareLen & 0x3f) << 8) | p_ubyteGet(page, compareLoc++);
 
                     if ((header & ENTRY_FRAGMENTED) != 0) {
-                        // Note: An optimized version wouldn't need to copy the whole key.
-                        byte[] compareKey = getDatabase()
-                            .reconstructKey(page, compareLoc, compareLen);
-                        compareLen = compareKey.length;
-
-                        int minLen = Math.min(compareLen, keyLen);
-                        i = Math.min(lowMatch, highMatch);
-                        for (; i<minLen; i++) {
-                            byte cb = compareKey[i];
-                            byte kb = key[i];
-                            if (cb != kb) {
-                                if ((cb & 0xff) < (kb & 0xff)) {
-                                    lowPos = midPos + 2;
-                                    lowMatch = i;
-                                } else {
-                                    highPos = midPos - 2;
-                                    highMatch = i;
-                                }
-                                continue outer;
-                            }
+                        int cmp = getDatabase().compareFragmentedKey
+                            (page, compareLoc, compareLen, key, Math.min(lowMatch, highMatch));
+                        if (cmp < 0) {
+                            lowPos = midPos + 2;
+                            lowMatch = ~cmp;
+                        } else if (cmp > 0) {
+                            highPos = midPos - 2;
+                            highMatch = cmp - 1;
+                        } else {
+                            return midPos - searchVecStart();
                         }
-
-                        break compare;
+                        continue outer;
                     }
                 }
 
                 int minLen = Math.min(compareLen, keyLen);
                 i = Math.min(lowMatch, highMatch);
-                for (; i<minLen; i++) {
-                    byte cb = p_byteGet(page, compareLoc + i);
-                    byte kb = key[i];
-                    if (cb != kb) {
-                        if ((cb & 0xff) < (kb & 0xff)) {
-                            lowPos = midPos + 2;
-                            lowMatch = i;
-                        } else {
-                            highPos = midPos - 2;
-                            highMatch = i;
-                        }
-                        continue outer;
+                i += p_mismatch(page, compareLoc + i, key, i, minLen - i);
+                if (i < minLen) {
+                    if (p_ubyteGet(page, compareLoc + i) < (key[i] & 0xff)) {
+                        lowPos = midPos + 2;
+                        lowMatch = i;
+                    } else {
+                        highPos = midPos - 2;
+                        highMatch = i;
                     }
+                    continue outer;
                 }
             }
 
@@ -1246,11 +1316,64 @@ final class _Node extends Latch implements _DatabaseAccess {
         return ~(lowPos - searchVecStart());
     }
 
+    /**
+     * Binary search variant for internal nodes, used for optimistic reads without any latch
+     * held. The result is meaningless unless the latch stamp is validated afterwards, and any
+     * runtime exception caused by inconsistent contents must be suppressed by the caller.
+     * Only page contents are read, and no node fields are modified.
+     *
+     * @return 2-based insertion pos, which is negative if key not found, or
+     * NO_OPTIMISTIC_SEARCH if a fragmented key was encountered
+     */
+    int optimisticSearch(byte[] key) {
+        final long page = mPage;
+        final int pageSize = pageSize(page);
+        final int keyLen = key.length;
+        final int startPos = searchVecStart();
+        int lowPos = startPos;
+        int highPos = searchVecEnd();
+
+        while (lowPos <= highPos) {
+            int midPos = ((lowPos + highPos) >> 1) & ~1;
+
+            int compareLoc = p_ushortGetLE(page, midPos);
+            int compareLen = p_byteGet(page, compareLoc++);
+            if (compareLen >= 0) {
+                compareLen++;
+            } else {
+                if ((compareLen & ENTRY_FRAGMENTED) != 0) {
+                    return NO_OPTIMISTIC_SEARCH;
+                }
+                compareLen = ((compareLen & 0x3f) << 8) | p_ubyteGet(page, compareLoc++);
+            }
+
+            // Word comparisons aren't bounds checked, so stay within the page.
+            if (compareLoc + compareLen > pageSize) {
+                return NO_OPTIMISTIC_SEARCH;
+            }
+
+            int cmp = p_compareKeysPageToArray(page, compareLoc, compareLen, key, 0, keyLen);
+            if (cmp < 0) {
+                lowPos = midPos + 2;
+            } else if (cmp > 0) {
+                highPos = midPos - 2;
+            } else {
+                return midPos - startPos;
+            }
+        }
+
+        return ~(lowPos - startPos);
+    }
+
     /**
      * @param midPos 2-based starting position
      * @return 2-based insertion pos, which is negative if key not found
      */
     int binarySearch(byte[] key, int midPos) throws IOException {
+        if (keyPrefixLength() != 0) {
+            return prefixBinarySearch(key);
+        }
+
         int lowPos = searchVecStart();
         int highPos = searchVecEnd();
         if (lowPos > highPos) {
@@ -1270,58 +1393,42 @@ final class _Node extends Latch implements _DatabaseAccess {
         while (true) {
             compare: {
                 int compareLen, i;
-                c2: {
-                    int compareLoc = p_ushortGetLE(page, midPos);
-                    compareLen = p_byteGet(page, compareLoc++);
-                    if (compareLen >= 0) {
-                        compareLen++;
-                    } else {
-                        int header = compareLen;
-                        compareLen = ((compareLen & 0x3f) << 8) | p_ubyteGet(page, compareLoc++);
-
-                        if ((header & ENTRY_FRAGMENTED) != 0) {
-                            // Note: An optimized version wouldn't need to copy the whole key.
-                            byte[] compareKey = getDatabase()
-                                .reconstructKey(page, compareLoc, compareLen);
-                            compareLen = compareKey.length;
-
-                            int minLen = Math.min(compareLen, keyLen);
-                            i = Math.min(lowMatch, highMatch);
-                            for (; i<minLen; i++) {
-                                byte cb = compareKey[i];
-                                byte kb = key[i];
-                                if (cb != kb) {
-                                    if ((cb & 0xff) < (kb & 0xff)) {
-                                        lowPos = midPos + 2;
-                                        lowMatch = i;
-                                    } else {
-                                        highPos = midPos - 2;
-                                        highMatch = i;
-                                    }
-                                    break compare;
-                                }
-                            }
+                int compareLoc = p_ushortGetLE(page, midPos);
+                compareLen = p_byteGet(page, compareLoc++);
+                if (compareLen >= 0) {
+                    compareLen++;
+                } else {
+                    int header = compareLen;
+                    compareLen = ((compareLen & 0x3f) << 8) | p_ubyteGet(page, compareLoc++);
 
-                            break c2;
+                    if ((header & ENTRY_FRAGMENTED) != 0) {
+                        int cmp = getDatabase().compareFragmentedKey
+                            (page, compareLoc, compareLen, key, Math.min(lowMatch, highMatch));
+                        if (cmp < 0) {
+                            lowPos = midPos + 2;
+                            lowMatch = ~cmp;
+                        } else if (cmp > 0) {
+                            highPos = midPos - 2;
+                            highMatch = cmp - 1;
+                        } else {
+                            return midPos - searchVecStart();
                         }
+                        break compare;
                     }
+                }
 
-                    int minLen = Math.min(compareLen, keyLen);
-                    i = Math.min(lowMatch, highMatch);
-                    for (; i<minLen; i++) {
-                        byte cb = p_byteGet(page, compareLoc + i);
-                        byte kb = key[i];
-                        if (cb != kb) {
-                            if ((cb & 0xff) < (kb & 0xff)) {
-                                lowPos = midPos + 2;
-                                lowMatch = i;
-                            } else {
-                                highPos = midPos - 2;
-                                highMatch = i;
-                            }
-                            break compare;
-                        }
+                int minLen = Math.min(compareLen, keyLen);
+                i = Math.min(lowMatch, highMatch);
+                i += p_mismatch(page, compareLoc + i, key, i, minLen - i);
+                if (i < minLen) {
+                    if (p_ubyteGet(page, compareLoc + i) < (key[i] & 0xff)) {
+                        lowPos = midPos + 2;
+                        lowMatch = i;
+                    } else {
+                        highPos = midPos - 2;
+                        highMatch = i;
                     }
+                    break compare;
                 }
 
                 if (compareLen < keyLen) {
@@ -1345,6 +1452,200 @@ final class _Node extends Latch implements _DatabaseAccess {
         return ~(lowPos - searchVecStart());
     }
 
+    // Minimum number of plain searches before search heads are built.
+    static final int SEARCH_HEADS_DELAY = 8;
+
+    private static final int NO_SEARCH_HEADS = Integer.MIN_VALUE;
+
+    static final int NO_OPTIMISTIC_SEARCH = Integer.MIN_VALUE;
+
+    /**
+     * Binary search variant which first examines the search heads, and so only keys which
+     * have the same head as the search key need to be examined. Heads are rebuilt after as
+     * many plain searches as there are keys, limiting the amortized cost of rebuilding.
+     *
+     * @return 2-based insertion pos, which is negative if key not found, or NO_SEARCH_HEADS
+     * if heads aren't available
+     */
+    private int headsBinarySearch(byte[] key) throws IOException {
+        int[] heads = mSearchHeads;
+        int count = numKeys();
+
+        if (heads == null || heads.length != count) {
+            mSearchHeads = null;
+            int countdown = mSearchHeadsCountdown;
+            if (countdown > 1) {
+                mSearchHeadsCountdown = countdown - 1;
+                return NO_SEARCH_HEADS;
+            }
+            mSearchHeadsCountdown = Math.max(count, SEARCH_HEADS_DELAY);
+            if ((heads = buildSearchHeads(count)) == null) {
+                return NO_SEARCH_HEADS;
+            }
+            mSearchHeads = heads;
+        }
+
+        final int keyHead = keyHead(key);
+
+        // Find the range of keys which have the same head.
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Integer.compareUnsigned(heads[mid], keyHead) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int start = low;
+        high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Integer.compareUnsigned(heads[mid], keyHead) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        int lowPos = start << 1;
+        int highPos = (low - 1) << 1;
+        boolean lowChecked = false;
+        boolean highChecked = false;
+
+        while (lowPos <= highPos) {
+            int midPos = ((lowPos + highPos) >> 1) & ~1;
+            int cmp = compareKey(midPos, key);
+            if (cmp < 0) {
+                lowPos = midPos + 2;
+                lowChecked = true;
+            } else if (cmp > 0) {
+                highPos = midPos - 2;
+                highChecked = true;
+            } else {
+                return midPos;
+            }
+        }
+
+        // Verify the insertion position against any neighboring keys which weren't examined,
+        // in case the heads are stale.
+        if ((!lowChecked && lowPos > 0 && compareKey(lowPos - 2, key) >= 0)
+            || (!highChecked && lowPos < (count << 1) && compareKey(lowPos, key) <= 0))
+        {
+            mSearchHeads = null;
+            return NO_SEARCH_HEADS;
+        }
+
+        return ~lowPos;
+    }
+
+    /**
+     * @return null if any keys are fragmented
+     */
+    private int[] buildSearchHeads(int count) {
+        final long page = mPage;
+        int[] heads = new int[count];
+        int pos = searchVecStart();
+        for (int i=0; i<count; i++, pos += 2) {
+            int loc = p_ushortGetLE(page, pos);
+            int keyLen = p_byteGet(page, loc++);
+            if (keyLen >= 0) {
+                keyLen++;
+            } else {
+                if ((keyLen & ENTRY_FRAGMENTED) != 0) {
+                    return null;
+                }
+                keyLen = ((keyLen & 0x3f) << 8) | p_ubyteGet(page, loc++);
+            }
+            heads[i] = keyHead(page, loc, keyLen);
+        }
+        return heads;
+    }
+
+    /**
+     * Returns the first 4 bytes of the key, padded with zeros. Heads are compared as unsigned
+     * ints, and the order of heads is consistent with the order of the keys.
+     */
+    static int keyHead(byte[] key) {
+        if (key.length >= 4) {
+            return decodeIntBE(key, 0);
+        }
+        int head = 0;
+        for (int i=0; i<4; i++) {
+            head = (head << 8) | (i < key.length ? (key[i] & 0xff) : 0);
+        }
+        return head;
+    }
+
+    private static int keyHead(long page, int loc, int keyLen) {
+        if (keyLen >= 4) {
+            return Integer.reverseBytes(p_intGetLE(page, loc));
+        }
+        int head = 0;
+        for (int i=0; i<4; i++) {
+            head = (head << 8) | (i < keyLen ? p_ubyteGet(page, loc + i) : 0);
+        }
+        return head;
+    }
+
+    /**
+     * Binary search variant for key prefix compressed leaf nodes.
+     *
+     * @return 2-based insertion pos, which is negative if key not found
+     */
+    private int prefixBinarySearch(byte[] key) throws IOException {
+        final long page = mPage;
+        final int plen = p_ubyteGet(page, TN_HEADER_SIZE);
+        final int keyLen = key.length;
+
+        int cmp = p_compareKeysPageToArray(page, TN_HEADER_SIZE + 1, plen,
+                                           key, 0, Math.min(plen, keyLen));
+        if (cmp != 0) {
+            // Key doesn't begin with the prefix, and so it's lower or higher than all keys.
+            return cmp > 0 ? ~0 : ~(searchVecEnd() - searchVecStart() + 2);
+        }
+        if (keyLen < plen) {
+            // Key is a prefix of the prefix, and so it's lower than all keys.
+            return ~0;
+        }
+
+        int lowPos = searchVecStart();
+        int highPos = searchVecEnd();
+
+        while (lowPos <= highPos) {
+            int midPos = ((lowPos + highPos) >> 1) & ~1;
+
+            int compareLoc = p_ushortGetLE(page, midPos);
+            int compareLen = p_byteGet(page, compareLoc++);
+            if (compareLen >= 0) {
+                compareLen++;
+                cmp = p_compareKeysPageToArray(page, compareLoc, compareLen,
+                                               key, plen, keyLen - plen);
+            } else {
+                int header = compareLen;
+                compareLen = ((compareLen & 0x3f) << 8) | p_ubyteGet(page, compareLoc++);
+                if ((header & ENTRY_FRAGMENTED) != 0) {
+                    // Fragmented keys are stored in full.
+                    cmp = getDatabase().compareFragmentedKey(page, compareLoc, compareLen, key, 0);
+                } else {
+                    cmp = p_compareKeysPageToArray(page, compareLoc, compareLen,
+                                                   key, plen, keyLen - plen);
+                }
+            }
+
+            if (cmp < 0) {
+                lowPos = midPos + 2;
+            } else if (cmp > 0) {
+                highPos = midPos - 2;
+            } else {
+                return midPos - searchVecStart();
+            }
+        }
+
+        return ~(lowPos - searchVecStart());
+    }
+
     /**
      * Ensure binary search position is positive, for internal node.
      */
@@ -1365,10 +1666,21 @@ final class _Node extends Latch implements _DatabaseAccess {
             int header = keyLen;
             keyLen = ((keyLen & 0x3f) << 8) | p_ubyteGet(page, loc++);
             if ((header & ENTRY_FRAGMENTED) != 0) {
-                // Note: An optimized version wouldn't need to copy the whole key.
-                byte[] leftKey = getDatabase().reconstructKey(page, loc, keyLen);
-                return compareUnsigned(leftKey, 0, leftKey.length, rightKey, 0, rightKey.length);
+                return getDatabase().compareFragmentedKey(page, loc, keyLen, rightKey, 0);
+            }
+        }
+        int plen = keyPrefixLength();
+        if (plen != 0) {
+            int cmp = p_compareKeysPageToArray(page, TN_HEADER_SIZE + 1, plen,
+                                               rightKey, 0, Math.min(plen, rightKey.length));
+            if (cmp != 0) {
+                return cmp;
             }
+            if (rightKey.length < plen) {
+                return 1;
+            }
+            return p_compareKeysPageToArray(page, loc, keyLen,
+                                            rightKey, plen, rightKey.length - plen);
         }
         return p_compareKeysPageToArray(page, loc, keyLen, rightKey, 0, rightKey.length);
     }
@@ -1393,7 +1705,7 @@ final class _Node extends Latch implements _DatabaseAccess {
             }
         }
 
-        stats[0] = keyLen;
+        stats[0] = keyPrefixLength() + keyLen;
         stats[1] = 0;
     }
 
@@ -1402,14 +1714,34 @@ final class _Node extends Latch implements _DatabaseAccess {
      */
     byte[] retrieveKey(int pos) throws IOException {
         final long page = mPage;
-        return retrieveKeyAtLoc(this, page, p_ushortGetLE(page, searchVecStart() + pos));
+        return retrieveKeyAtLoc(page, p_ushortGetLE(page, searchVecStart() + pos));
     }
 
     /**
+     * Retrieves a full key from this node, including any key prefix.
+     *
      * @param loc absolute location of entry
      */
     byte[] retrieveKeyAtLoc(final long page, int loc) throws IOException {
-        return retrieveKeyAtLoc(this, page, loc);
+        int plen = keyPrefixLength();
+        if (plen == 0) {
+            return retrieveKeyAtLoc(this, page, loc);
+        }
+
+        int keyLen = p_byteGet(page, loc++);
+        if (keyLen >= 0) {
+            keyLen++;
+        } else {
+            int header = keyLen;
+            keyLen = ((keyLen & 0x3f) << 8) | p_ubyteGet(page, loc++);
+            if ((header & ENTRY_FRAGMENTED) != 0) {
+                return getDatabase().reconstructKey(page, loc, keyLen);
+            }
+        }
+        byte[] key = new byte[plen + keyLen];
+        p_copyToArray(page, TN_HEADER_SIZE + 1, key, 0, plen);
+        p_copyToArray(page, loc, key, plen, keyLen);
+        return key;
     }
 
     /**
@@ -1470,6 +1802,17 @@ final class _Node extends Latch implements _DatabaseAccess {
     byte[] retrieveKeyCmp(int pos, byte[] limitKey, int limitMode) throws IOException {
         final long page = mPage;
         int loc = p_ushortGetLE(page, searchVecStart() + pos);
+
+        if (keyPrefixLength() != 0) {
+            byte[] key = retrieveKeyAtLoc(page, loc);
+            int cmp = compareUnsigned(key, limitKey);
+            if (cmp == 0) {
+                return limitKey;
+            } else {
+                return (cmp ^ limitMode) < 0 ? key : null;
+            }
+        }
+
         int keyLen = p_byteGet(page, loc++);
         if (keyLen >= 0) {
             keyLen++;
@@ -1478,12 +1821,13 @@ final class _Node extends Latch implements _DatabaseAccess {
             keyLen = ((keyLen & 0x3f) << 8) | p_ubyteGet(page, loc++);
 
             if ((header & ENTRY_FRAGMENTED) != 0) {
-                byte[] key = getDatabase().reconstructKey(page, loc, keyLen);
-                int cmp = compareUnsigned(key, limitKey);
+                // Only reconstruct the key if it's within the limit.
+                int cmp = getDatabase().compareFragmentedKey(page, loc, keyLen, limitKey, 0);
                 if (cmp == 0) {
                     return limitKey;
                 } else {
-                    return (cmp ^ limitMode) < 0 ? key : null;
+                    return (cmp ^ limitMode) < 0
+                        ? getDatabase().reconstructKey(page, loc, keyLen) : null;
                 }
             }
         }
@@ -1539,7 +1883,7 @@ final class _Node extends Latch implements _DatabaseAccess {
         final long lowPage = mPage;
         int lowLoc = p_ushortGetLE(lowPage, searchVecStart() + lowPos);
         int lowKeyLen = p_byteGet(lowPage, lowLoc);
-        if (lowKeyLen < 0) {
+        if (lowKeyLen < 0 || keyPrefixLength() != 0) {
             // Note: An optimized version wouldn't need to copy the whole key.
             return Utils.midKey(retrieveKeyAtLoc(lowPage, lowLoc), highKey);
         } else {
@@ -1556,7 +1900,7 @@ final class _Node extends Latch implements _DatabaseAccess {
         final long highPage = mPage;
         int highLoc = p_ushortGetLE(highPage, searchVecStart() + highPos);
         int highKeyLen = p_byteGet(highPage, highLoc);
-        if (highKeyLen < 0) {
+        if (highKeyLen < 0 || keyPrefixLength() != 0) {
             // Note: An optimized version wouldn't need to copy the whole key.
             return Utils.midKey(lowKey, retrieveKeyAtLoc(highPage, highLoc));
         } else {
@@ -1574,7 +1918,7 @@ final class _Node extends Latch implements _DatabaseAccess {
         final long lowPage = mPage;
         int lowLoc = p_ushortGetLE(lowPage, searchVecStart() + lowPos);
         int lowKeyLen = p_byteGet(lowPage, lowLoc);
-        if (lowKeyLen < 0) {
+        if (lowKeyLen < 0 || keyPrefixLength() != 0) {
             // Note: An optimized version wouldn't need to copy the whole key.
             return highNode.midKey(retrieveKeyAtLoc(lowPage, lowLoc), highPos);
         }
@@ -1585,9 +1929,9 @@ final class _Node extends Latch implements _DatabaseAccess {
         final long highPage = highNode.mPage;
         int highLoc = p_ushortGetLE(highPage, highNode.searchVecStart() + highPos);
         int highKeyLen = p_byteGet(highPage, highLoc);
-        if (highKeyLen < 0) {
+        if (highKeyLen < 0 || highNode.keyPrefixLength() != 0) {
             // Note: An optimized version wouldn't need to copy the whole key.
-            byte[] highKey = retrieveKeyAtLoc(highPage, highLoc);
+            byte[] highKey = highNode.retrieveKeyAtLoc(highPage, highLoc);
             return p_midKeyLowPage(lowPage, lowLoc, lowKeyLen, highKey, 0, highKey.length);
         }
 
@@ -1684,6 +2028,50 @@ final class _Node extends Latch implements _DatabaseAccess {
         return value;
     }
 
+    /**
+     * Passes the value to a visitor without copying it, unless it's fragmented.
+     *
+     * @param pos position as provided by binarySearch; must be positive
+     * @return null if ghost
+     */
+    <R> R visitLeafValue(int pos, ValueVisitor<R> visitor) throws IOException {
+        final long page = mPage;
+        int loc = p_ushortGetLE(page, searchVecStart() + pos);
+        loc += keyLengthAtLoc(page, loc);
+        return visitLeafValueAtLoc(this, page, loc, visitor);
+    }
+
+    static <R> R visitLeafValueAtLoc(_DatabaseAccess dbAccess, long page, int loc,
+                                     ValueVisitor<R> visitor)
+        throws IOException
+    {
+        final int header = p_byteGet(page, loc++);
+        if (header == 0) {
+            return visitor.visit(p_readOnlyBB(page, loc, 0));
+        }
+
+        int len;
+        if (header >= 0) {
+            len = header;
+        } else {
+            if ((header & 0x20) == 0) {
+                len = 1 + (((header & 0x1f) << 8) | p_ubyteGet(page, loc++));
+            } else if (header != -1) {
+                len = 1 + (((header & 0x0f) << 16)
+                           | (p_ubyteGet(page, loc++) << 8) | p_ubyteGet(page, loc++));
+            } else {
+                // ghost
+                return null;
+            }
+            if ((header & ENTRY_FRAGMENTED) != 0) {
+                byte[] value = dbAccess.getDatabase().reconstruct(page, loc, len);
+                return visitor.visit(ByteBuffer.wrap(value).asReadOnlyBuffer());
+            }
+        }
+
+        return visitor.visit(p_readOnlyBB(page, loc, len));
+    }
+
     /**
      * Sets the cursor key and value references. If mode is key-only, then set value is
      * Cursor.NOT_LOADED for a value which exists, null if ghost.
@@ -1708,8 +2096,12 @@ final class _Node extends Latch implements _DatabaseAccess {
                     break copyKey;
                 }
             }
-            key = new byte[keyLen];
-            p_copyToArray(page, loc, key, 0, keyLen);
+            int plen = keyPrefixLength();
+            key = new byte[plen + keyLen];
+            if (plen != 0) {
+                p_copyToArray(page, TN_HEADER_SIZE + 1, key, 0, plen);
+            }
+            p_copyToArray(page, loc, key, plen, keyLen);
         }
 
         loc += keyLen;
@@ -1780,20 +2172,19 @@ final class _Node extends Latch implements _DatabaseAccess {
 
                 if ((header & ENTRY_FRAGMENTED) != 0) {
                     int valueStartLoc = valueHeaderLoc + 2 + ((header & 0x20) >> 5);
-                    tree.mDatabase.fragmentedTrash().add
-                        (txn, tree.mId, page,
-                         entryLoc, valueHeaderLoc - entryLoc,  // keyStart, keyLen
-                         valueStartLoc, loc - valueStartLoc);  // valueStart, valueLen
+                    trashFragmentedValue(txn, tree, key, page,
+                                         entryLoc, valueHeaderLoc, valueStartLoc, loc);
                     break doUndo;
                 }
             }
 
             // Copy whole entry into undo log.
-            txn.pushUndoStore(tree.mId, _UndoLog.OP_UNDELETE, page, entryLoc, loc - entryLoc);
+            pushUndoStore(txn, tree, _UndoLog.OP_UNDELETE, key,
+                          page, entryLoc, valueHeaderLoc, loc);
         }
 
         // Ghost will be deleted later when locks are released.
-        tree.mLockManager.ghosted(tree, key, keyHash);
+        tree.mLockManager.ghosted(txn, tree, key, keyHash);
 
         // Replace value with ghost.
         p_bytePut(page, valueHeaderLoc, -1);
@@ -1845,10 +2236,8 @@ final class _Node extends Latch implements _DatabaseAccess {
 
                 if ((header & ENTRY_FRAGMENTED) != 0) {
                     int valueStartLoc = valueHeaderLoc + 2 + ((header & 0x20) >> 5);
-                    tree.mDatabase.fragmentedTrash().add
-                        (txn, tree.mId, page,
-                         entryLoc, valueHeaderLoc - entryLoc,  // keyStart, keyLen
-                         valueStartLoc, loc - valueStartLoc);  // valueStart, valueLen
+                    trashFragmentedValue(txn, tree, key, page,
+                                         entryLoc, valueHeaderLoc, valueStartLoc, loc);
                     // Clearing the fragmented bit prevents the update from
                     // double-deleting the fragments, and it also allows the
                     // old entry slot to be re-used.
@@ -1859,7 +2248,90 @@ final class _Node extends Latch implements _DatabaseAccess {
         }
 
         // Copy whole entry into undo log.
-        txn.pushUndoStore(tree.mId, _UndoLog.OP_UNUPDATE, page, entryLoc, loc - entryLoc);
+        pushUndoStore(txn, tree, _UndoLog.OP_UNUPDATE, key, page, entryLoc, valueHeaderLoc, loc);
+    }
+
+    /**
+     * Copies an existing entry into the undo log, restoring the key prefix if necessary.
+     *
+     * @param key full key of the entry
+     * @param endLoc location just past the end of the entry
+     */
+    private void pushUndoStore(_LocalTransaction txn, _Tree tree, byte op, byte[] key,
+                               long page, int entryLoc, int valueHeaderLoc, int endLoc)
+        throws IOException
+    {
+        if (!isKeySuffixAtLoc(page, entryLoc)) {
+            txn.pushUndoStore(tree.mId, op, page, entryLoc, endLoc - entryLoc);
+            return;
+        }
+        long entry = expandLeafEntry(key, page, valueHeaderLoc, endLoc);
+        try {
+            int delta = calculateKeyLength(key) - (valueHeaderLoc - entryLoc);
+            txn.pushUndoStore(tree.mId, op, entry, 0, endLoc - entryLoc + delta);
+        } finally {
+            p_delete(entry);
+        }
+    }
+
+    /**
+     * Moves an existing fragmented value into the trash, restoring the key prefix if
+     * necessary.
+     *
+     * @param key full key of the entry
+     * @param endLoc location just past the end of the entry
+     */
+    private void trashFragmentedValue(_LocalTransaction txn, _Tree tree, byte[] key,
+                                      long page, int entryLoc, int valueHeaderLoc,
+                                      int valueStartLoc, int endLoc)
+        throws IOException
+    {
+        if (!isKeySuffixAtLoc(page, entryLoc)) {
+            tree.mDatabase.fragmentedTrash().add
+                (txn, tree.mId, page,
+                 entryLoc, valueHeaderLoc - entryLoc,     // keyStart, keyLen
+                 valueStartLoc, endLoc - valueStartLoc);  // valueStart, valueLen
+            return;
+        }
+        long entry = expandLeafEntry(key, page, valueHeaderLoc, endLoc);
+        try {
+            int keyLen = calculateKeyLength(key);
+            int delta = keyLen - (valueHeaderLoc - entryLoc);
+            tree.mDatabase.fragmentedTrash().add
+                (txn, tree.mId, entry,
+                 0, keyLen,  // keyStart, keyLen
+                 valueStartLoc - entryLoc + delta, endLoc - valueStartLoc);
+        } finally {
+            p_delete(entry);
+        }
+    }
+
+    /**
+     * Returns true if the key of the given entry is stored without the key prefix.
+     */
+    private boolean isKeySuffixAtLoc(long page, int entryLoc) {
+        if (keyPrefixLength() == 0) {
+            return false;
+        }
+        int header = p_byteGet(page, entryLoc);
+        return header >= 0 || (header & ENTRY_FRAGMENTED) == 0;
+    }
+
+    /**
+     * Returns a copy of an existing entry with the full key. The copy must be deleted when no
+     * longer needed.
+     *
+     * @param key full key of the entry
+     * @param endLoc location just past the end of the entry
+     */
+    private long expandLeafEntry(byte[] key, long page,
+                                         int valueHeaderLoc, int endLoc)
+    {
+        int valueLen = endLoc - valueHeaderLoc;
+        long entry = p_transfer(new byte[calculateKeyLength(key) + valueLen]);
+        int loc = encodeNormalKey(key, entry, 0);
+        p_copy(page, valueHeaderLoc, entry, loc, valueLen);
+        return entry;
     }
 
     /**
@@ -1930,6 +2402,22 @@ final class _Node extends Latch implements _DatabaseAccess {
     void insertLeafEntry(_CursorFrame frame, _Tree tree, int pos, byte[] okey, byte[] value)
         throws IOException
     {
+        insertLeafEntry(frame, tree, pos, okey, value, 0);
+    }
+
+    /**
+     * @param frame optional frame which is bound to this node; only used for rebalancing
+     * @param pos complement of position as provided by binarySearch; must be positive
+     * @param okey original key
+     * @param reserve when positive, split the node if fewer bytes would remain available
+     * after inserting the entry; only applicable when inserting at the right edge
+     */
+    void insertLeafEntry(_CursorFrame frame, _Tree tree, int pos, byte[] okey, byte[] value,
+                         int reserve)
+        throws IOException
+    {
+        final int plen = insertKeyPrefixLength(okey);
+
         byte[] akey = okey;
         int encodedKeyLen = calculateAllowedKeyLength(tree, okey);
 
@@ -1937,6 +2425,8 @@ final class _Node extends Latch implements _DatabaseAccess {
             // Key must be fragmented.
             akey = tree.fragmentKey(okey);
             encodedKeyLen = 2 + akey.length;
+        } else if (plen > 0) {
+            encodedKeyLen = calculateKeyLength(okey.length - plen);
         }
 
         try {
@@ -1957,7 +2447,27 @@ final class _Node extends Latch implements _DatabaseAccess {
             }
 
             try {
-                int entryLoc = createLeafEntry(frame, tree, pos, encodedLen);
+                int entryLoc;
+                if (plen < 0) {
+                    // Key doesn't begin with the key prefix, so it goes into a new node.
+                    entryLoc = -1;
+                } else if (reserve > 0 && hasKeys()
+                    && (availableLeafBytes() - (encodedLen + 2)) < reserve)
+                {
+                    // _Split early to honor the fill factor.
+                    entryLoc = -1;
+                } else {
+                    entryLoc = createLeafEntry(frame, tree, pos, encodedLen);
+                    if (entryLoc < 0 && plen == 0 && okey == akey && vfrag == 0) {
+                        // Try to make room by compressing the keys instead of splitting.
+                        int newPlen = tryCompressKeyPrefix(tree, okey, pos, encodedLen);
+                        if (newPlen > 0) {
+                            encodedLen += calculateKeyLength(okey.length - newPlen)
+                                - encodedKeyLen;
+                            entryLoc = createLeafEntry(frame, tree, pos, encodedLen);
+                        }
+                    }
+                }
 
                 if (entryLoc < 0) {
                     splitLeafAndCreateEntry(tree, okey, akey, vfrag, value, encodedLen, pos, true);
@@ -1986,6 +2496,8 @@ final class _Node extends Latch implements _DatabaseAccess {
     void insertBlankLeafEntry(_CursorFrame frame, _Tree tree, int pos, byte[] okey, long vlength)
         throws IOException
     {
+        final int plen = insertKeyPrefixLength(okey);
+
         byte[] akey = okey;
         int encodedKeyLen = calculateAllowedKeyLength(tree, okey);
 
@@ -1993,6 +2505,8 @@ final class _Node extends Latch implements _DatabaseAccess {
             // Key must be fragmented.
             akey = tree.fragmentKey(okey);
             encodedKeyLen = 2 + akey.length;
+        } else if (plen > 0) {
+            encodedKeyLen = calculateKeyLength(okey.length - plen);
         }
 
         try {
@@ -2016,7 +2530,7 @@ final class _Node extends Latch implements _DatabaseAccess {
             }
 
             try {
-                int entryLoc = createLeafEntry(frame, tree, pos, encodedLen);
+                int entryLoc = plen < 0 ? -1 : createLeafEntry(frame, tree, pos, encodedLen);
 
                 if (entryLoc < 0) {
                     splitLeafAndCreateEntry(tree, okey, akey, vfrag, value, encodedLen, pos, true);
@@ -2046,6 +2560,8 @@ final class _Node extends Latch implements _DatabaseAccess {
                                    _Tree tree, int pos, byte[] okey, byte[] value)
         throws IOException
     {
+        final int plen = insertKeyPrefixLength(okey);
+
         byte[] akey = okey;
         int encodedKeyLen = calculateAllowedKeyLength(tree, okey);
 
@@ -2053,12 +2569,14 @@ final class _Node extends Latch implements _DatabaseAccess {
             // Key must be fragmented.
             akey = tree.fragmentKey(okey);
             encodedKeyLen = 2 + akey.length;
+        } else if (plen > 0) {
+            encodedKeyLen = calculateKeyLength(okey.length - plen);
         }
 
         try {
             int encodedLen = encodedKeyLen + calculateFragmentedValueLength(value);
 
-            int entryLoc = createLeafEntry(frame, tree, pos, encodedLen);
+            int entryLoc = plen < 0 ? -1 : createLeafEntry(frame, tree, pos, encodedLen);
 
             if (entryLoc < 0) {
                 splitLeafAndCreateEntry
@@ -2074,6 +2592,29 @@ final class _Node extends Latch implements _DatabaseAccess {
         }
     }
 
+    /**
+     * Returns the length of the key prefix to remove from a key which is being inserted into
+     * this leaf. An empty key prefix compressed leaf is converted into a normal leaf.
+     *
+     * @param okey original key
+     * @return zero if not compressed, or -1 if key doesn't begin with the key prefix and must
+     * be inserted into a new sibling node
+     */
+    private int insertKeyPrefixLength(byte[] okey) {
+        int plen = keyPrefixLength();
+        if (plen != 0) {
+            if (!hasKeys()) {
+                type((byte) (TYPE_TN_LEAF | (type() & (LOW_EXTREMITY | HIGH_EXTREMITY))));
+                clearEntries();
+                return 0;
+            }
+            if (!startsWithKeyPrefix(okey, plen)) {
+                return -1;
+            }
+        }
+        return plen;
+    }
+
     private void panic(Throwable cause) {
         try {
             getDatabase().close(cause);
@@ -2157,6 +2698,11 @@ final class _Node extends Latch implements _DatabaseAccess {
                             break compact;
                         }
 
+                        if (keyPrefixLength() != 0) {
+                            // Entries cannot be moved as-is to a sibling node.
+                            break compact;
+                        }
+
                         // "Randomly" choose left or right node first.
                         if ((mId & 1) == 0) {
                             int result = tryRebalanceLeafLeft
@@ -2332,7 +2878,7 @@ final class _Node extends Latch implements _DatabaseAccess {
         check: {
             try {
                 int leftAvail = left.availableLeafBytes();
-                if (leftAvail >= moveAmount) {
+                if (leftAvail >= moveAmount && left.keyPrefixLength() == 0) {
                     // Parent search key will be updated, so verify that it has room.
                     int highPos = lastSearchVecLoc - searchVecStart();
                     newKey = midKey(highPos - 2, this, highPos);
@@ -2529,7 +3075,7 @@ final class _Node extends Latch implements _DatabaseAccess {
         check: {
             try {
                 int rightAvail = right.availableLeafBytes();
-                if (rightAvail >= moveAmount) {
+                if (rightAvail >= moveAmount && right.keyPrefixLength() == 0) {
                     // Parent search key will be updated, so verify that it has room.
                     int highPos = firstSearchVecLoc - searchVecStart();
                     newKey = midKey(highPos - 2, this, highPos);
@@ -3448,7 +3994,15 @@ final class _Node extends Latch implements _DatabaseAccess {
                     if (mSplit == null) {
                         // TODO: use frame for rebalancing
                         // _Node is full, so split it.
-                        byte[] okey = isOriginal ? akey : retrieveKeyAtLoc(this, page, loc);
+                        byte[] okey;
+                        if (!isOriginal) {
+                            okey = retrieveKeyAtLoc(this, page, loc);
+                        } else if (keyPrefixLength() == 0) {
+                            okey = akey;
+                        } else {
+                            // Actual key is only a suffix, but the full key is required.
+                            okey = akey = retrieveKeyAtLoc(page, loc);
+                        }
                         splitLeafAndCreateEntry
                             (tree, okey, akey, vfrag, value, encodedLen, pos, false);
                         return;
@@ -3461,8 +4015,8 @@ final class _Node extends Latch implements _DatabaseAccess {
                     }
                     _LocalDatabase db = tree.mDatabase;
                     int max = Math.min(db.mMaxFragmentedEntrySize,
-                                       garbage + leftSpace + rightSpace);
-                    value = db.fragment(value, value.length, max);
+                                       garbage + leftSpace + rightSpace - 2);
+                    value = db.fragment(value, value.length, max - keyLen);
                     if (value == null) {
                         throw new AssertionError();
                     }
@@ -3739,19 +4293,56 @@ final class _Node extends Latch implements _DatabaseAccess {
         throws IOException
     {
         tree.mDatabase.prepareToDelete(rightNode);
+        tree.mDatabase.mMetrics.mMerges.increment();
 
         final long rightPage = rightNode.mPage;
         final int searchVecEnd = rightNode.searchVecEnd();
         final int leftEndPos = leftNode.highestLeafPos() + 2;
 
+        // Entries are copied as-is when the key prefixes match. Otherwise, the left node is
+        // converted into a normal leaf, and the right node keys are copied in full.
+        final int rightPlen;
+        if (equalKeyPrefixes(leftNode, rightNode)) {
+            rightPlen = 0;
+        } else {
+            if (leftNode.keyPrefixLength() != 0) {
+                leftNode.recodeLeaf(null, 0);
+            }
+            rightPlen = rightNode.keyPrefixLength();
+        }
+
         int searchVecStart = rightNode.searchVecStart();
         while (searchVecStart <= searchVecEnd) {
             int entryLoc = p_ushortGetLE(rightPage, searchVecStart);
             int encodedLen = leafEntryLengthAtLoc(rightPage, entryLoc);
-            int leftEntryLoc = leftNode.createLeafEntry
-                (null, tree, leftNode.highestLeafPos() + 2, encodedLen);
-            // Note: Must access left page each time, since compaction can replace it.
-            p_copy(rightPage, entryLoc, leftNode.mPage, leftEntryLoc, encodedLen);
+            int header;
+            if (rightPlen == 0
+                || ((header = p_byteGet(rightPage, entryLoc)) < 0
+                    && (header & ENTRY_FRAGMENTED) != 0))
+            {
+                int leftEntryLoc = leftNode.createLeafEntry
+                    (null, tree, leftNode.highestLeafPos() + 2, encodedLen);
+                // Note: Must access left page each time, since compaction can replace it.
+                p_copy(rightPage, entryLoc, leftNode.mPage, leftEntryLoc, encodedLen);
+            } else {
+                int keyLoc = entryLoc + 1;
+                int keyLen;
+                if (header >= 0) {
+                    keyLen = header + 1;
+                } else {
+                    keyLen = ((header & 0x3f) << 8) | p_ubyteGet(rightPage, keyLoc++);
+                }
+                // Length of key suffix and the encoded value.
+                int len = entryLoc + encodedLen - keyLoc;
+                int fullKeyLen = rightPlen + keyLen;
+                int leftEntryLoc = leftNode.createLeafEntry
+                    (null, tree, leftNode.highestLeafPos() + 2,
+                     calculateKeyLength(fullKeyLen) + len - keyLen);
+                final long leftPage = leftNode.mPage;
+                leftEntryLoc = encodeNormalKeyHeader(fullKeyLen, leftPage, leftEntryLoc);
+                p_copy(rightPage, TN_HEADER_SIZE + 1, leftPage, leftEntryLoc, rightPlen);
+                p_copy(rightPage, keyLoc, leftPage, leftEntryLoc + rightPlen, len);
+            }
             searchVecStart += 2;
         }
 
@@ -3786,6 +4377,7 @@ final class _Node extends Latch implements _DatabaseAccess {
         throws IOException
     {
         tree.mDatabase.prepareToDelete(rightNode);
+        tree.mDatabase.mMetrics.mMerges.increment();
 
         // Create space to absorb parent key.
         int leftEndPos = leftNode.highestInternalPos();
@@ -4051,7 +4643,14 @@ final class _Node extends Latch implements _DatabaseAccess {
      * fragmented.
      */
     static int calculateKeyLength(byte[] key) {
-        int len = key.length - 1;
+        return calculateKeyLength(key.length);
+    }
+
+    /**
+     * Calculate encoded key length, including header, for a normal key of the given length.
+     */
+    private static int calculateKeyLength(int keyLen) {
+        int len = keyLen - 1;
         return len + ((len & ~(SMALL_KEY_LIMIT - 1)) == 0 ? 2 : 3);
     }
 
@@ -4092,17 +4691,33 @@ final class _Node extends Latch implements _DatabaseAccess {
      * @return updated pageLoc
      */
     static int encodeNormalKey(final byte[] key, final long page, int pageLoc) {
-        final int keyLen = key.length;
+        return encodeNormalKey(key, 0, page, pageLoc);
+    }
+
+    /**
+     * @param key unencoded key
+     * @param off offset of first key byte to encode
+     * @param page destination for encoded key, with room for key header
+     * @return updated pageLoc
+     */
+    static int encodeNormalKey(final byte[] key, int off, final long page, int pageLoc) {
+        final int keyLen = key.length - off;
+        pageLoc = encodeNormalKeyHeader(keyLen, page, pageLoc);
+        p_copyFromArray(key, off, page, pageLoc, keyLen);
+        return pageLoc + keyLen;
+    }
 
+    /**
+     * @return updated pageLoc, which is the location of the first key byte
+     */
+    private static int encodeNormalKeyHeader(int keyLen, final long page, int pageLoc) {
         if (keyLen <= SMALL_KEY_LIMIT && keyLen > 0) {
             p_bytePut(page, pageLoc++, keyLen - 1);
         } else {
             p_bytePut(page, pageLoc++, 0x80 | (keyLen >> 8));
             p_bytePut(page, pageLoc++, keyLen);
         }
-        p_copyFromArray(key, 0, page, pageLoc, keyLen);
-
-        return pageLoc + keyLen;
+        return pageLoc;
     }
 
     /**
@@ -4145,7 +4760,7 @@ final class _Node extends Latch implements _DatabaseAccess {
      */
     private void copyToLeafEntry(byte[] okey, byte[] akey, int vfrag, byte[] value, int entryLoc) {
         final long page = mPage;
-        int vloc = okey == akey ? encodeNormalKey(akey, page, entryLoc)
+        int vloc = okey == akey ? encodeNormalKey(akey, keyPrefixLength(), page, entryLoc)
             : encodeFragmentedKey(akey, page, entryLoc);
         copyToLeafValue(page, vfrag, value, vloc);
     }
@@ -4211,7 +4826,7 @@ final class _Node extends Latch implements _DatabaseAccess {
 
         // Copy into a fresh buffer.
 
-        int destLoc = TN_HEADER_SIZE;
+        int destLoc = segmentStart();
         int newSearchVecLoc = newSearchVecStart;
         int newLoc = 0;
         final int searchVecEnd = searchVecEnd();
@@ -4223,6 +4838,11 @@ final class _Node extends Latch implements _DatabaseAccess {
         p_intPutLE(dest, 0, type() & 0xff); // set type, reserved byte, and garbage
         /*P*/ // ]
 
+        if (destLoc != TN_HEADER_SIZE) {
+            // Copy the key prefix.
+            p_copy(page, TN_HEADER_SIZE, dest, TN_HEADER_SIZE, destLoc - TN_HEADER_SIZE);
+        }
+
         for (; searchVecLoc <= searchVecEnd; searchVecLoc += 2, newSearchVecLoc += 2) {
             if (searchVecLoc == pos) {
                 newLoc = newSearchVecLoc;
@@ -4268,6 +4888,240 @@ final class _Node extends Latch implements _DatabaseAccess {
         return destLoc;
     }
 
+    /**
+     * Attempt to make room for a new leaf entry by compressing the common prefix of all the
+     * keys in this plain leaf node, including the new key. Caller must hold exclusive latch.
+     *
+     * @param okey original key to be inserted, which must not be fragmented
+     * @param pos normalized search vector position of entry to insert
+     * @param encodedLen length of new entry, with the key in full
+     * @return length of compressed key prefix, or 0 if not compressed
+     */
+    private int tryCompressKeyPrefix(_Tree tree, byte[] okey, int pos, int encodedLen)
+        throws IOException
+    {
+        _LocalDatabase db = tree.mDatabase;
+        int maxPlen = db.mMaxKeyPrefixLength;
+        if (maxPlen <= 0 || !hasKeys()) {
+            return 0;
+        }
+
+        final long page = mPage;
+        final int searchVecStart = searchVecStart();
+        final int searchVecEnd = searchVecEnd();
+
+        // The common prefix of all keys is the common prefix of the lowest and highest keys.
+        byte[] low = pos == 0 ? okey : retrieveKeyAtLoc(page, p_ushortGetLE(page, searchVecStart));
+        byte[] high = pos > searchVecEnd - searchVecStart ? okey
+            : retrieveKeyAtLoc(page, p_ushortGetLE(page, searchVecEnd));
+
+        int plen = Math.min(maxPlen, Math.min(low.length, high.length));
+        for (int i=0; i<plen; i++) {
+            if (low[i] != high[i]) {
+                plen = i;
+                break;
+            }
+        }
+
+        if (plen <= 0) {
+            return 0;
+        }
+
+        int maxEntrySize = db.mMaxFragmentedEntrySize;
+        int newEncodedLen = encodedLen
+            - calculateKeyLength(okey) + calculateKeyLength(okey.length - plen);
+        if (newEncodedLen > maxEntrySize) {
+            return 0;
+        }
+
+        // Total size of all the entries after recoding.
+        int size = 0;
+        for (int i = searchVecStart; i <= searchVecEnd; i += 2) {
+            int loc = p_ushortGetLE(page, i);
+            int len = leafEntryLengthAtLoc(page, loc);
+            int header = p_byteGet(page, loc);
+            if (header >= 0 || (header & ENTRY_FRAGMENTED) == 0) {
+                int keyLen = header >= 0 ? (header + 1)
+                    : (((header & 0x3f) << 8) | p_ubyteGet(page, loc + 1));
+                len += calculateKeyLength(keyLen - plen) - calculateKeyLength(keyLen);
+                if (len > maxEntrySize) {
+                    return 0;
+                }
+            }
+            size += len;
+        }
+
+        int remaining = pageSize(page) - (TN_HEADER_SIZE + 1 + plen) - size
+            - (searchVecEnd - searchVecStart + 2) - (newEncodedLen + 2);
+
+        if (remaining < 0) {
+            return 0;
+        }
+
+        recodeLeaf(low, plen);
+
+        return plen;
+    }
+
+    /**
+     * Re-encodes all the entries of this leaf node with a different key prefix, replacing
+     * the page. All keys must start with the given prefix, and the recoded entries must fit.
+     * Caller must hold exclusive latch.
+     *
+     * @param prefix new key prefix; can be null if newPlen is zero
+     * @param newPlen new key prefix length; pass zero to convert into a normal leaf node
+     */
+    private void recodeLeaf(byte[] prefix, int newPlen) {
+        long page = mPage;
+
+        final int oldPlen = keyPrefixLength();
+        final int searchVecStart = searchVecStart();
+        final int searchVecEnd = searchVecEnd();
+        final int searchVecSize = searchVecEnd - searchVecStart + 2;
+
+        // Size of segment start and all the recoded entries.
+        int tail = TN_HEADER_SIZE + (newPlen == 0 ? 0 : (1 + newPlen));
+        for (int i = searchVecStart; i <= searchVecEnd; i += 2) {
+            int loc = p_ushortGetLE(page, i);
+            int len = leafEntryLengthAtLoc(page, loc);
+            int header = p_byteGet(page, loc);
+            if (header >= 0 || (header & ENTRY_FRAGMENTED) == 0) {
+                int keyLen = header >= 0 ? (header + 1)
+                    : (((header & 0x3f) << 8) | p_ubyteGet(page, loc + 1));
+                len += calculateKeyLength(keyLen + oldPlen - newPlen) - calculateKeyLength(keyLen);
+            }
+            tail += len;
+        }
+
+        // Determine new location of search vector, with room to grow on both ends.
+        final int pageSize = pageSize(page);
+        final int newSearchVecStart = pageSize - (((pageSize - tail + searchVecSize) >> 1) & ~1);
+
+        final int newType = (newPlen == 0 ? TYPE_TN_LEAF : TYPE_TN_PLEAF)
+            | (type() & (LOW_EXTREMITY | HIGH_EXTREMITY));
+
+        _LocalDatabase db = getDatabase();
+        long dest = db.removeSparePage();
+
+        /*P*/ // [|
+        p_intPutLE(dest, 0, newType & 0xff); // set type, reserved byte, and garbage
+        /*P*/ // ]
+
+        int destLoc = TN_HEADER_SIZE;
+        if (newPlen != 0) {
+            p_bytePut(dest, destLoc++, newPlen);
+            p_copyFromArray(prefix, 0, dest, destLoc, newPlen);
+            destLoc += newPlen;
+        }
+
+        int newSearchVecLoc = newSearchVecStart;
+        for (int i = searchVecStart; i <= searchVecEnd; i += 2, newSearchVecLoc += 2) {
+            p_shortPutLE(dest, newSearchVecLoc, destLoc);
+            int loc = p_ushortGetLE(page, i);
+            int len = leafEntryLengthAtLoc(page, loc);
+            int header = p_byteGet(page, loc);
+            if (header < 0 && (header & ENTRY_FRAGMENTED) != 0) {
+                // Fragmented keys are always stored in full.
+                p_copy(page, loc, dest, destLoc, len);
+                destLoc += len;
+                continue;
+            }
+            int keyLoc = loc + 1;
+            int keyLen;
+            if (header >= 0) {
+                keyLen = header + 1;
+            } else {
+                keyLen = ((header & 0x3f) << 8) | p_ubyteGet(page, keyLoc++);
+            }
+            // Length of key suffix and the encoded value.
+            len = loc + len - keyLoc;
+            destLoc = encodeNormalKeyHeader(keyLen + oldPlen - newPlen, dest, destLoc);
+            if (newPlen <= oldPlen) {
+                // Restore the key prefix bytes which are no longer shared.
+                int restore = oldPlen - newPlen;
+                p_copy(page, TN_HEADER_SIZE + 1 + newPlen, dest, destLoc, restore);
+                destLoc += restore;
+            } else {
+                // Skip the key suffix bytes which are now shared.
+                int skip = newPlen - oldPlen;
+                keyLoc += skip;
+                len -= skip;
+            }
+            p_copy(page, keyLoc, dest, destLoc, len);
+            destLoc += len;
+        }
+
+        /*P*/ // [
+        // // Recycle old page buffer and swap in recoded page.
+        // db.addSparePage(page);
+        // mPage = dest;
+        // type((byte) newType);
+        // garbage(0);
+        /*P*/ // |
+        if (db.mFullyMapped) {
+            // Copy recoded entries to original page and recycle spare page buffer.
+            p_copy(dest, 0, page, 0, pageSize);
+            db.addSparePage(dest);
+        } else {
+            // Recycle old page buffer and swap in recoded page.
+            db.addSparePage(page);
+            mPage = dest;
+        }
+        /*P*/ // ]
+
+        leftSegTail(destLoc);
+        rightSegTail(pageSize - 1);
+        searchVecStart(newSearchVecStart);
+        searchVecEnd(newSearchVecStart + searchVecSize - 2);
+    }
+
+    /**
+     * Returns the amount of additional space required in the left node when merging the
+     * given leaf nodes, due to differences in key prefix compression. Result is negative if
+     * less space is required. Caller must hold shared or exclusive latch on both nodes.
+     */
+    static int leafMergeGrowth(_Node left, _Node right) {
+        int leftPlen = left.keyPrefixLength();
+        int rightPlen = right.keyPrefixLength();
+        if (leftPlen == 0 && rightPlen == 0) {
+            return 0;
+        }
+        if (equalKeyPrefixes(left, right)) {
+            // The right node key prefix is dropped.
+            return -(1 + rightPlen);
+        }
+        int growth = left.keyPrefixExpansion(leftPlen) + right.keyPrefixExpansion(rightPlen);
+        if (leftPlen != 0) {
+            growth -= 1 + leftPlen;
+        }
+        if (rightPlen != 0) {
+            growth -= 1 + rightPlen;
+        }
+        return growth;
+    }
+
+    /**
+     * Returns the amount of additional space required by the entries of this leaf node if
+     * the keys are stored in full.
+     */
+    private int keyPrefixExpansion(int plen) {
+        if (plen == 0) {
+            return 0;
+        }
+        final long page = mPage;
+        int growth = 0;
+        for (int i = searchVecStart(); i <= searchVecEnd(); i += 2) {
+            int loc = p_ushortGetLE(page, i);
+            int header = p_byteGet(page, loc);
+            if (header >= 0 || (header & ENTRY_FRAGMENTED) == 0) {
+                int keyLen = header >= 0 ? (header + 1)
+                    : (((header & 0x3f) << 8) | p_ubyteGet(page, loc + 1));
+                growth += calculateKeyLength(keyLen + plen) - calculateKeyLength(keyLen);
+            }
+        }
+        return growth;
+    }
+
     private void cleanupSplit(Throwable cause, _Node newNode, _Split split) {
         if (split != null) {
             cleanupFragments(cause, split.fragmentedKey());
@@ -4297,6 +5151,8 @@ final class _Node extends Latch implements _DatabaseAccess {
             throw new AssertionError("_Node is already split");
         }
 
+        tree.mDatabase.mMetrics.mSplits.increment();
+
         // _Split can move node entries to a new left or right node. Choose such that the
         // new entry is more likely to go into the new node. This distributes the cost of
         // the split by postponing compaction of this node.
@@ -4323,6 +5179,10 @@ final class _Node extends Latch implements _DatabaseAccess {
         p_intPutLE(newPage, 0, 0); // set type (fixed later), reserved byte, and garbage
         /*P*/ // ]
 
+        // Edge splits put only the new entry into the new node, which doesn't have a key
+        // prefix. Keys which don't start with the prefix are always inserted at an edge.
+        final int plen = keyPrefixLength();
+
         if (forInsert && pos == 0) {
             // Inserting into left edge of node, possibly because inserts are
             // descending. _Split into new left node, but only the new entry
@@ -4331,6 +5191,9 @@ final class _Node extends Latch implements _DatabaseAccess {
             _Split split = null;
             try {
                 split = newSplitLeft(newNode);
+                if (plen != 0) {
+                    newNode.type((byte) (TYPE_TN_LEAF | (newNode.type() & LOW_EXTREMITY)));
+                }
                 // Choose an appropriate middle key for suffix compression.
                 setSplitKey(tree, split, midKey(okey, 0));
             } catch (Throwable e) {
@@ -4340,6 +5203,10 @@ final class _Node extends Latch implements _DatabaseAccess {
 
             mSplit = split;
 
+            if (plen != 0) {
+                encodedLen = fullEncodedLength(okey, akey, encodedLen, plen);
+            }
+
             // Position search vector at extreme left, allowing new entries to
             // be placed in a natural descending order.
             newNode.leftSegTail(TN_HEADER_SIZE);
@@ -4369,6 +5236,9 @@ final class _Node extends Latch implements _DatabaseAccess {
             _Split split = null;
             try {
                 split = newSplitRight(newNode);
+                if (plen != 0) {
+                    newNode.type((byte) (TYPE_TN_LEAF | (newNode.type() & HIGH_EXTREMITY)));
+                }
                 // Choose an appropriate middle key for suffix compression.
                 setSplitKey(tree, split, midKey(pos - searchVecStart - 2, okey));
             } catch (Throwable e) {
@@ -4378,6 +5248,10 @@ final class _Node extends Latch implements _DatabaseAccess {
 
             mSplit = split;
 
+            if (plen != 0) {
+                encodedLen = fullEncodedLength(okey, akey, encodedLen, plen);
+            }
+
             // Position search vector at extreme right, allowing new entries to
             // be placed in a natural ascending order.
             newNode.rightSegTail(pageSize(newPage) - 1);
@@ -4397,9 +5271,15 @@ final class _Node extends Latch implements _DatabaseAccess {
         // Amount of bytes available in unsplit node.
         int avail = availableLeafBytes();
 
+        // New node has the same key prefix as this node.
+        final int segmentStart = segmentStart();
+        if (plen != 0) {
+            p_copy(page, TN_HEADER_SIZE, newPage, TN_HEADER_SIZE, 1 + plen);
+        }
+
         int garbageAccum = 0;
         int newLoc = 0;
-        int newAvail = pageSize(newPage) - TN_HEADER_SIZE;
+        int newAvail = pageSize(newPage) - segmentStart;
 
         // Guess which way to split by examining search position. This doesn't take into
         // consideration the variable size of the entries. If the guess is wrong, the new
@@ -4408,8 +5288,11 @@ final class _Node extends Latch implements _DatabaseAccess {
         if ((pos - searchVecStart) < (searchVecEnd - pos)) {
             // _Split into new left node.
 
+            // Search vector must be aligned, but the key prefix length can be odd.
+            int newSearchVecLoc = (segmentStart + 1) & ~1;
+            newAvail -= newSearchVecLoc - segmentStart;
+
             int destLoc = pageSize(newPage);
-            int newSearchVecLoc = TN_HEADER_SIZE;
 
             int searchVecLoc = searchVecStart;
             for (; newAvail > avail; searchVecLoc += 2, newSearchVecLoc += 2) {
@@ -4451,8 +5334,8 @@ final class _Node extends Latch implements _DatabaseAccess {
                 avail += entryLen + 2;
             }
 
-            newNode.leftSegTail(TN_HEADER_SIZE);
-            newNode.searchVecStart(TN_HEADER_SIZE);
+            newNode.leftSegTail(segmentStart);
+            newNode.searchVecStart((segmentStart + 1) & ~1);
             newNode.searchVecEnd(newSearchVecLoc - 2);
 
             // Prune off the left end of this node.
@@ -4469,7 +5352,8 @@ final class _Node extends Latch implements _DatabaseAccess {
                 if (newLoc == 0) {
                     // Unable to insert new entry into left node. Insert it
                     // into the right node, which should have space now.
-                    fv = storeIntoSplitLeaf(tree, okey, akey, vfrag, value, encodedLen, forInsert);
+                    fv = storeIntoSplitLeaf(tree, split, okey, akey, vfrag, value,
+                                            encodedLen, forInsert);
                 } else {
                     // Create new entry and point to it.
                     destLoc -= encodedLen;
@@ -4483,6 +5367,7 @@ final class _Node extends Latch implements _DatabaseAccess {
                 newNode.rightSegTail(destLoc - 1);
                 newNode.releaseExclusive();
             } catch (Throwable e) {
+                mSplit = null;
                 searchVecStart(originalStart);
                 garbage(originalGarbage);
                 cleanupFragments(e, fv);
@@ -4494,7 +5379,7 @@ final class _Node extends Latch implements _DatabaseAccess {
         } else {
             // _Split into new right node.
 
-            int destLoc = TN_HEADER_SIZE;
+            int destLoc = segmentStart;
             int newSearchVecLoc = pageSize(newPage) - 2;
 
             int searchVecLoc = searchVecEnd;
@@ -4562,7 +5447,8 @@ final class _Node extends Latch implements _DatabaseAccess {
                 if (newLoc == 0) {
                     // Unable to insert new entry into new right node. Insert
                     // it into the left node, which should have space now.
-                    fv = storeIntoSplitLeaf(tree, okey, akey, vfrag, value, encodedLen, forInsert);
+                    fv = storeIntoSplitLeaf(tree, split, okey, akey, vfrag, value,
+                                            encodedLen, forInsert);
                 } else {
                     // Create new entry and point to it.
                     newNode.copyToLeafEntry(okey, akey, vfrag, value, destLoc);
@@ -4576,6 +5462,7 @@ final class _Node extends Latch implements _DatabaseAccess {
                 newNode.leftSegTail(destLoc);
                 newNode.releaseExclusive();
             } catch (Throwable e) {
+                mSplit = null;
                 searchVecEnd(originalEnd);
                 garbage(originalGarbage);
                 cleanupFragments(e, fv);
@@ -4587,15 +5474,28 @@ final class _Node extends Latch implements _DatabaseAccess {
         }
     }
 
+    /**
+     * Returns the encoded length of a new entry when stored in a node without a key prefix.
+     *
+     * @param encodedLen encoded length for this node, which has a key prefix
+     */
+    private int fullEncodedLength(byte[] okey, byte[] akey, int encodedLen, int plen) {
+        if (okey == akey && startsWithKeyPrefix(okey, plen)) {
+            encodedLen += calculateKeyLength(okey) - calculateKeyLength(okey.length - plen);
+        }
+        return encodedLen;
+    }
+
     /**
      * Store an entry into a node which has just been split and has room.
      *
+     * @param split split which hasn't been assigned to this node yet
      * @param okey original key
      * @param akey key to actually store
      * @param vfrag 0 or ENTRY_FRAGMENTED
      * @return non-null if value got fragmented
      */
-    private byte[] storeIntoSplitLeaf(_Tree tree, byte[] okey, byte[] akey,
+    private byte[] storeIntoSplitLeaf(_Tree tree, _Split split, byte[] okey, byte[] akey,
                                       int vfrag, byte[] value,
                                       int encodedLen, boolean forInsert)
         throws IOException
@@ -4614,7 +5514,9 @@ final class _Node extends Latch implements _DatabaseAccess {
                 }
                 _LocalDatabase db = tree.mDatabase;
                 int max = Math.min(~entryLoc, db.mMaxFragmentedEntrySize);
-                int encodedKeyLen = calculateKeyLength(akey);
+                int encodedKeyLen = okey == akey
+                    ? calculateKeyLength(akey.length - keyPrefixLength())
+                    : calculateKeyLength(akey);
                 value = db.fragment(value, value.length, max - encodedKeyLen);
                 if (value == null) {
                     throw new AssertionError();
@@ -4630,6 +5532,9 @@ final class _Node extends Latch implements _DatabaseAccess {
             if (pos < 0) {
                 throw new AssertionError("Key not found");
             }
+            // If the updated entry still doesn't fit, the value must be fragmented instead of
+            // splitting this node again. Caller clears the split if an exception is thrown.
+            mSplit = split;
             updateLeafValue(null, tree, pos, vfrag, value);
             return null;
         }
@@ -4649,6 +5554,8 @@ final class _Node extends Latch implements _DatabaseAccess {
             throw new AssertionError("_Node is already split");
         }
 
+        tree.mDatabase.mMetrics.mSplits.increment();
+
         // _Split can move node entries to a new left or right node. Choose such that the
         // new entry is more likely to go into the new node. This distributes the cost of
         // the split by postponing compaction of this node.
@@ -5304,7 +6211,13 @@ final class _Node extends Latch implements _DatabaseAccess {
 
         final long page = mPage;
 
-        if (leftSegTail() < TN_HEADER_SIZE) {
+        if (type == TYPE_TN_PLEAF && keyPrefixLength() == 0) {
+            return verifyFailed(level, observer, "Key prefix length: 0");
+        }
+
+        final int segmentStart = segmentStart();
+
+        if (leftSegTail() < segmentStart) {
             return verifyFailed(level, observer, "Left segment tail: " + leftSegTail());
         }
 
@@ -5342,7 +6255,7 @@ final class _Node extends Latch implements _DatabaseAccess {
             }
         }
 
-        int used = TN_HEADER_SIZE + rightSegTail() + 1 - leftSegTail();
+        int used = segmentStart + rightSegTail() + 1 - leftSegTail();
 
         int largeValueCount = 0;
 
@@ -5352,7 +6265,7 @@ final class _Node extends Latch implements _DatabaseAccess {
         for (int i = searchVecStart(); i <= searchVecEnd(); i += 2) {
             int loc = p_ushortGetLE(page, i);
 
-            if (loc < TN_HEADER_SIZE || loc >= pageSize(page) ||
+            if (loc < segmentStart || loc >= pageSize(page) ||
                 (loc >= leftSegTail() && loc <= rightSegTail()))
             {
                 return verifyFailed(level, observer, "Entry location: " + loc);
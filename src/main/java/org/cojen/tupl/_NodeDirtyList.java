@@ -18,16 +18,32 @@ package org.cojen.tupl;
 
 import java.io.IOException;
 
+import java.util.Arrays;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.cojen.tupl.util.Latch;
 
 /**
- * List of dirty nodes.
+ * List of dirty nodes. Each {@link _NodeUsageList} has its own dirty list, which reduces
+ * latch contention. When flushing, the lists are merged together.
  *
  * @author Generated by PageAccessTransformer from NodeDirtyList.java
  */
 /*P*/
 @SuppressWarnings("serial")
 final class _NodeDirtyList extends Latch {
+    // Maximum number of nodes to flush per sorted batch.
+    private static final int MAX_BATCH_SIZE = 1 << 20;
+    private static final int BATCH_INDEX_BITS = 20;
+
+    // Maximum number of nodes to gather while holding the list latch.
+    private static final int GATHER_CHUNK_SIZE = 256;
+
+    // Number of adjacent nodes that each flush thread writes at a time.
+    private static final int WRITE_CHUNK_SIZE = 64;
+
     // Linked list of dirty nodes.
     private _Node mFirstDirty;
     private _Node mLastDirty;
@@ -35,6 +51,9 @@ final class _NodeDirtyList extends Latch {
     // Iterator over dirty nodes.
     private _Node mFlushNext;
 
+    // Dirty state being flushed, or CACHED_CLEAN if not flushing.
+    private int mFlushState;
+
     _NodeDirtyList() {
     }
 
@@ -84,9 +103,11 @@ final class _NodeDirtyList extends Latch {
 
     /**
      * Remove the old node from the dirty list and swap in the new node. The cached state of
-     * the nodes is not altered.
+     * the nodes is not altered, unless the new node is written by this method. Both nodes
+     * must belong to the same usage list, and the new node must not be accessible by any
+     * other thread.
      */
-    void swapIfDirty(_Node oldNode, _Node newNode) {
+    void swapIfDirty(_Node oldNode, _Node newNode, _PageDb pageDb) throws IOException {
         acquireExclusive();
         try {
             _Node next = oldNode.mNextDirty;
@@ -110,70 +131,214 @@ final class _NodeDirtyList extends Latch {
             if (oldNode == mFlushNext) {
                 mFlushNext = newNode;
             }
+
+            int flushState = mFlushState;
+            if (flushState != _Node.CACHED_CLEAN && newNode.mCachedState == flushState) {
+                // The old node might have already been gathered by the flush, which would
+                // leave the new node behind the flush position. Write the new node now, while
+                // the list latch is held, preventing the flush from finishing without it.
+                unlink(newNode);
+                newNode.acquireShared();
+                try {
+                    newNode.write(pageDb);
+                    newNode.mCachedState = _Node.CACHED_CLEAN;
+                } finally {
+                    newNode.releaseShared();
+                }
+            }
         } finally {
             releaseExclusive();
         }
     }
 
     /**
-     * Flush all nodes matching the given state. Only one flush at a time is allowed.
+     * Flush all nodes matching the given state. Only one flush at a time is allowed. Nodes
+     * are gathered from all lists into batches, which are sorted by page id and then written
+     * by up to the maximum number of flush threads.
+     *
+     * @param lists all of the dirty lists, as assigned to each node
+     * @return amount of nodes written
      */
-    void flush(final _PageDb pageDb, final int dirtyState) throws IOException {
-        acquireExclusive();
-        mFlushNext = mFirstDirty;
-        releaseExclusive();
+    static long flush(final _NodeDirtyList[] lists, final _PageDb pageDb, final int dirtyState,
+                      final int maxFlushThreads)
+        throws IOException
+    {
+        for (_NodeDirtyList list : lists) {
+            list.acquireExclusive();
+            list.mFlushNext = list.mFirstDirty;
+            list.mFlushState = dirtyState;
+            list.releaseExclusive();
+        }
 
-        while (true) {
-            _Node node;
-            while (true) {
-                int state;
-                acquireExclusive();
-                try {
-                    node = mFlushNext;
-                    if (node == null) {
-                        return;
-                    }
-                    state = node.mCachedState;
-                    mFlushNext = node.mNextDirty;
-                } finally {
-                    releaseExclusive();
-                }
+        try {
+            Batch batch = new Batch();
+            long count = 0;
+            int i = 0;
 
-                if (state == dirtyState) {
-                    node.acquireExclusive();
-                    state = node.mCachedState;
-                    if (state == dirtyState) {
+            while (true) {
+                for (; i < lists.length; i++) {
+                    if (lists[i].gather(batch, dirtyState)) {
+                        // Batch is full.
                         break;
                     }
-                    node.releaseExclusive();
-                } else if (state != _Node.CACHED_CLEAN) {
-                    // Now seeing nodes with new dirty state, so all done flushing.
-                    return;
+                }
+                if (batch.mSize > 0) {
+                    batch.sort();
+                    count += write(batch, pageDb, dirtyState, maxFlushThreads);
+                    batch.clear();
+                }
+                if (i >= lists.length) {
+                    return count;
                 }
             }
+        } finally {
+            for (_NodeDirtyList list : lists) {
+                list.acquireExclusive();
+                list.mFlushState = _Node.CACHED_CLEAN;
+                list.releaseExclusive();
+            }
+        }
+    }
 
-            // Remove from list. Because allocPage requires nodes to be latched,
-            // there's no need to update mFlushNext. The removed node will never be
-            // the same as mFlushNext.
+    /**
+     * Gathers nodes which might need to be flushed into the given batch.
+     *
+     * @return true if batch is full and more nodes remain in this list
+     */
+    private boolean gather(Batch batch, int dirtyState) {
+        while (true) {
             acquireExclusive();
             try {
-                _Node next = node.mNextDirty;
-                _Node prev = node.mPrevDirty;
-                if (next != null) {
-                    next.mPrevDirty = prev;
-                    node.mNextDirty = null;
-                } else if (mLastDirty == node) {
-                    mLastDirty = prev;
-                }
-                if (prev != null) {
-                    prev.mNextDirty = next;
-                    node.mPrevDirty = null;
-                } else if (mFirstDirty == node) {
-                    mFirstDirty = next;
+                for (int i=0; i<GATHER_CHUNK_SIZE; i++) {
+                    _Node node = mFlushNext;
+                    if (node == null) {
+                        return false;
+                    }
+                    int state = node.mCachedState;
+                    if (state == dirtyState) {
+                        if (!batch.add(node)) {
+                            return true;
+                        }
+                    } else if (state != _Node.CACHED_CLEAN) {
+                        // Now seeing nodes with new dirty state, so all done flushing.
+                        mFlushNext = null;
+                        return false;
+                    }
+                    mFlushNext = node.mNextDirty;
                 }
             } finally {
                 releaseExclusive();
             }
+        }
+    }
+
+    /**
+     * Writes all nodes in the given sorted batch, using helper threads if allowed.
+     *
+     * @return amount of nodes written
+     */
+    private static long write(final Batch batch, final _PageDb pageDb, final int dirtyState,
+                              final int maxFlushThreads)
+        throws IOException
+    {
+        int helperCount = Math.min(maxFlushThreads, batch.mSize / WRITE_CHUNK_SIZE) - 1;
+
+        if (helperCount <= 0) {
+            return write(batch, 0, batch.mSize, pageDb, dirtyState);
+        }
+
+        final AtomicInteger slot = new AtomicInteger();
+        final AtomicLong count = new AtomicLong();
+
+        class Helper extends Thread {
+            volatile Throwable mEx;
+
+            public void run() {
+                try {
+                    int size = batch.mSize;
+                    while (true) {
+                        int start = slot.getAndAdd(WRITE_CHUNK_SIZE);
+                        if (start >= size) {
+                            break;
+                        }
+                        int end = Math.min(size, start + WRITE_CHUNK_SIZE);
+                        count.addAndGet(write(batch, start, end, pageDb, dirtyState));
+                    }
+                } catch (Throwable e) {
+                    mEx = e;
+                    // Stop the other threads too.
+                    slot.set(Integer.MAX_VALUE / 2);
+                }
+            }
+        }
+
+        Helper[] helpers = new Helper[helperCount];
+
+        for (int i=0; i<helpers.length; i++) {
+            Helper helper = new Helper();
+            helper.setDaemon(true);
+            helper.setName("CheckpointFlush-" + i);
+            (helpers[i] = helper).start();
+        }
+
+        // Also do work in this thread.
+        Helper self = new Helper();
+        self.run();
+
+        try {
+            for (Helper helper : helpers) {
+                helper.join();
+            }
+        } catch (InterruptedException e) {
+            // Helpers must finish before the batch can be cleared.
+            for (Helper helper : helpers) {
+                while (true) {
+                    try {
+                        helper.join();
+                        break;
+                    } catch (InterruptedException e2) {
+                        // Keep waiting.
+                    }
+                }
+            }
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable ex = self.mEx;
+        for (Helper helper : helpers) {
+            if (ex == null) {
+                ex = helper.mEx;
+            }
+        }
+
+        if (ex != null) {
+            throw Utils.rethrow(ex);
+        }
+
+        return count.get();
+    }
+
+    /**
+     * Writes a range of nodes from the given sorted batch.
+     *
+     * @return amount of nodes written
+     */
+    private static long write(Batch batch, int start, int end, _PageDb pageDb, int dirtyState)
+        throws IOException
+    {
+        long count = 0;
+
+        for (int i=start; i<end; i++) {
+            _Node node = batch.node(i);
+
+            node.acquireExclusive();
+            if (node.mCachedState != dirtyState) {
+                // Was concurrently written, evicted, or made dirty again.
+                node.releaseExclusive();
+                continue;
+            }
+
+            node.mUsageList.mDirtyList.remove(node);
 
             node.downgrade();
             try {
@@ -187,6 +352,47 @@ final class _NodeDirtyList extends Latch {
             } finally {
                 node.releaseShared();
             }
+
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Remove a node which is being flushed. Caller must hold exclusive node latch.
+     */
+    private void remove(_Node node) {
+        // Because allocPage requires nodes to be latched, the removed node will never be the
+        // same as mFlushNext, which has already advanced beyond all nodes in the batch.
+        acquireExclusive();
+        try {
+            unlink(node);
+        } finally {
+            releaseExclusive();
+        }
+    }
+
+    /**
+     * Caller must hold exclusive list latch.
+     */
+    private void unlink(_Node node) {
+        _Node next = node.mNextDirty;
+        _Node prev = node.mPrevDirty;
+        if (next != null) {
+            next.mPrevDirty = prev;
+            node.mNextDirty = null;
+        } else if (mLastDirty == node) {
+            mLastDirty = prev;
+        }
+        if (prev != null) {
+            prev.mNextDirty = next;
+            node.mPrevDirty = null;
+        } else if (mFirstDirty == node) {
+            mFirstDirty = next;
+        }
+        if (mFlushNext == node) {
+            mFlushNext = next;
         }
     }
 
@@ -211,4 +417,62 @@ final class _NodeDirtyList extends Latch {
             releaseExclusive();
         }
     }
+
+    /**
+     * Batch of nodes to flush, which can be sorted by page id. The ids are captured when
+     * gathered, because they can change concurrently. Sort order is a hint for performing
+     * more sequential I/O, and so it doesn't need to be exact.
+     */
+    static final class Batch {
+        private static final long MAX_ID = (1L << (63 - BATCH_INDEX_BITS)) - 1;
+
+        private _Node[] mNodes;
+        // Encoded page id and node index, to be sorted.
+        private long[] mKeys;
+        int mSize;
+
+        Batch() {
+            mNodes = new _Node[GATHER_CHUNK_SIZE];
+            mKeys = new long[GATHER_CHUNK_SIZE];
+        }
+
+        /**
+         * @return false if full
+         */
+        boolean add(_Node node) {
+            int size = mSize;
+            if (size >= mNodes.length) {
+                if (size >= MAX_BATCH_SIZE) {
+                    return false;
+                }
+                int newLength = Math.min(MAX_BATCH_SIZE, size << 1);
+                mNodes = Arrays.copyOf(mNodes, newLength);
+                mKeys = Arrays.copyOf(mKeys, newLength);
+            }
+            mNodes[size] = node;
+            long id = node.mId;
+            if (id < 0 || id > MAX_ID) {
+                id = MAX_ID;
+            }
+            mKeys[size] = (id << BATCH_INDEX_BITS) | size;
+            mSize = size + 1;
+            return true;
+        }
+
+        void sort() {
+            Arrays.sort(mKeys, 0, mSize);
+        }
+
+        /**
+         * Returns a node in sorted order, after sort has been called.
+         */
+        _Node node(int i) {
+            return mNodes[(int) (mKeys[i] & ((1 << BATCH_INDEX_BITS) - 1))];
+        }
+
+        void clear() {
+            Arrays.fill(mNodes, 0, mSize, null);
+            mSize = 0;
+        }
+    }
 }
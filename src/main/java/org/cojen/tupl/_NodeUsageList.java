@@ -24,7 +24,9 @@ import static org.cojen.tupl._Node.*;
 import static org.cojen.tupl.DirectPageOps.*;
 
 /**
- * List of Nodes, ordered from least to most recently used.
+ * List of Nodes, ordered from least to most recently used. When using the {@link
+ * EvictionPolicy#CLOCK CLOCK} policy, the list is instead a ring swept by the clock hand,
+ * starting from the least recently used position.
  *
  * @author Generated by PageAccessTransformer from NodeUsageList.java
  */
@@ -37,7 +39,11 @@ final class _NodeUsageList extends Latch {
     static final int MODE_NO_EVICT = 2;
 
     final transient _LocalDatabase mDatabase;
+    final _NodeDirtyList mDirtyList;
     private final int mPageSize;
+    private final boolean mClock;
+    private final boolean mSearchHeads;
+    private final MetricCounters mMetrics;
     private int mMaxSize;
     private int mSize;
     private _Node mMostRecentlyUsed;
@@ -46,6 +52,10 @@ final class _NodeUsageList extends Latch {
     _NodeUsageList(_LocalDatabase db, int maxSize) {
         mDatabase = db;
         mPageSize = db.pageSize();
+        mClock = db.mClockEviction;
+        mSearchHeads = db.mSearchHeads;
+        mMetrics = db.mMetrics;
+        mDirtyList = new _NodeDirtyList();
         acquireExclusive();
         mMaxSize = maxSize;
         releaseExclusive();
@@ -113,6 +123,10 @@ final class _NodeUsageList extends Latch {
                 break alloc;
             }
 
+            // Referenced nodes which are passed over by the clock don't count as eviction
+            // attempts, but only for one full sweep.
+            int chances = (mClock && trial == 1) ? mSize : 0;
+
             do {
                 _Node node = mLeastRecentlyUsed;
                 (mLeastRecentlyUsed = node.mMoreUsed).mLessUsed = null;
@@ -120,10 +134,22 @@ final class _NodeUsageList extends Latch {
                 (node.mLessUsed = mMostRecentlyUsed).mMoreUsed = node;
                 mMostRecentlyUsed = node;
 
+                if (chances > 0) {
+                    int usage = node.mUsage;
+                    if (usage > 0) {
+                        node.mUsage = (byte) (usage - 1);
+                        chances--;
+                        max++;
+                        continue;
+                    }
+                }
+
                 if (!node.tryAcquireExclusive()) {
                     continue;
                 }
 
+                node.mUsage = 0;
+
                 if (trial == 1) {
                     if (node.mCachedState != CACHED_CLEAN) {
                         if (mSize < mMaxSize) {
@@ -143,6 +169,7 @@ final class _NodeUsageList extends Latch {
                     releaseExclusive();
 
                     if (node.evict(mDatabase)) {
+                        mMetrics.mEvictions.increment();
                         if ((mode & MODE_UNEVICTABLE) != 0) {
                             node.mUsageList.makeUnevictable(node);
                         }
@@ -165,6 +192,7 @@ final class _NodeUsageList extends Latch {
                 } else {
                     try {
                         if (node.evict(mDatabase)) {
+                            mMetrics.mEvictions.increment();
                             if ((mode & MODE_UNEVICTABLE) != 0) {
                                 _NodeUsageList usageList = node.mUsageList;
                                 if (usageList == this) {
@@ -211,6 +239,9 @@ final class _NodeUsageList extends Latch {
             /*P*/ // ]
 
             _Node node = new _Node(this, page);
+            if (mSearchHeads) {
+                node.mSearchHeadsCountdown = _Node.SEARCH_HEADS_DELAY;
+            }
             node.acquireExclusive();
             mSize++;
 
@@ -236,6 +267,18 @@ final class _NodeUsageList extends Latch {
      * by this method, even if an exception is thrown.
      */
     void used(final _Node node) {
+        mMetrics.mCacheHits.increment();
+
+        if (mClock) {
+            // Only set the reference count, which is racy but requires no latch. Internal
+            // nodes are shared by many nodes, and so they get an additional chance.
+            byte usage = node.isLeaf() ? (byte) 1 : (byte) 2;
+            if (node.mUsage != usage) {
+                node.mUsage = usage;
+            }
+            return;
+        }
+
         // Because this method can be a bottleneck, don't wait for exclusive latch. If node is
         // popular, it will get more chances to be identified as most recently used. This
         // strategy works well enough because cache eviction is always a best-guess approach.
@@ -256,6 +299,33 @@ final class _NodeUsageList extends Latch {
         }
     }
 
+    /**
+     * Indicate that a non-root node was used only once, and so it should be evicted before
+     * other nodes. Caller must hold any latch on node. Latch is never released by this method,
+     * even if an exception is thrown.
+     */
+    void usedOnce(final _Node node) {
+        acquireExclusive();
+        try {
+            node.mUsage = 0;
+            // Only move the node if it's in the list, and if it's not already least.
+            _Node lessUsed = node.mLessUsed;
+            if (mMaxSize != 0 && lessUsed != null) {
+                _Node moreUsed = node.mMoreUsed;
+                if ((lessUsed.mMoreUsed = moreUsed) == null) {
+                    mMostRecentlyUsed = lessUsed;
+                } else {
+                    moreUsed.mLessUsed = lessUsed;
+                }
+                node.mLessUsed = null;
+                (node.mMoreUsed = mLeastRecentlyUsed).mLessUsed = node;
+                mLeastRecentlyUsed = node;
+            }
+        } finally {
+            releaseExclusive();
+        }
+    }
+
     /**
      * Indicate that node is least recently used, allowing it to be recycled immediately
      * without evicting another node. _Node must be latched by caller, which is always released
@@ -278,6 +348,7 @@ final class _NodeUsageList extends Latch {
                 // Closed.
                 return;
             }
+            node.mUsage = 0;
             _Node lessUsed = node.mLessUsed;
             if (lessUsed == null) {
                 // _Node might already be least...
@@ -335,6 +406,7 @@ final class _NodeUsageList extends Latch {
         try {
             // See comment in the makeEvictable method.
             if (mMaxSize != 0 && node.mMoreUsed == null && node.mLessUsed == null) {
+                node.mUsage = 0;
                 (node.mMoreUsed = mLeastRecentlyUsed).mLessUsed = node;
                 mLeastRecentlyUsed = node;
             }
@@ -23,6 +23,8 @@ import java.util.Random;
 
 import org.cojen.tupl.io.CauseCloseable;
 
+import org.cojen.tupl.util.Latch;
+
 import static org.cojen.tupl.RedoOps.*;
 import static org.cojen.tupl.Utils.*;
 
@@ -34,6 +36,8 @@ import static org.cojen.tupl.Utils.*;
  */
 /*P*/
 abstract class _RedoWriter implements CauseCloseable, ShutdownHook, Flushable {
+    private static final int STRIPE_BUFFER_SIZE = 1024, STRIPE_MAX_OPS = 64;
+
     private final byte[] mBuffer;
     private int mBufferPos;
 
@@ -41,11 +45,32 @@ abstract class _RedoWriter implements CauseCloseable, ShutdownHook, Flushable {
 
     private boolean mAlwaysFlush;
 
+    // Is null if transactional operations are always written to the shared buffer.
+    private final Stripe[] mStripes;
+
     volatile Throwable mCause;
 
     _RedoWriter(int bufferSize, long initialTxnId) {
+        this(bufferSize, initialTxnId, 0);
+    }
+
+    /**
+     * @param numStripes when non-zero, transactional operations which don't commit are
+     * encoded into striped buffers, and they're written to the shared buffer in bulk
+     */
+    _RedoWriter(int bufferSize, long initialTxnId, int numStripes) {
         mBuffer = new byte[bufferSize];
         mLastTxnId = initialTxnId;
+
+        if (numStripes <= 0) {
+            mStripes = null;
+        } else {
+            numStripes = Utils.roundUpPower2(numStripes);
+            mStripes = new Stripe[numStripes];
+            for (int i=0; i<numStripes; i++) {
+                mStripes[i] = new Stripe();
+            }
+        }
     }
 
     /**
@@ -121,16 +146,23 @@ abstract class _RedoWriter implements CauseCloseable, ShutdownHook, Flushable {
      * @param newName non-null new index name
      * @return non-zero position if caller should call txnCommitSync
      */
-    public synchronized long renameIndex(long txnId, long indexId, byte[] newName,
-                                         DurabilityMode mode)
+    public long renameIndex(long txnId, long indexId, byte[] newName, DurabilityMode mode)
         throws IOException
     {
-        writeTxnOp(OP_RENAME_INDEX, txnId);
-        writeLongLE(indexId);
-        writeUnsignedVarInt(newName.length);
-        writeBytes(newName);
-        writeTerminator();
-        return commitFlush(mode);
+        Stripe stripe = acquireStripe(txnId);
+        try {
+            synchronized (this) {
+                stitch(stripe);
+                writeTxnOp(OP_RENAME_INDEX, txnId);
+                writeLongLE(indexId);
+                writeUnsignedVarInt(newName.length);
+                writeBytes(newName);
+                writeTerminator();
+                return commitFlush(mode);
+            }
+        } finally {
+            release(stripe);
+        }
     }
 
     /**
@@ -139,13 +171,21 @@ abstract class _RedoWriter implements CauseCloseable, ShutdownHook, Flushable {
      * @param indexId non-zero index id
      * @return non-zero position if caller should call txnCommitSync
      */
-    public synchronized long deleteIndex(long txnId, long indexId, DurabilityMode mode)
+    public long deleteIndex(long txnId, long indexId, DurabilityMode mode)
         throws IOException
     {
-        writeTxnOp(OP_DELETE_INDEX, txnId);
-        writeLongLE(indexId);
-        writeTerminator();
-        return commitFlush(mode);
+        Stripe stripe = acquireStripe(txnId);
+        try {
+            synchronized (this) {
+                stitch(stripe);
+                writeTxnOp(OP_DELETE_INDEX, txnId);
+                writeLongLE(indexId);
+                writeTerminator();
+                return commitFlush(mode);
+            }
+        } finally {
+            release(stripe);
+        }
     }
 
     public synchronized void reset() throws IOException {
@@ -154,35 +194,53 @@ abstract class _RedoWriter implements CauseCloseable, ShutdownHook, Flushable {
         writeTerminator();
     }
 
-    public synchronized void txnEnter(long txnId) throws IOException {
-        writeTxnOp(OP_TXN_ENTER, txnId);
-        writeTerminator();
+    public void txnEnter(long txnId) throws IOException {
+        Stripe stripe = stripeFor(txnId);
+        if (stripe != null) {
+            stripe.acquireExclusive();
+            try {
+                if (prepare(stripe, OP_TXN_ENTER, txnId, 0)) {
+                    stripe.opFinished();
+                    return;
+                }
+            } finally {
+                stripe.releaseExclusive();
+            }
+        }
+
+        synchronized (this) {
+            writeTxnOp(OP_TXN_ENTER, txnId);
+            writeTerminator();
+        }
     }
 
-    public synchronized void txnRollback(long txnId) throws IOException {
-        writeTxnOp(OP_TXN_ROLLBACK, txnId);
-        writeTerminator();
+    public void txnRollback(long txnId) throws IOException {
+        txnWriteOp(OP_TXN_ROLLBACK, txnId);
     }
 
-    public synchronized void txnRollbackFinal(long txnId) throws IOException {
-        writeTxnOp(OP_TXN_ROLLBACK_FINAL, txnId);
-        writeTerminator();
+    public void txnRollbackFinal(long txnId) throws IOException {
+        txnWriteOp(OP_TXN_ROLLBACK_FINAL, txnId);
     }
 
-    public synchronized void txnCommit(long txnId) throws IOException {
-        writeTxnOp(OP_TXN_COMMIT, txnId);
-        writeTerminator();
+    public void txnCommit(long txnId) throws IOException {
+        txnWriteOp(OP_TXN_COMMIT, txnId);
     }
 
     /**
      * @return non-zero position if caller should call txnCommitSync
      */
-    public synchronized long txnCommitFinal(long txnId, DurabilityMode mode)
-        throws IOException
-    {
-        writeTxnOp(OP_TXN_COMMIT_FINAL, txnId);
-        writeTerminator();
-        return commitFlush(mode);
+    public long txnCommitFinal(long txnId, DurabilityMode mode) throws IOException {
+        Stripe stripe = acquireStripe(txnId);
+        try {
+            synchronized (this) {
+                stitch(stripe);
+                writeTxnOp(OP_TXN_COMMIT_FINAL, txnId);
+                writeTerminator();
+                return commitFlush(mode);
+            }
+        } finally {
+            release(stripe);
+        }
     }
 
     /**
@@ -204,69 +262,138 @@ abstract class _RedoWriter implements CauseCloseable, ShutdownHook, Flushable {
         throw new UnsupportedOperationException();
     }
 
-    public synchronized void txnStore(byte op, long txnId, long indexId, byte[] key, byte[] value)
+    public void txnStore(byte op, long txnId, long indexId, byte[] key, byte[] value)
         throws IOException
     {
         if (key == null) {
             throw new NullPointerException("Key is null");
         }
-        writeTxnOp(op, txnId);
-        writeLongLE(indexId);
-        writeUnsignedVarInt(key.length);
-        writeBytes(key);
-        writeUnsignedVarInt(value.length);
-        writeBytes(value);
-        writeTerminator();
+
+        Stripe stripe = stripeFor(txnId);
+        if (stripe != null) {
+            stripe.acquireExclusive();
+            try {
+                if (prepare(stripe, op, txnId, (8 + 5 + 5) + key.length + value.length)) {
+                    stripe.writeLongLE(indexId);
+                    stripe.writeUnsignedVarInt(key.length);
+                    stripe.writeBytes(key);
+                    stripe.writeUnsignedVarInt(value.length);
+                    stripe.writeBytes(value);
+                    stripe.opFinished();
+                    return;
+                }
+            } finally {
+                stripe.releaseExclusive();
+            }
+        }
+
+        synchronized (this) {
+            writeTxnStore(op, txnId, indexId, key, value);
+        }
     }
 
     /**
      * @return non-zero position if caller should call txnCommitSync
      */
-    public synchronized long txnStoreCommitFinal(long txnId, long indexId,
-                                                 byte[] key, byte[] value, DurabilityMode mode)
+    public long txnStoreCommitFinal(long txnId, long indexId,
+                                    byte[] key, byte[] value, DurabilityMode mode)
         throws IOException
     {
-        txnStore(OP_TXN_STORE_COMMIT_FINAL, txnId, indexId, key, value);
-        return commitFlush(mode);
+        if (key == null) {
+            throw new NullPointerException("Key is null");
+        }
+
+        Stripe stripe = acquireStripe(txnId);
+        try {
+            synchronized (this) {
+                stitch(stripe);
+                writeTxnStore(OP_TXN_STORE_COMMIT_FINAL, txnId, indexId, key, value);
+                return commitFlush(mode);
+            }
+        } finally {
+            release(stripe);
+        }
     }
 
-    public synchronized void txnDelete(byte op, long txnId, long indexId, byte[] key)
+    public void txnDelete(byte op, long txnId, long indexId, byte[] key)
         throws IOException
     {
         if (key == null) {
             throw new NullPointerException("Key is null");
         }
-        writeTxnOp(op, txnId);
-        writeLongLE(indexId);
-        writeUnsignedVarInt(key.length);
-        writeBytes(key);
-        writeTerminator();
+
+        Stripe stripe = stripeFor(txnId);
+        if (stripe != null) {
+            stripe.acquireExclusive();
+            try {
+                if (prepare(stripe, op, txnId, (8 + 5) + key.length)) {
+                    stripe.writeLongLE(indexId);
+                    stripe.writeUnsignedVarInt(key.length);
+                    stripe.writeBytes(key);
+                    stripe.opFinished();
+                    return;
+                }
+            } finally {
+                stripe.releaseExclusive();
+            }
+        }
+
+        synchronized (this) {
+            writeTxnDelete(op, txnId, indexId, key);
+        }
     }
 
     /**
      * @return non-zero position if caller should call txnCommitSync
      */
-    public synchronized long txnDeleteCommitFinal(long txnId, long indexId,
-                                                  byte[] key, DurabilityMode mode)
+    public long txnDeleteCommitFinal(long txnId, long indexId, byte[] key, DurabilityMode mode)
         throws IOException
     {
-        txnDelete(OP_TXN_DELETE_COMMIT_FINAL, txnId, indexId, key);
-        return commitFlush(mode);
+        if (key == null) {
+            throw new NullPointerException("Key is null");
+        }
+
+        Stripe stripe = acquireStripe(txnId);
+        try {
+            synchronized (this) {
+                stitch(stripe);
+                writeTxnDelete(OP_TXN_DELETE_COMMIT_FINAL, txnId, indexId, key);
+                return commitFlush(mode);
+            }
+        } finally {
+            release(stripe);
+        }
     }
 
-    public synchronized void txnCustom(long txnId, byte[] message)
-        throws IOException
-    {
+    public void txnCustom(long txnId, byte[] message) throws IOException {
         if (message == null) {
             throw new NullPointerException("Message is null");
         }
-        writeTxnOp(OP_TXN_CUSTOM, txnId);
-        writeUnsignedVarInt(message.length);
-        writeBytes(message);
-        writeTerminator();
+
+        Stripe stripe = stripeFor(txnId);
+        if (stripe != null) {
+            stripe.acquireExclusive();
+            try {
+                if (prepare(stripe, OP_TXN_CUSTOM, txnId, 5 + message.length)) {
+                    stripe.writeUnsignedVarInt(message.length);
+                    stripe.writeBytes(message);
+                    stripe.opFinished();
+                    return;
+                }
+            } finally {
+                stripe.releaseExclusive();
+            }
+        }
+
+        synchronized (this) {
+            writeTxnOp(OP_TXN_CUSTOM, txnId);
+            writeUnsignedVarInt(message.length);
+            writeBytes(message);
+            writeTerminator();
+        }
     }
 
-    public synchronized void txnCustomLock(long txnId, byte[] message, long indexId, byte[] key)
+    public void txnCustomLock(long txnId, byte[] message, long indexId, byte[] key)
         throws IOException
     {
         if (key == null) {
@@ -275,13 +402,36 @@ abstract class _RedoWriter implements CauseCloseable, ShutdownHook, Flushable {
         if (message == null) {
             throw new NullPointerException("Message is null");
         }
-        writeTxnOp(OP_TXN_CUSTOM_LOCK, txnId);
-        writeLongLE(indexId);
-        writeUnsignedVarInt(key.length);
-        writeBytes(key);
-        writeUnsignedVarInt(message.length);
-        writeBytes(message);
-        writeTerminator();
+
+        Stripe stripe = stripeFor(txnId);
+        if (stripe != null) {
+            stripe.acquireExclusive();
+            try {
+                if (prepare(stripe, OP_TXN_CUSTOM_LOCK, txnId,
+                            (8 + 5 + 5) + key.length + message.length))
+                {
+                    stripe.writeLongLE(indexId);
+                    stripe.writeUnsignedVarInt(key.length);
+                    stripe.writeBytes(key);
+                    stripe.writeUnsignedVarInt(message.length);
+                    stripe.writeBytes(message);
+                    stripe.opFinished();
+                    return;
+                }
+            } finally {
+                stripe.releaseExclusive();
+            }
+        }
+
+        synchronized (this) {
+            writeTxnOp(OP_TXN_CUSTOM_LOCK, txnId);
+            writeLongLE(indexId);
+            writeUnsignedVarInt(key.length);
+            writeBytes(key);
+            writeUnsignedVarInt(message.length);
+            writeBytes(message);
+            writeTerminator();
+        }
     }
 
     public synchronized void timestamp() throws IOException {
@@ -462,6 +612,27 @@ abstract class _RedoWriter implements CauseCloseable, ShutdownHook, Flushable {
     // Caller must be synchronized.
     abstract long writeCommit(byte[] buffer, int len) throws IOException;
 
+    /**
+     * Called for a SYNC commit, to defer writing the buffer to a group commit. When supported,
+     * returns the log position which must be durable before the commit is complete. The
+     * eventual call to txnCommitSync must wait for this position to be synced.
+     *
+     * @param bufferPos amount of data in the buffer, not yet written
+     * @return zero if group commit isn't supported, and the buffer must be written now
+     */
+    // Caller must be synchronized.
+    long groupCommitPosition(int bufferPos) {
+        return 0;
+    }
+
+    /**
+     * Returns the amount of data in the buffer, not yet written.
+     */
+    // Caller must be synchronized.
+    final int bufferPosition() {
+        return mBufferPos;
+    }
+
     abstract void force(boolean metadata) throws IOException;
 
     abstract void forceAndClose() throws IOException;
@@ -469,6 +640,28 @@ abstract class _RedoWriter implements CauseCloseable, ShutdownHook, Flushable {
     // Caller must be synchronized.
     abstract void writeTerminator() throws IOException;
 
+    /**
+     * Writes all operations buffered by the stripes into the shared buffer. Must be called
+     * before a checkpoint switch, ensuring that operations which were performed while the
+     * commit lock was held appear before the checkpoint position.
+     */
+    // Caller must not be synchronized.
+    void stitchAll() throws IOException {
+        Stripe[] stripes = mStripes;
+        if (stripes != null) {
+            for (Stripe stripe : stripes) {
+                stripe.acquireExclusive();
+                try {
+                    synchronized (this) {
+                        stitch(stripe);
+                    }
+                } finally {
+                    stripe.releaseExclusive();
+                }
+            }
+        }
+    }
+
     synchronized void clearAndReset() throws IOException {
         mBufferPos = 0;
         reset();
@@ -582,6 +775,152 @@ abstract class _RedoWriter implements CauseCloseable, ShutdownHook, Flushable {
         mLastTxnId = txnId;
     }
 
+    // Caller must be synchronized.
+    private void writeTxnStore(byte op, long txnId, long indexId, byte[] key, byte[] value)
+        throws IOException
+    {
+        writeTxnOp(op, txnId);
+        writeLongLE(indexId);
+        writeUnsignedVarInt(key.length);
+        writeBytes(key);
+        writeUnsignedVarInt(value.length);
+        writeBytes(value);
+        writeTerminator();
+    }
+
+    // Caller must be synchronized.
+    private void writeTxnDelete(byte op, long txnId, long indexId, byte[] key)
+        throws IOException
+    {
+        writeTxnOp(op, txnId);
+        writeLongLE(indexId);
+        writeUnsignedVarInt(key.length);
+        writeBytes(key);
+        writeTerminator();
+    }
+
+    /**
+     * Writes a transactional operation which has no operands, after stitching in the
+     * operations which were buffered for the transaction.
+     */
+    private void txnWriteOp(byte op, long txnId) throws IOException {
+        Stripe stripe = acquireStripe(txnId);
+        try {
+            synchronized (this) {
+                stitch(stripe);
+                writeTxnOp(op, txnId);
+                writeTerminator();
+            }
+        } finally {
+            release(stripe);
+        }
+    }
+
+    /**
+     * @return null if striping is disabled
+     */
+    private Stripe stripeFor(long txnId) {
+        Stripe[] stripes = mStripes;
+        return stripes == null ? null : stripes[((int) txnId) & (stripes.length - 1)];
+    }
+
+    /**
+     * Returns the stripe for the given transaction with its latch held, or null if striping
+     * is disabled.
+     */
+    private Stripe acquireStripe(long txnId) {
+        Stripe stripe = stripeFor(txnId);
+        if (stripe != null) {
+            stripe.acquireExclusive();
+        }
+        return stripe;
+    }
+
+    private static void release(Stripe stripe) {
+        if (stripe != null) {
+            stripe.releaseExclusive();
+        }
+    }
+
+    /**
+     * Prepares to encode an operation into the stripe, stitching the stripe first if it's
+     * full. The op and transaction id are encoded, and then the caller encodes the operands.
+     * Caller must hold the stripe latch.
+     *
+     * @param maxOperandsLength maximum encoded length of the operands
+     * @return false if the operation is too large, and so it must be written directly
+     */
+    private boolean prepare(Stripe stripe, byte op, long txnId, int maxOperandsLength)
+        throws IOException
+    {
+        int maxLength = (1 + 9) + maxOperandsLength; // 1 for op, up to 9 for txn delta
+
+        if (maxLength > STRIPE_BUFFER_SIZE - stripe.mBufferPos
+            || stripe.mOpCount >= STRIPE_MAX_OPS)
+        {
+            synchronized (this) {
+                stitch(stripe);
+            }
+            if (maxLength > STRIPE_BUFFER_SIZE) {
+                return false;
+            }
+        }
+
+        byte[] buffer = stripe.mBuffer;
+        if (buffer == null) {
+            stripe.mBuffer = buffer = new byte[STRIPE_BUFFER_SIZE];
+        }
+
+        int pos = stripe.mBufferPos;
+        buffer[pos] = op;
+        if (stripe.mOpCount == 0) {
+            // Delta is encoded when stitched, relative to the last transaction id written.
+            stripe.mFirstTxnId = txnId;
+            pos++;
+        } else {
+            pos = Utils.encodeSignedVarLong(buffer, pos + 1, txnId - stripe.mLastTxnId);
+        }
+        stripe.mBufferPos = pos;
+        stripe.mLastTxnId = txnId;
+
+        return true;
+    }
+
+    /**
+     * Writes all the operations buffered by the stripe into the shared buffer, adding
+     * terminators. Caller must hold the stripe latch.
+     *
+     * @param stripe can be null
+     */
+    // Caller must be synchronized.
+    private void stitch(Stripe stripe) throws IOException {
+        int count;
+        if (stripe == null || (count = stripe.mOpCount) == 0) {
+            return;
+        }
+
+        try {
+            byte[] buffer = stripe.mBuffer;
+            int[] opEnds = stripe.mOpEnds;
+
+            writeTxnOp(buffer[0], stripe.mFirstTxnId);
+            int start = 1;
+            for (int i=0; i<count; i++) {
+                int end = opEnds[i];
+                writeBytes(buffer, start, end - start);
+                writeTerminator();
+                start = end;
+            }
+
+            mLastTxnId = stripe.mLastTxnId;
+        } finally {
+            // Discard even if the write fails. Transactions are expected to rollback, just
+            // as if the operations were written directly.
+            stripe.mBufferPos = 0;
+            stripe.mOpCount = 0;
+        }
+    }
+
     // Caller must be synchronized.
     private void doFlush() throws IOException {
         doFlush(mBuffer, mBufferPos);
@@ -619,6 +958,12 @@ abstract class _RedoWriter implements CauseCloseable, ShutdownHook, Flushable {
                 }
                 return 0;
             case SYNC:
+                if (!mAlwaysFlush) {
+                    long pos = groupCommitPosition(mBufferPos);
+                    if (pos != 0) {
+                        return pos;
+                    }
+                }
                 return doCommitFlush();
             case NO_SYNC:
                 doCommitFlush();
@@ -640,4 +985,38 @@ abstract class _RedoWriter implements CauseCloseable, ShutdownHook, Flushable {
         mBufferPos = 0;
         return writeCommit(mBuffer, len);
     }
+
+    /**
+     * Buffer for transactional operations, which don't have terminators. The delta of the
+     * first transaction id isn't encoded until stitched.
+     */
+    @SuppressWarnings("serial")
+    static final class Stripe extends Latch {
+        byte[] mBuffer;
+        int mBufferPos;
+
+        final int[] mOpEnds = new int[STRIPE_MAX_OPS];
+        int mOpCount;
+
+        long mFirstTxnId;
+        long mLastTxnId;
+
+        void writeLongLE(long v) {
+            Utils.encodeLongLE(mBuffer, mBufferPos, v);
+            mBufferPos += 8;
+        }
+
+        void writeUnsignedVarInt(int v) {
+            mBufferPos = Utils.encodeUnsignedVarInt(mBuffer, mBufferPos, v);
+        }
+
+        void writeBytes(byte[] bytes) {
+            System.arraycopy(bytes, 0, mBuffer, mBufferPos, bytes.length);
+            mBufferPos += bytes.length;
+        }
+
+        void opFinished() {
+            mOpEnds[mOpCount++] = mBufferPos;
+        }
+    }
 }
@@ -21,6 +21,11 @@ import java.io.InterruptedIOException;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.util.Arrays;
+import java.util.BitSet;
+
+import java.util.zip.Deflater;
+
 import static java.lang.System.arraycopy;
 
 import org.cojen.tupl.io.CauseCloseable;
@@ -37,12 +42,64 @@ import static org.cojen.tupl.Utils.*;
  * @author Generated by PageAccessTransformer from SnapshotPageArray.java
  */
 final class _SnapshotPageArray extends PageArray {
+    /*
+
+    Incremental snapshot format:
+
+    +------------------------------------------+
+    | long: magic number                       |
+    | int:  page size                          |
+    | int:  baseline commit number             |
+    | int:  commit number                      |
+    | long: total page count                   |
+    | long: changed page count                 |
+    | long: changed page ids, ascending        |
+    +------------------------------------------+
+    | changed pages                            |
+    +------------------------------------------+
+
+    Sparse snapshot format, encoded little-endian:
+
+    +------------------------------------------+
+    | long: magic number                       |
+    | int:  page size                          |
+    | int:  flags                              |
+    | long: total page count                   |
+    +------------------------------------------+
+    | runs                                     |
+    +------------------------------------------+
+
+    Run format:
+
+    +------------------------------------------+
+    | int:  page count, negative if free       |
+    | int:  compressed length, if compressed;  |
+    |       -1 if stored uncompressed          |
+    | pages, or nothing if free                |
+    +------------------------------------------+
+
+    */
+
+    static final long INCREMENTAL_MAGIC_NUMBER = 3287411023565428213L;
+    static final int INCREMENTAL_HEADER_SIZE = 8 + 4 + 4 + 4 + 8 + 8;
+
+    static final long SPARSE_MAGIC_NUMBER = 7126383618830270457L;
+    static final int SPARSE_HEADER_SIZE = 8 + 4 + 4 + 8;
+    static final int SPARSE_FLAG_COMPRESSED = 1;
+    static final int SPARSE_RUN_STORED = -1;
+
+    // Size of each chunk of pages which is read by one thread. It's also the maximum size of
+    // each sparse run, and the unit of compression.
+    private static final int BLOCK_SIZE = 1 << 18;
+
     private final PageArray mSource;
     private final PageArray mRawSource;
     private final PageCache mCache;
 
     private volatile Object mSnapshots;
 
+    private volatile PageChangeLog mChangeLog;
+
     /**
      * @param cache optional
      */
@@ -134,6 +191,11 @@ final class _SnapshotPageArray extends PageArray {
             throw new IndexOutOfBoundsException(String.valueOf(index));
         }
 
+        PageChangeLog log = mChangeLog;
+        if (log != null) {
+            log.record(index);
+        }
+
         Object obj = mSnapshots;
         if (obj != null) {
             if (obj instanceof SnapshotImpl) {
@@ -197,6 +259,11 @@ final class _SnapshotPageArray extends PageArray {
             throw new IndexOutOfBoundsException(String.valueOf(dstIndex));
         }
 
+        PageChangeLog log = mChangeLog;
+        if (log != null) {
+            log.record(dstIndex);
+        }
+
         Object obj = mSnapshots;
         if (obj != null) {
             if (obj instanceof SnapshotImpl) {
@@ -217,9 +284,25 @@ final class _SnapshotPageArray extends PageArray {
         if (mCache != null) {
             mCache.close();
         }
+        PageChangeLog log = mChangeLog;
+        if (log != null) {
+            mChangeLog = null;
+            log.close();
+        }
         mSource.close(cause);
     }
 
+    /**
+     * Start recording all page writes into the given log.
+     */
+    void changeLog(PageChangeLog log) {
+        mChangeLog = log;
+    }
+
+    PageChangeLog changeLog() {
+        return mChangeLog;
+    }
+
     /**
      * Supports writing a snapshot of the array, while still permitting
      * concurrent access. Snapshot data is not a valid array file. It must be
@@ -227,8 +310,17 @@ final class _SnapshotPageArray extends PageArray {
      *
      * @param pageCount total number of pages to include in snapshot
      * @param redoPos redo log position for the snapshot
+     * @param commitNumber header commit number which the snapshot applies to
+     * @param baseline commit number of the baseline snapshot; ignored if full snapshot
+     * @param changes sorted ids of pages changed since the baseline; null for full snapshot
+     * @param pages pages to write into a sparse snapshot; null if not sparse
+     * @param compress true to compress the pages of a sparse snapshot
      */
-    Snapshot beginSnapshot(_LocalDatabase db, long pageCount, long redoPos) throws IOException {
+    Snapshot beginSnapshot(_LocalDatabase db, long pageCount, long redoPos,
+                           int commitNumber, int baseline, long[] changes,
+                           BitSet pages, boolean compress)
+        throws IOException
+    {
         pageCount = Math.min(pageCount, getPageCount());
 
         _LocalDatabase nodeCache = db;
@@ -242,7 +334,9 @@ final class _SnapshotPageArray extends PageArray {
 
         TempFileManager tfm = db.mTempFileManager;
 
-        SnapshotImpl snapshot = new SnapshotImpl(tfm, pageCount, redoPos, nodeCache, rawSource);
+        SnapshotImpl snapshot = new SnapshotImpl
+            (tfm, pageCount, redoPos, commitNumber, baseline, changes,
+             pages, compress, db.mMaxSnapshotThreads, nodeCache, rawSource);
 
         synchronized (this) {
             Object obj = mSnapshots;
@@ -306,6 +400,15 @@ final class _SnapshotPageArray extends PageArray {
         private final TempFileManager mTempFileManager;
         private final long mSnapshotPageCount;
         private final long mSnapshotRedoPosition;
+        private final int mSnapshotCommitNumber;
+        private final int mBaseline;
+        // Sorted ids of pages to write, or null if all pages are written.
+        private final long[] mChanges;
+        // Set bits are pages to write into a sparse snapshot, or null if not sparse.
+        private final BitSet mPages;
+        private final boolean mCompress;
+        private final int mReaderCount;
+        private final int mChunkPages;
 
         private final _Tree mPageCopyIndex;
         private final File mTempFile;
@@ -316,19 +419,30 @@ final class _SnapshotPageArray extends PageArray {
         private final byte[] mCaptureBufferArray;
         private final long mCaptureBuffer;
 
-        // The highest page written by the writeTo method.
+        // All positions at or below this one have been read and written out.
         private volatile long mProgress;
-        // Always equal to or one more than mProgress.
-        private long mWriteInProgress;
         private long mCaptureInProgress;
 
+        // Claimed chunks which haven't been written out, indexed by chunk number modulo
+        // the array length.
+        private Chunk[] mChunks;
+        private long mClaimedChunks;
+        private long mWrittenChunks;
+
+        // Chunk being written out, accessed only by the writeTo method.
+        private Chunk mCurrent;
+
         private volatile boolean mClosed;
         private Throwable mAbortCause;
 
         /**
+         * @param changes optional
+         * @param pages optional
          * @param nodeCache optional
          */
         SnapshotImpl(TempFileManager tfm, long pageCount, long redoPos,
+                     int commitNumber, int baseline, long[] changes,
+                     BitSet pages, boolean compress, int readerCount,
                      _LocalDatabase nodeCache, PageArray rawPageArray)
             throws IOException
         {
@@ -338,8 +452,15 @@ final class _SnapshotPageArray extends PageArray {
             mTempFileManager = tfm;
             mSnapshotPageCount = pageCount;
             mSnapshotRedoPosition = redoPos;
+            mSnapshotCommitNumber = commitNumber;
+            mBaseline = baseline;
+            mChanges = changes;
+            mPages = pages;
+            mCompress = compress;
+            mReaderCount = readerCount;
 
             int pageSize = pageSize();
+            mChunkPages = Math.max(1, BLOCK_SIZE / pageSize);
 
             DatabaseConfig config = new DatabaseConfig()
                 .pageSize(pageSize).minCacheSize(pageSize * 100);
@@ -354,13 +475,36 @@ final class _SnapshotPageArray extends PageArray {
 
             // -2: Not yet started. -1: Started, but nothing written yet.
             mProgress = -2;
-            mWriteInProgress = -2;
             mCaptureInProgress = -1;
         }
 
         @Override
         public long length() {
-            return mSnapshotPageCount * pageSize();
+            long[] changes = mChanges;
+            if (changes != null) {
+                return INCREMENTAL_HEADER_SIZE + changes.length * (8L + pageSize());
+            }
+
+            BitSet pages = mPages;
+            if (pages == null) {
+                return mSnapshotPageCount * pageSize();
+            }
+
+            // Length is exact if not compressed, and an upper bound otherwise. Runs which
+            // don't compress are stored uncompressed.
+            long length = SPARSE_HEADER_SIZE;
+            int runHeaderSize = mCompress ? 8 : 4;
+            int count = (int) mSnapshotPageCount;
+            for (int i = 0; i < count; ) {
+                int end = runEnd(i, count);
+                if (pages.get(i)) {
+                    length += runHeaderSize + (end - i) * (long) pageSize();
+                } else {
+                    length += 4;
+                }
+                i = end;
+            }
+            return length;
         }
 
         @Override
@@ -368,6 +512,11 @@ final class _SnapshotPageArray extends PageArray {
             return mSnapshotRedoPosition;
         }
 
+        @Override
+        public long checkpointNumber() {
+            return mSnapshotCommitNumber & 0xffffffffL;
+        }
+
         @Override
         public void writeTo(OutputStream out) throws IOException {
             synchronized (mSnapshotLock) {
@@ -378,119 +527,450 @@ final class _SnapshotPageArray extends PageArray {
                     throw aborted(mAbortCause);
                 }
                 mProgress = -1;
-                mWriteInProgress = -1;
+                // Each reader can read ahead by one chunk while another is written out.
+                mChunks = new Chunk[mReaderCount <= 1 ? 1 : (mReaderCount * 2)];
             }
 
-            final byte[] pageBufferArray = new byte[pageSize()];
-            // Allocates if page is not an array. The copy is not actually required.
-            final long pageBuffer = p_transfer(pageBufferArray);
-
             Cursor c = null;
+            Reader[] readers = null;
             try {
-                final _LocalDatabase cache = mNodeCache;
+                c = mPageCopyIndex.newCursor(Transaction.BOGUS);
                 final byte[] key = new byte[8];
-                final long count = mSnapshotPageCount;
 
-                for (long index = 0; index < count; index++, increment(key, 0, 8)) {
-                    synchronized (mSnapshotLock) {
-                        while (true) {
-                            if (mClosed) {
-                                throw aborted(mAbortCause);
-                            }
-                            if (index == mCaptureInProgress) {
-                                try {
-                                    mSnapshotLock.wait();
-                                } catch (InterruptedException e) {
-                                    throw new InterruptedIOException();
-                                }
-                            } else {
-                                mWriteInProgress = index;
-                                break;
-                            }
+                if (mReaderCount > 1) {
+                    readers = new Reader[mReaderCount];
+                    for (int i=0; i<readers.length; i++) {
+                        Reader reader = new Reader();
+                        reader.setDaemon(true);
+                        reader.setName("SnapshotReader-" + i);
+                        (readers[i] = reader).start();
+                    }
+                }
+
+                final long[] changes = mChanges;
+
+                if (changes != null) {
+                    out.write(incrementalHeader());
+                    for (int pos = 0; pos < changes.length; pos++) {
+                        writePages(out, pos, pos + 1, c, key);
+                    }
+                } else if (mPages != null) {
+                    writeSparse(out, c, key);
+                } else {
+                    final long count = mSnapshotPageCount;
+                    for (long pos = 0; pos < count; ) {
+                        long end = Math.min(count, (pos / mChunkPages + 1) * mChunkPages);
+                        writePages(out, pos, end, c, key);
+                        pos = end;
+                    }
+                }
+            } finally {
+                if (c != null) {
+                    c.reset();
+                }
+                if (readers == null) {
+                    close();
+                } else {
+                    // Readers must stop before the page copy index is closed.
+                    boolean closer = markClosed(null);
+                    for (Reader reader : readers) {
+                        try {
+                            reader.join();
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
                         }
                     }
+                    if (closer) {
+                        closeResources();
+                    }
+                }
+            }
+        }
 
-                    if (c == null) {
-                        c = mPageCopyIndex.newCursor(Transaction.BOGUS);
-                        c.find(key);
-                    } else {
-                        c.findNearby(key);
+        /**
+         * Writes the header and all runs of a sparse snapshot.
+         */
+        private void writeSparse(OutputStream out, Cursor c, byte[] key) throws IOException {
+            final int pageSize = pageSize();
+            final BitSet pages = mPages;
+            final int count = (int) mSnapshotPageCount;
+
+            byte[] header = new byte[SPARSE_HEADER_SIZE];
+            encodeLongLE(header, 0, SPARSE_MAGIC_NUMBER);
+            encodeIntLE(header, 8, pageSize);
+            encodeIntLE(header, 12, mCompress ? SPARSE_FLAG_COMPRESSED : 0);
+            encodeLongLE(header, 16, count);
+            out.write(header);
+
+            byte[] runHeader = new byte[8];
+            Deflater deflater = null;
+            byte[] compressed = null;
+
+            if (mCompress) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+                compressed = new byte[mChunkPages * pageSize];
+            }
+
+            try {
+                for (int i = 0; i < count; ) {
+                    int end = runEnd(i, count);
+
+                    if (!pages.get(i)) {
+                        encodeIntLE(runHeader, 0, i - end);
+                        out.write(runHeader, 0, 4);
+                        i = end;
+                        continue;
+                    }
+
+                    encodeIntLE(runHeader, 0, end - i);
+
+                    if (deflater == null) {
+                        out.write(runHeader, 0, 4);
+                        writePages(out, i, end, c, key);
+                        i = end;
+                        continue;
                     }
 
-                    byte[] value = c.value();
+                    // Runs never span chunks, and so the pages are contiguous.
+                    Chunk chunk = chunkFor(i, c, key);
 
-                    if (value != null) {
-                        c.store(null);
+                    int length = (end - i) * pageSize;
+                    deflater.reset();
+                    deflater.setInput(chunk.mData, (int) (i - chunk.mStart) * pageSize, length);
+                    deflater.finish();
+                    int clen = 0;
+                    while (!deflater.finished() && clen < length) {
+                        clen += deflater.deflate(compressed, clen, length - clen);
+                    }
+
+                    if (!deflater.finished() || clen >= length) {
+                        // Compressed form isn't smaller, so store the pages as-is.
+                        encodeIntLE(runHeader, 4, SPARSE_RUN_STORED);
+                        out.write(runHeader, 0, 8);
+                        writePages(out, i, end, c, key);
                     } else {
-                        read: {
-                            _Node node;
-                            if (cache != null && (node = cache.nodeMapGet(index)) != null) {
-                                if (node.tryAcquireShared()) try {
-                                    if (node.mId == index
-                                        && node.mCachedState == _Node.CACHED_CLEAN)
-                                    {
-                                        p_copy(node.mPage, 0, pageBuffer, 0, pageSize());
-                                        break read;
-                                    }
-                                } finally {
-                                    node.releaseShared();
-                                }
+                        encodeIntLE(runHeader, 4, clen);
+                        out.write(runHeader, 0, 8);
+                        out.write(compressed, 0, clen);
+                    }
+
+                    i = end;
+                }
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+        }
+
+        /**
+         * Writes a range of pages, which must not span chunks.
+         *
+         * @param start first position
+         * @param end last position, exclusive
+         */
+        private void writePages(OutputStream out, long start, long end, Cursor c, byte[] key)
+            throws IOException
+        {
+            Chunk chunk = chunkFor(start, c, key);
+            int pageSize = pageSize();
+            out.write(chunk.mData, (int) (start - chunk.mStart) * pageSize,
+                      (int) (end - start) * pageSize);
+        }
+
+        /**
+         * Returns the fully read chunk which contains the given position, releasing all
+         * chunks before it. Must only be called by the writeTo method, in ascending position
+         * order.
+         *
+         * @param c cursor into the page copy index, used when no readers exist
+         * @param key temporary buffer for the page copy index key
+         */
+        private Chunk chunkFor(long pos, Cursor c, byte[] key) throws IOException {
+            Chunk chunk = mCurrent;
+            if (chunk != null && pos < chunk.mEnd) {
+                return chunk;
+            }
+
+            final long number = pos / mChunkPages;
+
+            while (true) {
+                synchronized (mSnapshotLock) {
+                    while (true) {
+                        if (mClosed) {
+                            throw aborted(mAbortCause);
+                        }
+
+                        long written = mWrittenChunks;
+                        if (written >= mClaimedChunks) {
+                            if (mReaderCount <= 1) {
+                                // Read the chunk without a helper thread.
+                                break;
                             }
+                            waitForChange();
+                            continue;
+                        }
+
+                        chunk = mChunks[(int) (written % mChunks.length)];
+                        if (chunk.mDone < chunk.mEnd) {
+                            waitForChange();
+                            continue;
+                        }
 
-                            mRawPageArray.readPage(index, pageBuffer);
+                        if (written == number) {
+                            return mCurrent = chunk;
                         }
 
-                        value = p_copyIfNotArray(pageBuffer, pageBufferArray);
+                        // Chunk isn't needed anymore, so allow it to be claimed again.
+                        mWrittenChunks = written + 1;
+                        mProgress = chunk.mEnd - 1;
+                        mSnapshotLock.notifyAll();
                     }
+                }
 
-                    synchronized (mSnapshotLock) {
-                        mProgress = index;
+                chunk = claimChunk();
+                if (chunk == null) {
+                    throw new IllegalStateException("Position out of bounds: " + pos);
+                }
+                readChunk(chunk, c, key);
+            }
+        }
+
+        /**
+         * Claims the next chunk to read, waiting if too many are pending.
+         *
+         * @return null if all chunks have been claimed
+         */
+        private Chunk claimChunk() throws IOException {
+            synchronized (mSnapshotLock) {
+                while (true) {
+                    if (mClosed) {
+                        throw aborted(mAbortCause);
+                    }
+
+                    long number = mClaimedChunks;
+                    long start = number * mChunkPages;
+                    long count = mChanges == null ? mSnapshotPageCount : mChanges.length;
+                    if (start >= count) {
+                        return null;
+                    }
+
+                    Chunk[] chunks = mChunks;
+                    if (number - mWrittenChunks < chunks.length) {
+                        int slot = (int) (number % chunks.length);
+                        Chunk chunk = chunks[slot];
+                        if (chunk == null) {
+                            chunks[slot] = chunk = new Chunk(mChunkPages * pageSize());
+                        }
+                        chunk.mStart = start;
+                        chunk.mEnd = Math.min(count, start + mChunkPages);
+                        chunk.mReading = -1;
+                        chunk.mDone = start;
+                        mClaimedChunks = number + 1;
                         mSnapshotLock.notifyAll();
+                        return chunk;
                     }
 
-                    out.write(value);
+                    waitForChange();
                 }
-            } finally {
-                p_delete(pageBuffer);
-                if (c != null) {
-                    c.reset();
+            }
+        }
+
+        /**
+         * Reads all pages of a claimed chunk, coordinating with the capture method.
+         */
+        private void readChunk(Chunk chunk, Cursor c, byte[] key) throws IOException {
+            final int pageSize = pageSize();
+            final long[] changes = mChanges;
+            final BitSet pages = mPages;
+            final long start = chunk.mStart;
+            final long end = chunk.mEnd;
+            long done = start;
+
+            for (long pos = start; pos < end; pos++) {
+                final long index = changes == null ? pos : changes[(int) pos];
+                if (pages != null && !pages.get((int) index)) {
+                    continue;
+                }
+
+                synchronized (mSnapshotLock) {
+                    while (true) {
+                        if (mClosed) {
+                            throw aborted(mAbortCause);
+                        }
+                        if (index == mCaptureInProgress) {
+                            waitForChange();
+                        } else {
+                            chunk.mReading = pos;
+                            break;
+                        }
+                    }
                 }
-                close();
+
+                readPage(c, key, index, chunk.mData, (int) (pos - start) * pageSize);
+
+                synchronized (mSnapshotLock) {
+                    chunk.mReading = -1;
+                    chunk.mDone = done = pos + 1;
+                    mSnapshotLock.notifyAll();
+                }
+            }
+
+            if (done < end) {
+                // Trailing pages were skipped. Once the chunk is done, it can be claimed
+                // again, and so it must not be touched afterwards.
+                synchronized (mSnapshotLock) {
+                    chunk.mDone = end;
+                    mSnapshotLock.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Reads a page into the given buffer, preferring a captured copy.
+         *
+         * @param c cursor into the page copy index
+         * @param key temporary buffer for the page copy index key
+         */
+        private void readPage(Cursor c, byte[] key, long index, byte[] dst, int offset)
+            throws IOException
+        {
+            final int pageSize = pageSize();
+
+            encodeLongBE(key, 0, index);
+            c.findNearby(key);
+
+            byte[] value = c.value();
+
+            if (value != null) {
+                c.store(null);
+                arraycopy(value, 0, dst, offset, pageSize);
+                return;
+            }
+
+            final _LocalDatabase cache = mNodeCache;
+            _Node node;
+            if (cache != null && (node = cache.nodeMapGet(index)) != null) {
+                if (node.tryAcquireShared()) try {
+                    if (node.mId == index && node.mCachedState == _Node.CACHED_CLEAN) {
+                        p_copyToArray(node.mPage, 0, dst, offset, pageSize);
+                        return;
+                    }
+                } finally {
+                    node.releaseShared();
+                }
+            }
+
+            mRawPageArray.readPage(index, dst, offset, pageSize);
+        }
+
+        /**
+         * Caller must synchronize on mSnapshotLock.
+         */
+        private void waitForChange() throws IOException {
+            try {
+                mSnapshotLock.wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
             }
         }
 
+        /**
+         * Returns the end of the run which starts at the given page, which is either a run
+         * of written pages or free pages. Runs of written pages never span chunks.
+         */
+        private int runEnd(int start, int count) {
+            BitSet pages = mPages;
+            long end;
+            if (pages.get(start)) {
+                long chunkEnd = (start / mChunkPages + 1) * (long) mChunkPages;
+                end = Math.min(pages.nextClearBit(start), chunkEnd);
+            } else {
+                end = pages.nextSetBit(start);
+                if (end < 0) {
+                    end = count;
+                }
+            }
+            return (int) Math.min(end, count);
+        }
+
+        /**
+         * Encodes the header and manifest of an incremental snapshot.
+         */
+        private byte[] incrementalHeader() {
+            long[] changes = mChanges;
+            byte[] header = new byte[INCREMENTAL_HEADER_SIZE + changes.length * 8];
+            encodeLongBE(header, 0, INCREMENTAL_MAGIC_NUMBER);
+            encodeIntBE(header, 8, pageSize());
+            encodeIntBE(header, 12, mBaseline);
+            encodeIntBE(header, 16, mSnapshotCommitNumber);
+            encodeLongBE(header, 20, mSnapshotPageCount);
+            encodeLongBE(header, 28, changes.length);
+            int offset = INCREMENTAL_HEADER_SIZE;
+            for (long index : changes) {
+                encodeLongBE(header, offset, index);
+                offset += 8;
+            }
+            return header;
+        }
+
         void capture(final long index) {
             if (index >= mSnapshotPageCount) {
                 return;
             }
 
+            final long pos;
+            long[] changes = mChanges;
+            if (changes != null) {
+                pos = Arrays.binarySearch(changes, index);
+                if (pos < 0) {
+                    // Page isn't part of the incremental snapshot.
+                    return;
+                }
+            } else {
+                BitSet pages = mPages;
+                if (pages != null && !pages.get((int) index)) {
+                    // Page is free, and so its contents aren't written.
+                    return;
+                }
+                pos = index;
+            }
+
             Cursor c = null;
             try {
                 while (true) {
-                    if (index <= mProgress) {
+                    if (pos <= mProgress) {
                         return;
                     }
                     synchronized (mSnapshotLock) {
-                        if (mClosed || index <= mProgress) {
+                        if (mClosed || pos <= mProgress) {
                             return;
                         }
-                        if (index == mWriteInProgress) {
-                            mSnapshotLock.wait();
-                        } else {
-                            byte[] key = new byte[8];
-                            encodeLongBE(key, 0, index);
-                            c = mPageCopyIndex.newCursor(Transaction.BOGUS);
-                            c.autoload(false);
-                            c.find(key);
-                            if (c.value() != null) {
-                                // Already captured.
+                        long number = pos / mChunkPages;
+                        if (number < mClaimedChunks) {
+                            Chunk chunk = mChunks[(int) (number % mChunks.length)];
+                            if (pos < chunk.mDone) {
+                                // Already read.
                                 return;
                             }
-                            // Prevent main writer from catching up while page is captured.
-                            mCaptureLatch.acquireExclusive();
-                            mCaptureInProgress = index;
-                            break;
+                            if (pos == chunk.mReading) {
+                                mSnapshotLock.wait();
+                                continue;
+                            }
+                        }
+                        byte[] key = new byte[8];
+                        encodeLongBE(key, 0, index);
+                        c = mPageCopyIndex.newCursor(Transaction.BOGUS);
+                        c.autoload(false);
+                        c.find(key);
+                        if (c.value() != null) {
+                            // Already captured.
+                            return;
                         }
+                        // Prevent readers from catching up while page is captured.
+                        mCaptureLatch.acquireExclusive();
+                        mCaptureInProgress = index;
+                        break;
                     }
                 }
 
@@ -521,21 +1001,33 @@ final class _SnapshotPageArray extends PageArray {
 
         @Override
         public void close(Throwable cause) throws IOException {
+            if (markClosed(cause)) {
+                closeResources();
+            }
+        }
+
+        /**
+         * @return false if already closed
+         */
+        private boolean markClosed(Throwable cause) {
             if (mClosed) {
-                return;
+                return false;
             }
             synchronized (mSnapshotLock) {
                 if (mClosed) {
-                    return;
+                    return false;
                 }
                 p_delete(mCaptureBuffer);
                 mProgress = ~0L;
-                mWriteInProgress = ~0L;
                 mCaptureInProgress = -1;
                 mAbortCause = cause;
                 mClosed = true;
                 mSnapshotLock.notifyAll();
             }
+            return true;
+        }
+
+        private void closeResources() throws IOException {
             unregister(this);
             closeQuietly(null, mPageCopyIndex.mDatabase);
             mTempFileManager.deleteTempFile(mTempFile);
@@ -552,5 +1044,47 @@ final class _SnapshotPageArray extends PageArray {
         private IOException aborted(Throwable cause) {
             return new IOException("Snapshot closed", cause);
         }
+
+        /**
+         * Range of pages which is read by one thread. Except for the page data, all state is
+         * guarded by mSnapshotLock.
+         */
+        final class Chunk {
+            final byte[] mData;
+            // First and last position, exclusive.
+            long mStart, mEnd;
+            // Position which is being read, or -1 if none.
+            long mReading;
+            // All positions before this one have been read.
+            long mDone;
+
+            Chunk(int size) {
+                mData = new byte[size];
+            }
+        }
+
+        /**
+         * Helper thread which reads chunks ahead of the writeTo method.
+         */
+        final class Reader extends Thread {
+            @Override
+            public void run() {
+                Cursor c = null;
+                try {
+                    c = mPageCopyIndex.newCursor(Transaction.BOGUS);
+                    byte[] key = new byte[8];
+                    Chunk chunk;
+                    while ((chunk = claimChunk()) != null) {
+                        readChunk(chunk, c, key);
+                    }
+                } catch (Throwable e) {
+                    abort(e);
+                } finally {
+                    if (c != null) {
+                        c.reset();
+                    }
+                }
+            }
+        }
     }
 }
@@ -21,6 +21,10 @@ import java.io.DataOutput;
 import java.io.InterruptedIOException;
 import java.io.IOException;
 
+import java.util.Arrays;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.cojen.tupl.DirectPageOps.*;
 import static org.cojen.tupl.Utils.*;
 
@@ -38,6 +42,9 @@ class _Tree implements View, Index {
         FRAGMENTED_TRASH_ID = 3,
         MAX_RESERVED_ID = 0xff;
 
+    // Maximum amount of entries stored by each transaction of an auto-commit storeAll.
+    private static final int STORE_ALL_BATCH_SIZE = 256;
+
     static boolean isInternal(long id) {
         return (id & ~0xff) == 0;
     }
@@ -125,6 +132,7 @@ class _Tree implements View, Index {
     @Override
     public long count(byte[] lowKey, byte[] highKey) throws IOException {
         _TreeCursor cursor = new _TreeCursor(this, Transaction.BOGUS);
+        cursor.mScanResistant = true;
         _TreeCursor high = null;
         try {
             if (highKey != null) {
@@ -147,6 +155,26 @@ class _Tree implements View, Index {
 
     @Override
     public final byte[] load(Transaction txn, byte[] key) throws IOException {
+        return (byte[]) doLoad(txn, key, null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public final <R> R load(Transaction txn, byte[] key, ValueVisitor<R> visitor)
+        throws IOException
+    {
+        if (visitor == null) {
+            throw new NullPointerException("Visitor");
+        }
+        return (R) doLoad(txn, key, visitor);
+    }
+
+    /**
+     * @param visitor when null, a copy of the value is returned
+     */
+    private Object doLoad(Transaction txn, byte[] key, ValueVisitor<?> visitor)
+        throws IOException
+    {
         _LocalTransaction local = check(txn);
 
         // If lock must be acquired and retained, acquire now and skip the quick check later.
@@ -158,46 +186,50 @@ class _Tree implements View, Index {
             }
         }
 
-        _Node node = mRoot;
-        node.acquireShared();
+        _Node node = optimisticLeaf(key);
 
-        // Note: No need to check if root has split, since root splits are always completed
-        // before releasing the root latch. Also, _Node.used is not invoked for the root node,
-        // because it cannot be evicted.
+        if (node == null) {
+            node = mRoot;
+            node.acquireShared();
 
-        while (!node.isLeaf()) {
-            int childPos;
-            try {
-                childPos = _Node.internalPos(node.binarySearch(key));
-            } catch (Throwable e) {
-                node.releaseShared();
-                throw e;
-            }
+            // Note: No need to check if root has split, since root splits are always completed
+            // before releasing the root latch. Also, _Node.used is not invoked for the root node,
+            // because it cannot be evicted.
 
-            long childId = node.retrieveChildRefId(childPos);
-            _Node childNode = mDatabase.nodeMapGet(childId);
+            while (!node.isLeaf()) {
+                int childPos;
+                try {
+                    childPos = _Node.internalPos(node.binarySearch(key));
+                } catch (Throwable e) {
+                    node.releaseShared();
+                    throw e;
+                }
 
-            if (childNode != null) {
-                childNode.acquireShared();
+                long childId = node.retrieveChildRefId(childPos);
+                _Node childNode = mDatabase.nodeMapGet(childId);
 
-                // Need to check again in case evict snuck in.
-                if (childId == childNode.mId) {
-                    node.releaseShared();
-                    node = childNode;
-                    if (node.mSplit != null) {
-                        node = node.mSplit.selectNode(node, key);
+                if (childNode != null) {
+                    childNode.acquireShared();
+
+                    // Need to check again in case evict snuck in.
+                    if (childId == childNode.mId) {
+                        node.releaseShared();
+                        node = childNode;
+                        if (node.mSplit != null) {
+                            node = node.mSplit.selectNode(node, key);
+                        }
+                        node.used();
+                        continue;
                     }
-                    node.used();
-                    continue;
-                }
 
-                childNode.releaseShared();
-            }
+                    childNode.releaseShared();
+                }
 
-            node = node.loadChild(mDatabase, childId, _Node.OPTION_PARENT_RELEASE_SHARED);
+                node = node.loadChild(mDatabase, childId, _Node.OPTION_PARENT_RELEASE_SHARED);
 
-            if (node.mSplit != null) {
-                node = node.mSplit.selectNode(node, key);
+                if (node.mSplit != null) {
+                    node = node.mSplit.selectNode(node, key);
+                }
             }
         }
 
@@ -210,6 +242,24 @@ class _Tree implements View, Index {
         int keyHash;
 
         search: try {
+            if (node.keyPrefixLength() != 0) {
+                // Keys are stored as suffixes, so perform an ordinary search.
+                int pos = node.binarySearch(key);
+                if ((local != null && local.lockMode() != LockMode.READ_COMMITTED) ||
+                    mLockManager.isAvailable
+                    (local, mId, key, keyHash = _LockManager.hash(mId, key)))
+                {
+                    return pos < 0 ? null : visitor == null ? node.retrieveLeafValue(pos)
+                        : node.visitLeafValue(pos, visitor);
+                }
+                frame = new _CursorFrame();
+                if (pos < 0) {
+                    frame.mNotFoundKey = key;
+                }
+                frame.bind(node, pos);
+                break search;
+            }
+
             final long page = node.mPage;
             final int keyLen = key.length;
             int lowPos = node.searchVecStart();
@@ -232,34 +282,24 @@ class _Tree implements View, Index {
                         compareLen = ((compareLen & 0x3f) << 8) | p_ubyteGet(page, compareLoc++);
 
                         if ((header & _Node.ENTRY_FRAGMENTED) != 0) {
-                            // Note: An optimized version wouldn't need to copy the whole key.
-                            byte[] compareKey = mDatabase.reconstructKey
-                                (page, compareLoc, compareLen);
-
-                            int fullCompareLen = compareKey.length;
-
-                            int minLen = Math.min(fullCompareLen, keyLen);
-                            i = Math.min(lowMatch, highMatch);
-                            for (; i<minLen; i++) {
-                                byte cb = compareKey[i];
-                                byte kb = key[i];
-                                if (cb != kb) {
-                                    if ((cb & 0xff) < (kb & 0xff)) {
-                                        lowPos = midPos + 2;
-                                        lowMatch = i;
-                                    } else {
-                                        highPos = midPos - 2;
-                                        highMatch = i;
-                                    }
-                                    continue outer;
-                                }
+                            int cmp = mDatabase.compareFragmentedKey
+                                (page, compareLoc, compareLen, key, Math.min(lowMatch, highMatch));
+                            if (cmp < 0) {
+                                lowPos = midPos + 2;
+                                lowMatch = ~cmp;
+                                continue outer;
+                            } else if (cmp > 0) {
+                                highPos = midPos - 2;
+                                highMatch = cmp - 1;
+                                continue outer;
                             }
 
                             // Update compareLen and compareLoc for use by the code after the
                             // current scope. The compareLoc is completely bogus at this point,
                             // but is corrected when the value is retrieved below.
-                            compareLoc += compareLen - fullCompareLen;
-                            compareLen = fullCompareLen;
+                            compareLoc += compareLen - keyLen;
+                            compareLen = keyLen;
+                            i = keyLen;
 
                             break compare;
                         }
@@ -267,19 +307,16 @@ class _Tree implements View, Index {
 
                     int minLen = Math.min(compareLen, keyLen);
                     i = Math.min(lowMatch, highMatch);
-                    for (; i<minLen; i++) {
-                        byte cb = p_byteGet(page, compareLoc + i);
-                        byte kb = key[i];
-                        if (cb != kb) {
-                            if ((cb & 0xff) < (kb & 0xff)) {
-                                lowPos = midPos + 2;
-                                lowMatch = i;
-                            } else {
-                                highPos = midPos - 2;
-                                highMatch = i;
-                            }
-                            continue outer;
+                    i += p_mismatch(page, compareLoc + i, key, i, minLen - i);
+                    if (i < minLen) {
+                        if (p_ubyteGet(page, compareLoc + i) < (key[i] & 0xff)) {
+                            lowPos = midPos + 2;
+                            lowMatch = i;
+                        } else {
+                            highPos = midPos - 2;
+                            highMatch = i;
                         }
+                        continue outer;
                     }
                 }
 
@@ -294,7 +331,9 @@ class _Tree implements View, Index {
                         mLockManager.isAvailable
                         (local, mId, key, keyHash = _LockManager.hash(mId, key)))
                     {
-                        return _Node.retrieveLeafValueAtLoc(node, page, compareLoc + compareLen);
+                        int loc = compareLoc + compareLen;
+                        return visitor == null ? _Node.retrieveLeafValueAtLoc(node, page, loc)
+                            : _Node.visitLeafValueAtLoc(node, page, loc, visitor);
                     }
                     // Need to acquire the lock before loading. To prevent deadlock, a cursor
                     // frame must be bound and then the node latch can be released.
@@ -337,7 +376,8 @@ class _Tree implements View, Index {
                         node = node.mSplit.selectNode(node, key);
                     }
                     int pos = frame.mNodePos;
-                    return pos >= 0 ? node.retrieveLeafValue(pos) : null;
+                    return pos < 0 ? null : visitor == null ? node.retrieveLeafValue(pos)
+                        : node.visitLeafValue(pos, visitor);
                 } finally {
                     node.releaseShared();
                 }
@@ -351,6 +391,97 @@ class _Tree implements View, Index {
         }
     }
 
+    /**
+     * Descends to the leaf node which should contain the given key, without latching any
+     * internal nodes. Each internal node is read optimistically, and the latch stamp is
+     * validated before moving on to the child. Descent is abandoned if any node is being
+     * modified, split, or isn't in the cache. Not supported when pages are accessed
+     * directly, because inconsistent reads of recycled pages aren't safe.
+     *
+     * <p>Nodes are only marked as used when the descent succeeds. Internal nodes are marked
+     * after validating their stamps again, which confirms that they weren't evicted.
+     *
+     * @return shared latched leaf node, or null if latch coupling must be used instead
+     */
+    private _Node optimisticLeaf(byte[] key) {
+        /*P*/ // [
+        // _Node node = mRoot;
+        // long stamp = node.tryOptimisticRead();
+
+        // // Internal nodes below the root, and their stamps.
+        // _Node[] path = null;
+        // long[] stamps = null;
+        // int depth = 0;
+
+        // while (stamp >= 0) {
+            // long childId;
+            // try {
+                // if (node.isLeaf() || node.mSplit != null) {
+                    // return null;
+                // }
+                // int pos = node.optimisticSearch(key);
+                // if (pos == _Node.NO_OPTIMISTIC_SEARCH) {
+                    // return null;
+                // }
+                // childId = node.retrieveChildRefId(_Node.internalPos(pos));
+            // } catch (RuntimeException e) {
+                // // _Node contents were observed in an inconsistent state.
+                // return null;
+            // }
+
+            // _Node child = mDatabase.nodeMapGet(childId);
+            // if (child == null) {
+                // return null;
+            // }
+
+            // long childStamp = child.tryOptimisticRead();
+
+            // // Validating the parent stamp confirms that the child identifier was correct, and
+            // // checking the child identifier confirms that it wasn't evicted.
+            // if (childStamp < 0 || child.mId != childId || !node.validate(stamp)) {
+                // return null;
+            // }
+
+            // if (child.isLeaf()) {
+                // child.acquireShared();
+                // if (!child.validate(childStamp)) {
+                    // child.releaseShared();
+                    // return null;
+                // }
+                // if (child.mSplit != null) {
+                    // child = child.mSplit.selectNode(child, key);
+                // }
+                // child.used();
+                // for (int i=0; i<depth; i++) {
+                    // _Node internal = path[i];
+                    // if (internal.validate(stamps[i])) {
+                        // internal.used();
+                    // }
+                // }
+                // return child;
+            // }
+
+            // if (path == null) {
+                // path = new _Node[4];
+                // stamps = new long[4];
+            // } else if (depth >= path.length) {
+                // path = Arrays.copyOf(path, depth << 1);
+                // stamps = Arrays.copyOf(stamps, depth << 1);
+            // }
+
+            // path[depth] = child;
+            // stamps[depth++] = childStamp;
+
+            // node = child;
+            // stamp = childStamp;
+        // }
+
+        // return null;
+        /*P*/ // |
+        return null;
+        /*P*/ // ]
+    }
+
     @Override
     public void store(Transaction txn, byte[] key, byte[] value) throws IOException {
         if (key == null) {
@@ -399,6 +530,18 @@ class _Tree implements View, Index {
         return new _TreeCursor(this, txn).findAndModify(key, oldValue, newValue);
     }
 
+    @Override
+    public void storeAll(Transaction txn, byte[][] keys, byte[][] values) throws IOException {
+        if (txn != null || keys.length <= 1) {
+            ViewUtils.storeAll(this, txn, keys, values);
+            return;
+        }
+
+        // Instead of auto-committing each entry, commit once per batch of entries. Batches
+        // are bounded, limiting the amount of locks held and the size of the undo log.
+        ViewUtils.storeAllBatched(mDatabase, this, keys, values, STORE_ALL_BATCH_SIZE);
+    }
+
     @Override
     public final LockResult lockShared(Transaction txn, byte[] key) throws LockFailureException {
         return check(txn).lockShared(mId, key);
@@ -627,6 +770,8 @@ class _Tree implements View, Index {
         _TreeCursor cursor = new _TreeCursor(this, Transaction.BOGUS);
         try {
             cursor.autoload(false);
+            // Verification visits every node, so don't push other nodes out of the cache.
+            cursor.mScanResistant = true;
             cursor.first();
             int height = cursor.height();
             if (!observer.indexBegin(view, height)) {
@@ -870,13 +1015,41 @@ class _Tree implements View, Index {
         }
     }
 
+    /**
+     * Writes a cache priming set for this tree, which identifies loaded nodes by page id. The
+     * ids of all loaded internal nodes are written first, followed by a checksum of their
+     * child references. Leaf node ids are written next, each with a key for locating the leaf
+     * in case it moved.
+     */
     final void writeCachePrimer(final DataOutput dout) throws IOException {
+        final long[] checksum = new long[1];
+
+        traverseLoaded((node) -> {
+            long id;
+            try {
+                if (!node.isInternal()) {
+                    return;
+                }
+                id = node.mId;
+                checksum[0] += structureHash(node);
+            } finally {
+                node.releaseExclusive();
+            }
+            dout.writeLong(id);
+        });
+
+        // Terminator and checksum.
+        dout.writeLong(0);
+        dout.writeLong(checksum[0]);
+
         traverseLoaded((node) -> {
+            long id;
             byte[] midKey;
             try {
                 if (!node.isLeaf()) {
                     return;
                 }
+                id = node.mId;
                 int numKeys = node.numKeys();
                 if (numKeys > 1) {
                     int highPos = numKeys & ~1;
@@ -890,36 +1063,117 @@ class _Tree implements View, Index {
                 node.releaseExclusive();
             }
 
-            // Omit entries with very large keys. Primer encoding format needs to change
-            // for supporting larger keys.
+            dout.writeLong(id);
+
+            // Omit very large keys, which are only used when falling back to key-based
+            // priming anyhow.
             if (midKey.length < 0xffff) {
                 dout.writeShort(midKey.length);
                 dout.write(midKey);
+            } else {
+                dout.writeShort(0xffff);
             }
         });
 
         // Terminator.
-        dout.writeShort(0xffff);
+        dout.writeLong(0);
+    }
+
+    /**
+     * Applies a cache priming set written by {@link #writeCachePrimer}. Nodes are loaded in
+     * ascending page order, one tree level at a time. If the tree structure has changed since
+     * the priming set was written, priming falls back to finding leaf nodes by key.
+     *
+     * @param queueDepth maximum number of concurrent page reads
+     */
+    final void applyCachePrimer(DataInput din, int queueDepth) throws IOException {
+        long[] internalIds = readPrimerIds(din, false);
+        long checksum = din.readLong();
+
+        PagePrimer primer = new PagePrimer(queueDepth);
+
+        if (primer.primeInternal(internalIds, checksum)) {
+            // Internal nodes haven't changed, and so the leaf ids are still valid too.
+            primer.primeLeaves(readPrimerIds(din, true));
+        } else {
+            new Primer(din, true, queueDepth).run();
+        }
     }
 
-    final void applyCachePrimer(DataInput din) throws IOException {
-        new Primer(din).run();
+    /**
+     * Applies a cache priming set written by an earlier version, which only encodes keys.
+     *
+     * @param queueDepth maximum number of concurrent page reads
+     */
+    final void applyKeyCachePrimer(DataInput din, int queueDepth) throws IOException {
+        new Primer(din, false, queueDepth).run();
     }
 
     static final void skipCachePrimer(DataInput din) throws IOException {
+        readPrimerIds(din, false);
+        din.readLong();
+        readPrimerIds(din, true);
+    }
+
+    static final void skipKeyCachePrimer(DataInput din) throws IOException {
         while (true) {
             int len = din.readUnsignedShort();
             if (len == 0xffff) {
                 break;
             }
-            while (len > 0) {
-                int amt = din.skipBytes(len);
-                if (amt <= 0) {
-                    break;
-                }
-                len -= amt;
+            skipPrimerKey(din, len);
+        }
+    }
+
+    /**
+     * Reads zero-terminated page ids, returning them in ascending order.
+     *
+     * @param withKeys when true, each id is followed by a key, which is skipped
+     */
+    private static long[] readPrimerIds(DataInput din, boolean withKeys) throws IOException {
+        long[] ids = new long[16];
+        int size = 0;
+        while (true) {
+            long id = din.readLong();
+            if (id == 0) {
+                break;
             }
+            if (withKeys) {
+                skipPrimerKey(din, din.readUnsignedShort());
+            }
+            if (size >= ids.length) {
+                ids = Arrays.copyOf(ids, size << 1);
+            }
+            ids[size++] = id;
         }
+        ids = Arrays.copyOf(ids, size);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static void skipPrimerKey(DataInput din, int len) throws IOException {
+        if (len == 0xffff) {
+            return;
+        }
+        while (len > 0) {
+            int amt = din.skipBytes(len);
+            if (amt <= 0) {
+                break;
+            }
+            len -= amt;
+        }
+    }
+
+    /**
+     * Returns a hash of the given internal node id and its child ids, which must be latched.
+     */
+    private static long structureHash(_Node node) {
+        long hash = node.mId;
+        int highestPos = node.highestInternalPos();
+        for (int pos = 0; pos <= highestPos; pos += 2) {
+            hash = hash * 31 + node.retrieveChildRefId(pos);
+        }
+        return scramble(hash);
     }
 
     final boolean allowStoredCounts() {
@@ -933,15 +1187,19 @@ class _Tree implements View, Index {
      *
      * @param key new highest key; no existing key can be greater than or equal to it
      * @param frame frame bound to the tree leaf node
+     * @param reserve amount of bytes to leave available in full leaf nodes; pass zero to
+     * fill leaf nodes completely
      */
-    final void append(byte[] key, byte[] value, _CursorFrame frame) throws IOException {
+    final void append(byte[] key, byte[] value, _CursorFrame frame, int reserve)
+        throws IOException
+    {
         try {
             final CommitLock commitLock = mDatabase.commitLock();
             commitLock.acquireShared();
             _Node node = latchDirty(frame);
             try {
                 // TODO: inline and specialize
-                node.insertLeafEntry(frame, this, frame.mNodePos, key, value);
+                node.insertLeafEntry(frame, this, frame.mNodePos, key, value, reserve);
                 frame.mNodePos += 2;
 
                 while (node.mSplit != null) {
@@ -1112,19 +1370,26 @@ class _Tree implements View, Index {
         return mDatabase.fragment(key, key.length, mMaxKeySize);
     }
 
+    /**
+     * Primes the cache by finding leaf nodes by key.
+     */
     private class Primer {
         private final DataInput mDin;
+        private final boolean mPageIds;
         private final int mTaskLimit;
 
         private int mTaskCount;
         private boolean mFinished;
         private IOException mEx;
 
-        Primer(DataInput din) {
+        /**
+         * @param pageIds true if each key is preceded by a page id
+         */
+        Primer(DataInput din, boolean pageIds, int taskLimit) {
             mDin = din;
-            // TODO: Limit should be based on the concurrency level of the I/O system.
+            mPageIds = pageIds;
             // TODO: Cache primer order should be scrambled, to improve cuncurrent priming.
-            mTaskLimit = Runtime.getRuntime().availableProcessors() * 8;
+            mTaskLimit = taskLimit;
         }
 
         void run() throws IOException {
@@ -1167,16 +1432,13 @@ class _Tree implements View, Index {
                                 return;
                             }
 
-                            int len = mDin.readUnsignedShort();
+                            key = readKey();
 
-                            if (len == 0xffff) {
+                            if (key == null) {
                                 mFinished = true;
                                 return;
                             }
 
-                            key = new byte[len];
-                            mDin.readFully(key);
-
                             if (mTaskCount < mTaskLimit) spawn: {
                                 Task task;
                                 try {
@@ -1208,6 +1470,28 @@ class _Tree implements View, Index {
             }
         }
 
+        /**
+         * @return null if finished
+         */
+        private byte[] readKey() throws IOException {
+            while (true) {
+                if (mPageIds && mDin.readLong() == 0) {
+                    return null;
+                }
+                int len = mDin.readUnsignedShort();
+                if (len == 0xffff) {
+                    if (mPageIds) {
+                        // No key was recorded for this page.
+                        continue;
+                    }
+                    return null;
+                }
+                byte[] key = new byte[len];
+                mDin.readFully(key);
+                return key;
+            }
+        }
+
         class Task extends Thread {
             @Override
             public void run() {
@@ -1215,4 +1499,255 @@ class _Tree implements View, Index {
             }
         }
     }
+
+    /**
+     * Primes the cache by loading nodes by page id, in ascending page order. Nodes are only
+     * loaded when referenced by a loaded parent node, and so stale page ids are ignored.
+     */
+    private class PagePrimer {
+        private final int mQueueDepth;
+
+        private long[] mInternalIds;
+        private _Node[] mInternalParents;
+        private int[] mInternalPositions;
+
+        // The following fields are guarded by this PagePrimer.
+        private long mChecksum;
+        private int[] mNextLevel;
+        private int mNextLevelSize;
+        private _Node[] mBottoms;
+        private int mBottomsSize;
+
+        PagePrimer(int queueDepth) {
+            mQueueDepth = Math.max(1, queueDepth);
+        }
+
+        /**
+         * Loads the given internal nodes, one tree level at a time.
+         *
+         * @param ids internal node ids, in ascending order
+         * @param checksum expected structure checksum
+         * @return false if the tree structure doesn't match the checksum
+         */
+        boolean primeInternal(long[] ids, long checksum) throws IOException {
+            mInternalIds = ids;
+            mInternalParents = new _Node[ids.length];
+            mInternalPositions = new int[ids.length];
+            mNextLevel = new int[16];
+            mBottoms = new _Node[16];
+
+            _Node root = mRoot;
+            root.acquireShared();
+            try {
+                if (!root.isInternal()) {
+                    return ids.length == 0 && checksum == 0;
+                }
+                if (Arrays.binarySearch(ids, root.mId) < 0) {
+                    return false;
+                }
+                visit(root);
+            } finally {
+                root.releaseShared();
+            }
+
+            while (mNextLevelSize > 0) {
+                int[] level = Arrays.copyOf(mNextLevel, mNextLevelSize);
+                mNextLevelSize = 0;
+                // Ascending slots refer to ascending page ids.
+                Arrays.sort(level);
+                loadAll(level, mInternalIds, mInternalParents, mInternalPositions, true);
+            }
+
+            return mChecksum == checksum;
+        }
+
+        /**
+         * Loads the given leaf nodes, which must be called after priming internal nodes.
+         *
+         * @param ids leaf node ids, in ascending order
+         */
+        void primeLeaves(long[] ids) throws IOException {
+            _Node[] parents = new _Node[ids.length];
+            int[] positions = new int[ids.length];
+            int count = 0;
+
+            for (int i=0; i<mBottomsSize; i++) {
+                _Node bottom = mBottoms[i];
+                bottom.acquireShared();
+                try {
+                    if (!bottom.isInternal()) {
+                        // Was evicted.
+                        continue;
+                    }
+                    int highestPos = bottom.highestInternalPos();
+                    for (int pos = 0; pos <= highestPos; pos += 2) {
+                        int slot = Arrays.binarySearch(ids, bottom.retrieveChildRefId(pos));
+                        if (slot >= 0 && parents[slot] == null) {
+                            parents[slot] = bottom;
+                            positions[slot] = pos;
+                            count++;
+                        }
+                    }
+                } finally {
+                    bottom.releaseShared();
+                }
+            }
+
+            int[] slots = new int[count];
+            for (int i=0, j=0; j<count; i++) {
+                if (parents[i] != null) {
+                    slots[j++] = i;
+                }
+            }
+
+            loadAll(slots, ids, parents, positions, false);
+        }
+
+        /**
+         * Loads nodes in the order given by the slots, using helper threads to keep multiple
+         * reads in flight.
+         */
+        private void loadAll(final int[] slots, final long[] ids,
+                             final _Node[] parents, final int[] positions,
+                             final boolean internal)
+            throws IOException
+        {
+            final AtomicInteger next = new AtomicInteger();
+
+            class Loader extends Thread {
+                volatile Throwable mEx;
+
+                public void run() {
+                    try {
+                        int i;
+                        while ((i = next.getAndIncrement()) < slots.length) {
+                            int slot = slots[i];
+                            load(ids[slot], parents[slot], positions[slot], internal);
+                        }
+                    } catch (Throwable e) {
+                        mEx = e;
+                        // Stop the other threads too.
+                        next.set(Integer.MAX_VALUE / 2);
+                    }
+                }
+            }
+
+            Loader[] helpers = new Loader[Math.max(0, Math.min(mQueueDepth, slots.length) - 1)];
+
+            for (int i=0; i<helpers.length; i++) {
+                Loader helper = new Loader();
+                helper.setDaemon(true);
+                helper.setName("CachePrimer-" + i);
+                (helpers[i] = helper).start();
+            }
+
+            // Also do work in this thread.
+            Loader self = new Loader();
+            self.run();
+
+            boolean interrupted = false;
+            for (Loader helper : helpers) {
+                while (true) {
+                    try {
+                        helper.join();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            Throwable ex = self.mEx;
+            for (Loader helper : helpers) {
+                if (ex == null) {
+                    ex = helper.mEx;
+                }
+            }
+
+            if (ex != null) {
+                throw rethrow(ex);
+            }
+        }
+
+        /**
+         * Loads a child node, if the parent still refers to it.
+         */
+        private void load(long childId, _Node parent, int pos, boolean internal)
+            throws IOException
+        {
+            parent.acquireShared();
+
+            if (!parent.isInternal() || pos > parent.highestInternalPos()
+                || parent.retrieveChildRefId(pos) != childId)
+            {
+                // Parent was evicted or modified.
+                parent.releaseShared();
+                return;
+            }
+
+            _Node child = mDatabase.nodeMapGet(childId);
+
+            if (child == null) {
+                child = parent.loadChild(mDatabase, childId, _Node.OPTION_PARENT_RELEASE_SHARED);
+            } else {
+                parent.releaseShared();
+                if (!internal) {
+                    return;
+                }
+                child.acquireShared();
+                if (childId != child.mId) {
+                    child.releaseShared();
+                    return;
+                }
+            }
+
+            try {
+                if (internal && child.isInternal()) {
+                    visit(child);
+                }
+            } finally {
+                child.releaseShared();
+            }
+        }
+
+        /**
+         * With the given internal node latched, updates the checksum and gathers the child
+         * nodes to load next.
+         */
+        private void visit(_Node node) {
+            long hash = structureHash(node);
+            boolean bottom = node.isBottomInternal();
+
+            int highestPos = node.highestInternalPos();
+            long[] ids = mInternalIds;
+
+            synchronized (this) {
+                mChecksum += hash;
+
+                if (bottom) {
+                    if (mBottomsSize >= mBottoms.length) {
+                        mBottoms = Arrays.copyOf(mBottoms, mBottomsSize << 1);
+                    }
+                    mBottoms[mBottomsSize++] = node;
+                    return;
+                }
+
+                for (int pos = 0; pos <= highestPos; pos += 2) {
+                    int slot = Arrays.binarySearch(ids, node.retrieveChildRefId(pos));
+                    if (slot >= 0) {
+                        mInternalParents[slot] = node;
+                        mInternalPositions[slot] = pos;
+                        if (mNextLevelSize >= mNextLevel.length) {
+                            mNextLevel = Arrays.copyOf(mNextLevel, mNextLevelSize << 1);
+                        }
+                        mNextLevel[mNextLevelSize++] = slot;
+                    }
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.io.IOException;
+
+import static org.cojen.tupl.Utils.*;
+
+/**
+ * BulkLoader implementation which appends entries to the right edge of a new tree. The tree
+ * is registered in the trash until it's published, and so an unfinished load is deleted
+ * automatically when the database is re-opened.
+ *
+ * @author Generated by PageAccessTransformer from TreeLoader.java
+ * @see _LocalDatabase#newBulkLoader
+ */
+/*P*/
+final class _TreeLoader implements BulkLoader {
+    private final _Tree mTree;
+    private final int mReserve;
+
+    // Frame bound to the rightmost leaf node; null when finished or closed.
+    private _CursorFrame mLeaf;
+
+    private byte[] mLastKey;
+    private long mCount;
+    private boolean mFinished;
+
+    /**
+     * @param tree new empty tree, not published
+     * @param reserve amount of bytes to leave available in full leaf nodes
+     */
+    _TreeLoader(_Tree tree, int reserve) {
+        mTree = tree;
+        mReserve = reserve;
+
+        _CursorFrame leaf = new _CursorFrame();
+        _Node root = tree.mRoot;
+        root.acquireExclusive();
+        leaf.bind(root, 0);
+        root.releaseExclusive();
+        mLeaf = leaf;
+    }
+
+    @Override
+    public void add(byte[] key, byte[] value) throws IOException {
+        _CursorFrame leaf = mLeaf;
+        if (leaf == null) {
+            throw new IllegalStateException(mFinished ? "Finished" : "Closed");
+        }
+
+        if (value == null) {
+            throw new NullPointerException("Value is null");
+        }
+
+        byte[] lastKey = mLastKey;
+        if (lastKey != null && compareUnsigned(key, lastKey) <= 0) {
+            throw new IllegalArgumentException("Key is not greater than the previous key");
+        }
+
+        mTree.append(key, value, leaf, mReserve);
+
+        mLastKey = key.clone();
+        mCount++;
+    }
+
+    @Override
+    public long count() {
+        return mCount;
+    }
+
+    @Override
+    public Index finish() throws IOException {
+        _CursorFrame leaf = mLeaf;
+        if (leaf == null) {
+            throw new IllegalStateException(mFinished ? "Finished" : "Closed");
+        }
+
+        mLeaf = null;
+        _CursorFrame.popAll(leaf);
+
+        _LocalDatabase db = mTree.mDatabase;
+        Index ix = db.publishLoadedTree(mTree);
+
+        // Once published, the tree must not be deleted by close, even if the checkpoint fails.
+        mFinished = true;
+
+        db.checkpoint();
+        return ix;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mFinished) {
+            return;
+        }
+
+        _CursorFrame leaf = mLeaf;
+        if (leaf != null) {
+            mLeaf = null;
+            _CursorFrame.popAll(leaf);
+        } else if (mTree.isClosed()) {
+            return;
+        }
+
+        mTree.mDatabase.deleteLoadedTree(mTree);
+    }
+}
@@ -18,6 +18,8 @@ package org.cojen.tupl.util;
 
 import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 
+import org.cojen.tupl.io.UnsafeAccess;
+
 /**
  * Non-reentrant read/write latch, using unfair acquisition. Implementation
  * also does not track thread ownership or check for illegal usage. As a
@@ -33,6 +35,13 @@ public class Latch extends AbstractQueuedSynchronizer {
 
     public static final int UNLATCHED = 0, EXCLUSIVE = 0x80000000, SHARED = 1;
 
+    // Is false if a load fence isn't supported, in which case optimistic reads always fail.
+    private static final boolean OPTIMISTIC_READS = UnsafeAccess.tryObtain() != null;
+
+    // Incremented when the exclusive latch is released, before the state is updated. Used
+    // for validating optimistic reads.
+    private int mReleaseCount;
+
     public Latch() {
     }
 
@@ -174,6 +183,31 @@ public class Latch extends AbstractQueuedSynchronizer {
         releaseShared(0);
     }
 
+    /**
+     * Returns a stamp for reading data guarded by this latch without acquiring it, or a
+     * negative value if the exclusive latch is held. Data read optimistically can be
+     * inconsistent, and it must not be trusted until the stamp is validated.
+     */
+    public final long tryOptimisticRead() {
+        if (getState() < 0 || !OPTIMISTIC_READS) {
+            return -1;
+        }
+        return mReleaseCount & 0xffffffffL;
+    }
+
+    /**
+     * Returns true if the exclusive latch hasn't been acquired since the given stamp was
+     * obtained, and so all data read since then is consistent. Can be called with a shared
+     * latch held, confirming that nothing changed before it was acquired.
+     *
+     * @param stamp non-negative stamp returned by tryOptimisticRead
+     */
+    public final boolean validate(long stamp) {
+        // Prevent the optimistic reads from being ordered after the checks.
+        UnsafeAccess.tryObtain().loadFence();
+        return getState() >= 0 && mReleaseCount == (int) stamp;
+    }
+
     @Override
     protected final boolean tryAcquire(int x) {
         return getState() == 0 ? compareAndSetState(0, EXCLUSIVE) : false;
@@ -205,6 +239,7 @@ public class Latch extends AbstractQueuedSynchronizer {
 
     @Override
     protected final boolean tryRelease(int newState) {
+        mReleaseCount++;
         setState(newState);
         return true;
     }
@@ -0,0 +1,282 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import static org.cojen.tupl.TestUtils.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class BulkLoadTest {
+    public static void main(String[] args) throws Exception {
+        org.junit.runner.JUnitCore.main(BulkLoadTest.class.getName());
+    }
+
+    @Before
+    public void createTempDb() throws Exception {
+        mConfig = new DatabaseConfig()
+            .directPageAccess(false)
+            .checkpointRate(-1, null)
+            .durabilityMode(DurabilityMode.NO_FLUSH);
+        mDb = newTempDatabase(mConfig);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        deleteTempDatabases();
+        mDb = null;
+        mConfig = null;
+    }
+
+    protected DatabaseConfig mConfig;
+    protected Database mDb;
+
+    @Test
+    public void basic() throws Exception {
+        final int count = 200_000;
+
+        BulkLoader loader = mDb.newBulkLoader("test", 1.0);
+        for (int i=0; i<count; i++) {
+            loader.add(key(i), value(i));
+        }
+        assertEquals(count, loader.count());
+
+        // Not visible until finished.
+        assertNull(mDb.findIndex("test"));
+
+        Index ix = loader.finish();
+        assertSame(ix, mDb.findIndex("test"));
+        assertTrue(ix.verify(null));
+        verify(ix, count);
+
+        // Loaded index is a regular index.
+        ix.store(null, key(count), value(count));
+        verify(ix, count + 1);
+
+        try {
+            loader.add(key(count + 1), value(count + 1));
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        try {
+            loader.finish();
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        loader.close();
+
+        // Finished index is durable, without requiring an additional checkpoint.
+        long id = ix.getId();
+        mDb = reopenTempDatabase(mDb, mConfig);
+        ix = mDb.openIndex("test");
+        assertEquals(id, ix.getId());
+        assertTrue(ix.verify(null));
+        verify(ix, count + 1);
+    }
+
+    @Test
+    public void largeEntries() throws Exception {
+        final int count = 1000;
+
+        BulkLoader loader = mDb.newBulkLoader("test", 1.0);
+        for (int i=0; i<count; i++) {
+            byte[] key = new byte[3000];
+            System.arraycopy(key(i), 0, key, 0, 4);
+            loader.add(key, new byte[(i % 10) * 1000 + 1]);
+        }
+
+        Index ix = loader.finish();
+        assertTrue(ix.verify(null));
+        assertEquals(count, ix.count(null, null));
+    }
+
+    @Test
+    public void fillFactor() throws Exception {
+        long full = pagesUsed("full", 1.0);
+        long half = pagesUsed("half", 0.5);
+        assertTrue(half > full * 1.8);
+
+        // Randomly ordered stores split leaf nodes in the middle.
+        Index ix = mDb.openIndex("random");
+        long before = pagesUsed();
+        java.util.Random rnd = new java.util.Random(5309);
+        for (int i=0; i<100_000; i++) {
+            int n = rnd.nextInt();
+            ix.store(Transaction.BOGUS, key(n), value(n));
+        }
+        mDb.checkpoint();
+        assertTrue((pagesUsed() - before) > full * 1.2);
+
+        try {
+            mDb.newBulkLoader("bad", 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            mDb.newBulkLoader("bad", 1.1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private long pagesUsed(String name, double fillFactor) throws Exception {
+        long before = pagesUsed();
+        BulkLoader loader = mDb.newBulkLoader(name, fillFactor);
+        for (int i=0; i<100_000; i++) {
+            loader.add(key(i), value(i));
+        }
+        Index ix = loader.finish();
+        assertTrue(ix.verify(null));
+        return pagesUsed() - before;
+    }
+
+    private long pagesUsed() {
+        Database.Stats stats = mDb.stats();
+        return stats.totalPages() - stats.freePages();
+    }
+
+    @Test
+    public void illegalOrder() throws Exception {
+        BulkLoader loader = mDb.newBulkLoader("test", 1.0);
+        loader.add(key(1), value(1));
+
+        try {
+            loader.add(key(1), value(1));
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            loader.add(key(0), value(0));
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        loader.add(key(2), value(2));
+        verify(loader.finish(), 2, 1);
+    }
+
+    @Test
+    public void nameConflict() throws Exception {
+        mDb.openIndex("a");
+
+        try {
+            mDb.newBulkLoader("a", 1.0);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        BulkLoader loader = mDb.newBulkLoader("b", 1.0);
+        loader.add(key(1), value(1));
+
+        // Index is created while loading.
+        mDb.openIndex("b");
+
+        try {
+            loader.finish();
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        loader.close();
+        assertEquals(0, mDb.findIndex("b").count(null, null));
+    }
+
+    @Test
+    public void abort() throws Exception {
+        BulkLoader loader = mDb.newBulkLoader("test", 1.0);
+        for (int i=0; i<10_000; i++) {
+            loader.add(key(i), value(i));
+        }
+
+        loader.close();
+        loader.close();
+
+        try {
+            loader.add(key(10_000), value(10_000));
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        assertNull(mDb.findIndex("test"));
+
+        // Can load again under the same name.
+        loader = mDb.newBulkLoader("test", 1.0);
+        loader.add(key(1), value(1));
+        verify(loader.finish(), 1, 1);
+    }
+
+    @Test
+    public void unfinished() throws Exception {
+        long before = pagesUsed();
+
+        BulkLoader loader = mDb.newBulkLoader("test", 1.0);
+        for (int i=0; i<100_000; i++) {
+            loader.add(key(i), value(i));
+            if (i == 50_000) {
+                // Partially loaded tree becomes durable, but it's in the trash.
+                mDb.checkpoint();
+            }
+        }
+
+        mDb = reopenTempDatabase(mDb, mConfig);
+        assertNull(mDb.findIndex("test"));
+
+        // Wait for the trash to be emptied.
+        for (int i=0; i<100; i++) {
+            mDb.checkpoint();
+            if (pagesUsed() <= before + 10) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+
+        assertTrue(pagesUsed() <= before + 10);
+    }
+
+    private static void verify(Index ix, int count) throws Exception {
+        verify(ix, count, 0);
+    }
+
+    private static void verify(Index ix, int count, int start) throws Exception {
+        Cursor c = ix.newCursor(null);
+        int i = start;
+        for (c.first(); c.key() != null; c.next(), i++) {
+            fastAssertArrayEquals(key(i), c.key());
+            fastAssertArrayEquals(value(i), c.value());
+        }
+        assertEquals(start + count, i);
+    }
+
+    private static byte[] key(int i) {
+        byte[] key = new byte[4];
+        Utils.encodeIntBE(key, 0, i ^ 0x80000000);
+        return key;
+    }
+
+    private static byte[] value(int i) {
+        return ("value-" + i).getBytes();
+    }
+}
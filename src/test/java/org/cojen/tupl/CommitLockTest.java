@@ -0,0 +1,217 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.concurrent.locks.Lock;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ *
+ * @author Brian S O'Neill
+ */
+public class CommitLockTest {
+    public static void main(String[] args) throws Exception {
+        org.junit.runner.JUnitCore.main(CommitLockTest.class.getName());
+    }
+
+    @Test
+    public void reentrant() throws Exception {
+        CommitLock lock = new CommitLock();
+
+        lock.acquireShared();
+        assertTrue(lock.tryAcquireShared());
+        lock.acquireShared();
+        lock.releaseShared();
+        lock.releaseShared();
+        lock.releaseShared();
+
+        try {
+            lock.releaseShared();
+            fail();
+        } catch (IllegalMonitorStateException e) {
+        }
+
+        lock.acquireExclusive();
+        lock.acquireExclusive();
+        // Exclusive holder can also acquire shared.
+        assertTrue(lock.tryAcquireShared());
+        lock.acquireShared();
+        lock.releaseShared();
+        lock.releaseShared();
+        lock.releaseExclusive();
+        lock.releaseExclusive();
+
+        try {
+            lock.releaseExclusive();
+            fail();
+        } catch (IllegalMonitorStateException e) {
+        }
+    }
+
+    @Test
+    public void exclusiveBlocksShared() throws Exception {
+        CommitLock lock = new CommitLock();
+
+        lock.acquireExclusive();
+
+        Thread t = startAndWaitUntilBlocked(new Thread(() -> {
+            assertFalse(lock.tryAcquireShared());
+            lock.acquireShared();
+            lock.releaseShared();
+        }));
+
+        assertTrue(t.isAlive());
+        lock.releaseExclusive();
+        t.join();
+    }
+
+    @Test
+    public void exclusiveWaitsForShared() throws Exception {
+        CommitLock lock = new CommitLock();
+
+        lock.acquireShared();
+
+        Thread t = startAndWaitUntilBlocked(new Thread(() -> {
+            try {
+                lock.acquireExclusive();
+                lock.releaseExclusive();
+            } catch (Exception e) {
+                throw Utils.rethrow(e);
+            }
+        }));
+
+        // Exclusive lock is requested, and so try variant fails.
+        assertTrue(lock.hasQueuedThreads());
+        Thread t2 = new Thread(() -> assertFalse(lock.tryAcquireShared()));
+        t2.start();
+        t2.join();
+
+        // Reentrant acquire must not deadlock.
+        lock.acquireShared();
+        lock.releaseShared();
+
+        assertTrue(t.isAlive());
+        lock.releaseShared();
+        t.join();
+
+        assertFalse(lock.hasQueuedThreads());
+    }
+
+    @Test
+    public void sharedLockView() throws Exception {
+        CommitLock lock = new CommitLock();
+        Lock shared = lock.readLock();
+
+        shared.lock();
+        assertTrue(shared.tryLock());
+        shared.unlock();
+        shared.unlock();
+
+        lock.acquireExclusive();
+
+        Thread t = new Thread(() -> {
+            try {
+                assertFalse(shared.tryLock());
+                assertFalse(shared.tryLock(10, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                throw Utils.rethrow(e);
+            }
+        });
+        t.start();
+        t.join();
+
+        lock.releaseExclusive();
+    }
+
+    @Test
+    public void stress() throws Exception {
+        final CommitLock lock = new CommitLock();
+        final AtomicInteger sharedCount = new AtomicInteger();
+        final int threadCount = 8;
+        final long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        final Throwable[] failure = new Throwable[1];
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i=0; i<threadCount; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < endNanos) {
+                        lock.acquireShared();
+                        try {
+                            sharedCount.incrementAndGet();
+                            Thread.yield();
+                            sharedCount.decrementAndGet();
+                        } finally {
+                            lock.releaseShared();
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        int exclusiveCount = 0;
+        while (System.nanoTime() < endNanos) {
+            lock.acquireExclusive();
+            try {
+                assertEquals(0, sharedCount.get());
+            } finally {
+                lock.releaseExclusive();
+            }
+            exclusiveCount++;
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new AssertionError(failure[0]);
+            }
+        }
+
+        assertTrue(exclusiveCount > 0);
+    }
+
+    private static Thread startAndWaitUntilBlocked(Thread t) throws InterruptedException {
+        t.start();
+        while (true) {
+            Thread.State state = t.getState();
+            if (state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING) {
+                // Allow the thread to settle.
+                Thread.sleep(100);
+                return t;
+            }
+            if (state == Thread.State.TERMINATED) {
+                return t;
+            }
+            Thread.yield();
+        }
+    }
+}
@@ -16,7 +16,12 @@
 
 package org.cojen.tupl;
 
+import java.util.concurrent.TimeUnit;
+
 import org.junit.*;
+import static org.junit.Assert.*;
+
+import static org.cojen.tupl.TestUtils.*;
 
 /**
  * Tests multiple threads inserting interleaving records adjacent to each other. This is a
@@ -49,6 +54,36 @@ public class ContentionTest {
         contention(1_000_000, 4);
     }
 
+    @Test
+    public void noRedoContention() throws Throwable {
+        redoContention(100_000, 1);
+    }
+
+    @Test
+    public void fourThreadsRedo() throws Throwable {
+        redoContention(100_000, 4);
+    }
+
+    @Test
+    public void eightThreadsRedo() throws Throwable {
+        redoContention(100_000, 8);
+    }
+
+    @Test
+    public void noDirtyContention() throws Throwable {
+        dirtyContention(200_000, 1);
+    }
+
+    @Test
+    public void fourThreadsDirty() throws Throwable {
+        dirtyContention(200_000, 4);
+    }
+
+    @Test
+    public void eightThreadsDirty() throws Throwable {
+        dirtyContention(200_000, 8);
+    }
+
     private void contention(int insertCount, int threadCount) throws Throwable {
         Database db = Database.open(decorate(new DatabaseConfig().minCacheSize(100_000_000)));
         Index ix = db.openIndex("test");
@@ -113,4 +148,89 @@ public class ContentionTest {
 
         db.close();
     }
+
+    /**
+     * Threads perform small transactions against a durable database, contending on the redo
+     * log. All changes must be recovered after reopening.
+     */
+    private void redoContention(int txnCount, int threadCount) throws Throwable {
+        DatabaseConfig config = decorate(new DatabaseConfig()
+                                         .minCacheSize(100_000_000)
+                                         .durabilityMode(DurabilityMode.NO_FLUSH));
+
+        final int storesPerTxn = 4;
+
+        runAndReopen(config, threadCount, false, txnCount * storesPerTxn, (db, ix, id) -> {
+            byte[] value = new byte[8];
+            for (int t=id; t<txnCount; t+=threadCount) {
+                Transaction txn = db.newTransaction();
+                for (int j=0; j<storesPerTxn; j++) {
+                    byte[] key = new byte[8];
+                    Utils.encodeIntBE(key, 0, t);
+                    Utils.encodeIntBE(key, 4, j);
+                    ix.store(txn, key, value);
+                }
+                txn.commit();
+            }
+        });
+    }
+
+    /**
+     * Threads insert records spread across a durable database while checkpoints run
+     * frequently, contending on the dirty lists. All records must be found after reopening.
+     * See DirtyListBenchmark for a throughput comparison against a single dirty list.
+     */
+    private void dirtyContention(int insertCount, int threadCount) throws Throwable {
+        DatabaseConfig config = decorate(new DatabaseConfig()
+                                         .minCacheSize(100_000_000)
+                                         .checkpointRate(10, TimeUnit.MILLISECONDS)
+                                         .checkpointSizeThreshold(0)
+                                         .maxCheckpointThreads(2)
+                                         .durabilityMode(DurabilityMode.NO_FLUSH));
+
+        runAndReopen(config, threadCount, true, insertCount, (db, ix, id) -> {
+            byte[] value = new byte[20];
+            for (int k=id; k<insertCount; k+=threadCount) {
+                // Scramble the key to dirty nodes all over the tree.
+                byte[] key = new byte[8];
+                Utils.encodeLongBE(key, 0, Utils.scramble(k));
+                ix.insert(Transaction.BOGUS, key, value);
+            }
+        });
+    }
+
+    static interface Work {
+        void run(Database db, Index ix, int id) throws Throwable;
+    }
+
+    /**
+     * Runs the work against a new temporary database in the given amount of threads, and
+     * then verifies the amount of records after reopening.
+     *
+     * @param checkpoint true to checkpoint and delete the redo log before reopening
+     */
+    private void runAndReopen(DatabaseConfig config, int threadCount, boolean checkpoint,
+                              long expectedCount, Work work)
+        throws Throwable
+    {
+        Database db = newTempDatabase(config);
+
+        try {
+            final Index ix = db.openIndex("test");
+
+            runConcurrently(threadCount, id -> work.run(db, ix, id));
+
+            if (checkpoint) {
+                db.checkpoint();
+            }
+
+            Database reopened = reopenTempDatabase(db, config, checkpoint);
+            Index ix2 = reopened.openIndex("test");
+
+            assertEquals(expectedCount, ix2.count(null, null));
+            assertTrue(ix2.verify(null));
+        } finally {
+            deleteTempDatabases();
+        }
+    }
 }
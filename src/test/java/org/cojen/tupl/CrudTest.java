@@ -144,6 +144,71 @@ public class CrudTest {
         assertNull(ix.load(null, key));
     }
 
+    @Test
+    public void loadVisitor() throws Exception {
+        loadVisitor(null);
+        loadVisitor(Transaction.BOGUS);
+        loadVisitor(mDb.newTransaction());
+    }
+
+    private void loadVisitor(Transaction txn) throws Exception {
+        View ix = openIndex("test");
+
+        ValueVisitor<byte[]> copier = value -> {
+            assertTrue(value.isReadOnly());
+            byte[] copy = new byte[value.remaining()];
+            value.get(copy);
+            return copy;
+        };
+
+        try {
+            ix.load(txn, "key".getBytes(), null);
+            fail();
+        } catch (NullPointerException e) {
+            // Expected.
+        }
+
+        assertNull(ix.load(txn, "key".getBytes(), copier));
+
+        // Small, empty, medium and fragmented values.
+        byte[][] values = {
+            "hello".getBytes(), new byte[0], new byte[200], new byte[10_000],
+        };
+        new Random(3210).nextBytes(values[2]);
+        new Random(3211).nextBytes(values[3]);
+
+        for (int i=0; i<values.length; i++) {
+            byte[] key = ("key-" + i).getBytes();
+            ix.store(txn, key, values[i]);
+            fastAssertArrayEquals(values[i], ix.load(txn, key, copier));
+            assertEquals((Integer) values[i].length, ix.load(txn, key, v -> v.remaining()));
+        }
+
+        ix.store(txn, "key-0".getBytes(), null);
+        assertNull(ix.load(txn, "key-0".getBytes(), copier));
+
+        if (txn != null && txn != Transaction.BOGUS) {
+            txn.commit();
+        }
+
+        // Lock must be acquired when the entry is being modified by another transaction.
+        Transaction txn2 = mDb.newTransaction();
+        ix.store(txn2, "key-1".getBytes(), "world".getBytes());
+
+        Thread committer = new Thread(() -> {
+            try {
+                Thread.sleep(500);
+                txn2.commit();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        committer.start();
+
+        fastAssertArrayEquals("world".getBytes(), ix.load(null, "key-1".getBytes(), copier));
+        committer.join();
+    }
+
     @Test
     public void testInsertBasic1() throws Exception {
         testInsertBasic(null);
@@ -392,6 +457,68 @@ public class CrudTest {
         }
     }
 
+    @Test
+    public void testLoadStoreAll() throws Exception {
+        testLoadStoreAll(null);
+        testLoadStoreAll(Transaction.BOGUS);
+        Transaction txn = mDb.newTransaction();
+        testLoadStoreAll(txn);
+        txn.commit();
+    }
+
+    private void testLoadStoreAll(Transaction txn) throws Exception {
+        View ix = openIndex("test");
+
+        final int count = 1000;
+        Random rnd = new Random(count);
+
+        byte[][] keys = new byte[count][];
+        byte[][] values = new byte[count][];
+        for (int i=0; i<count; i++) {
+            keys[i] = ("key-" + rnd.nextInt(count)).getBytes();
+            values[i] = ("value-" + i).getBytes();
+        }
+
+        // Last duplicate key wins.
+        Map<String, byte[]> expect = new HashMap<>();
+        for (int i=0; i<count; i++) {
+            expect.put(new String(keys[i]), values[i]);
+        }
+
+        ix.storeAll(txn, keys, values);
+
+        byte[][] loaded = ix.loadAll(txn, keys);
+        assertEquals(count, loaded.length);
+        for (int i=0; i<count; i++) {
+            fastAssertArrayEquals(expect.get(new String(keys[i])), loaded[i]);
+            fastAssertArrayEquals(loaded[i], ix.load(txn, keys[i]));
+        }
+
+        assertNull(ix.loadAll(txn, new byte[][] {"missing".getBytes()})[0]);
+        assertEquals(0, ix.loadAll(txn, new byte[0][]).length);
+
+        // Delete some with null values.
+        byte[][] deleteKeys = Arrays.copyOf(keys, 10);
+        ix.storeAll(txn, deleteKeys, new byte[10][]);
+        for (byte[] value : ix.loadAll(txn, deleteKeys)) {
+            assertNull(value);
+        }
+
+        try {
+            ix.storeAll(txn, keys, new byte[1][]);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            ix.loadAll(txn, new byte[1][]);
+            fail();
+        } catch (NullPointerException e) {
+        }
+
+        assertTrue(verify(ix));
+    }
+
     @Test
     public void testFill() throws Exception {
         View ix = openIndex("test");
@@ -242,6 +242,78 @@ public class CursorTest {
         c.reset();
     }
 
+    @Test
+    public void visitValue() throws Exception {
+        View ix = openIndex("test");
+        for (int i=0; i<1000; i++) {
+            ix.store(Transaction.BOGUS, key(i), value(i));
+        }
+
+        ValueVisitor<byte[]> copier = value -> {
+            assertTrue(value.isReadOnly());
+            byte[] copy = new byte[value.remaining()];
+            value.get(copy);
+            return copy;
+        };
+
+        Cursor c = ix.newCursor(null);
+
+        try {
+            c.visitValue(copier);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        c.autoload(false);
+        int i = 0;
+        for (c.first(); c.key() != null; c.next(), i++) {
+            fastAssertArrayEquals(value(i), c.visitValue(copier));
+        }
+        assertEquals(1000, i);
+
+        // Loaded values are visited directly.
+        c.autoload(true);
+        c.find(key(2));
+        fastAssertArrayEquals(value(2), c.visitValue(copier));
+        fastAssertArrayEquals(value(2), c.value());
+
+        if (c instanceof TreeCursor || c instanceof _TreeCursor) {
+            // Values are examined in place, and they aren't loaded into the cursor.
+            c.autoload(false);
+            c.find(key(1));
+            fastAssertArrayEquals(value(1), c.visitValue(copier));
+            assertTrue(c.value() == Cursor.NOT_LOADED);
+
+            ix.delete(Transaction.BOGUS, key(1));
+            assertNull(c.visitValue(copier));
+            assertNull(c.value());
+
+            // Lock is acquired as for the load method.
+            c.find(key(3));
+            Transaction txn = mDb.newTransaction();
+            ix.store(txn, key(3), value(3));
+
+            try {
+                c.visitValue(copier);
+                fail();
+            } catch (LockTimeoutException e) {
+            }
+
+            txn.exit();
+
+            assertTrue(c.value() == Cursor.NOT_LOADED);
+            fastAssertArrayEquals(value(3), c.visitValue(copier));
+        } else {
+            // Default implementation loads the cursor value.
+            c.autoload(false);
+            c.find(key(1));
+            fastAssertArrayEquals(value(1), c.visitValue(copier));
+            fastAssertArrayEquals(value(1), c.value());
+        }
+
+        c.reset();
+    }
+
     @Test
     public void findGeLock() throws Exception {
         View ix = openIndex("test");
@@ -113,6 +113,53 @@ public class DirectPageOpsTest {
         }
     }
 
+    @Test
+    public void compareKeys() throws Exception {
+        final int size = 200;
+        long apage = DirectPageOps.p_calloc(size);
+        long bpage = DirectPageOps.p_calloc(size);
+
+        try {
+            java.util.Random rnd = new java.util.Random(2345);
+
+            for (int trial=0; trial<10_000; trial++) {
+                byte[] a = new byte[rnd.nextInt(40)];
+                rnd.nextBytes(a);
+                byte[] b = a.clone();
+                if (b.length != 0 && rnd.nextBoolean()) {
+                    b[rnd.nextInt(b.length)] = (byte) rnd.nextInt();
+                }
+                if (rnd.nextInt(4) == 0) {
+                    b = java.util.Arrays.copyOf(b, rnd.nextInt(b.length + 1));
+                }
+
+                int aoff = rnd.nextInt(size - a.length);
+                int boff = rnd.nextInt(size - b.length);
+                DirectPageOps.p_copyFromArray(a, 0, apage, aoff, a.length);
+                DirectPageOps.p_copyFromArray(b, 0, bpage, boff, b.length);
+
+                int expect = Integer.signum
+                    (org.cojen.tupl.io.Utils.compareUnsigned(a, 0, a.length, b, 0, b.length));
+
+                assertEquals(expect, Integer.signum(DirectPageOps.p_compareKeysPageToArray
+                                                    (apage, aoff, a.length, b, 0, b.length)));
+                assertEquals(expect, Integer.signum(DirectPageOps.p_compareKeysPageToPage
+                                                    (apage, aoff, a.length,
+                                                     bpage, boff, b.length)));
+
+                int minLen = Math.min(a.length, b.length);
+                int mismatch = 0;
+                while (mismatch < minLen && a[mismatch] == b[mismatch]) {
+                    mismatch++;
+                }
+                assertEquals(mismatch, DirectPageOps.p_mismatch(apage, aoff, b, 0, minLen));
+            }
+        } finally {
+            DirectPageOps.p_delete(apage);
+            DirectPageOps.p_delete(bpage);
+        }
+    }
+
     private void allocAll(Object arena, long[] pages, int size) {
         for (int i=0; i<pages.length; i++) {
             pages[i] = DirectPageOps.p_calloc(arena, size);
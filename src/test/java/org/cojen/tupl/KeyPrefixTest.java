@@ -0,0 +1,278 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import static org.cojen.tupl.TestUtils.*;
+
+/**
+ *
+ *
+ * @author Brian S O'Neill
+ */
+public class KeyPrefixTest {
+    public static void main(String[] args) throws Exception {
+        org.junit.runner.JUnitCore.main(KeyPrefixTest.class.getName());
+    }
+
+    @Before
+    public void createTempDb() throws Exception {
+        mConfig = new DatabaseConfig()
+            .directPageAccess(false)
+            .keyPrefixCompression(true)
+            .checkpointRate(-1, null)
+            .durabilityMode(DurabilityMode.NO_FLUSH);
+        mDb = newTempDatabase(mConfig);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        deleteTempDatabases();
+        mDb = null;
+        mConfig = null;
+    }
+
+    protected DatabaseConfig mConfig;
+    protected Database mDb;
+
+    @Test
+    public void fewerPages() throws Exception {
+        DatabaseConfig plainConfig = mConfig.clone().keyPrefixCompression(false);
+        Database plainDb = newTempDatabase(plainConfig);
+
+        Index ix = mDb.openIndex("test");
+        Index plainIx = plainDb.openIndex("test");
+
+        final int count = 100_000;
+        for (int i=0; i<count; i++) {
+            byte[] key = key("customer/0000123456/order/", i);
+            byte[] value = ("v" + i).getBytes();
+            ix.store(null, key, value);
+            plainIx.store(null, key, value);
+        }
+
+        assertTrue(ix.verify(null));
+
+        long used = usedPages(mDb);
+        long plainUsed = usedPages(plainDb);
+        assertTrue(used + " >= " + plainUsed, used < plainUsed);
+
+        for (int i=0; i<count; i++) {
+            byte[] key = key("customer/0000123456/order/", i);
+            fastAssertArrayEquals(("v" + i).getBytes(), ix.load(null, key));
+        }
+
+        Cursor c = ix.newCursor(null);
+        Cursor pc = plainIx.newCursor(null);
+        for (c.first(), pc.first(); c.key() != null; c.next(), pc.next()) {
+            fastAssertArrayEquals(pc.key(), c.key());
+            fastAssertArrayEquals(pc.value(), c.value());
+        }
+        assertNull(pc.key());
+    }
+
+    @Test
+    public void randomOps() throws Exception {
+        randomOps(false);
+    }
+
+    @Test
+    public void randomOpsLarge() throws Exception {
+        randomOps(true);
+    }
+
+    private void randomOps(boolean large) throws Exception {
+        Index ix = mDb.openIndex("test");
+        TreeMap<byte[], byte[]> expect = new TreeMap<>(KeyComparator.THE);
+
+        Random rnd = new Random(large ? 6502 : 8080);
+        byte[][] prefixes = {
+            "a/common/prefix/".getBytes(),
+            "a/common/prefix/x/".getBytes(),
+            "a/common/prefix/y/".getBytes(),
+            "b/other/".getBytes(),
+        };
+
+        for (int round=0; round<20; round++) {
+            for (int i=0; i<5000; i++) {
+                byte[] key;
+                if (!expect.isEmpty() && rnd.nextInt(3) == 0) {
+                    // Operate on an existing key.
+                    key = expect.ceilingKey(randomKey(rnd, prefixes, large));
+                    if (key == null) {
+                        key = expect.firstKey();
+                    }
+                } else {
+                    key = randomKey(rnd, prefixes, large);
+                }
+
+                if (rnd.nextInt(4) == 0) {
+                    ix.store(null, key, null);
+                    expect.remove(key);
+                } else {
+                    byte[] value = large && rnd.nextInt(20) == 0
+                        ? randomStr(rnd, 1000, 10000) : randomStr(rnd, 0, 40);
+                    ix.store(null, key, value);
+                    expect.put(key, value);
+                }
+            }
+
+            assertTrue(ix.verify(null));
+            verifyContents(ix, expect);
+        }
+
+        // Delete most of the entries, forcing nodes to merge.
+        Iterator<byte[]> it = expect.keySet().iterator();
+        while (it.hasNext()) {
+            byte[] key = it.next();
+            if (rnd.nextInt(10) != 0) {
+                assertTrue(ix.delete(null, key));
+                it.remove();
+            }
+        }
+
+        assertTrue(ix.verify(null));
+        verifyContents(ix, expect);
+    }
+
+    @Test
+    public void rollback() throws Exception {
+        Index ix = mDb.openIndex("test");
+
+        final int count = 10_000;
+        for (int i=0; i<count; i++) {
+            ix.store(null, key("some/shared/prefix/", i), value("v", i));
+        }
+
+        Transaction txn = mDb.newTransaction();
+        for (int i=0; i<count; i++) {
+            byte[] key = key("some/shared/prefix/", i);
+            if ((i & 1) == 0) {
+                ix.delete(txn, key);
+            } else {
+                ix.store(txn, key, value("new", i));
+            }
+        }
+        ix.store(txn, key("some/shared/prefix/", count), "extra".getBytes());
+        txn.reset();
+
+        assertTrue(ix.verify(null));
+        assertEquals(count, ix.count(null, null));
+        for (int i=0; i<count; i++) {
+            fastAssertArrayEquals(value("v", i), ix.load(null, key("some/shared/prefix/", i)));
+        }
+        assertNull(ix.load(null, key("some/shared/prefix/", count)));
+
+        txn = mDb.newTransaction();
+        for (int i=0; i<count; i+=2) {
+            ix.delete(txn, key("some/shared/prefix/", i));
+        }
+        txn.commit();
+
+        assertTrue(ix.verify(null));
+        assertEquals(count / 2, ix.count(null, null));
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        Index ix = mDb.openIndex("test");
+
+        final int count = 10_000;
+        for (int i=0; i<count; i++) {
+            ix.store(null, key("persisted/prefix/", i), ("v" + i).getBytes());
+        }
+
+        mDb.checkpoint();
+
+        // Compressed nodes are readable with the option disabled.
+        mDb = reopenTempDatabase(mDb, mConfig.clone().keyPrefixCompression(false));
+        ix = mDb.openIndex("test");
+
+        assertTrue(ix.verify(null));
+        for (int i=0; i<count; i++) {
+            fastAssertArrayEquals(("v" + i).getBytes(), ix.load(null, key("persisted/prefix/", i)));
+        }
+
+        // Insert keys which don't share the prefix.
+        for (int i=0; i<count; i+=10) {
+            ix.store(null, key("persisted/", i), ("w" + i).getBytes());
+        }
+
+        assertTrue(ix.verify(null));
+        assertEquals(count + count / 10, ix.count(null, null));
+    }
+
+    private static byte[] key(String prefix, int i) {
+        return (prefix + String.format("%08d", i)).getBytes();
+    }
+
+    /**
+     * Returns a small value, or a large fragmented value for every 100th entry.
+     */
+    private static byte[] value(String prefix, int i) {
+        byte[] value = (prefix + i).getBytes();
+        if (i % 100 == 0) {
+            value = Arrays.copyOf(value, 10_000);
+        }
+        return value;
+    }
+
+    private static byte[] randomKey(Random rnd, byte[][] prefixes, boolean large) {
+        byte[] prefix = prefixes[rnd.nextInt(prefixes.length)];
+        if (large && rnd.nextInt(50) == 0) {
+            // Large keys are fragmented.
+            return randomStr(rnd, prefix, 2000, 4000);
+        }
+        return randomStr(rnd, prefix, 0, 12);
+    }
+
+    private static long usedPages(Database db) throws Exception {
+        db.checkpoint();
+        Database.Stats stats = db.stats();
+        return stats.totalPages() - stats.freePages();
+    }
+
+    private static void verifyContents(Index ix, TreeMap<byte[], byte[]> expect)
+        throws Exception
+    {
+        Cursor c = ix.newCursor(null);
+        c.first();
+        for (Map.Entry<byte[], byte[]> e : expect.entrySet()) {
+            assertNotNull(c.key());
+            fastAssertArrayEquals(e.getKey(), c.key());
+            fastAssertArrayEquals(e.getValue(), c.value());
+            c.next();
+        }
+        assertNull(c.key());
+
+        // Reverse scan.
+        c.last();
+        for (byte[] key : expect.descendingKeySet()) {
+            fastAssertArrayEquals(key, c.key());
+            c.previous();
+        }
+        assertNull(c.key());
+
+        for (Map.Entry<byte[], byte[]> e : expect.entrySet()) {
+            fastAssertArrayEquals(e.getValue(), ix.load(null, e.getKey()));
+        }
+    }
+}
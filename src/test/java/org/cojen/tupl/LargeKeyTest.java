@@ -188,6 +188,58 @@ public class LargeKeyTest {
         }
     }
 
+    @Test
+    public void fragmentedCompare() throws Exception {
+        // Keys share long common prefixes, and so comparisons must examine fragments beyond
+        // the first one, including ones referenced by inodes.
+        Database db = newTempDatabase(decorate(new DatabaseConfig().pageSize(512)));
+        Index ix = db.openIndex("test");
+
+        Random rnd = new Random(5150);
+        TreeMap<byte[], byte[]> expect = new TreeMap<>(KeyComparator.THE);
+
+        int[] prefixLengths = {0, 100, 511, 512, 513, 3000, 20000};
+
+        for (int p : prefixLengths) {
+            byte[] prefix = new byte[p];
+            rnd.nextBytes(prefix);
+            for (int i=0; i<50; i++) {
+                byte[] key = Arrays.copyOf(prefix, p + rnd.nextInt(600));
+                for (int j=p; j<key.length; j++) {
+                    key[j] = (byte) rnd.nextInt(4);
+                }
+                byte[] value = ("v" + expect.size()).getBytes();
+                ix.store(null, key, value);
+                expect.put(key, value);
+            }
+        }
+
+        assertTrue(ix.verify(null));
+
+        for (Map.Entry<byte[], byte[]> e : expect.entrySet()) {
+            fastAssertArrayEquals(e.getValue(), ix.load(null, e.getKey()));
+        }
+
+        Cursor c = ix.newCursor(null);
+        for (byte[] key : expect.keySet()) {
+            // Search for keys which aren't stored, differing at the end or being shorter.
+            byte[] search = key.clone();
+            search[search.length - 1] ^= 0x55;
+            c.findGe(search);
+            fastAssertArrayEquals(expect.ceilingKey(search), c.key());
+            c.findLe(search);
+            fastAssertArrayEquals(expect.floorKey(search), c.key());
+
+            search = Arrays.copyOf(key, key.length - 1);
+            c.findGt(search);
+            fastAssertArrayEquals(expect.higherKey(search), c.key());
+
+            c.find(key);
+            assertEquals(0, c.compareKeyTo(key));
+        }
+        c.reset();
+    }
+
     static int hash(byte[] b) {
         int hash = 0;
         for (int i=0; i<b.length; i++) {
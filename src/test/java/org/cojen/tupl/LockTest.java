@@ -16,6 +16,10 @@
 
 package org.cojen.tupl;
 
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.Executors;
@@ -518,6 +522,175 @@ public class LockTest {
         locker.scopeExitAll();
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void recycledLocks() throws Exception {
+        // Acquire and release locks in random order, which recycles Lock instances and
+        // leaves deleted entries in the hashtables.
+        Random rnd = new Random(8123);
+        Locker[] lockers = {new Locker(mManager), new Locker(mManager)};
+        Set<String>[] held = new Set[] {new HashSet<>(), new HashSet<>()};
+
+        for (int round=0; round<50; round++) {
+            for (int i=0; i<2000; i++) {
+                int which = rnd.nextInt(2);
+                String k = "k" + rnd.nextInt(5000);
+                LockResult result = lockers[which].tryLockShared(0, key(k), -1);
+                if (held[which].add(k)) {
+                    assertEquals(ACQUIRED, result);
+                } else {
+                    assertEquals(OWNED_SHARED, result);
+                }
+            }
+
+            for (int which=0; which<2; which++) {
+                for (String k : held[which]) {
+                    byte[] key = key(k);
+                    int hash = LockManager.hash(0, key);
+                    assertEquals(OWNED_SHARED, mManager.check(lockers[which], 0, key, hash));
+                    assertTrue(mManager.isAvailable(lockers[which], 0, key, hash));
+                }
+            }
+
+            int which = rnd.nextInt(2);
+            lockers[which].scopeExitAll();
+            held[which].clear();
+
+            Set<String> all = new HashSet<>(held[0]);
+            all.addAll(held[1]);
+            assertEquals(all.size(), mManager.numLocksHeld());
+
+            for (int i=0; i<100; i++) {
+                String k = "k" + rnd.nextInt(5000);
+                byte[] key = key(k);
+                int hash = LockManager.hash(0, key);
+                if (!all.contains(k)) {
+                    assertEquals(UNOWNED, mManager.check(lockers[which], 0, key, hash));
+                }
+            }
+        }
+
+        lockers[0].scopeExitAll();
+        lockers[1].scopeExitAll();
+        assertEquals(0, mManager.numLocksHeld());
+    }
+
+    @Test
+    public void escalation() throws Exception {
+        LockManager manager = new LockManager(null, -1, 10);
+        Locker locker = new Locker(manager);
+
+        for (int i=0; i<10; i++) {
+            assertEquals(ACQUIRED, locker.tryLockExclusive(1, key("k" + i), -1));
+        }
+
+        // Escalates to an index lock, and no more key locks are acquired.
+        for (int i=10; i<1000; i++) {
+            assertEquals(OWNED_EXCLUSIVE, locker.tryLockUpgradable(1, key("k" + i), -1));
+        }
+        assertEquals(11, manager.numLocksHeld());
+        assertEquals(OWNED_EXCLUSIVE, locker.tryLockShared(1, key("k5000"), -1));
+        assertEquals(OWNED_EXCLUSIVE, locker.lockCheck(1, key("k500")));
+
+        // Other indexes aren't affected.
+        assertEquals(ACQUIRED, locker.tryLockShared(2, key("k0"), -1));
+        assertEquals(12, manager.numLocksHeld());
+
+        Locker locker2 = new Locker(manager);
+        assertEquals(TIMED_OUT_LOCK, locker2.tryLockShared(1, key("k5000"), 0));
+        assertEquals(TIMED_OUT_LOCK, locker2.tryLockExclusive(1, key("k5000"), SHORT_TIMEOUT));
+        assertFalse(manager.isAvailable
+                    (locker2, 1, key("k5000"), LockManager.hash(1, key("k5000"))));
+        assertEquals(UNOWNED, locker2.lockCheck(1, key("k500")));
+        assertEquals(ACQUIRED, locker2.tryLockShared(2, key("k1"), 0));
+
+        locker.scopeExitAll();
+        assertEquals(1, manager.numLocksHeld());
+
+        assertEquals(ACQUIRED, locker2.tryLockShared(1, key("k5000"), 0));
+        locker2.scopeExitAll();
+        assertEquals(0, manager.numLocksHeld());
+
+        // Counts are reset after all locks are released.
+        for (int i=0; i<10; i++) {
+            assertEquals(ACQUIRED, locker.tryLockExclusive(1, key("k" + i), -1));
+        }
+        assertEquals(10, manager.numLocksHeld());
+        locker.scopeExitAll();
+    }
+
+    @Test
+    public void escalationAbandoned() throws Exception {
+        LockManager manager = new LockManager(null, -1, 10);
+        Locker locker = new Locker(manager);
+        Locker locker2 = new Locker(manager);
+
+        // Escalation isn't possible when another locker holds a key lock in the index.
+        assertEquals(ACQUIRED, locker2.tryLockShared(1, key("other"), -1));
+        for (int i=0; i<100; i++) {
+            assertEquals(ACQUIRED, locker.tryLockExclusive(1, key("k" + i), -1));
+        }
+        assertEquals(101, manager.numLocksHeld());
+
+        locker2.scopeExitAll();
+
+        // Attempts failed at 10, 20, 40 and 80 key locks, and so next one is at 160.
+        for (int i=100; i<160; i++) {
+            assertEquals(ACQUIRED, locker.tryLockExclusive(1, key("k" + i), -1));
+        }
+        assertEquals(160, manager.numLocksHeld());
+
+        // Next attempt succeeds.
+        assertEquals(OWNED_EXCLUSIVE, locker.tryLockExclusive(1, key("k160"), -1));
+        assertEquals(161, manager.numLocksHeld());
+
+        // Index lock is released when the nested scope exits.
+        locker.scopeEnter();
+        for (int i=0; i<10; i++) {
+            assertEquals(ACQUIRED, locker.tryLockExclusive(2, key("k" + i), -1));
+        }
+        assertEquals(OWNED_EXCLUSIVE, locker.tryLockExclusive(2, key("k10"), -1));
+        locker.scopeExit();
+        assertEquals(161, manager.numLocksHeld());
+        assertEquals(ACQUIRED, locker2.tryLockExclusive(2, key("k10"), 0));
+
+        locker.scopeExitAll();
+        locker2.scopeExitAll();
+        assertEquals(0, manager.numLocksHeld());
+    }
+
+    @Test
+    public void escalationWait() throws Exception {
+        mExecutor = Executors.newCachedThreadPool();
+
+        LockManager manager = new LockManager(null, -1, 10);
+        Locker locker = new Locker(manager);
+        Locker locker2 = new Locker(manager);
+
+        synchronized (locker) {
+            for (int i=0; i<10; i++) {
+                assertEquals(ACQUIRED, locker.tryLockExclusive(1, key("k" + i), -1));
+            }
+            assertEquals(OWNED_EXCLUSIVE, locker.tryLockExclusive(1, key("k10"), -1));
+        }
+
+        Future<LockResult> future = tryLockExclusive(locker2, 1, key("k20"));
+        sleep(100);
+        assertFalse(future.isDone());
+
+        synchronized (locker) {
+            locker.scopeExitAll();
+        }
+
+        assertEquals(ACQUIRED, future.get());
+        assertEquals(1, manager.numLocksHeld());
+
+        synchronized (locker2) {
+            locker2.scopeExitAll();
+        }
+        assertEquals(0, manager.numLocksHeld());
+    }
+
     @Test
     public void blockedNoWait() throws Exception {
         blocked(0);
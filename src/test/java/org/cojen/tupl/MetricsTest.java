@@ -0,0 +1,210 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import static org.cojen.tupl.TestUtils.*;
+
+/**
+ *
+ *
+ * @author Brian S O'Neill
+ */
+public class MetricsTest {
+    public static void main(String[] args) throws Exception {
+        org.junit.runner.JUnitCore.main(MetricsTest.class.getName());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        deleteTempDatabases();
+    }
+
+    @Test
+    public void treeAndCache() throws Exception {
+        Database db = newTempDatabase(new DatabaseConfig()
+                                      .directPageAccess(false)
+                                      .minCacheSize(200_000)
+                                      .maxCacheSize(200_000)
+                                      .durabilityMode(DurabilityMode.NO_FLUSH));
+
+        Database.Metrics m0 = db.metrics();
+        assertEquals(0, m0.nodeSplits());
+        assertEquals(0, m0.nodeMerges());
+
+        Index ix = db.openIndex("test");
+        final int count = 50_000;
+        for (int i=0; i<count; i++) {
+            ix.store(null, key(i), ("value-" + i).getBytes());
+        }
+
+        Database.Metrics m1 = db.metrics();
+        assertTrue(m1.nodeSplits() > 0);
+        assertTrue(m1.evictions() > 0);
+        assertTrue(m1.redoBytes() > 0);
+
+        for (int i=0; i<count; i++) {
+            ix.load(null, key(i));
+        }
+
+        Database.Metrics m2 = db.metrics();
+        assertTrue(m2.cacheMisses() > m1.cacheMisses());
+        assertTrue(m2.cacheHits() > m1.cacheHits());
+        double ratio = m2.cacheHitRatio();
+        assertTrue(ratio > 0 && ratio < 1);
+
+        for (int i=0; i<count; i++) {
+            ix.delete(null, key(i));
+        }
+
+        Database.Metrics m3 = db.metrics();
+        assertTrue(m3.nodeMerges() > 0);
+
+        db.checkpoint();
+        Database.Metrics m4 = db.metrics();
+        assertEquals(m3.checkpoints() + 1, m4.checkpoints());
+        assertTrue(m4.lastCheckpointNanos() > 0);
+        assertTrue(m4.checkpointNanos() >= m4.lastCheckpointNanos());
+        assertTrue(m4.checkpointPages() > 0);
+    }
+
+    @Test
+    public void commitAndSync() throws Exception {
+        Database db = newTempDatabase(new DatabaseConfig()
+                                      .directPageAccess(false)
+                                      .durabilityMode(DurabilityMode.SYNC));
+
+        Index ix = db.openIndex("test");
+        long start = total(db.metrics().commitLatency());
+
+        for (int i=0; i<100; i++) {
+            Transaction txn = db.newTransaction();
+            ix.store(txn, key(i), key(i));
+            txn.commit();
+        }
+
+        // Transactions which make no changes aren't recorded.
+        for (int i=0; i<100; i++) {
+            Transaction txn = db.newTransaction();
+            ix.load(txn, key(i));
+            txn.commit();
+        }
+
+        Database.Metrics m = db.metrics();
+        assertEquals(start + 100, total(m.commitLatency()));
+        assertTrue(total(m.syncLatency()) > 0);
+
+        long p50 = Database.Metrics.percentile(m.commitLatency(), 50);
+        long p99 = Database.Metrics.percentile(m.commitLatency(), 99);
+        assertTrue(p50 > 0);
+        assertTrue(p99 >= p50);
+        assertEquals(0, Database.Metrics.percentile(new long[10], 99));
+
+        Database.Metrics copy = m.clone();
+        assertNotSame(m.commitLatency(), copy.commitLatency());
+        assertArrayEquals(m.commitLatency(), copy.commitLatency());
+        assertTrue(m.toString().startsWith("Database.Metrics {"));
+    }
+
+    @Test
+    public void locks() throws Exception {
+        Database db = newTempDatabase();
+        Index ix = db.openIndex("test");
+
+        Transaction txn1 = db.newTransaction();
+        Transaction txn2 = db.newTransaction();
+        ix.lockExclusive(txn1, key(1));
+        ix.lockExclusive(txn2, key(2));
+
+        Thread t = new Thread(() -> {
+            try {
+                txn1.lockTimeout(10, TimeUnit.SECONDS);
+                ix.lockExclusive(txn1, key(2));
+            } catch (Exception e) {
+                throw Utils.rethrow(e);
+            }
+        });
+        t.start();
+
+        while (t.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+
+        txn2.lockTimeout(100, TimeUnit.MILLISECONDS);
+        try {
+            ix.lockExclusive(txn2, key(1));
+            fail();
+        } catch (DeadlockException e) {
+        }
+
+        txn2.reset();
+        t.join();
+        txn1.reset();
+
+        Database.Metrics m = db.metrics();
+        assertEquals(1, m.deadlocks());
+        // Each blocked lock request is recorded once, however many times it wakes up.
+        assertEquals(2, m.lockWaits());
+        assertTrue(m.lockWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void mbean() throws Exception {
+        DatabaseConfig config = new DatabaseConfig()
+            .directPageAccess(false)
+            .durabilityMode(DurabilityMode.NO_FLUSH)
+            .metricsMBean(true);
+        Database db = newTempDatabase(config);
+
+        Index ix = db.openIndex("test");
+        for (int i=0; i<10_000; i++) {
+            ix.store(null, key(i), key(i));
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.cojen.tupl:type=Database,name=*");
+        assertEquals(1, server.queryNames(name, null).size());
+        name = server.queryNames(name, null).iterator().next();
+
+        assertEquals(db.metrics().nodeSplits(), server.getAttribute(name, "NodeSplits"));
+        assertEquals(db.stats().lockCount(), server.getAttribute(name, "LockCount"));
+
+        db.close();
+        assertEquals(0, server.queryNames(name, null).size());
+    }
+
+    private static byte[] key(int i) {
+        return String.format("key-%08d", i).getBytes();
+    }
+
+    private static long total(long[] histogram) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        return total;
+    }
+}
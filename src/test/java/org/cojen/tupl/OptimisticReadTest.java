@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.util.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import org.cojen.tupl.util.Latch;
+
+import static org.cojen.tupl.TestUtils.*;
+
+/**
+ *
+ *
+ * @author Brian S O'Neill
+ */
+public class OptimisticReadTest {
+    public static void main(String[] args) throws Exception {
+        org.junit.runner.JUnitCore.main(OptimisticReadTest.class.getName());
+    }
+
+    @Before
+    public void createTempDb() throws Exception {
+        mConfig = new DatabaseConfig()
+            .directPageAccess(false)
+            .checkpointRate(-1, null)
+            .durabilityMode(DurabilityMode.NO_FLUSH);
+        mDb = newTempDatabase(mConfig);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        deleteTempDatabases();
+        mDb = null;
+        mConfig = null;
+    }
+
+    protected DatabaseConfig mConfig;
+    protected Database mDb;
+
+    @Test
+    public void latchStamps() {
+        Latch latch = new Latch();
+
+        long stamp = latch.tryOptimisticRead();
+        assertTrue(stamp >= 0);
+        assertTrue(latch.validate(stamp));
+
+        latch.acquireShared();
+        assertEquals(stamp, latch.tryOptimisticRead());
+        assertTrue(latch.validate(stamp));
+        latch.releaseShared();
+        assertTrue(latch.validate(stamp));
+
+        latch.acquireExclusive();
+        assertTrue(latch.tryOptimisticRead() < 0);
+        assertFalse(latch.validate(stamp));
+        latch.releaseExclusive();
+        assertFalse(latch.validate(stamp));
+
+        stamp = latch.tryOptimisticRead();
+        assertTrue(latch.validate(stamp));
+        latch.acquireExclusive();
+        latch.downgrade();
+        assertFalse(latch.validate(stamp));
+        latch.releaseShared();
+    }
+
+    @Test
+    public void concurrentLoads() throws Exception {
+        final Index ix = mDb.openIndex("test");
+        final int count = 100_000;
+
+        for (int i=0; i<count; i++) {
+            ix.store(null, key(i), value(i, 0));
+        }
+
+        // Writer repeatedly deletes and re-inserts ranges of even keys, causing nodes to be
+        // split and merged while readers descend. Odd keys are never deleted, and so a
+        // descent which lands on the wrong leaf won't find them.
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                Random rnd = new Random(1234);
+                for (int round=1; round<=20; round++) {
+                    int start = rnd.nextInt(count - 20_000) & ~1;
+                    for (int i=start; i<start + 20_000; i+=2) {
+                        ix.delete(null, key(i));
+                    }
+                    for (int i=start; i<start + 20_000; i+=2) {
+                        ix.store(null, key(i), value(i, round));
+                    }
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+
+        writer.start();
+
+        Random rnd = new Random(5678);
+        while (writer.isAlive()) {
+            int i = rnd.nextInt(count) | 1;
+            fastAssertArrayEquals(value(i, 0), ix.load(null, key(i)));
+            assertNull(ix.load(null, key(count + i)));
+        }
+
+        writer.join();
+        assertNull(failure.get());
+
+        assertTrue(ix.verify(null));
+        for (int i=0; i<count; i++) {
+            assertNotNull(ix.load(null, key(i)));
+        }
+    }
+
+    @Test
+    public void evictions() throws Throwable {
+        teardown();
+        mConfig = new DatabaseConfig()
+            .directPageAccess(false)
+            .minCacheSize(1_000_000)
+            .maxCacheSize(1_000_000)
+            .checkpointRate(-1, null)
+            .durabilityMode(DurabilityMode.NO_FLUSH);
+        mDb = newTempDatabase(mConfig);
+
+        final Index ix = mDb.openIndex("test");
+        final int count = 100_000;
+
+        for (int i=0; i<count; i++) {
+            ix.store(null, key(i), value(i, 0));
+        }
+
+        // Readers compete for a small cache, and so nodes are evicted while others descend.
+        runConcurrently(4, id -> {
+            Random rnd = new Random(id);
+            for (int n=0; n<50_000; n++) {
+                int i = rnd.nextInt(count);
+                fastAssertArrayEquals(value(i, 0), ix.load(null, key(i)));
+            }
+        });
+    }
+
+    private static byte[] key(int i) {
+        return String.format("key-%08d", i).getBytes();
+    }
+
+    private static byte[] value(int i, int round) {
+        return ("v" + i + "/" + round).getBytes();
+    }
+}
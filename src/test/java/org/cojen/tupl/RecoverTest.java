@@ -16,7 +16,14 @@
 
 package org.cojen.tupl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -174,6 +181,244 @@ public class RecoverTest {
         assertEquals(null, ix.load(null, key));
     }
 
+    @Test
+    public void groupCommit() throws Exception {
+        DatabaseConfig config = mConfig.clone()
+            .durabilityMode(DurabilityMode.SYNC)
+            .groupCommitDelay(1, TimeUnit.MILLISECONDS);
+        mDb = reopenTempDatabase(mDb, config);
+
+        final Index ix = mDb.openIndex("test");
+        final int count = 1000;
+
+        Thread[] threads = new Thread[8];
+        final Throwable[] failure = new Throwable[1];
+
+        for (int t=0; t<threads.length; t++) {
+            final int start = t * count;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i=start; i<start+count; i++) {
+                        byte[] key = ("key-" + i).getBytes();
+                        Transaction txn = mDb.newTransaction();
+                        ix.store(txn, key, key);
+                        txn.commit();
+                    }
+                } catch (Throwable e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new AssertionError(failure[0]);
+            }
+        }
+
+        mDb = reopenTempDatabase(mDb, config);
+        Index ix2 = mDb.openIndex("test");
+
+        for (int i=0; i<threads.length * count; i++) {
+            byte[] key = ("key-" + i).getBytes();
+            assertArrayEquals(key, ix2.load(null, key));
+        }
+    }
+
+    @Test
+    public void parallelCheckpoint() throws Exception {
+        final long[] pages = new long[1];
+
+        DatabaseConfig config = mConfig.clone()
+            .maxCheckpointThreads(4)
+            .eventListener((type, message, args) -> {
+                if (type == EventType.CHECKPOINT_COMPLETE) {
+                    synchronized (pages) {
+                        pages[0] = (Long) args[2];
+                    }
+                }
+            });
+        mDb = reopenTempDatabase(mDb, config);
+
+        Index ix = mDb.openIndex("test");
+        final int count = 100_000;
+        Random rnd = new Random(5483);
+
+        for (int i=0; i<count; i++) {
+            byte[] key = ("key-" + rnd.nextInt()).getBytes();
+            ix.store(Transaction.BOGUS, key, key);
+        }
+
+        mDb.checkpoint();
+
+        synchronized (pages) {
+            assertTrue(pages[0] > 100);
+        }
+
+        mDb = reopenTempDatabase(mDb, config, true);
+        ix = mDb.openIndex("test");
+
+        rnd = new Random(5483);
+        for (int i=0; i<count; i++) {
+            byte[] key = ("key-" + rnd.nextInt()).getBytes();
+            assertArrayEquals(key, ix.load(null, key));
+        }
+
+        assertTrue(ix.verify(null));
+    }
+
+    @Test
+    public void parallelRecovery() throws Exception {
+        Index ix1 = mDb.openIndex("test1");
+        Index ix2 = mDb.openIndex("test2");
+        TreeMap<byte[], byte[]> expect1 = new TreeMap<>(KeyComparator.THE);
+        TreeMap<byte[], byte[]> expect2 = new TreeMap<>(KeyComparator.THE);
+
+        Random rnd = new Random(9153);
+
+        for (int i=0; i<100_000; i++) {
+            byte[] key = ("key-" + rnd.nextInt(20_000)).getBytes();
+            byte[] value = rnd.nextInt(5) == 0 ? null : ("value-" + i).getBytes();
+
+            switch (rnd.nextInt(4)) {
+            default:
+                // Auto-commit stores are applied by the recovery workers.
+                ix1.store(null, key, value);
+                put(expect1, key, value);
+                break;
+            case 1:
+                ix2.store(null, key, value);
+                put(expect2, key, value);
+                break;
+            case 2: {
+                // Transactional changes are interleaved with auto-commit stores against
+                // the same keys.
+                Transaction txn = mDb.newTransaction();
+                ix1.store(txn, key, value);
+                ix2.store(txn, key, value);
+                if (rnd.nextBoolean()) {
+                    txn.commit();
+                    put(expect1, key, value);
+                    put(expect2, key, value);
+                } else {
+                    txn.exit();
+                }
+                break;
+            }
+            }
+        }
+
+        mDb = reopenTempDatabase(mDb, mConfig.clone().maxRecoveryThreads(4));
+        ix1 = mDb.openIndex("test1");
+        ix2 = mDb.openIndex("test2");
+
+        assertTrue(ix1.verify(null));
+        assertTrue(ix2.verify(null));
+        verifyContents(ix1, expect1);
+        verifyContents(ix2, expect2);
+    }
+
+    private static void put(TreeMap<byte[], byte[]> map, byte[] key, byte[] value) {
+        if (value == null) {
+            map.remove(key);
+        } else {
+            map.put(key, value);
+        }
+    }
+
+    private static void verifyContents(Index ix, TreeMap<byte[], byte[]> expect)
+        throws Exception
+    {
+        assertEquals(expect.size(), ix.count(null, null));
+        for (Map.Entry<byte[], byte[]> e : expect.entrySet()) {
+            fastAssertArrayEquals(e.getValue(), ix.load(null, e.getKey()));
+        }
+    }
+
+    @Test
+    public void groupCommitFailure() throws Exception {
+        // Redo log stream which can be armed to fail a single write.
+        final boolean[] fail = new boolean[1];
+
+        Crypto crypto = new Crypto() {
+            public void encryptPage(long pageIndex, int pageSize,
+                                    byte[] src, int srcOffset, byte[] dst, int dstOffset)
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            public void decryptPage(long pageIndex, int pageSize,
+                                    byte[] src, int srcOffset, byte[] dst, int dstOffset)
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            public OutputStream newEncryptingStream(long id, OutputStream out) {
+                return new FilterOutputStream(out) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        synchronized (fail) {
+                            if (fail[0]) {
+                                fail[0] = false;
+                                throw new IOException("Test failure");
+                            }
+                        }
+                        out.write(b, off, len);
+                    }
+                };
+            }
+
+            public InputStream newDecryptingStream(long id, InputStream in) {
+                return in;
+            }
+        };
+
+        RedoLog redo = new RedoLog(crypto, newTempBaseFile(), null, 0, 0, false, 0, null);
+
+        try {
+            synchronized (fail) {
+                fail[0] = true;
+            }
+
+            long pos = redo.store
+                (1, "key-1".getBytes(), "value-1".getBytes(), DurabilityMode.SYNC);
+            assertTrue(pos != 0);
+            try {
+                redo.txnCommitSync(null, pos);
+                fail();
+            } catch (WriteFailureException e) {
+            }
+
+            // Next commit must be attempted again, and it must not hang.
+            final long pos2 = redo.store
+                (1, "key-2".getBytes(), "value-2".getBytes(), DurabilityMode.SYNC);
+            assertTrue(pos2 > pos);
+
+            final Throwable[] failure = new Throwable[1];
+            Thread t = new Thread(() -> {
+                try {
+                    redo.txnCommitSync(null, pos2);
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            t.start();
+            t.join(60_000);
+
+            assertFalse("Commit hung", t.isAlive());
+            assertNull(failure[0]);
+        } finally {
+            redo.close();
+        }
+    }
+
     @Test
     public void scopeRollback1() throws Exception {
         scopeRollback(0, false);
@@ -669,6 +914,99 @@ public class RecoverTest {
         assertFalse(primer.exists());
     }
 
+    @Test
+    public void cachePrimingByPage() throws Exception {
+        fillPrimingIndex();
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        mDb.createCachePrimer(bout);
+
+        mDb = reopenTempDatabase(mDb, mConfig.clone().cachePrimingQueueDepth(4));
+
+        mDb.applyCachePrimer(new ByteArrayInputStream(bout.toByteArray()));
+
+        verifyPrimingIndex(mDb.openIndex("test"), 200_000);
+    }
+
+    @Test
+    public void cachePrimingMoved() throws Exception {
+        Index ix = fillPrimingIndex();
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        mDb.createCachePrimer(bout);
+
+        // Move pages around by rewriting every entry. Values have the same length, and so
+        // the tree shape doesn't change, but copy-on-write assigns new page ids.
+        for (int i=0; i<200_000; i++) {
+            ix.store(null, ("key-" + i).getBytes(), ("w-" + i).getBytes());
+        }
+        mDb.checkpoint();
+
+        // Page ids of the original primer refer to the old tree structure.
+        ByteArrayOutputStream moved = new ByteArrayOutputStream();
+        mDb.createCachePrimer(moved);
+        assertFalse(Arrays.equals(bout.toByteArray(), moved.toByteArray()));
+
+        mDb = reopenTempDatabase(mDb, mConfig);
+
+        // Falls back to priming by key, which still loads every leaf.
+        mDb.applyCachePrimer(new ByteArrayInputStream(bout.toByteArray()));
+
+        verifyPrimingIndex(mDb.openIndex("test"), 200_000);
+    }
+
+    @Test
+    public void cachePrimingKeysOnly() throws Exception {
+        fillPrimingIndex();
+        mDb = reopenTempDatabase(mDb, mConfig);
+
+        // Original format, which only encodes keys.
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(bout);
+        dout.writeLong(4943712973215968399L);
+        byte[] name = "test".getBytes();
+        dout.writeInt(name.length);
+        dout.write(name);
+        for (int i=0; i<200_000; i+=50) {
+            byte[] key = ("key-" + i).getBytes();
+            dout.writeShort(key.length);
+            dout.write(key);
+        }
+        dout.writeShort(0xffff);
+        dout.writeInt(-1);
+
+        mDb.applyCachePrimer(new ByteArrayInputStream(bout.toByteArray()));
+
+        verifyPrimingIndex(mDb.openIndex("test"), 200_000);
+    }
+
+    private Index fillPrimingIndex() throws Exception {
+        mConfig.minCacheSize(20_000_000);
+        mDb = reopenTempDatabase(mDb, mConfig);
+
+        Index ix = mDb.openIndex("test");
+        for (int i=0; i<200_000; i++) {
+            ix.store(null, ("key-" + i).getBytes(), ("v-" + i).getBytes());
+        }
+        mDb.checkpoint();
+        return ix;
+    }
+
+    private void verifyPrimingIndex(Index ix, int count) throws Exception {
+        // All nodes were loaded by the primer, and so scanning doesn't read any pages.
+        long misses = mDb.metrics().cacheMisses();
+        Cursor c = ix.newCursor(Transaction.BOGUS);
+        c.autoload(false);
+        int actual = 0;
+        for (c.first(); c.key() != null; c.next()) {
+            actual++;
+        }
+        assertEquals(misses, mDb.metrics().cacheMisses());
+        assertEquals(count, actual);
+
+        assertTrue(ix.verify(null));
+    }
+
     @Test
     public void trashDelete() throws Exception {
         Index ix = mDb.openIndex("trash");
@@ -0,0 +1,180 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import static org.cojen.tupl.TestUtils.*;
+
+/**
+ *
+ *
+ * @author Brian S O'Neill
+ */
+public class SearchHeadsTest {
+    public static void main(String[] args) throws Exception {
+        org.junit.runner.JUnitCore.main(SearchHeadsTest.class.getName());
+    }
+
+    @Before
+    public void createTempDb() throws Exception {
+        mConfig = new DatabaseConfig()
+            .directPageAccess(false)
+            .pageSize(16384)
+            .searchHeads(true)
+            .checkpointRate(-1, null)
+            .durabilityMode(DurabilityMode.NO_FLUSH);
+        mDb = newTempDatabase(mConfig);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        deleteTempDatabases();
+        mDb = null;
+        mConfig = null;
+    }
+
+    protected DatabaseConfig mConfig;
+    protected Database mDb;
+
+    @Test
+    public void keyHead() {
+        assertEquals(0, Node.keyHead(new byte[0]));
+        assertEquals(0x61000000, Node.keyHead("a".getBytes()));
+        assertEquals(0x61626300, Node.keyHead("abc".getBytes()));
+        assertEquals(0x61626364, Node.keyHead("abcdef".getBytes()));
+        assertEquals(0xff000000, Node.keyHead(new byte[] {-1}));
+    }
+
+    @Test
+    public void randomOps() throws Exception {
+        Index ix = mDb.openIndex("test");
+        TreeMap<byte[], byte[]> expect = new TreeMap<>(KeyComparator.THE);
+        Random rnd = new Random(1066);
+
+        for (int round=0; round<20; round++) {
+            for (int i=0; i<2000; i++) {
+                // Short keys, including ones which are padded with zeros.
+                byte[] key = randomStr(rnd, 0, 6);
+                if (rnd.nextInt(4) == 0) {
+                    ix.store(null, key, null);
+                    expect.remove(key);
+                } else {
+                    byte[] value = randomStr(rnd, 0, 20);
+                    ix.store(null, key, value);
+                    expect.put(key, value);
+                }
+            }
+
+            // Repeated lookups build the heads.
+            for (int i=0; i<3; i++) {
+                for (Map.Entry<byte[], byte[]> e : expect.entrySet()) {
+                    fastAssertArrayEquals(e.getValue(), ix.load(null, e.getKey()));
+                }
+                for (int j=0; j<1000; j++) {
+                    byte[] key = randomStr(rnd, 0, 6);
+                    byte[] value = ix.load(null, key);
+                    if (value == null) {
+                        assertNull(expect.get(key));
+                    } else {
+                        fastAssertArrayEquals(expect.get(key), value);
+                    }
+                }
+            }
+
+            assertTrue(ix.verify(null));
+        }
+    }
+
+    @Test
+    public void staleHeads() throws Exception {
+        Index ix = mDb.openIndex("test");
+
+        final int count = 500;
+        for (int i=0; i<count; i++) {
+            ix.store(null, key(i * 2), value(i * 2));
+        }
+
+        for (int round=0; round<10; round++) {
+            for (int i=0; i<count * 2; i++) {
+                ix.load(null, key(i));
+            }
+
+            // Replace keys such that the count doesn't change.
+            for (int i=0; i<count; i++) {
+                if ((i & 1) == round % 2) {
+                    int k = i * 2;
+                    assertTrue(ix.delete(null, key(k)));
+                    ix.store(null, key(k + 1), value(k + 1));
+                } else {
+                    int k = i * 2 + 1;
+                    if (ix.delete(null, key(k))) {
+                        ix.store(null, key(k - 1), value(k - 1));
+                    }
+                }
+            }
+
+            int found = 0;
+            for (int i=0; i<count * 2; i++) {
+                byte[] value = ix.load(null, key(i));
+                if (value != null) {
+                    fastAssertArrayEquals(value(i), value);
+                    found++;
+                }
+            }
+            assertEquals(count, found);
+            assertEquals(count, ix.count(null, null));
+        }
+
+        assertTrue(ix.verify(null));
+    }
+
+    @Test
+    public void fragmentedKeys() throws Exception {
+        Index ix = mDb.openIndex("test");
+        Random rnd = new Random(9001);
+        TreeMap<byte[], byte[]> expect = new TreeMap<>(KeyComparator.THE);
+
+        for (int i=0; i<1000; i++) {
+            byte[] key = i % 100 == 0 ? randomStr(rnd, 5000, 10000) : randomStr(rnd, 1, 20);
+            ix.store(null, key, key);
+            expect.put(key, key);
+        }
+
+        for (int i=0; i<3; i++) {
+            for (byte[] key : expect.keySet()) {
+                fastAssertArrayEquals(key, ix.load(null, key));
+            }
+        }
+
+        assertTrue(ix.verify(null));
+    }
+
+    private static byte[] key(int i) {
+        byte[] key = new byte[8];
+        Utils.encodeIntBE(key, 0, i * 0x9e3779b9);
+        Utils.encodeIntBE(key, 4, i);
+        return key;
+    }
+
+    private static byte[] value(int i) {
+        return ("value-" + i).getBytes();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import static org.cojen.tupl.TestUtils.*;
+
+/**
+ * Tests that database still functions after cache exhaustion, using the CLOCK eviction
+ * policy.
+ *
+ * @author Brian S O'Neill
+ */
+public class SmallCacheClockTest extends SmallCacheTest {
+    public static void main(String[] args) throws Exception {
+        org.junit.runner.JUnitCore.main(SmallCacheClockTest.class.getName());
+    }
+
+    @Before
+    @Override
+    public void createTempDb() throws Exception {
+        mDb = newTempDatabase(config(100000));
+    }
+
+    @Override
+    protected DatabaseConfig config(long cacheSize) {
+        return super.config(cacheSize).evictionPolicy(EvictionPolicy.CLOCK);
+    }
+
+    @Test
+    public void scanWithLookups() throws Exception {
+        Database db = newTempDatabase(config(1_000_000));
+        Index ix = db.openIndex("test");
+
+        final int count = 200_000;
+        for (int i=0; i<count; i++) {
+            ix.store(null, key(i), ("value-" + i).getBytes());
+        }
+        db.checkpoint();
+
+        // Remember the leaf node of the hot set, and the internal nodes above it.
+        TreeCursor tc = (TreeCursor) ix.newCursor(Transaction.BOGUS);
+        tc.find(key(0));
+        CursorFrame frame = tc.leafSharedNotSplit();
+        long hotId = frame.mNode.mId;
+        frame.mNode.releaseShared();
+        List<Long> internalIds = new ArrayList<>();
+        for (frame = frame.mParentFrame; frame != null; frame = frame.mParentFrame) {
+            if (frame.mParentFrame != null) {
+                // Exclude the root, which is never evicted.
+                internalIds.add(frame.mNode.mId);
+            }
+        }
+        tc.reset();
+
+        assertFalse(internalIds.isEmpty());
+
+        Random rnd = new Random(1234);
+
+        Cursor c = ix.newCursor(null);
+        int i = 0;
+        for (c.first(); c.key() != null; c.next(), i++) {
+            fastAssertArrayEquals(key(i), c.key());
+            if ((i & 15) == 0) {
+                // Lookups against a small hot set.
+                int k = rnd.nextInt(100);
+                fastAssertArrayEquals(("value-" + k).getBytes(), ix.load(null, key(k)));
+            }
+        }
+        assertEquals(count, i);
+
+        // The scan touched most nodes only once, and so it didn't push out the nodes used
+        // by the lookups.
+        assertTrue(isCached(db, hotId));
+        for (long id : internalIds) {
+            assertTrue(isCached(db, id));
+        }
+
+        assertTrue(ix.verify(null));
+    }
+
+    @Test
+    public void concurrentLoads() throws Throwable {
+        Database db = newTempDatabase(config(1_000_000));
+        Index ix = db.openIndex("test");
+
+        final int count = 100_000;
+        for (int i=0; i<count; i++) {
+            ix.store(null, key(i), ("value-" + i).getBytes());
+        }
+
+        runConcurrently(4, id -> {
+            Random rnd = new Random(id);
+            for (int j=0; j<100_000; j++) {
+                int k = rnd.nextInt(count);
+                fastAssertArrayEquals(("value-" + k).getBytes(), ix.load(null, key(k)));
+            }
+        });
+    }
+
+    private static byte[] key(int i) {
+        return String.format("key-%08d", i).getBytes();
+    }
+}
@@ -205,6 +205,56 @@ public class SmallCacheTest {
         c2.store(new byte[3000]); // big value forces a split
     }
 
+    @Test
+    public void scanResistant() throws Exception {
+        Database db = newTempDatabase(config(1_000_000));
+        Index ix = db.openIndex("test");
+
+        final int count = 200_000;
+        for (int i=0; i<count; i++) {
+            ix.store(null, String.format("key-%08d", i).getBytes(), new byte[50]);
+        }
+        db.checkpoint();
+
+        // Remember a frequently used leaf node.
+        byte[] hotKey = String.format("key-%08d", count / 2).getBytes();
+        TreeCursor c = (TreeCursor) ix.newCursor(Transaction.BOGUS);
+        c.find(hotKey);
+        CursorFrame frame = c.leafSharedNotSplit();
+        long hotId = frame.mNode.mId;
+        frame.mNode.releaseShared();
+        c.reset();
+
+        c = (TreeCursor) ix.newCursor(Transaction.BOGUS);
+        assertFalse(c.scanResistant(true));
+        assertTrue(c.scanResistant());
+        int i = 0;
+        for (c.first(); c.key() != null; c.next()) {
+            i++;
+        }
+        assertEquals(count, i);
+
+        assertTrue(isCached(db, hotId));
+
+        // Regular scan pushes the node out of the cache.
+        c = (TreeCursor) ix.newCursor(Transaction.BOGUS);
+        for (c.first(); c.key() != null; c.next());
+
+        assertFalse(isCached(db, hotId));
+    }
+
+    protected DatabaseConfig config(long cacheSize) {
+        return new DatabaseConfig()
+            .minCacheSize(cacheSize)
+            .durabilityMode(DurabilityMode.NO_FLUSH)
+            .directPageAccess(false);
+    }
+
+    static boolean isCached(Database db, long nodeId) {
+        Node node = ((LocalDatabase) db).nodeMapGet(nodeId);
+        return node != null && node.mId == nodeId;
+    }
+
     private List<Index> fillCacheWithIndexes() throws Exception {
         List<Index> indexes = new ArrayList<Index>();
         try {
@@ -40,4 +40,12 @@ public class SnapshotMappedTest extends SnapshotTest {
             super.snapshot();
         }
     }
+
+    @Test
+    @Override
+    public void snapshotParallel() throws Exception {
+        if (TestUtils.is64bit()) {
+            super.snapshotParallel();
+        }
+    }
 }
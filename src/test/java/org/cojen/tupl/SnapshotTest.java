@@ -114,17 +114,308 @@ public class SnapshotTest {
     public void snapshot() throws Exception {
         File base = newTempBaseFile();
         File snapshotBase = newTempBaseFile();
-        snapshot(base, snapshotBase);
+        snapshot(base, snapshotBase, 1);
         deleteTempDatabases();
     }
 
-    private void snapshot(File base, File snapshotBase) throws Exception {
+    @Test
+    public void snapshotParallel() throws Exception {
+        File base = newTempBaseFile();
+        File snapshotBase = newTempBaseFile();
+        snapshot(base, snapshotBase, 4);
+        deleteTempDatabases();
+    }
+
+    @Test
+    public void incremental() throws Exception {
+        DatabaseConfig config = new DatabaseConfig()
+            .directPageAccess(false)
+            .baseFile(newTempBaseFile())
+            .incrementalSnapshots(true)
+            .checkpointRate(-1, null)
+            .durabilityMode(DurabilityMode.NO_FLUSH);
+        decorate(config);
+
+        Database db = Database.open(config);
+        Index ix = db.openIndex("test");
+
+        TreeMap<byte[], byte[]> expect = new TreeMap<>(KeyComparator.THE);
+        Random rnd = new Random(2600);
+
+        for (int i=0; i<100_000; i++) {
+            byte[] key = incrementalKey(i);
+            byte[] value = ("value-" + i).getBytes();
+            ix.store(null, key, value);
+            expect.put(key, value);
+        }
+        db.checkpoint();
+
+        Snapshot s = db.beginSnapshot();
+        byte[] full = writeSnapshot(s);
+        long baseline = s.checkpointNumber();
+
+        List<byte[]> increments = new ArrayList<>();
+
+        for (int round=0; round<4; round++) {
+            for (int i=0; i<1000; i++) {
+                // Modify a small range of keys, touching only a few pages.
+                byte[] key = incrementalKey(round * 20_000 + rnd.nextInt(2000));
+                if (rnd.nextInt(4) == 0) {
+                    ix.delete(null, key);
+                    expect.remove(key);
+                } else {
+                    byte[] value = ("round-" + round + "-" + i).getBytes();
+                    ix.store(null, key, value);
+                    expect.put(key, value);
+                }
+            }
+            db.checkpoint();
+
+            if (round == 1) {
+                // Change tracking resumes after reopening.
+                db.close();
+                db = Database.open(config);
+                ix = db.openIndex("test");
+            }
+
+            s = db.beginIncrementalSnapshot(baseline);
+            byte[] increment = writeSnapshot(s);
+            assertTrue(increment.length < full.length / 4);
+            increments.add(increment);
+            baseline = s.checkpointNumber();
+        }
+
+        // Nothing changed since the last incremental snapshot.
+        s = db.beginIncrementalSnapshot(baseline);
+        increments.add(writeSnapshot(s));
+
+        // Beginning a full snapshot discards older history.
+        long oldBaseline = baseline;
+        ix.store(null, "extra".getBytes(), "value".getBytes());
+        db.checkpoint();
+        db.beginSnapshot().close();
+        try {
+            db.beginIncrementalSnapshot(oldBaseline);
+            fail();
+        } catch (DatabaseException e) {
+        }
+
+        db.close();
+
+        DatabaseConfig restoredConfig = new DatabaseConfig()
+            .directPageAccess(false)
+            .baseFile(newTempBaseFile())
+            .durabilityMode(DurabilityMode.NO_FLUSH);
+        decorate(restoredConfig);
+
+        InputStream[] ins = new InputStream[increments.size()];
+        for (int i=0; i<ins.length; i++) {
+            ins[i] = new ByteArrayInputStream(increments.get(i));
+        }
+
+        Database restored = Database.restoreFromSnapshot
+            (restoredConfig, new ByteArrayInputStream(full), ins);
+        Index restoredIx = restored.openIndex("test");
+        assertTrue(restoredIx.verify(null));
+
+        Cursor c = restoredIx.newCursor(null);
+        c.first();
+        for (Map.Entry<byte[], byte[]> e : expect.entrySet()) {
+            fastAssertArrayEquals(e.getKey(), c.key());
+            fastAssertArrayEquals(e.getValue(), c.value());
+            c.next();
+        }
+        assertNull(c.key());
+        restored.close();
+
+        // Increments must be applied in order.
+        DatabaseConfig badConfig = restoredConfig.clone().baseFile(newTempBaseFile());
+        try {
+            Database.restoreFromSnapshot
+                (badConfig, new ByteArrayInputStream(full),
+                 new ByteArrayInputStream(increments.get(1)));
+            fail();
+        } catch (DatabaseException e) {
+        }
+
+        deleteTempDatabases();
+    }
+
+    @Test
+    public void sparse() throws Exception {
+        sparse(false);
+    }
+
+    @Test
+    public void sparseCompressed() throws Exception {
+        sparse(true);
+    }
+
+    private void sparse(boolean compress) throws Exception {
+        DatabaseConfig config = new DatabaseConfig()
+            .directPageAccess(false)
+            .baseFile(newTempBaseFile())
+            .sparseSnapshots(true)
+            .snapshotCompression(compress)
+            .checkpointRate(-1, null)
+            .durabilityMode(DurabilityMode.NO_FLUSH);
+        decorate(config);
+
+        Database db = Database.open(config);
+        Index ix = db.openIndex("test");
+
+        TreeMap<byte[], byte[]> expect = new TreeMap<>(KeyComparator.THE);
+
+        for (int i=0; i<100_000; i++) {
+            byte[] key = incrementalKey(i);
+            byte[] value = ("value-" + i).getBytes();
+            ix.store(null, key, value);
+            expect.put(key, value);
+        }
+        db.checkpoint();
+
+        // Delete most entries, and checkpoint twice to make the pages allocatable.
+        for (int i=0; i<100_000; i++) {
+            if (i % 10 != 0) {
+                byte[] key = incrementalKey(i);
+                ix.delete(null, key);
+                expect.remove(key);
+            }
+        }
+        db.checkpoint();
+        db.checkpoint();
+
+        Database.Stats stats = db.stats();
+        long fullLength = stats.totalPages() * stats.pageSize();
+
+        Snapshot s = db.beginSnapshot();
+
+        // Re-use free pages while the snapshot is in progress.
+        for (int i=0; i<100_000; i++) {
+            if (i % 10 != 0) {
+                ix.store(null, incrementalKey(i), ("new-" + i).getBytes());
+            }
+        }
+        db.checkpoint();
+
+        byte[] snapshot;
+        if (compress) {
+            long upperBound = s.length();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            s.writeTo(out);
+            snapshot = out.toByteArray();
+            assertTrue(snapshot.length < upperBound);
+            assertTrue(snapshot.length < fullLength / 4);
+        } else {
+            snapshot = writeSnapshot(s);
+            assertTrue(snapshot.length < fullLength / 2);
+        }
+
+        db.close();
+
+        DatabaseConfig restoredConfig = new DatabaseConfig()
+            .directPageAccess(false)
+            .baseFile(newTempBaseFile())
+            .durabilityMode(DurabilityMode.NO_FLUSH);
+        decorate(restoredConfig);
+
+        Database restored = Database.restoreFromSnapshot
+            (restoredConfig, new ByteArrayInputStream(snapshot));
+        assertEquals(stats.totalPages(), restored.stats().totalPages());
+        Index restoredIx = restored.openIndex("test");
+        assertTrue(restoredIx.verify(null));
+
+        Cursor c = restoredIx.newCursor(null);
+        c.first();
+        for (Map.Entry<byte[], byte[]> e : expect.entrySet()) {
+            fastAssertArrayEquals(e.getKey(), c.key());
+            fastAssertArrayEquals(e.getValue(), c.value());
+            c.next();
+        }
+        assertNull(c.key());
+
+        // Free pages of the restored database are still usable.
+        for (int i=0; i<100_000; i++) {
+            restoredIx.store(null, incrementalKey(i), ("restored-" + i).getBytes());
+        }
+        restored.checkpoint();
+        assertTrue(restoredIx.verify(null));
+        assertEquals(100_000, restoredIx.count(null, null));
+
+        restored.close();
+        deleteTempDatabases();
+    }
+
+    @Test
+    public void sparseCompressedRandom() throws Exception {
+        // Large random values fill fragment pages which don't compress, and so the upper
+        // bound must still hold.
+        DatabaseConfig config = new DatabaseConfig()
+            .directPageAccess(false)
+            .baseFile(newTempBaseFile())
+            .snapshotCompression(true)
+            .checkpointRate(-1, null)
+            .durabilityMode(DurabilityMode.NO_FLUSH);
+        decorate(config);
+
+        Database db = Database.open(config);
+        Index ix = db.openIndex("test");
+
+        Random rnd = new Random(8675309);
+        for (int i=0; i<20; i++) {
+            byte[] value = new byte[1_000_000];
+            rnd.nextBytes(value);
+            ix.store(null, incrementalKey(i), value);
+        }
+        db.checkpoint();
+
+        Snapshot s = db.beginSnapshot();
+        long upperBound = s.length();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        s.writeTo(out);
+        s.close();
+        byte[] snapshot = out.toByteArray();
+        assertTrue(snapshot.length <= upperBound);
+
+        db.close();
+
+        DatabaseConfig restoredConfig = new DatabaseConfig()
+            .directPageAccess(false)
+            .baseFile(newTempBaseFile())
+            .durabilityMode(DurabilityMode.NO_FLUSH);
+        decorate(restoredConfig);
+
+        Database restored = Database.restoreFromSnapshot
+            (restoredConfig, new ByteArrayInputStream(snapshot));
+        Index restoredIx = restored.openIndex("test");
+        assertTrue(restoredIx.verify(null));
+        assertEquals(20, restoredIx.count(null, null));
+
+        restored.close();
+        deleteTempDatabases();
+    }
+
+    private static byte[] incrementalKey(int i) {
+        return String.format("key-%06d", i).getBytes();
+    }
+
+    private static byte[] writeSnapshot(Snapshot s) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long expectedLength = s.length();
+        s.writeTo(out);
+        s.close();
+        assertEquals(expectedLength, out.size());
+        return out.toByteArray();
+    }
+
+    private void snapshot(File base, File snapshotBase, int threads) throws Exception {
         File snapshot = new File(snapshotBase.getParentFile(), snapshotBase.getName() + ".db");
 
         DatabaseConfig config = new DatabaseConfig()
             .directPageAccess(false)
             .baseFile(base)
             .minCacheSize(100000000)
+            .maxSnapshotThreads(threads)
             .durabilityMode(DurabilityMode.NO_FLUSH);
 
         decorate(config);
@@ -150,7 +441,8 @@ public class SnapshotTest {
             public void write(byte[] b, int off, int len) throws IOException {
                 if (!fast) {
                     try {
-                        Thread.sleep(1);
+                        // Pages are written in chunks, so sleep about 1ms per page.
+                        Thread.sleep(Math.max(1, len >> 12));
                     } catch (InterruptedException e) {
                         throw new InterruptedIOException();
                     }
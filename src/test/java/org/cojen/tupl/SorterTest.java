@@ -0,0 +1,169 @@
+/*
+ *  Copyright 2016 Cojen.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.cojen.tupl;
+
+import java.io.File;
+
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import static org.cojen.tupl.TestUtils.*;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class SorterTest {
+    public static void main(String[] args) throws Exception {
+        org.junit.runner.JUnitCore.main(SorterTest.class.getName());
+    }
+
+    @Before
+    public void createTempDb() throws Exception {
+        mConfig = new DatabaseConfig()
+            .directPageAccess(false)
+            .checkpointRate(-1, null)
+            .durabilityMode(DurabilityMode.NO_FLUSH);
+        mDb = newTempDatabase(mConfig);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        deleteTempDatabases();
+        mDb = null;
+        mConfig = null;
+    }
+
+    protected DatabaseConfig mConfig;
+    protected Database mDb;
+
+    @Test
+    public void basic() throws Exception {
+        Sorter sorter = mDb.newSorter();
+        TreeMap<byte[], byte[]> expect = fill(sorter, 10_000, 1234);
+        Index ix = sorter.finish("test");
+        assertSame(ix, mDb.findIndex("test"));
+        verify(expect, ix);
+
+        // Sorter can be reused.
+        expect = fill(sorter, 1000, 5678);
+        ix = sorter.finish("test2");
+        verify(expect, ix);
+    }
+
+    @Test
+    public void spill() throws Exception {
+        // Small run size forces many runs to be spilled and merged.
+        Sorter sorter = newSorter(10_000);
+        TreeMap<byte[], byte[]> expect = fill(sorter, 200_000, 8675309);
+        Index ix = sorter.finish("test");
+        assertTrue(ix.verify(null));
+        verify(expect, ix);
+        assertEquals(0, tempFileCount());
+    }
+
+    @Test
+    public void inMemory() throws Exception {
+        Sorter sorter = new MergeSorter(mDb, null, 10_000);
+        TreeMap<byte[], byte[]> expect = fill(sorter, 100_000, 999);
+        verify(expect, sorter.finish("test"));
+    }
+
+    @Test
+    public void intoCursor() throws Exception {
+        Index ix = mDb.openIndex("test");
+        TreeMap<byte[], byte[]> expect = new TreeMap<>(KeyComparator.THE);
+        for (int i=0; i<1000; i++) {
+            byte[] key = ("key-" + i).getBytes();
+            byte[] value = ("existing-" + i).getBytes();
+            ix.store(null, key, value);
+            expect.put(key, value);
+        }
+
+        Sorter sorter = newSorter(10_000);
+        expect.putAll(fill(sorter, 50_000, 42));
+
+        Cursor c = ix.newCursor(Transaction.BOGUS);
+        sorter.finish(c);
+        assertNull(c.key());
+
+        verify(expect, ix);
+    }
+
+    @Test
+    public void reset() throws Exception {
+        Sorter sorter = newSorter(10_000);
+        fill(sorter, 100_000, 1);
+        sorter.reset();
+        assertEquals(0, tempFileCount());
+
+        TreeMap<byte[], byte[]> expect = fill(sorter, 1000, 2);
+        verify(expect, sorter.finish("test"));
+    }
+
+    @Test
+    public void empty() throws Exception {
+        Index ix = mDb.newSorter().finish("test");
+        assertEquals(0, ix.count(null, null));
+    }
+
+    private Sorter newSorter(int runSize) {
+        return new MergeSorter(mDb, ((LocalDatabase) mDb).mTempFileManager, runSize);
+    }
+
+    private int tempFileCount() {
+        File base = baseFileForTempDatabase(mDb);
+        int count = 0;
+        for (File f : base.getParentFile().listFiles()) {
+            if (f.getName().startsWith(base.getName() + ".temp.")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds random entries, including some duplicate keys.
+     */
+    private static TreeMap<byte[], byte[]> fill(Sorter sorter, int count, long seed)
+        throws Exception
+    {
+        TreeMap<byte[], byte[]> expect = new TreeMap<>(KeyComparator.THE);
+        Random rnd = new Random(seed);
+        for (int i=0; i<count; i++) {
+            byte[] key = ("key-" + rnd.nextInt(count)).getBytes();
+            byte[] value = ("value-" + i).getBytes();
+            sorter.add(key, value);
+            expect.put(key, value);
+        }
+        return expect;
+    }
+
+    private static void verify(TreeMap<byte[], byte[]> expect, Index ix) throws Exception {
+        Cursor c = ix.newCursor(null);
+        c.first();
+        for (Map.Entry<byte[], byte[]> e : expect.entrySet()) {
+            fastAssertArrayEquals(e.getKey(), c.key());
+            fastAssertArrayEquals(e.getValue(), c.value());
+            c.next();
+        }
+        assertNull(c.key());
+    }
+}
@@ -52,6 +52,7 @@ public class TestAll {
             ExtraLargeValueDirectTest.class,
             ExtraLargeValueNonDurableTest.class,
             LockTest.class,
+            CommitLockTest.class,
             DeadlockTest.class,
             RecoverTest.class,
             RecoverDirectTest.class,
@@ -68,6 +69,7 @@ public class TestAll {
             TransactionNonDurableTest.class,
             UtilsTest.class,
             SmallCacheTest.class,
+            SmallCacheClockTest.class,
             ViewTest.class,
             ViewDirectTest.class,
             CloseTest.class,
@@ -76,6 +78,14 @@ public class TestAll {
             CloseNonDurableTest.class,
             RenameTest.class,
             RenameDirectTest.class,
+            BulkLoadTest.class,
+            BulkLoadDirectTest.class,
+            SorterTest.class,
+            KeyPrefixTest.class,
+            KeyPrefixDirectTest.class,
+            SearchHeadsTest.class,
+            SearchHeadsDirectTest.class,
+            OptimisticReadTest.class,
             //StreamTest.class,
             //StreamDirectTest.class,
             PageSizeTest.class,
@@ -98,6 +108,7 @@ public class TestAll {
             ContendedLockTest.class,
             DirectPageOpsTest.class,
             UnreplicatedTest.class,
+            MetricsTest.class,
         };
 
         String[] names = new String[classes.length];
@@ -234,6 +234,7 @@ class TestUtils {
         deleteDbFile(baseFile, ".info");
         deleteDbFile(baseFile, ".lock");
         deleteDbFile(baseFile, ".primer");
+        deleteDbFile(baseFile, ".changes");
         try {
             Utils.deleteNumberedFiles(baseFile, ".redo.");
         } catch (IOException e) {
@@ -287,6 +288,44 @@ class TestUtils {
         }
     }
 
+    static interface Task {
+        void run(int id) throws Throwable;
+    }
+
+    /**
+     * Runs the task in the given amount of threads, passing each one a distinct id starting
+     * from zero, and waits for all of them to finish. The first failure is rethrown.
+     */
+    static void runConcurrently(int threadCount, Task task) throws Throwable {
+        Thread[] threads = new Thread[threadCount];
+        Throwable[] failures = new Throwable[threadCount];
+
+        for (int i=0; i<threadCount; i++) {
+            final int id = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    task.run(id);
+                } catch (Throwable e) {
+                    failures[id] = e;
+                }
+            });
+        }
+
+        for (Thread t : threads) {
+            t.start();
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        for (Throwable e : failures) {
+            if (e != null) {
+                throw e;
+            }
+        }
+    }
+
     static boolean is64bit() {
         return "amd64".equals(System.getProperty("os.arch"))
             || "64".equals(System.getProperty("sun.arch.data.model"));
@@ -564,4 +564,72 @@ public class TransactionTest {
 
         txn.exit();
     }
+
+    @Test
+    public void lockEscalation() throws Exception {
+        Database db = TestUtils.newTempDatabase
+            (new DatabaseConfig()
+             .directPageAccess(false)
+             .durabilityMode(DurabilityMode.NO_FLUSH)
+             .lockEscalationThreshold(100));
+
+        Index ix = db.openIndex("test");
+        final int count = 1000;
+        for (int i=0; i<count; i++) {
+            ix.store(null, key(i), ("v" + i).getBytes());
+        }
+
+        // Rollback restores deleted and updated entries.
+        Transaction txn = db.newTransaction();
+        for (int i=0; i<count; i++) {
+            if ((i & 1) == 0) {
+                ix.delete(txn, key(i));
+            } else {
+                ix.store(txn, key(i), ("new" + i).getBytes());
+            }
+        }
+        assertTrue(db.stats().lockCount() <= 101);
+
+        // Index is locked against other transactions.
+        Transaction txn2 = db.newTransaction();
+        txn2.lockTimeout(1, TimeUnit.MILLISECONDS);
+        try {
+            ix.load(txn2, key(count + 1));
+            fail();
+        } catch (LockTimeoutException e) {
+        }
+        txn2.reset();
+
+        txn.reset();
+        assertEquals(0, db.stats().lockCount());
+
+        assertTrue(ix.verify(null));
+        assertEquals(count, ix.count(null, null));
+        for (int i=0; i<count; i++) {
+            fastAssertArrayEquals(("v" + i).getBytes(), ix.load(null, key(i)));
+        }
+
+        // Ghosts are deleted when the transaction commits.
+        txn = db.newTransaction();
+        for (int i=0; i<count; i+=2) {
+            ix.delete(txn, key(i));
+        }
+        txn.commit();
+        assertEquals(0, db.stats().lockCount());
+
+        assertTrue(ix.verify(null));
+        assertEquals(count / 2, ix.count(null, null));
+        for (int i=0; i<count; i++) {
+            byte[] value = ix.load(null, key(i));
+            if ((i & 1) == 0) {
+                assertNull(value);
+            } else {
+                fastAssertArrayEquals(("v" + i).getBytes(), value);
+            }
+        }
+    }
+
+    private static byte[] key(int i) {
+        return String.format("key-%06d", i).getBytes();
+    }
 }
@@ -34,6 +34,49 @@ public class UtilsTest {
         org.junit.runner.JUnitCore.main(UtilsTest.class.getName());
     }
 
+    @Test
+    public void compareKeys() {
+        Random rnd = new Random(8675309);
+
+        for (int trial=0; trial<10_000; trial++) {
+            byte[] a = new byte[rnd.nextInt(80)];
+            rnd.nextBytes(a);
+            byte[] b = a.clone();
+            if (b.length != 0 && rnd.nextBoolean()) {
+                b[rnd.nextInt(b.length)] = (byte) rnd.nextInt();
+            }
+            if (rnd.nextInt(4) == 0) {
+                b = Arrays.copyOf(b, rnd.nextInt(b.length + 1));
+            }
+
+            // Compare against the generic byte-at-a-time implementation.
+            int expect = Integer.signum(org.cojen.tupl.io.Utils.compareUnsigned(a, b));
+            assertEquals(expect, Integer.signum(compareUnsigned(a, b)));
+
+            int minLen = Math.min(a.length, b.length);
+            int mismatch = 0;
+            while (mismatch < minLen && a[mismatch] == b[mismatch]) {
+                mismatch++;
+            }
+            assertEquals(mismatch, mismatch(a, 0, b, 0, minLen));
+
+            // Compare with offsets.
+            if (minLen > 2) {
+                int off = rnd.nextInt(minLen);
+                expect = Integer.signum(org.cojen.tupl.io.Utils.compareUnsigned
+                                        (a, off, a.length - off, b, off, b.length - off));
+                assertEquals(expect, Integer.signum(compareUnsigned
+                                                    (a, off, a.length - off,
+                                                     b, off, b.length - off)));
+                mismatch = off;
+                while (mismatch < minLen && a[mismatch] == b[mismatch]) {
+                    mismatch++;
+                }
+                assertEquals(mismatch - off, mismatch(a, off, b, off, minLen - off));
+            }
+        }
+    }
+
     @Test
     public void varUnsignedInt() {
         varUnsignedInt(0, 1);